@@ -1,6 +1,10 @@
 package org.opentripplanner.analyst.batch;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.TimeZone;
 
 import javax.annotation.Resource;
@@ -8,10 +12,12 @@ import javax.annotation.Resource;
 import lombok.Setter;
 
 import org.opentripplanner.analyst.batch.aggregator.Aggregator;
+import org.opentripplanner.analyst.core.GeometryIndex;
 import org.opentripplanner.analyst.core.Sample;
 import org.opentripplanner.analyst.request.SampleFactory;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.error.VertexNotFoundException;
+import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.services.GraphService;
 import org.opentripplanner.routing.services.SPTService;
 import org.opentripplanner.routing.spt.ShortestPathTree;
@@ -38,12 +44,40 @@ public class BatchProcessor {
 
     @Setter private Aggregator aggregator;
     @Setter private Accumulator accumulator;
+    @Setter private LinkedPopulationStore linkedPopulationStore;
     
     @Setter private String date = "2011-02-04";
     @Setter private String time = "08:00 AM";
     @Setter private TimeZone timeZone = TimeZone.getDefault();
     @Setter private String outputPath = "/tmp/analystOutput";
 
+    /** If set, the travel times from each origin are appended to this matrix file as they are found. */
+    @Setter private String matrixPath = null;
+    @Setter private MatrixWriter.Encoding matrixEncoding = MatrixWriter.Encoding.FLOAT32;
+    /** Number of origins between flushes of incremental output to disk. */
+    @Setter private int flushInterval = 100;
+    /** 
+     * Continue from the last completed origin found in existing incremental output. Aggregates
+     * are only saved as they are computed (to outputPath.progress.csv, removed at the end of the
+     * run) when this is set.
+     */
+    @Setter private boolean resume = false;
+    /** 
+     * Fill the matrix using RAPTOR with walk times to and from stops computed once, instead of
+     * one full search per origin. Requires a graph built with RaptorDataBuilder.
+     */
+    @Setter private boolean raptorMatrix = false;
+    /** 
+     * If positive, travel times are found for every departure in this many minutes after the
+     * given time (using RAPTOR) and summarized over the window before aggregation or output.
+     */
+    @Setter private int departureWindow = 0;
+    /** Minutes between the departures in the window. */
+    @Setter private int departureStep = 1;
+    @Setter private WindowStatistic windowStatistic = WindowStatistic.MEAN;
+    /** The percentile used by WindowStatistic.PERCENTILE. */
+    @Setter private double windowPercentile = 50;
+
     public static void main(String[] args) throws IOException {
         org.springframework.core.io.Resource appContextResource;
         if( args.length == 0) {
@@ -72,23 +106,55 @@ public class BatchProcessor {
         linkIntoGraph(destinations);
         
         int nOrigins = origins.getIndividuals().size();
+        TravelTimeMatrix raptor = null;
+        if (raptorMatrix || departureWindow > 0)
+            raptor = buildTravelTimeMatrix();
         if (aggregator != null) {
-            ResultSet aggregates = new ResultSet(origins);
-            int i = 0;
-            for (Individual oi : origins) {
-                LOG.debug("individual {}: {}", i, oi);
-                if (i%100 == 0)
-                    LOG.info("individual {}/{}", i, nOrigins);
-                RoutingRequest req = buildRequest(oi);
-                if (req != null) {
-                    ShortestPathTree spt = sptService.getShortestPathTree(req);
-                    ResultSet result = ResultSet.forTravelTimes(destinations, spt);
-                    aggregates.results[i] = aggregator.computeAggregate(result);
-                    req.cleanup();
+            final ResultSet aggregates = new ResultSet(origins);
+            MatrixWriter progress = null;
+            try {
+                int lastOrigin = -1;
+                if (resume) {
+                    // aggregates are saved as they are computed, so an interrupted run can be resumed
+                    progress = new MatrixWriter(outputPath + ".progress.csv", 
+                            new String[] {"aggregate"}, MatrixWriter.Encoding.CSV, flushInterval);
+                    lastOrigin = progress.open(true, new MatrixWriter.RowHandler() {
+                        public void handleRow(int origin, double[] values) {
+                            aggregates.results[origin] = values[0];
+                        }
+                    });
                 }
-                i += 1;
+                int i = 0;
+                for (Individual oi : origins) {
+                    if (i <= lastOrigin) {
+                        i += 1;
+                        continue;
+                    }
+                    LOG.debug("individual {}: {}", i, oi);
+                    if (i%100 == 0)
+                        LOG.info("individual {}/{}", i, nOrigins);
+                    ResultSet result = travelTimes(oi, raptor);
+                    if (result != null)
+                        aggregates.results[i] = aggregator.computeAggregate(result);
+                    if (progress != null)
+                        progress.writeRow(i, oi.label, new double[] { aggregates.results[i] });
+                    i += 1;
+                }
+            } catch (IOException e) {
+                LOG.error("error writing aggregates to {} : {}", outputPath, e.getMessage());
+                return;
+            } finally {
+                close(progress);
             }
             aggregates.writeAppropriateFormat(outputPath);
+            if (progress != null) {
+                // the run is complete, nothing is left to resume
+                try {
+                    progress.delete();
+                } catch (IOException e) {
+                    LOG.warn("could not remove progress file : {}", e.getMessage());
+                }
+            }
         } else if (accumulator != null) { 
             ResultSet accumulated = new ResultSet(destinations);
             int i = 0;
@@ -96,17 +162,16 @@ public class BatchProcessor {
                 LOG.debug("individual {}: {}", i, oi);
                 if (i%100 == 0)
                     LOG.info("individual {}/{}", i, nOrigins);
-                RoutingRequest req = buildRequest(oi);
-                if (req != null) {
-                    ShortestPathTree spt = sptService.getShortestPathTree(req);
-                    ResultSet times = ResultSet.forTravelTimes(destinations, spt);
+                ResultSet times = travelTimes(oi, raptor);
+                if (times != null)
                     accumulator.accumulate(oi.input, times, accumulated);
-                    req.cleanup();
-                }
                 i += 1;
             }
             accumulator.finish();
             accumulated.writeAppropriateFormat(outputPath);
+        } else if (matrixPath != null) {
+            // neither aggregator nor accumulator, stream the whole many-to-many matrix to disk
+            writeMatrix(raptor);
         } else { 
             // neither aggregator nor accumlator
             if (nOrigins > 1 && !outputPath.contains("{}")) {
@@ -115,23 +180,115 @@ public class BatchProcessor {
             }
             int i = 0;
             for (Individual oi : origins) {
-                RoutingRequest req = buildRequest(oi);
-                if (req != null) {
-                    ShortestPathTree spt = sptService.getShortestPathTree(req);
-                    ResultSet result = ResultSet.forTravelTimes(destinations, spt);
+                ResultSet result = travelTimes(oi, raptor);
+                if (result != null) {
                     if (nOrigins == 1) {
                         result.writeAppropriateFormat(outputPath);
                     } else {
                         String subName = outputPath.replace("{}", String.format("%d_%s", i, oi.label));
                         result.writeAppropriateFormat(subName);
                     }
-                    req.cleanup();
                     i += 1;
                 }
             }
         }
     }
+
+    /** 
+     * Append one row of travel times per origin to the matrix file as each tree is completed,
+     * without keeping earlier rows in memory. Columns are the destinations that were not 
+     * rejected by filters, in the order of the population's iterator.
+     */
+    private void writeMatrix(TravelTimeMatrix raptor) {
+        List<String> labels = new ArrayList<String>();
+        for (Individual di : destinations)
+            labels.add(di.label);
+        int nCols = labels.size();
+        int nOrigins = origins.getIndividuals().size();
+        MatrixWriter matrix = new MatrixWriter(matrixPath, labels.toArray(new String[nCols]), 
+                matrixEncoding, flushInterval);
+        try {
+            int lastOrigin = matrix.open(resume, null);
+            double[] unreachable = new double[nCols];
+            Arrays.fill(unreachable, -1);
+            int i = 0;
+            for (Individual oi : origins) {
+                if (i > lastOrigin) {
+                    if (i%100 == 0)
+                        LOG.info("individual {}/{}", i, nOrigins);
+                    ResultSet result = travelTimes(oi, raptor);
+                    matrix.writeRow(i, oi.label, result == null ? unreachable : result.results);
+                }
+                i += 1;
+            }
+        } catch (IOException e) {
+            LOG.error("error writing matrix to {} : {}", matrixPath, e.getMessage());
+        } finally {
+            close(matrix);
+        }
+    }
+
+    private static void close(Closeable c) {
+        if (c == null)
+            return;
+        try {
+            c.close();
+        } catch (IOException e) {
+            LOG.warn("error closing output : {}", e.getMessage());
+        }
+    }
     
+    /**
+     * Find the travel times from one origin to every destination, with a full search or with 
+     * RAPTOR if a matrix is given. With a departure window, the times for each departure are
+     * summarized by the window statistic.
+     * @return the travel times, or null if the origin could not be linked into the graph.
+     */
+    private ResultSet travelTimes(Individual oi, TravelTimeMatrix raptor) {
+        RoutingRequest req = buildRequest(oi);
+        if (req == null)
+            return null;
+        ResultSet result;
+        if (raptor == null) {
+            ShortestPathTree spt = sptService.getShortestPathTree(req);
+            result = ResultSet.forTravelTimes(destinations, spt);
+        } else {
+            result = new ResultSet(destinations);
+            if (departureWindow > 0) {
+                int[][] rows = raptor.getRows(req.rctx.origin, departureWindow * 60, 
+                        departureStep * 60);
+                double[] summary = windowStatistic.summarize(rows, windowPercentile);
+                System.arraycopy(summary, 0, result.results, 0, summary.length);
+            } else {
+                int[] row = raptor.getRow(req.rctx.origin);
+                for (int d = 0; d < row.length; d++)
+                    result.results[d] = row[d];
+            }
+        }
+        req.cleanup();
+        return result;
+    }
+
+    /** 
+     * Prepare RAPTOR matrix rows for the destinations not rejected by filters, computing the
+     * transfers between stops and the walks from stops to destinations.
+     */
+    private TravelTimeMatrix buildTravelTimeMatrix() {
+        List<Sample> samples = new ArrayList<Sample>();
+        for (Individual di : destinations)
+            samples.add(di.sample);
+        RoutingRequest req = prototypeRoutingRequest.clone();
+        req.setDateTime(date, time, timeZone);
+        req.batch = true;
+        if (req.arriveBy) {
+            LOG.warn("RAPTOR matrices are computed departing after the given time");
+            req.setArriveBy(false);
+        }
+        LOG.info("preparing RAPTOR travel time matrix...");
+        return new TravelTimeMatrix(graphService.getGraph(req.routerId), req, 
+                samples.toArray(new Sample[samples.size()]));
+    }
+
     private RoutingRequest buildRequest(Individual i) {
         RoutingRequest req = prototypeRoutingRequest.clone();
         req.setDateTime(date, time, timeZone);
@@ -155,19 +312,30 @@ public class BatchProcessor {
     /** 
      * Generate samples for (i.e. non-invasively link into the Graph) only those individuals that 
      * were not rejected by filters. Other Individuals will have null samples, indicating that they 
-     * should be skipped.
+     * should be skipped. If a store for linked populations is configured, samples are read from it
+     * when this population has already been linked to the same graph, and saved to it otherwise.
+     * The population is linked into the graph of the router the searches are made on.
      */
     private void linkIntoGraph(Population p) {
+        Graph graph = graphService.getGraph(prototypeRoutingRequest.routerId);
+        if (linkedPopulationStore != null && linkedPopulationStore.load(p, graph))
+            return;
         LOG.info("linking population {} to the graph...", p);
+        // the injected factory only knows the default graph
+        SampleFactory factory = sampleFactory;
+        if (graph != graphService.getGraph())
+            factory = new SampleFactory(new GeometryIndex(graph), sampleFactory.getSearchRadiusM());
         int n = 0, nonNull = 0;
         for (Individual i : p) {
-            Sample s = sampleFactory.getSample(i.lon, i.lat);
+            Sample s = factory.getSample(i.lon, i.lat);
             i.sample = s;
             n += 1;
             if (s != null)
                 nonNull += 1;
         }
         LOG.debug("successfully linked {} individuals out of {}", nonNull, n);
+        if (linkedPopulationStore != null)
+            linkedPopulationStore.save(p, graph);
     }
 
 }
@@ -0,0 +1,245 @@
+package org.opentripplanner.analyst.batch;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import lombok.Setter;
+
+import org.opentripplanner.analyst.core.Sample;
+import org.opentripplanner.analyst.request.SamplePyramid;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Saves the samples linking a population into the graph, so that repeated batch runs over the
+ * same graph and population do not need to link it again. Each linked population is kept in a
+ * compact binary file below a directory specific to the graph, named after a hash of the
+ * individuals' positions and of which individuals were accepted by the filter chain. Files are
+ * memory-mapped when read back. The directory is named after the identifier the graph was given
+ * when it was built, so populations are linked again whenever the graph is rebuilt; graphs
+ * without an identifier are always linked from scratch.
+ *
+ * The file holds a table of vertex labels followed by one fixed-size record per individual:
+ * lat, lon and input value, then the indices in that table of the two sample vertices and the
+ * walk times to each of them. Individuals without a sample have vertex indices of -1.
+ */
+public class LinkedPopulationStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LinkedPopulationStore.class);
+
+    private static final int MAGIC = 0x4c504f50; // "LPOP"
+
+    private static final int FORMAT_VERSION = 2;
+
+    private static final int NONE = -1;
+
+    /** The directory below which linked populations are stored. */
+    @Setter private String path = "/tmp/analystLinks";
+
+    /**
+     * Fill in the samples of the given population from a previously saved file.
+     * @return true if a file matching the population and graph was found and used.
+     */
+    public boolean load(Population population, Graph graph) {
+        List<Individual> individuals = population.getIndividuals();
+        boolean[] accepted = acceptedIndividuals(population);
+        File file = getFile(graph, individuals, accepted);
+        if (file == null || ! file.exists())
+            return false;
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            ByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            if (buf.getInt() != MAGIC || buf.getInt() != FORMAT_VERSION)
+                return false;
+            if ( ! SamplePyramid.getGraphKey(graph).equals(readUTF(buf)))
+                return false;
+            int n = buf.getInt();
+            if (n != individuals.size())
+                return false;
+            int nVertices = buf.getInt();
+            Vertex[] vertices = new Vertex[nVertices];
+            for (int v = 0; v < nVertices; v++) {
+                vertices[v] = graph.getVertex(readUTF(buf));
+                if (vertices[v] == null)
+                    return false;
+            }
+            // check every record before touching the population
+            Sample[] samples = new Sample[n];
+            for (int i = 0; i < n; i++) {
+                Individual indiv = individuals.get(i);
+                double lat = buf.getDouble();
+                double lon = buf.getDouble();
+                buf.getDouble(); // input, which does not affect linking
+                int v0 = buf.getInt();
+                int t0 = buf.getInt();
+                int v1 = buf.getInt();
+                int t1 = buf.getInt();
+                if (lat != indiv.lat || lon != indiv.lon)
+                    return false;
+                if (v0 != NONE || v1 != NONE)
+                    samples[i] = new Sample(vertex(vertices, v0), t0, vertex(vertices, v1), t1);
+            }
+            for (int i = 0; i < n; i++) {
+                if (accepted[i])
+                    individuals.get(i).sample = samples[i];
+            }
+            LOG.info("read linked population from {}", file);
+            return true;
+        } catch (BufferUnderflowException e) {
+            LOG.warn("linked population file {} is truncated", file);
+            return false;
+        } catch (IOException e) {
+            LOG.warn("could not read linked population from {} : {}", file, e.getMessage());
+            return false;
+        } catch (IndexOutOfBoundsException e) {
+            LOG.warn("linked population file {} is corrupt", file);
+            return false;
+        } finally {
+            close(raf);
+        }
+    }
+
+    /** Save the samples of the given population, which should already be linked. */
+    public void save(Population population, Graph graph) {
+        List<Individual> individuals = population.getIndividuals();
+        boolean[] accepted = acceptedIndividuals(population);
+        File file = getFile(graph, individuals, accepted);
+        if (file == null) {
+            LOG.info("graph has no identifier, not saving linked population");
+            return;
+        }
+        File dir = file.getParentFile();
+        if ( ! dir.isDirectory() && ! dir.mkdirs()) {
+            LOG.warn("could not create directory {}", dir);
+            return;
+        }
+        // number the vertices referred to by the samples
+        Map<Vertex, Integer> vertexIndex = new IdentityHashMap<Vertex, Integer>();
+        List<Vertex> vertices = new ArrayList<Vertex>();
+        for (Individual indiv : individuals) {
+            if (indiv.sample != null) {
+                index(indiv.sample.v0, vertexIndex, vertices);
+                index(indiv.sample.v1, vertexIndex, vertices);
+            }
+        }
+        DataOutputStream out = null;
+        try {
+            // write to a temporary file and rename, so a crash never leaves a partial file
+            File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(SamplePyramid.getGraphKey(graph));
+            out.writeInt(individuals.size());
+            out.writeInt(vertices.size());
+            for (Vertex v : vertices)
+                out.writeUTF(v.getLabel());
+            for (Individual indiv : individuals) {
+                out.writeDouble(indiv.lat);
+                out.writeDouble(indiv.lon);
+                out.writeDouble(indiv.input);
+                Sample s = indiv.sample;
+                out.writeInt(s == null ? NONE : index(s.v0, vertexIndex, vertices));
+                out.writeInt(s == null ? 0 : s.t0);
+                out.writeInt(s == null ? NONE : index(s.v1, vertexIndex, vertices));
+                out.writeInt(s == null ? 0 : s.t1);
+            }
+            out.close();
+            out = null;
+            if ( ! tmp.renameTo(file)) {
+                tmp.delete();
+                LOG.warn("could not rename linked population file to {}", file);
+                return;
+            }
+            LOG.info("saved linked population to {}", file);
+        } catch (IOException e) {
+            LOG.warn("could not save linked population to {} : {}", file, e.getMessage());
+        } finally {
+            close(out);
+        }
+    }
+
+    /** @return the file for this population and graph, or null if the graph has no identifier. */
+    private File getFile(Graph graph, List<Individual> individuals, boolean[] accepted) {
+        String graphKey = SamplePyramid.getGraphKey(graph);
+        if (graphKey == null)
+            return null;
+        // FNV-1a over the positions and filter results
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < individuals.size(); i++) {
+            Individual indiv = individuals.get(i);
+            hash = (hash ^ Double.doubleToLongBits(indiv.lat)) * 0x100000001b3L;
+            hash = (hash ^ Double.doubleToLongBits(indiv.lon)) * 0x100000001b3L;
+            hash = (hash ^ (accepted[i] ? 1 : 0)) * 0x100000001b3L;
+        }
+        String name = String.format("%016x.links", hash);
+        return new File(new File(path, graphKey), name);
+    }
+
+    /** @return which of the population's individuals are returned by its filtering iterator. */
+    private static boolean[] acceptedIndividuals(Population population) {
+        Set<Individual> accepted = Collections.newSetFromMap(new IdentityHashMap<Individual, Boolean>());
+        for (Individual indiv : population)
+            accepted.add(indiv);
+        List<Individual> individuals = population.getIndividuals();
+        boolean[] ret = new boolean[individuals.size()];
+        for (int i = 0; i < ret.length; i++)
+            ret[i] = accepted.contains(individuals.get(i));
+        return ret;
+    }
+
+    private static int index(Vertex v, Map<Vertex, Integer> vertexIndex, List<Vertex> vertices) {
+        if (v == null)
+            return NONE;
+        Integer index = vertexIndex.get(v);
+        if (index == null) {
+            index = vertices.size();
+            vertices.add(v);
+            vertexIndex.put(v, index);
+        }
+        return index;
+    }
+
+    private static Vertex vertex(Vertex[] vertices, int index) {
+        return index == NONE ? null : vertices[index];
+    }
+
+    /** Read a string written by DataOutputStream.writeUTF from a buffer. */
+    private static String readUTF(ByteBuffer buf) throws IOException {
+        int length = buf.getShort() & 0xFFFF;
+        byte[] bytes = new byte[length + 2];
+        buf.position(buf.position() - 2);
+        buf.get(bytes);
+        return new DataInputStream(new ByteArrayInputStream(bytes)).readUTF();
+    }
+
+    private static void close(Closeable c) {
+        if (c == null)
+            return;
+        try {
+            c.close();
+        } catch (IOException e) {
+            // nothing to be done
+        }
+    }
+
+}
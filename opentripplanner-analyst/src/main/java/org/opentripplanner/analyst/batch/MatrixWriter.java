@@ -0,0 +1,301 @@
+package org.opentripplanner.analyst.batch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Appends one row of results per origin to a file as each search completes, rather than holding
+ * a whole matrix in memory and writing it at the end. Output is flushed to disk every few rows,
+ * so after a crash the rows already written can be read back and the run resumed after the last
+ * completed origin. A row that was only partly written is discarded when the file is reopened.
+ *
+ * Rows are written either as CSV (origin index, origin label, then one column per value) or in
+ * a compact binary form: a header followed by fixed-size rows of the origin index and the
+ * values encoded as big-endian float32, or as unsigned 16-bit whole minutes.
+ */
+public class MatrixWriter implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MatrixWriter.class);
+
+    private static final Charset UTF8 = Charset.forName("UTF8");
+
+    private static final int MAGIC = 0x4f54504d; // "OTPM"
+
+    private static final int HEADER_BYTES = 12;
+
+    private static final int SCAN_BUFFER_BYTES = 64 * 1024;
+
+    /** The encoding of a MINUTES16 value which is negative (unreachable or unlinked). */
+    public static final int MINUTES16_NONE = 0xFFFF;
+
+    public enum Encoding {
+        /** text, one line per origin */
+        CSV,
+        /** 32-bit floating point values, exactly as given for travel times in seconds */
+        FLOAT32,
+        /** travel times in seconds rounded to whole minutes, in two bytes per value */
+        MINUTES16
+    }
+
+    /** Receives the rows already present in a file which is being resumed. */
+    public interface RowHandler {
+        public void handleRow(int origin, double[] values);
+    }
+
+    private final File file;
+
+    private final String[] columns;
+
+    private final Encoding encoding;
+
+    private final int flushInterval;
+
+    private DataOutputStream binaryOut;
+
+    private Writer csvOut;
+
+    private int unflushed = 0;
+
+    private int lastOrigin = -1;
+
+    /**
+     * @param columns the name of each value column, used for the CSV header. The number of
+     *        columns must not change when a file is resumed.
+     * @param flushInterval the number of rows written between flushes to disk
+     */
+    public MatrixWriter(String fileName, String[] columns, Encoding encoding, int flushInterval) {
+        this.file = new File(fileName);
+        this.columns = columns;
+        this.encoding = encoding;
+        this.flushInterval = flushInterval;
+    }
+
+    /**
+     * Open the file for writing. If resume is true and the file holds rows written with the same
+     * columns and encoding, those rows are passed to the handler (which may be null) and new rows
+     * will be appended after them. Otherwise any existing file is replaced.
+     * @return the origin index of the last completed row, or -1 if starting afresh.
+     */
+    public int open(boolean resume, RowHandler handler) throws IOException {
+        long validLength = -1;
+        if (resume && file.exists()) {
+            try {
+                validLength = (encoding == Encoding.CSV) ? scanCsv(handler) : scanBinary(handler);
+            } catch (IOException e) {
+                LOG.warn("cannot resume from {} : {}", file, e.getMessage());
+                validLength = -1;
+            }
+        }
+        boolean append = validLength >= 0;
+        if (append) {
+            // drop any partially written row
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(validLength);
+            } finally {
+                raf.close();
+            }
+            LOG.info("resuming output to {} after origin {}", file, lastOrigin);
+        } else {
+            lastOrigin = -1;
+        }
+        FileOutputStream fos = new FileOutputStream(file, append);
+        if (encoding == Encoding.CSV) {
+            csvOut = new BufferedWriter(new OutputStreamWriter(fos, UTF8));
+            if ( ! append) {
+                csvOut.write(csvHeader());
+            }
+        } else {
+            binaryOut = new DataOutputStream(new BufferedOutputStream(fos));
+            if ( ! append) {
+                binaryOut.writeInt(MAGIC);
+                binaryOut.writeInt(encoding.ordinal());
+                binaryOut.writeInt(columns.length);
+            }
+        }
+        return lastOrigin;
+    }
+
+    /** Append the row of results for one origin. */
+    public void writeRow(int origin, String label, double[] values) throws IOException {
+        if (values.length < columns.length)
+            throw new IllegalArgumentException("row is shorter than the number of columns");
+        if (encoding == Encoding.CSV) {
+            StringBuilder sb = new StringBuilder();
+            sb.append(origin).append(',').append(csvEscape(label));
+            for (int c = 0; c < columns.length; c++)
+                sb.append(',').append(values[c]);
+            sb.append('\n');
+            csvOut.write(sb.toString());
+        } else {
+            binaryOut.writeInt(origin);
+            for (int c = 0; c < columns.length; c++) {
+                if (encoding == Encoding.FLOAT32)
+                    binaryOut.writeFloat((float) values[c]);
+                else
+                    binaryOut.writeShort(encodeMinutes(values[c]));
+            }
+        }
+        lastOrigin = origin;
+        if (++unflushed >= flushInterval)
+            flush();
+    }
+
+    public void flush() throws IOException {
+        if (csvOut != null)
+            csvOut.flush();
+        if (binaryOut != null)
+            binaryOut.flush();
+        unflushed = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (csvOut != null)
+            csvOut.close();
+        if (binaryOut != null)
+            binaryOut.close();
+        csvOut = null;
+        binaryOut = null;
+    }
+
+    /** Close and remove the file, e.g. once a run it allowed to be resumed has finished. */
+    public void delete() throws IOException {
+        close();
+        if (file.exists() && ! file.delete())
+            LOG.warn("could not delete {}", file);
+    }
+
+    /** @return a time in seconds as whole minutes, or MINUTES16_NONE if negative. */
+    public static int encodeMinutes(double seconds) {
+        if (seconds < 0 || Double.isNaN(seconds))
+            return MINUTES16_NONE;
+        long minutes = Math.round(seconds / 60);
+        return (int) Math.min(minutes, MINUTES16_NONE - 1);
+    }
+
+    /** @return the time in seconds for a MINUTES16 value, or -1 if it was negative. */
+    public static double decodeMinutes(int minutes) {
+        return minutes == MINUTES16_NONE ? -1 : minutes * 60.0;
+    }
+
+    private int rowBytes() {
+        return 4 + columns.length * (encoding == Encoding.FLOAT32 ? 4 : 2);
+    }
+
+    /** @return the length of the file up to the end of the last complete row. */
+    private long scanBinary(RowHandler handler) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != encoding.ordinal()
+                    || in.readInt() != columns.length)
+                throw new IOException("file was written with a different encoding or width");
+            long nRows = (file.length() - HEADER_BYTES) / rowBytes();
+            double[] values = new double[columns.length];
+            for (long r = 0; r < nRows; r++) {
+                int origin = in.readInt();
+                for (int c = 0; c < columns.length; c++) {
+                    if (encoding == Encoding.FLOAT32)
+                        values[c] = in.readFloat();
+                    else
+                        values[c] = decodeMinutes(in.readUnsignedShort());
+                }
+                lastOrigin = origin;
+                if (handler != null)
+                    handler.handleRow(origin, values);
+            }
+            return HEADER_BYTES + nRows * rowBytes();
+        } catch (EOFException e) {
+            throw new IOException("file is shorter than its header");
+        } finally {
+            in.close();
+        }
+    }
+
+    /** @return the length of the file up to the end of the last complete row. */
+    private long scanCsv(RowHandler handler) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buf = new byte[SCAN_BUFFER_BYTES];
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            long position = 0;
+            long validLength = -1;
+            double[] values = new double[columns.length];
+            int n;
+            SCAN: while ((n = in.read(buf)) != -1) {
+                int start = 0;
+                for (int i = 0; i < n; i++) {
+                    if (buf[i] != '\n')
+                        continue;
+                    line.write(buf, start, i - start);
+                    start = i + 1;
+                    String text = new String(line.toByteArray(), UTF8);
+                    line.reset();
+                    if (validLength < 0) {
+                        if ( ! (text + '\n').equals(csvHeader()))
+                            throw new IOException("file was written with different columns");
+                    } else {
+                        // the label may contain commas, the origin and values do not
+                        String[] fields = text.split(",");
+                        if (fields.length < columns.length + 2)
+                            break SCAN;
+                        try {
+                            int origin = Integer.parseInt(fields[0]);
+                            int first = fields.length - columns.length;
+                            for (int c = 0; c < columns.length; c++)
+                                values[c] = Double.parseDouble(fields[first + c]);
+                            lastOrigin = origin;
+                            if (handler != null)
+                                handler.handleRow(origin, values);
+                        } catch (NumberFormatException e) {
+                            break SCAN;
+                        }
+                    }
+                    validLength = position + i + 1;
+                }
+                line.write(buf, start, n - start);
+                position += n;
+            }
+            if (validLength < 0)
+                throw new IOException("file has no header");
+            return validLength;
+        } finally {
+            in.close();
+        }
+    }
+
+    private String csvHeader() {
+        StringBuilder sb = new StringBuilder("origin,label");
+        for (String column : columns)
+            sb.append(',').append(csvEscape(column));
+        sb.append('\n');
+        return sb.toString();
+    }
+
+    private static String csvEscape(String s) {
+        if (s == null)
+            return "";
+        if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0)
+            return s;
+        return '"' + s.replace("\"", "\"\"").replace('\n', ' ') + '"';
+    }
+
+}
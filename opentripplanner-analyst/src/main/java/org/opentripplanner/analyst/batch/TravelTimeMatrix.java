@@ -0,0 +1,245 @@
+package org.opentripplanner.analyst.batch;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+
+import org.opentripplanner.analyst.core.Sample;
+import org.opentripplanner.routing.core.CancellationToken;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.impl.raptor.RaptorStop;
+import org.opentripplanner.routing.impl.raptor.RaptorTravelTimeSearch;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Computes rows of a many-to-many travel time matrix using RAPTOR rather than one full
+ * street and transit search per origin. The walks from every transit stop to the nearby
+ * destinations (egress) are found once, when the matrix is created, alongside the transfers
+ * between stops. Each row then needs only a walk search from its origin to the nearby stops
+ * (access), a RAPTOR search over primitive arrays of stop arrival times, and a min-plus step
+ * adding the egress times to the arrival time at each stop.
+ *
+ * Times are in seconds. Destinations that cannot be reached have a time of UNREACHABLE, and
+ * destinations that were not linked into the graph a time of UNLINKED, as in ResultSet.
+ */
+public class TravelTimeMatrix {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TravelTimeMatrix.class);
+
+    public static final int UNREACHABLE = -1;
+
+    public static final int UNLINKED = -2;
+
+    private final RaptorTravelTimeSearch raptor;
+
+    private final Sample[] destinations;
+
+    /*
+     * The egress walks in compressed rows: the destinations reachable from stop s are
+     * egressDestination[egressStart[s]] up to egressDestination[egressStart[s + 1] - 1].
+     */
+    private int[] egressStart;
+
+    private int[] egressDestination;
+
+    private int[] egressTime;
+
+    /**
+     * @param options a depart-after request giving the departure time, walk limit, slacks and
+     *        number of transfers used for every row. Its origin and destination are ignored.
+     * @param destinations the samples of the destinations, in column order. Null samples are
+     *        allowed and mark destinations which were not linked into the graph.
+     */
+    public TravelTimeMatrix(Graph graph, RoutingRequest options, Sample[] destinations) {
+        this(graph, options, destinations, null);
+    }
+
+    /**
+     * As TravelTimeMatrix(Graph, RoutingRequest, Sample[]), but giving up on the walks from
+     * the stops when the given token is cancelled or expires.
+     * @param cancellation the token to check, or null for the token of the options.
+     * @throws CancellationException if the matrix was not completed.
+     */
+    public TravelTimeMatrix(Graph graph, RoutingRequest options, Sample[] destinations,
+            CancellationToken cancellation) {
+        this.destinations = destinations;
+        this.raptor = new RaptorTravelTimeSearch(graph, options);
+        computeEgress(cancellation != null ? cancellation : options.rctx.cancellation);
+    }
+
+    public int getNDestinations() {
+        return destinations.length;
+    }
+
+    private void computeEgress(CancellationToken cancellation) {
+        // the destinations reached from each sample vertex, and the time from the vertex
+        final Map<Vertex, int[]> destinationsAtVertex = new IdentityHashMap<Vertex, int[]>();
+        for (int d = 0; d < destinations.length; d++) {
+            Sample s = destinations[d];
+            if (s == null)
+                continue;
+            addDestination(destinationsAtVertex, s.v0, d, s.t0);
+            addDestination(destinationsAtVertex, s.v1, d, s.t1);
+        }
+        int nStops = raptor.getNStops();
+        final int[][] stopDestinations = new int[nStops][];
+        final int[][] stopTimes = new int[nStops][];
+        final int[] scratch = new int[destinations.length];
+        Arrays.fill(scratch, Integer.MAX_VALUE);
+        final int[] touched = new int[destinations.length];
+        boolean complete = raptor.computeTransfers(new RaptorTravelTimeSearch.StopTreeVisitor() {
+            @Override
+            public void visit(RaptorStop stop, ShortestPathTree spt) {
+                int nTouched = 0;
+                for (State state : spt.getAllStates()) {
+                    int[] pairs = destinationsAtVertex.get(state.getVertex());
+                    if (pairs == null)
+                        continue;
+                    int walk = (int) state.getActiveTime();
+                    for (int p = 0; p < pairs.length; p += 2) {
+                        int d = pairs[p];
+                        int t = walk + pairs[p + 1];
+                        if (scratch[d] == Integer.MAX_VALUE)
+                            touched[nTouched++] = d;
+                        if (t < scratch[d])
+                            scratch[d] = t;
+                    }
+                }
+                int[] dests = Arrays.copyOf(touched, nTouched);
+                Arrays.sort(dests);
+                int[] times = new int[nTouched];
+                for (int i = 0; i < nTouched; i++) {
+                    times[i] = scratch[dests[i]];
+                    scratch[dests[i]] = Integer.MAX_VALUE;
+                }
+                stopDestinations[stop.index] = dests;
+                stopTimes[stop.index] = times;
+            }
+        }, cancellation);
+        if ( ! complete)
+            throw new CancellationException("travel time matrix abandoned");
+        // pack the per-stop arrays into one block so rows scan contiguous memory
+        egressStart = new int[nStops + 1];
+        int total = 0;
+        for (int s = 0; s < nStops; s++) {
+            egressStart[s] = total;
+            if (stopDestinations[s] != null)
+                total += stopDestinations[s].length;
+        }
+        egressStart[nStops] = total;
+        egressDestination = new int[total];
+        egressTime = new int[total];
+        for (int s = 0; s < nStops; s++) {
+            if (stopDestinations[s] == null)
+                continue;
+            System.arraycopy(stopDestinations[s], 0, egressDestination, egressStart[s],
+                    stopDestinations[s].length);
+            System.arraycopy(stopTimes[s], 0, egressTime, egressStart[s], stopTimes[s].length);
+        }
+        LOG.info("found {} stop to destination walks", total);
+    }
+
+    private static void addDestination(Map<Vertex, int[]> destinationsAtVertex, Vertex v,
+            int d, int t) {
+        if (v == null)
+            return;
+        int[] pairs = destinationsAtVertex.get(v);
+        if (pairs == null) {
+            pairs = new int[] { d, t };
+        } else {
+            pairs = Arrays.copyOf(pairs, pairs.length + 2);
+            pairs[pairs.length - 2] = d;
+            pairs[pairs.length - 1] = t;
+        }
+        destinationsAtVertex.put(v, pairs);
+    }
+
+    /**
+     * @param origin the vertex at which the origin is linked into the graph, usually the origin
+     *        of a routing context made for it.
+     * @return the travel time in seconds to each destination, in column order.
+     */
+    public int[] getRow(Vertex origin) {
+        ShortestPathTree walk = raptor.walkSearch(origin);
+        return combine(walk, raptor.search(accessTimes(walk)));
+    }
+
+    /**
+     * As getRow(Vertex), but the search stops early if the given token aborts, in which case
+     * the row is incomplete. A matrix may be shared by several requests, each with its own token.
+     */
+    public int[] getRow(Vertex origin, CancellationToken cancellation) {
+        ShortestPathTree walk = raptor.walkSearch(origin);
+        return combine(walk, raptor.search(accessTimes(walk), cancellation));
+    }
+
+    /**
+     * Find the rows for a range of departure times, beginning at the departure time of the
+     * options this matrix was made with. The walk searches are shared by every departure, and
+     * the RAPTOR searches reuse the arrival times found for later departures.
+     * @param window the length of the range of departure times in seconds
+     * @param step the interval in seconds between departure times
+     * @return the row for each departure time, earliest first
+     */
+    public int[][] getRows(Vertex origin, int window, int step) {
+        ShortestPathTree walk = raptor.walkSearch(origin);
+        int[][] arrivals = raptor.searchRange(accessTimes(walk), window, step);
+        int[][] rows = new int[arrivals.length][];
+        for (int i = 0; i < arrivals.length; i++)
+            rows[i] = combine(walk, arrivals[i]);
+        return rows;
+    }
+
+    /** @return the time to walk from the origin of the given tree to each stop. */
+    private int[] accessTimes(ShortestPathTree walk) {
+        int[] access = new int[raptor.getNStops()];
+        Arrays.fill(access, RaptorTravelTimeSearch.UNREACHED);
+        for (State state : walk.getAllStates()) {
+            RaptorStop stop = raptor.getStop(state.getVertex());
+            if (stop != null)
+                access[stop.index] = (int) state.getActiveTime();
+        }
+        return access;
+    }
+
+    /**
+     * Combine the destinations reached on foot with those reached from stops, by a min-plus step
+     * adding the egress times to the stop arrival times.
+     */
+    private int[] combine(ShortestPathTree walk, int[] arrival) {
+        int[] row = new int[destinations.length];
+        Arrays.fill(row, Integer.MAX_VALUE);
+        for (int d = 0; d < destinations.length; d++) {
+            if (destinations[d] == null)
+                continue;
+            long t = destinations[d].eval(walk);
+            if (t < row[d])
+                row[d] = (int) t;
+        }
+        for (int s = 0; s < arrival.length; s++) {
+            int a = arrival[s];
+            if (a == RaptorTravelTimeSearch.UNREACHED)
+                continue;
+            for (int e = egressStart[s]; e < egressStart[s + 1]; e++) {
+                int t = a + egressTime[e];
+                int d = egressDestination[e];
+                if (t < row[d])
+                    row[d] = t;
+            }
+        }
+        for (int d = 0; d < destinations.length; d++) {
+            if (destinations[d] == null)
+                row[d] = UNLINKED;
+            else if (row[d] == Integer.MAX_VALUE)
+                row[d] = UNREACHABLE;
+        }
+        return row;
+    }
+
+}
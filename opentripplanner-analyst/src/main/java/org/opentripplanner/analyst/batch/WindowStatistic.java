@@ -0,0 +1,67 @@
+package org.opentripplanner.analyst.batch;
+
+import java.util.Arrays;
+
+/**
+ * Ways of summarizing the travel times to one destination over a window of departure times.
+ * Times of -1 (unreachable) count as longer than any other time; a summary which depends on
+ * an unreachable departure is itself -1. Times of -2 (not linked) are passed through.
+ */
+public enum WindowStatistic {
+
+    /** the best travel time at any departure in the window */
+    MIN,
+    /** the mean travel time, unreachable unless reachable at every departure */
+    MEAN,
+    /** the given percentile of travel times, by the nearest rank */
+    PERCENTILE;
+
+    /**
+     * @param rows travel times for each departure in the window, then each destination
+     * @param percentile used only by PERCENTILE, from 0 to 100
+     * @return the summary travel time for each destination
+     */
+    public double[] summarize(int[][] rows, double percentile) {
+        int nDepartures = rows.length;
+        int nDestinations = rows[0].length;
+        double[] results = new double[nDestinations];
+        long[] times = new long[nDepartures];
+        for (int d = 0; d < nDestinations; d++) {
+            if (rows[0][d] == TravelTimeMatrix.UNLINKED) {
+                results[d] = TravelTimeMatrix.UNLINKED;
+                continue;
+            }
+            for (int m = 0; m < nDepartures; m++) {
+                int t = rows[m][d];
+                times[m] = (t < 0) ? Long.MAX_VALUE : t;
+            }
+            long t;
+            switch (this) {
+            case MIN :
+                t = Long.MAX_VALUE;
+                for (long time : times)
+                    t = Math.min(t, time);
+                break;
+            case MEAN :
+                long sum = 0;
+                for (long time : times) {
+                    if (time == Long.MAX_VALUE) {
+                        sum = Long.MAX_VALUE;
+                        break;
+                    }
+                    sum += time;
+                }
+                t = (sum == Long.MAX_VALUE) ? sum : Math.round(sum / (double) nDepartures);
+                break;
+            case PERCENTILE :
+            default :
+                Arrays.sort(times);
+                int rank = (int) Math.ceil(percentile / 100 * nDepartures) - 1;
+                t = times[Math.max(0, Math.min(nDepartures - 1, rank))];
+            }
+            results[d] = (t == Long.MAX_VALUE) ? TravelTimeMatrix.UNREACHABLE : t;
+        }
+        return results;
+    }
+
+}
@@ -0,0 +1,16 @@
+package org.opentripplanner.analyst.core;
+
+/**
+ * A SampleSource that can find the samples for many points at once more cheaply than one at a
+ * time, for example by querying its spatial index once for all of them.
+ */
+public interface BatchSampleSource extends SampleSource {
+
+    /**
+     * @param coords n points as interleaved longitude and latitude pairs, the layout produced by
+     *        MathTransform.transform(double[]...)
+     * @return a grid holding the sample for each point, in the same order
+     */
+    SampleGrid getSamples(double[] coords, int n);
+
+}
@@ -32,11 +32,23 @@ public class GeometryIndex implements GeometryIndexService {
     private STRtree pedestrianIndex;
     private STRtree index;
     
+    public GeometryIndex() {
+    }
+
+    /** An index of the given graph rather than of the default one. */
+    public GeometryIndex(Graph graph) {
+        index(graph);
+    }
+
     @Autowired
     public void setGraphService(GraphService graphService) {
         Graph graph = graphService.getGraph();
         if (graph == null) // analyst currently depends on there being a single default graph
         	return;
+        index(graph);
+    }
+
+    private void index(Graph graph) {
         // build a spatial index of road geometries
         pedestrianIndex = new STRtree();
         index = new STRtree();
@@ -0,0 +1,111 @@
+package org.opentripplanner.analyst.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.operation.union.CascadedPolygonUnion;
+
+/**
+ * Finds the area reachable within a cutoff time on a TimeSurface, by filled marching squares:
+ * each grid cell contributes the part of its square where the travel time, interpolated linearly
+ * along the cell edges, is within the cutoff. Runs of cells entirely within the cutoff are
+ * merged into rectangles before all the pieces are unioned into the isochrone polygon.
+ *
+ * Where a cell has reachable corners on only one diagonal, the two are joined across the cell.
+ * Nodes which were not reached count as being far beyond the cutoff, so a boundary between a
+ * reached and an unreached node is placed halfway along the cell edge.
+ */
+public class IsochroneContourer {
+
+    private static final GeometryFactory GEOMETRY_FACTORY = new GeometryFactory();
+
+    private final TimeSurface surface;
+
+    public IsochroneContourer(TimeSurface surface) {
+        this.surface = surface;
+    }
+
+    /** @return the (multi)polygon within which the travel time is at most cutoff seconds. */
+    public Geometry contour(int cutoff) {
+        List<Geometry> pieces = new ArrayList<Geometry>();
+        // corner offsets, counterclockwise from the south west
+        int[] cx = { 0, 1, 1, 0 };
+        int[] cy = { 0, 0, 1, 1 };
+        int[] t = new int[4];
+        List<Coordinate> ring = new ArrayList<Coordinate>(9);
+        for (int y = 0; y < surface.height - 1; y++) {
+            int runStart = -1;
+            for (int x = 0; x < surface.width - 1; x++) {
+                int nInside = 0;
+                for (int c = 0; c < 4; c++) {
+                    t[c] = surface.getTime(x + cx[c], y + cy[c]);
+                    if (t[c] <= cutoff)
+                        nInside++;
+                }
+                if (nInside == 4) {
+                    if (runStart < 0)
+                        runStart = x;
+                    continue;
+                }
+                if (runStart >= 0) {
+                    pieces.add(rectangle(runStart, y, x, y + 1));
+                    runStart = -1;
+                }
+                if (nInside == 0)
+                    continue;
+                ring.clear();
+                for (int c = 0; c < 4; c++) {
+                    int n = (c + 1) % 4;
+                    boolean in = t[c] <= cutoff;
+                    if (in)
+                        ring.add(node(x + cx[c], y + cy[c]));
+                    if (in != (t[n] <= cutoff)) {
+                        double f = crossing(t[c], t[n], cutoff);
+                        ring.add(node(x + cx[c] + f * (cx[n] - cx[c]),
+                                      y + cy[c] + f * (cy[n] - cy[c])));
+                    }
+                }
+                // a corner exactly at the cutoff can leave nothing but a point
+                Polygon piece = polygon(ring);
+                if (piece.getArea() > 0)
+                    pieces.add(piece);
+            }
+            if (runStart >= 0)
+                pieces.add(rectangle(runStart, y, surface.width - 1, y + 1));
+        }
+        if (pieces.isEmpty())
+            return GEOMETRY_FACTORY.createGeometryCollection(new Geometry[0]);
+        return CascadedPolygonUnion.union(pieces);
+    }
+
+    /** @return the fraction of the way from a to b at which the time reaches the cutoff. */
+    private static double crossing(int ta, int tb, int cutoff) {
+        if (ta == TimeSurface.UNREACHED || tb == TimeSurface.UNREACHED)
+            return 0.5;
+        return (cutoff - ta) / (double) (tb - ta);
+    }
+
+    private Coordinate node(double x, double y) {
+        return new Coordinate(surface.getLon(x), surface.getLat(y));
+    }
+
+    private Polygon rectangle(int x0, int y0, int x1, int y1) {
+        List<Coordinate> ring = new ArrayList<Coordinate>(5);
+        ring.add(node(x0, y0));
+        ring.add(node(x1, y0));
+        ring.add(node(x1, y1));
+        ring.add(node(x0, y1));
+        return polygon(ring);
+    }
+
+    private static Polygon polygon(List<Coordinate> ring) {
+        Coordinate[] coords = ring.toArray(new Coordinate[ring.size() + 1]);
+        coords[ring.size()] = coords[0];
+        return GEOMETRY_FACTORY.createPolygon(GEOMETRY_FACTORY.createLinearRing(coords), null);
+    }
+
+}
@@ -0,0 +1,189 @@
+package org.opentripplanner.analyst.core;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+
+/**
+ * A compact store for the samples of a whole tile (or any other group of points). Rather than one
+ * Sample object per pixel, the two vertices and walk times of every sample are kept in parallel
+ * int arrays. Vertices are referred to by their position in a table local to this grid, so when
+ * a grid is evaluated against a ShortestPathTree each distinct vertex is looked up only once,
+ * however many pixels refer to it.
+ */
+public class SampleGrid {
+
+    /** Vertex index used for points that have no sample. */
+    public static final int NONE = -1;
+
+    private final int[] v0, t0, v1, t1;
+
+    private final List<Vertex> vertices = new ArrayList<Vertex>();
+
+    /* only used while the grid is being filled in */
+    private Map<Vertex, Integer> vertexIndex = new IdentityHashMap<Vertex, Integer>();
+
+    public SampleGrid(int size) {
+        v0 = new int[size];
+        t0 = new int[size];
+        v1 = new int[size];
+        t1 = new int[size];
+        Arrays.fill(v0, NONE);
+        Arrays.fill(v1, NONE);
+    }
+
+    public int size() {
+        return v0.length;
+    }
+
+    /** @return the number of distinct vertices referred to by the samples in this grid. */
+    public int getVertexCount() {
+        return vertices.size();
+    }
+
+    public void set(int i, Vertex v0, int t0, Vertex v1, int t1) {
+        this.v0[i] = indexOf(v0);
+        this.t0[i] = t0;
+        this.v1[i] = indexOf(v1);
+        this.t1[i] = t1;
+    }
+
+    public void set(int i, Sample s) {
+        set(i, s.v0, s.t0, s.v1, s.t1);
+    }
+
+    private int indexOf(Vertex v) {
+        if (v == null)
+            return NONE;
+        Integer index = vertexIndex.get(v);
+        if (index == null) {
+            index = vertices.size();
+            vertices.add(v);
+            vertexIndex.put(v, index);
+        }
+        return index;
+    }
+
+    /** Release the structures only needed while filling in the grid. */
+    public void trim() {
+        vertexIndex = null;
+        ((ArrayList<Vertex>) vertices).trimToSize();
+    }
+
+    public boolean hasSample(int i) {
+        return v0[i] != NONE || v1[i] != NONE;
+    }
+
+    /** @return the sample at the given position as an object, or null if there is none. */
+    public Sample getSample(int i) {
+        if ( ! hasSample(i))
+            return null;
+        return new Sample(vertex(v0[i]), t0[i], vertex(v1[i]), t1[i]);
+    }
+
+    private Vertex vertex(int index) {
+        return index == NONE ? null : vertices.get(index);
+    }
+
+    /**
+     * @return the active time of the given tree at each vertex of this grid, or Long.MAX_VALUE
+     * for vertices which were not reached. These are the inputs to eval().
+     */
+    public long[] evalVertices(ShortestPathTree spt) {
+        long[] times = new long[vertices.size()];
+        for (int v = 0; v < times.length; v++) {
+            State s = spt.getState(vertices.get(v));
+            times[v] = (s == null) ? Long.MAX_VALUE : s.getActiveTime();
+        }
+        return times;
+    }
+
+    /** @return the number of boardings at each vertex of this grid, or 255 if not reached. */
+    public int[] evalVertexBoardings(ShortestPathTree spt) {
+        int[] boardings = new int[vertices.size()];
+        for (int v = 0; v < boardings.length; v++) {
+            State s = spt.getState(vertices.get(v));
+            boardings[v] = (s == null) ? 255 : s.getNumBoardings();
+        }
+        return boardings;
+    }
+
+    /** Equivalent to Sample.eval(), given the vertex times from evalVertices(). */
+    public long eval(long[] vertexTimes, int i) {
+        long m0 = Long.MAX_VALUE;
+        long m1 = Long.MAX_VALUE;
+        if (v0[i] != NONE && vertexTimes[v0[i]] != Long.MAX_VALUE)
+            m0 = vertexTimes[v0[i]] + t0[i];
+        if (v1[i] != NONE && vertexTimes[v1[i]] != Long.MAX_VALUE)
+            m1 = vertexTimes[v1[i]] + t1[i];
+        return (m0 < m1) ? m0 : m1;
+    }
+
+    /** Equivalent to Sample.evalByte(), given the vertex times from evalVertices(). */
+    public byte evalByte(long[] vertexTimes, int i) {
+        long t = eval(vertexTimes, i) / 60;
+        if (t >= 255)
+            t = 255;
+        return (byte) t;
+    }
+
+    /** Equivalent to Sample.evalBoardings(), given the output of evalVertexBoardings(). */
+    public byte evalBoardings(int[] vertexBoardings, int i) {
+        int m0 = v0[i] == NONE ? 255 : vertexBoardings[v0[i]];
+        int m1 = v1[i] == NONE ? 255 : vertexBoardings[v1[i]];
+        return (byte) ((m0 < m1) ? m0 : m1);
+    }
+
+    /** Write this grid, referring to vertices by label so it can be read back into a new JVM. */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(vertices.size());
+        for (Vertex v : vertices)
+            out.writeUTF(v.getLabel());
+        int n = size();
+        out.writeInt(n);
+        for (int i = 0; i < n; i++) {
+            out.writeInt(v0[i]);
+            out.writeInt(t0[i]);
+            out.writeInt(v1[i]);
+            out.writeInt(t1[i]);
+        }
+    }
+
+    /**
+     * Read a grid written by write().
+     * @return the grid, or null if it refers to vertices which are not in the given graph.
+     */
+    public static SampleGrid read(DataInputStream in, Graph graph) throws IOException {
+        int nVertices = in.readInt();
+        Vertex[] table = new Vertex[nVertices];
+        for (int v = 0; v < nVertices; v++) {
+            table[v] = graph.getVertex(in.readUTF());
+            if (table[v] == null)
+                return null;
+        }
+        SampleGrid grid = new SampleGrid(in.readInt());
+        for (int v = 0; v < nVertices; v++)
+            grid.indexOf(table[v]);
+        for (int i = 0; i < grid.size(); i++) {
+            grid.v0[i] = in.readInt();
+            grid.t0[i] = in.readInt();
+            grid.v1[i] = in.readInt();
+            grid.t1[i] = in.readInt();
+            if (grid.v0[i] >= nVertices || grid.v1[i] >= nVertices)
+                throw new IOException("sample refers to a vertex outside the table");
+        }
+        grid.trim();
+        return grid;
+    }
+
+}
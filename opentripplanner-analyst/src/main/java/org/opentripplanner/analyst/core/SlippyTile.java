@@ -1,6 +1,7 @@
 package org.opentripplanner.analyst.core;
 
 import org.geotools.geometry.Envelope2D;
+import org.geotools.referencing.CRS;
 import org.geotools.referencing.crs.DefaultGeographicCRS;
 
 /* http://wiki.openstreetmap.org/wiki/Slippy_map_tilenames */
@@ -30,4 +31,29 @@ public class SlippyTile {
         return new Envelope2D(DefaultGeographicCRS.WGS84, minLon, minLat, maxLon-minLon, maxLat-minLat);
     }
 
+    /** 
+     * The inverse of tile2Envelope.
+     * @return the zoom, x and y of the slippy map tile with exactly this envelope, or null if 
+     * the envelope is not one produced by tile2Envelope.
+     */
+    public static int[] envelope2Tile(final Envelope2D env) {
+        if (! CRS.equalsIgnoreMetadata(env.getCoordinateReferenceSystem(), DefaultGeographicCRS.WGS84)
+                || env.width <= 0)
+            return null;
+        int zoom = (int) Math.round(Math.log(360 / env.width) / Math.log(2));
+        if (zoom < 0 || zoom > 30)
+            return null;
+        double maxLat = env.y + env.height;
+        double latRad = Math.toRadians(maxLat);
+        int xtile = (int) Math.round( (env.x + 180) / 360 * (1<<zoom) );
+        int ytile = (int) Math.round( (1 - Math.log(Math.tan(latRad) + 1 / Math.cos(latRad)) / Math.PI) / 2 * (1<<zoom) );
+        Envelope2D tile = tile2Envelope(xtile, ytile, zoom);
+        double epsilon = env.width * 1e-6;
+        if (Math.abs(tile.x - env.x) > epsilon || Math.abs(tile.y - env.y) > epsilon
+                || Math.abs(tile.width - env.width) > epsilon 
+                || Math.abs(tile.height - env.height) > epsilon)
+            return null;
+        return new int[] { zoom, xtile, ytile };
+    }
+
 }
@@ -14,6 +14,9 @@ import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.coverage.grid.GridCoverageFactory;
 import org.geotools.coverage.grid.GridEnvelope2D;
 import org.geotools.coverage.grid.GridGeometry2D;
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.opengis.referencing.operation.MathTransform;
 import org.opentripplanner.analyst.request.RenderRequest;
 import org.opentripplanner.analyst.request.TileRequest;
 import org.opentripplanner.analyst.parameter.Style;
@@ -190,21 +193,32 @@ public abstract class Tile {
         long t0 = System.currentTimeMillis();
         BufferedImage image = getEmptyImage(renderRequest.style);
         byte[] imagePixelData = ((DataBufferByte)image.getRaster().getDataBuffer()).getData();
-        int i = 0;
         final byte TRANSPARENT = (byte) 255;
-        for (Sample s : getSamples()) {
+        SampleGrid samples = getSamples();
+        if (samples == null) {
+            // the tile could not be sampled, leave it blank
+            Arrays.fill(imagePixelData, TRANSPARENT);
+            return image;
+        }
+        // look up each vertex in the SPT once rather than twice per pixel
+        long[] times = null;
+        int[] boardings = null;
+        if (renderRequest.style == Style.BOARDINGS)
+            boardings = samples.evalVertexBoardings(spt);
+        else
+            times = samples.evalVertices(spt);
+        for (int i = 0; i < samples.size(); i++) {
             byte pixel;
-            if (s != null) {
-                if (renderRequest.style == Style.BOARDINGS) {
-                    pixel = s.evalBoardings(spt);
+            if (samples.hasSample(i)) {
+                if (boardings != null) {
+                    pixel = samples.evalBoardings(boardings, i);
                 } else {
-                    pixel = s.evalByte(spt); // renderRequest.style
+                    pixel = samples.evalByte(times, i); // renderRequest.style
                 }
             } else {
                 pixel = TRANSPARENT;
             }
             imagePixelData[i] = pixel;
-            i++;
         }
         long t1 = System.currentTimeMillis();
         LOG.debug("filled in tile image from SPT in {}msec", t1 - t0);
@@ -218,12 +232,19 @@ public abstract class Tile {
         long t0 = System.currentTimeMillis();
         BufferedImage image = getEmptyImage(renderRequest.style);
         byte[] imagePixelData = ((DataBufferByte)image.getRaster().getDataBuffer()).getData();
-        int i = 0;
         final byte TRANSPARENT = (byte) 255;
-        for (Sample s : getSamples()) {
+        SampleGrid samples = getSamples();
+        if (samples == null) {
+            Arrays.fill(imagePixelData, TRANSPARENT);
+            return image;
+        }
+        long[] times1 = samples.evalVertices(spt1);
+        long[] times2 = samples.evalVertices(spt2);
+        for (int i = 0; i < samples.size(); i++) {
             byte pixel;
-            if (s != null) {
-                double t = (k1 * s.eval(spt1) + k2 * s.eval(spt2)) / 60 + intercept; 
+            if (samples.hasSample(i)) {
+                double t = (k1 * samples.eval(times1, i) + k2 * samples.eval(times2, i)) / 60
+                        + intercept; 
                 if (t < 0 || t > 255)
                     t = TRANSPARENT;
                 pixel = (byte) t;
@@ -231,7 +252,6 @@ public abstract class Tile {
                 pixel = TRANSPARENT;
             }
             imagePixelData[i] = pixel;
-            i++;
         }
         long t1 = System.currentTimeMillis();
         LOG.debug("filled in tile image from SPT in {}msec", t1 - t0);
@@ -244,7 +264,48 @@ public abstract class Tile {
         return gridCoverage;
     }
 
-    public abstract Sample[] getSamples();
+    public abstract SampleGrid getSamples();
+
+    /**
+     * Find the samples for every pixel of this tile. The pixel centers are projected to WGS84 a
+     * whole row at a time, and sources which support it are handed all the pixels of the tile
+     * in a single batch.
+     * @return the samples, or null if the tile could not be projected.
+     */
+    protected SampleGrid sample(SampleSource sampleSource) {
+        int n = width * height;
+        double[] coords = new double[n * 2];
+        try {
+            // maps grid coordinates to the centers of raster cells in tile CRS
+            MathTransform gridToCRS = gg.getGridToCRS2D();
+            MathTransform tr = CRS.findMathTransform(gg.getCoordinateReferenceSystem2D(), 
+                    DefaultGeographicCRS.WGS84);
+            int i = 0;
+            for (int gy = 0; gy < height; gy++) {
+                int rowStart = i;
+                for (int gx = 0; gx < width; gx++) {
+                    coords[i++] = gx;
+                    coords[i++] = gy;
+                }
+                gridToCRS.transform(coords, rowStart, coords, rowStart, width);
+                // axis order of WGS84 here is lon, lat
+                tr.transform(coords, rowStart, coords, rowStart, width);
+            }
+        } catch (Exception e) {
+            LOG.error(e.getMessage());
+            return null;
+        }
+        if (sampleSource instanceof BatchSampleSource)
+            return ((BatchSampleSource) sampleSource).getSamples(coords, n);
+        SampleGrid samples = new SampleGrid(n);
+        for (int p = 0; p < n; p++) {
+            Sample s = sampleSource.getSample(coords[2 * p], coords[2 * p + 1]);
+            if (s != null)
+                samples.set(p, s);
+        }
+        samples.trim();
+        return samples;
+    }
 
     public static BufferedImage getLegend(Style style, int width, int height) {
         final int NBANDS = 150;
@@ -0,0 +1,81 @@
+package org.opentripplanner.analyst.core;
+
+import org.opentripplanner.routing.spt.ShortestPathTree;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Travel times from one search at the nodes of a regular grid in geographic coordinates. The
+ * node at (x, y) lies at longitude minX + x * dx and latitude minY + y * dy. Unlike a tile this
+ * keeps the times themselves rather than an image of them, so it can be contoured repeatedly.
+ */
+public class TimeSurface {
+
+    /** The time of nodes which were not reached, or have no sample. */
+    public static final int UNREACHED = Integer.MAX_VALUE;
+
+    public final double minX, minY, dx, dy;
+    public final int width, height;
+
+    /* travel times in seconds, row by row from the south */
+    private final int[] times;
+
+    public TimeSurface(Envelope env, int width, int height, int[] times) {
+        if (times.length != width * height)
+            throw new IllegalArgumentException("times do not fill the grid");
+        this.minX = env.getMinX();
+        this.minY = env.getMinY();
+        this.dx = width > 1 ? env.getWidth() / (width - 1) : 0;
+        this.dy = height > 1 ? env.getHeight() / (height - 1) : 0;
+        this.width = width;
+        this.height = height;
+        this.times = times;
+    }
+
+    /**
+     * @return the interleaved longitude and latitude of every node, in the order expected by
+     *         BatchSampleSource.getSamples() and by the constructor.
+     */
+    public static double[] nodeCoordinates(Envelope env, int width, int height) {
+        double dx = width > 1 ? env.getWidth() / (width - 1) : 0;
+        double dy = height > 1 ? env.getHeight() / (height - 1) : 0;
+        double[] coords = new double[width * height * 2];
+        int i = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                coords[i++] = env.getMinX() + x * dx;
+                coords[i++] = env.getMinY() + y * dy;
+            }
+        }
+        return coords;
+    }
+
+    /** Evaluate the given tree at each node, using the samples made for nodeCoordinates(). */
+    public static TimeSurface evaluate(Envelope env, int width, int height, SampleGrid samples,
+            ShortestPathTree spt) {
+        long[] vertexTimes = samples.evalVertices(spt);
+        int[] times = new int[width * height];
+        for (int i = 0; i < times.length; i++) {
+            long t = samples.eval(vertexTimes, i);
+            times[i] = (t >= UNREACHED) ? UNREACHED : (int) t;
+        }
+        return new TimeSurface(env, width, height, times);
+    }
+
+    public int getTime(int x, int y) {
+        return times[y * width + x];
+    }
+
+    public double getLon(double x) {
+        return minX + x * dx;
+    }
+
+    public double getLat(double y) {
+        return minY + y * dy;
+    }
+
+    public int size() {
+        return times.length;
+    }
+
+}
@@ -0,0 +1,56 @@
+package org.opentripplanner.analyst.request;
+
+import java.util.Arrays;
+
+import org.opentripplanner.routing.core.CancellationToken;
+import org.opentripplanner.routing.core.RoutingRequest;
+
+/**
+ * A travel time matrix request: the search options shared by all origins, and the origins and
+ * destinations, given as interleaved latitude and longitude pairs. The prepared matrix itself
+ * only depends on the options and destinations, so requests for other origins are equal and
+ * share a cached matrix.
+ */
+public class MatrixRequest {
+
+    public final RoutingRequest options; // batch, so its destination is not compared
+    public final double[] origins;
+    public final double[] destinations;
+    /** Checked while the matrix is prepared for this request; not part of the key. */
+    public final transient CancellationToken cancellation;
+
+    public MatrixRequest(RoutingRequest options, double[] origins, double[] destinations,
+            CancellationToken cancellation) {
+        this.options = options;
+        this.origins = origins;
+        this.destinations = destinations;
+        this.cancellation = cancellation;
+    }
+
+    public int getNOrigins() {
+        return origins.length / 2;
+    }
+
+    public int getNDestinations() {
+        return destinations.length / 2;
+    }
+
+    public int hashCode() {
+        return options.hashCode() * 31 + Arrays.hashCode(destinations);
+    }
+
+    public boolean equals(Object other) {
+        if (other instanceof MatrixRequest) {
+            MatrixRequest that = (MatrixRequest) other;
+            return this.options.equals(that.options) &&
+                   Arrays.equals(this.destinations, that.destinations);
+        }
+        return false;
+    }
+
+    public String toString() {
+        return String.format("<matrix request, %d origins, %d destinations, %s>", 
+                getNOrigins(), getNDestinations(), options);
+    }
+
+}
@@ -1,10 +1,12 @@
 package org.opentripplanner.analyst.request;
 
+import java.util.ArrayList;
 import java.util.List;
 
+import org.opentripplanner.analyst.core.BatchSampleSource;
 import org.opentripplanner.analyst.core.GeometryIndex;
 import org.opentripplanner.analyst.core.Sample;
-import org.opentripplanner.analyst.core.SampleSource;
+import org.opentripplanner.analyst.core.SampleGrid;
 import org.opentripplanner.common.geometry.DistanceLibrary;
 import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
 import org.opentripplanner.routing.graph.Edge;
@@ -18,10 +20,13 @@ import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.LineString;
 
 @Component
-public class SampleFactory implements SampleSource {
+public class SampleFactory implements BatchSampleSource {
 
     private static DistanceLibrary distanceLibrary = SphericalDistanceLibrary.getInstance();
 
+    /** Maximum number of bins along each axis when sorting edges for a batch of samples. */
+    private static final int MAX_BINS = 128;
+
     @Autowired
     private GeometryIndex index;
 
@@ -31,6 +36,16 @@ public class SampleFactory implements SampleSource {
     public SampleFactory() {
         this.setSearchRadiusM(100);
     }
+
+    /** A factory making samples from the given index rather than the injected one. */
+    public SampleFactory(GeometryIndex index, double searchRadiusM) {
+        this.index = index;
+        this.setSearchRadiusM(searchRadiusM);
+    }
+
+    public double getSearchRadiusM() {
+        return searchRadiusM;
+    }
     
     public void setSearchRadiusM(double radiusMeters) {
         this.searchRadiusM = radiusMeters;
@@ -52,6 +67,77 @@ public class SampleFactory implements SampleSource {
         return findClosest(edges, c, xscale);
     }
 
+    /** 
+     * Implements BatchSampleSource interface. The spatial index is queried once for the envelope
+     * of all the points, and the edges found are sorted into a coarse grid of bins at least as 
+     * large as the search radius, so that each point only needs to examine the edges in its bin.
+     */
+    @Override
+    public SampleGrid getSamples(double[] coords, int n) {
+        SampleGrid samples = new SampleGrid(n);
+        if (n == 0)
+            return samples;
+        Envelope env = new Envelope();
+        for (int i = 0; i < n; i++)
+            env.expandToInclude(coords[2 * i], coords[2 * i + 1]);
+        // use the smallest scaling factor found in the envelope, so no bin is too narrow
+        double maxLat = Math.max(Math.abs(env.getMinY()), Math.abs(env.getMaxY()));
+        double searchRadiusLon = searchRadiusLat / Math.cos(maxLat * Math.PI / 180);
+        env.expandBy(searchRadiusLon, searchRadiusLat);
+        @SuppressWarnings("unchecked")
+        List<Edge> edges = (List<Edge>) index.queryPedestrian(env);
+        if (edges.isEmpty())
+            return samples;
+        double binWidth = Math.max(searchRadiusLon, env.getWidth() / MAX_BINS);
+        double binHeight = Math.max(searchRadiusLat, env.getHeight() / MAX_BINS);
+        int nx = (int) (env.getWidth() / binWidth) + 1;
+        int ny = (int) (env.getHeight() / binHeight) + 1;
+        List<List<Edge>> bins = new ArrayList<List<Edge>>(nx * ny);
+        for (int b = 0; b < nx * ny; b++)
+            bins.add(null);
+        for (Edge edge : edges) {
+            // a point is within the search radius of this edge's envelope in these bins
+            Envelope edgeEnv = new Envelope(edge.getGeometry().getEnvelopeInternal());
+            edgeEnv.expandBy(searchRadiusLon, searchRadiusLat);
+            int x0 = clamp((int) ((edgeEnv.getMinX() - env.getMinX()) / binWidth), nx);
+            int x1 = clamp((int) ((edgeEnv.getMaxX() - env.getMinX()) / binWidth), nx);
+            int y0 = clamp((int) ((edgeEnv.getMinY() - env.getMinY()) / binHeight), ny);
+            int y1 = clamp((int) ((edgeEnv.getMaxY() - env.getMinY()) / binHeight), ny);
+            for (int y = y0; y <= y1; y++) {
+                for (int x = x0; x <= x1; x++) {
+                    List<Edge> bin = bins.get(y * nx + x);
+                    if (bin == null) {
+                        bin = new ArrayList<Edge>();
+                        bins.set(y * nx + x, bin);
+                    }
+                    bin.add(edge);
+                }
+            }
+        }
+        Candidate c = new Candidate();
+        Candidate best = new Candidate();
+        for (int i = 0; i < n; i++) {
+            double lon = coords[2 * i];
+            double lat = coords[2 * i + 1];
+            int x = clamp((int) ((lon - env.getMinX()) / binWidth), nx);
+            int y = clamp((int) ((lat - env.getMinY()) / binHeight), ny);
+            List<Edge> bin = bins.get(y * nx + x);
+            if (bin == null)
+                continue;
+            double xscale = Math.cos(lat * Math.PI / 180);
+            best.reset();
+            findClosest(bin, lon, lat, xscale, c, best);
+            if (best.edge != null && best.computeTimes(lon, lat, searchRadiusM))
+                samples.set(i, best.edge.getFromVertex(), best.t0, best.edge.getToVertex(), best.t1);
+        }
+        samples.trim();
+        return samples;
+    }
+
+    private static int clamp(int bin, int nBins) {
+        return bin < 0 ? 0 : (bin >= nBins ? nBins - 1 : bin);
+    }
+
     /**
      * DistanceToPoint.computeDistance() uses a LineSegment, which has a closestPoint method.
      * That finds the true distance every time rather than once the closest segment is known, 
@@ -62,9 +148,22 @@ public class SampleFactory implements SampleSource {
      * 
      */
     public Sample findClosest(List<Edge> edges, Coordinate pt, double xscale) {
-        Candidate c = new Candidate();
-        // track the best geometry
         Candidate best = new Candidate();
+        findClosest(edges, pt.x, pt.y, xscale, new Candidate(), best);
+        // if at least one vertex was found make a sample
+        if (best.edge != null && best.computeTimes(pt.x, pt.y, searchRadiusM)) {
+            Vertex v0 = best.edge.getFromVertex();
+            Vertex v1 = best.edge.getToVertex();
+            Sample s = new Sample(v0, best.t0, v1, best.t1);
+            //System.out.println(s.toString());
+            return s;
+        } 
+        return null;
+    }
+
+    /** Find the closest segment to the point (px, py), leaving it in best. c is scratch space. */
+    private static void findClosest(List<Edge> edges, double px, double py, double xscale,
+            Candidate c, Candidate best) {
         for (Edge edge : edges) {
             /* LineString.getCoordinates() uses PackedCoordinateSequence.toCoordinateArray() which
              * necessarily builds new Coordinate objects.CoordinateSequence.getOrdinate() reads them 
@@ -81,13 +180,13 @@ public class SampleFactory implements SampleSource {
                 double y1 = coordSeq.getY(seg+1);
                 // use bounding rectangle to find a lower bound on (squared) distance ?
                 // this would mean more squaring or roots.
-                c.frac = segmentFraction(x0, y0, x1, y1, pt.x, pt.y, xscale);
+                c.frac = segmentFraction(x0, y0, x1, y1, px, py, xscale);
                 // project to get closest point 
                 c.x = x0 + c.frac * (x1 - x0);
                 c.y = y0 + c.frac * (y1 - y0);
                 // find ersatz distance to edge (do not take root)
-                double dx = c.x - pt.x; // * xscale;
-                double dy = c.y - pt.y;
+                double dx = c.x - px; // * xscale;
+                double dy = c.y - py;
                 c.dist2 = dx * dx + dy * dy;
                 // replace best segments
                 if (c.dist2 < best.dist2) {
@@ -95,23 +194,6 @@ public class SampleFactory implements SampleSource {
                 }
             } // end loop over segments
         } // end loop over linestrings
-
-        // if at least one vertex was found make a sample
-        if (best.edge != null) {
-            Vertex v0 = best.edge.getFromVertex();
-            Vertex v1 = best.edge.getToVertex();
-            double d = best.distanceTo(pt);
-            if (d > searchRadiusM)
-                return null;
-            double d0 = d + best.distanceAlong();
-            int t0 = (int) (d0 / 1.33);
-            double d1 = d + best.distanceToEnd();
-            int t1 = (int) (d1 / 1.33);
-            Sample s = new Sample(v0, t0, v1, t1);
-            //System.out.println(s.toString());
-            return s;
-        } 
-        return null;
     }
 
     private static class Candidate {
@@ -122,7 +204,14 @@ public class SampleFactory implements SampleSource {
         double frac = 0;
         double x;
         double y;
+        int t0;
+        int t1;
         
+        public void reset() {
+            dist2 = Double.POSITIVE_INFINITY;
+            edge = null;
+        }
+
         public void setFrom(Candidate other) {
             dist2 = other.dist2;
             edge = other.edge;
@@ -132,8 +221,23 @@ public class SampleFactory implements SampleSource {
             y = other.y;
         }
 
-        public double distanceTo(Coordinate c) {
-            return distanceLibrary.fastDistance(y, x, c.y, c.x);
+        public double distanceTo(double px, double py) {
+            return distanceLibrary.fastDistance(y, x, py, px);
+        }
+
+        /** 
+         * Find the walk times to either end of the edge from the point (px, py).
+         * @return false if the point is farther than maxDistance from the edge.
+         */
+        public boolean computeTimes(double px, double py, double maxDistance) {
+            double d = distanceTo(px, py);
+            if (d > maxDistance)
+                return false;
+            double d0 = d + distanceAlong();
+            t0 = (int) (d0 / 1.33);
+            double d1 = d + distanceToEnd();
+            t1 = (int) (d1 / 1.33);
+            return true;
         }
         
         public double distanceAlong() {
@@ -0,0 +1,188 @@
+package org.opentripplanner.analyst.request;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.opentripplanner.analyst.core.SampleGrid;
+import org.opentripplanner.analyst.core.SlippyTile;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.services.GraphService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps the samples of slippy map (web mercator) tiles on disk, so that they are computed once
+ * per graph rather than once per process, and a cold tile only needs to be read back. Tiles are
+ * stored as z/x/y files below a directory specific to the graph; requests which do not match a
+ * tile of the pyramid exactly are not stored. Samples refer to vertices by label, and a grid
+ * which no longer matches the graph is recomputed.
+ * 
+ * Storage is off unless a path is set. Once the files for the current graph reach the maximum
+ * size, further tiles are computed as usual but no longer stored.
+ */
+@Component
+public class SamplePyramid {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SamplePyramid.class);
+
+    private static final int FORMAT_VERSION = 1;
+
+    @Autowired
+    private GraphService graphService;
+
+    private File basePath = null;
+
+    private long maxBytes = 256L * 1024 * 1024;
+
+    /* the graph for which graphPath and usedBytes were computed */
+    private Graph graph;
+
+    private File graphPath;
+
+    private long usedBytes;
+
+    private boolean full;
+
+    /** Set the directory below which tile samples are stored, or null to disable storage. */
+    public void setPath(String path) {
+        this.basePath = (path == null) ? null : new File(path);
+    }
+
+    /** Set the maximum size in megabytes of the stored samples for one graph. */
+    public void setMaxSize(long megabytes) {
+        this.maxBytes = megabytes * 1024 * 1024;
+    }
+
+    /** @return the stored samples for this tile request, or null if there are none. */
+    public SampleGrid load(TileRequest req) {
+        Graph graph = graphService.getGraph();
+        File file = getFile(req, graph);
+        if (file == null || ! file.exists())
+            return null;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != FORMAT_VERSION)
+                return null;
+            SampleGrid samples = SampleGrid.read(in, graph);
+            if (samples == null || samples.size() != req.width * req.height) {
+                LOG.debug("stored samples do not match graph, ignoring {}", file);
+                return null;
+            }
+            return samples;
+        } catch (IOException e) {
+            LOG.warn("could not read stored samples from {} : {}", file, e.getMessage());
+            return null;
+        } finally {
+            close(in);
+        }
+    }
+
+    /** Store the samples for this tile request, if it is a tile of the pyramid. */
+    public void store(TileRequest req, SampleGrid samples) {
+        if (samples == null)
+            return;
+        File file = getFile(req, graphService.getGraph());
+        if (file == null || ! hasRoom())
+            return;
+        File dir = file.getParentFile();
+        if ( ! dir.isDirectory() && ! dir.mkdirs()) {
+            LOG.warn("could not create sample directory {}", dir);
+            return;
+        }
+        // write to a temporary file and rename, so readers never see a partial file
+        DataOutputStream out = null;
+        try {
+            File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(FORMAT_VERSION);
+            samples.write(out);
+            out.close();
+            out = null;
+            long length = tmp.length();
+            if (tmp.renameTo(file)) {
+                addUsed(length);
+            } else {
+                tmp.delete();
+            }
+        } catch (IOException e) {
+            LOG.warn("could not store samples to {} : {}", file, e.getMessage());
+        } finally {
+            close(out);
+        }
+    }
+
+    private File getFile(TileRequest req, Graph graph) {
+        if (basePath == null || graph == null || getGraphKey(graph) == null)
+            return null;
+        int[] tile = SlippyTile.envelope2Tile(req.bbox);
+        if (tile == null)
+            return null;
+        String name = String.format("%d/%d/%d-%dx%d.samples", tile[0], tile[1], tile[2],
+                req.width, req.height);
+        return new File(getGraphPath(graph), name);
+    }
+
+    private synchronized File getGraphPath(Graph graph) {
+        if (graph != this.graph) {
+            this.graphPath = new File(basePath, getGraphKey(graph));
+            this.graph = graph;
+            this.usedBytes = sizeOf(graphPath);
+            this.full = false;
+        }
+        return graphPath;
+    }
+
+    private synchronized boolean hasRoom() {
+        if ( ! full && usedBytes >= maxBytes) {
+            LOG.info("sample storage {} is full, no more tiles will be stored", graphPath);
+            full = true;
+        }
+        return ! full;
+    }
+
+    private synchronized void addUsed(long bytes) {
+        usedBytes += bytes;
+    }
+
+    /** @return the total size of the files below the given directory. */
+    private static long sizeOf(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null)
+            return 0;
+        long size = 0;
+        for (File file : files)
+            size += file.isDirectory() ? sizeOf(file) : file.length();
+        return size;
+    }
+
+    /**
+     * Graphs are told apart by the identifier they were given when built, so a rebuilt graph
+     * never picks up the samples of its predecessor.
+     * @return a string identifying the given graph, usable as a file name, or null if the graph
+     * has no identifier.
+     */
+    public static String getGraphKey(Graph graph) {
+        return graph.getUuid();
+    }
+
+    private static void close(Closeable c) {
+        if (c == null)
+            return;
+        try {
+            c.close();
+        } catch (IOException e) {
+            // nothing to be done
+        }
+    }
+
+}
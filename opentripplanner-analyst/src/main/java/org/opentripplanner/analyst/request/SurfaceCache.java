@@ -0,0 +1,118 @@
+package org.opentripplanner.analyst.request;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.annotation.PreDestroy;
+
+import org.opentripplanner.analyst.core.IsochroneContourer;
+import org.opentripplanner.analyst.core.SampleGrid;
+import org.opentripplanner.analyst.core.TimeSurface;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Keeps the travel time surfaces of recent requests, so that asking for isochrones at new
+ * cutoffs re-contours a stored surface instead of sampling and searching again. The isochrones
+ * at several cutoffs are contoured in parallel.
+ */
+@Component
+public class SurfaceCache extends CacheLoader<SurfaceRequest, TimeSurface> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SurfaceCache.class);
+
+    @Autowired private SPTCache sptCache;
+
+    @Autowired private SampleFactory sampleFactory;
+
+    /* created on first use, and stopped when the application context is closed */
+    private ExecutorService contourExecutor;
+
+    private final LoadingCache<SurfaceRequest, TimeSurface> surfaceCache = CacheBuilder
+            .newBuilder()
+            .concurrencyLevel(16)
+            .maximumSize(32)
+            .build(this);
+
+    @Override /** completes the abstract CacheLoader superclass */
+    public TimeSurface load(SurfaceRequest req) throws Exception {
+        LOG.debug("surface cache miss : {}", req);
+        long t0 = System.currentTimeMillis();
+        double[] coords = TimeSurface.nodeCoordinates(req.envelope, req.width, req.height);
+        SampleGrid samples = sampleFactory.getSamples(coords, req.width * req.height);
+        long t1 = System.currentTimeMillis();
+        ShortestPathTree spt = sptCache.get(req.options);
+        TimeSurface surface = TimeSurface.evaluate(req.envelope, req.width, req.height, 
+                samples, spt);
+        long t2 = System.currentTimeMillis();
+        LOG.debug("sampled surface in {}msec, evaluated in {}msec", (int) (t1 - t0), 
+                (int) (t2 - t1));
+        return surface;
+    }
+
+    public TimeSurface get(SurfaceRequest req) throws Exception {
+        return surfaceCache.get(req);
+    }
+
+    /** @return the isochrone for each cutoff in seconds, in the same order. */
+    public List<Geometry> getIsochrones(SurfaceRequest req, int[] cutoffs) throws Exception {
+        final IsochroneContourer contourer = new IsochroneContourer(get(req));
+        ExecutorService pool = getExecutor();
+        List<Future<Geometry>> futures = new ArrayList<Future<Geometry>>(cutoffs.length);
+        for (final int cutoff : cutoffs) {
+            futures.add(pool.submit(new Callable<Geometry>() {
+                @Override
+                public Geometry call() {
+                    return contourer.contour(cutoff);
+                }
+            }));
+        }
+        List<Geometry> isochrones = new ArrayList<Geometry>(cutoffs.length);
+        try {
+            for (Future<Geometry> future : futures)
+                isochrones.add(future.get());
+        } catch (ExecutionException e) {
+            for (Future<Geometry> future : futures)
+                future.cancel(true);
+            throw e;
+        }
+        return isochrones;
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if (contourExecutor == null) {
+            int nThreads = Runtime.getRuntime().availableProcessors();
+            contourExecutor = Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
+                private int n = 0;
+                @Override
+                public synchronized Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "isochrone-contour-" + n++);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return contourExecutor;
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (contourExecutor != null)
+            contourExecutor.shutdownNow();
+    }
+
+}
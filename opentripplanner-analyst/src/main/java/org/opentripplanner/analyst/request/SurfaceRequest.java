@@ -0,0 +1,42 @@
+package org.opentripplanner.analyst.request;
+
+import org.opentripplanner.routing.core.RoutingRequest;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/** A grid of travel times from one search, over a geographic envelope. */
+public class SurfaceRequest {
+
+    public final RoutingRequest options; 
+    public final Envelope envelope; // WGS84 longitude and latitude
+    public final int width; 
+    public final int height; 
+
+    public SurfaceRequest(RoutingRequest options, Envelope envelope, int width, int height) {
+        this.options = options;
+        this.envelope = envelope;
+        this.width = width;
+        this.height = height;
+    }
+    
+    public int hashCode() {
+        return options.hashCode() * 31 + envelope.hashCode() * 42677 + width + height * 1307;
+    }
+    
+    public boolean equals(Object other) {
+        if (other instanceof SurfaceRequest) {
+            SurfaceRequest that = (SurfaceRequest) other;
+            return this.options.equals(that.options) &&
+                   this.envelope.equals(that.envelope) &&
+                   this.width  == that.width   &&
+                   this.height == that.height;
+        }
+        return false;
+    }
+    
+    public String toString() {
+        return String.format("<surface request, env=%s width=%d height=%d>", 
+                envelope, width, height);
+    }
+    
+}
@@ -1,6 +1,7 @@
 package org.opentripplanner.analyst.request;
 
-import org.opentripplanner.analyst.core.DynamicTile;
+import org.opentripplanner.analyst.core.SampleGrid;
+import org.opentripplanner.analyst.core.TemplateTile;
 import org.opentripplanner.analyst.core.Tile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,6 +22,9 @@ public class TileCache extends CacheLoader<TileRequest, Tile>
     @Autowired
     private SampleFactory sampleFactory;
     
+    @Autowired
+    private SamplePyramid samplePyramid;
+    
 //    @Autowired
 //    private HashGridSampler hashSampler;
 //
@@ -41,7 +45,13 @@ public class TileCache extends CacheLoader<TileRequest, Tile>
         //return new TemplateTile(req, sampleFactory);
         //return new TemplateTile(req, hashSampler);
         //return new DynamicTile(req, hashSampler);
-        return new DynamicTile(req, sampleFactory);
+        //return new DynamicTile(req, sampleFactory);
+        SampleGrid samples = samplePyramid.load(req);
+        if (samples != null)
+            return new TemplateTile(req, samples);
+        Tile tile = new TemplateTile(req, sampleFactory);
+        samplePyramid.store(req, tile.getSamples());
+        return tile;
     }
 
     /** delegate to the tile LoadingCache */
@@ -51,7 +61,8 @@ public class TileCache extends CacheLoader<TileRequest, Tile>
     
     @Override
     public int weigh(TileRequest req, Tile tile) {
-        return tile.getSamples().length;
+        SampleGrid samples = tile.getSamples();
+        return samples == null ? 0 : samples.size();
     }
     
 }
@@ -0,0 +1,71 @@
+package org.opentripplanner.analyst.request;
+
+import java.util.concurrent.CancellationException;
+
+import org.opentripplanner.analyst.batch.TravelTimeMatrix;
+import org.opentripplanner.analyst.core.Sample;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.services.GraphService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Keeps the RAPTOR travel time matrices of recent requests, since finding the walks from every
+ * stop to the destinations costs far more than computing a few rows.
+ */
+@Component
+public class TravelTimeMatrixCache extends CacheLoader<MatrixRequest, TravelTimeMatrix> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TravelTimeMatrixCache.class);
+
+    @Autowired private GraphService graphService;
+
+    @Autowired private SampleFactory sampleFactory;
+
+    private LoadingCache<MatrixRequest, TravelTimeMatrix> matrixCache = CacheBuilder
+            .newBuilder()
+            .concurrencyLevel(4)
+            .maximumSize(4)
+            .build(this);
+
+    @Override /** completes the abstract CacheLoader superclass */
+    public TravelTimeMatrix load(MatrixRequest req) throws Exception {
+        LOG.debug("matrix cache miss : {}", req);
+        int n = req.getNDestinations();
+        Sample[] samples = new Sample[n];
+        for (int i = 0; i < n; i++)
+            samples[i] = sampleFactory.getSample(req.destinations[i * 2 + 1], req.destinations[i * 2]);
+        long t0 = System.currentTimeMillis();
+        // the matrix keeps a routing context on its options, so do not modify the cache key
+        RoutingRequest options = req.options.clone();
+        TravelTimeMatrix matrix = new TravelTimeMatrix(graphService.getGraph(options.routerId), 
+                options, samples, req.cancellation);
+        long t1 = System.currentTimeMillis();
+        LOG.debug("prepared travel time matrix in {}msec", (int) (t1 - t0));
+        return matrix;
+    }
+
+    /**
+     * @return the matrix for the options and destinations of the request, whatever its origins.
+     * @throws CancellationException if the token of the request, or of the request for which
+     *         the same matrix was being prepared, was cancelled or expired first.
+     */
+    public TravelTimeMatrix get(MatrixRequest req) throws Exception {
+        try {
+            return matrixCache.get(req);
+        } catch (UncheckedExecutionException e) {
+            // abandoned matrices are not cached, so the next request prepares it again
+            if (e.getCause() instanceof CancellationException)
+                throw (CancellationException) e.getCause();
+            throw e;
+        }
+    }
+
+}
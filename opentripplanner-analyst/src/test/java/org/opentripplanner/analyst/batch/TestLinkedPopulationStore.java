@@ -0,0 +1,164 @@
+package org.opentripplanner.analyst.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.opentripplanner.analyst.core.Sample;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+
+public class TestLinkedPopulationStore extends TestCase {
+
+    private File dir;
+
+    private LinkedPopulationStore store;
+
+    private Graph graph;
+
+    private Vertex a, b;
+
+    public void setUp() throws IOException {
+        dir = File.createTempFile("links", "");
+        dir.delete();
+        dir.mkdirs();
+        store = new LinkedPopulationStore();
+        store.setPath(dir.getPath());
+        graph = new Graph();
+        a = new IntersectionVertex(graph, "a", -122.60, 45.50);
+        b = new IntersectionVertex(graph, "b", -122.61, 45.51);
+    }
+
+    public void tearDown() {
+        delete(dir);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children)
+                delete(child);
+        }
+        file.delete();
+    }
+
+    /**
+     * @return a linked population of four individuals: two with samples, one that could not be
+     *         linked, and one rejected by the filter chain, which is never linked.
+     */
+    private BasicPopulation population(boolean linked) {
+        BasicPopulation population = new BasicPopulation(
+                new Individual("1", -122.600, 45.500, 1),
+                new Individual("2", -122.610, 45.510, 2),
+                new Individual("3", -122.700, 45.600, 3),
+                new Individual("4", -122.620, 45.520, 4));
+        population.setFilterChain(Arrays.asList((IndividualFilter) new IndividualFilter() {
+            @Override
+            public boolean filter(Individual individual) {
+                return ! individual.label.equals("4");
+            }
+        }));
+        population.setup();
+        if (linked) {
+            population.getIndividuals().get(0).sample = new Sample(a, 10, b, 20);
+            population.getIndividuals().get(1).sample = new Sample(b, 30, null, 0);
+        }
+        return population;
+    }
+
+    /** @return the single file saved by the store. */
+    private File savedFile() {
+        File[] files = new File(dir, graph.getUuid()).listFiles();
+        assertEquals(1, files.length);
+        return files[0];
+    }
+
+    private void assertNotLinked(Population population) {
+        for (Individual indiv : population.getIndividuals())
+            assertNull(indiv.sample);
+    }
+
+    public void testRoundTrip() {
+        store.save(population(true), graph);
+        BasicPopulation loaded = population(false);
+        assertTrue(store.load(loaded, graph));
+        Sample s0 = loaded.getIndividuals().get(0).sample;
+        assertSame(a, s0.v0);
+        assertEquals(10, s0.t0);
+        assertSame(b, s0.v1);
+        assertEquals(20, s0.t1);
+        Sample s1 = loaded.getIndividuals().get(1).sample;
+        assertSame(b, s1.v0);
+        assertNull(s1.v1);
+        assertNull(loaded.getIndividuals().get(2).sample);
+        assertNull(loaded.getIndividuals().get(3).sample);
+        // no temporary file is left behind
+        savedFile();
+    }
+
+    public void testOtherPopulation() {
+        store.save(population(true), graph);
+        BasicPopulation other = population(false);
+        other.getIndividuals().set(2, new Individual("3", -122.701, 45.600, 3));
+        assertFalse(store.load(other, graph));
+        assertNotLinked(other);
+    }
+
+    public void testTruncated() throws IOException {
+        store.save(population(true), graph);
+        File file = savedFile();
+        long length = file.length();
+        // cut inside the last record, then inside the header
+        for (long cut : new long[] { length - 10, 30 }) {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            raf.setLength(cut);
+            raf.close();
+            BasicPopulation loaded = population(false);
+            assertFalse(store.load(loaded, graph));
+            assertNotLinked(loaded);
+        }
+    }
+
+    public void testVersionMismatch() throws IOException {
+        store.save(population(true), graph);
+        RandomAccessFile raf = new RandomAccessFile(savedFile(), "rw");
+        raf.seek(4);
+        int version = raf.readInt();
+        raf.seek(4);
+        raf.writeInt(version + 1);
+        raf.close();
+        BasicPopulation loaded = population(false);
+        assertFalse(store.load(loaded, graph));
+        assertNotLinked(loaded);
+    }
+
+    public void testGraphKeyMismatch() throws IOException {
+        store.save(population(true), graph);
+        File file = savedFile();
+        // a graph with the same vertex labels but another identifier
+        Graph other = new Graph();
+        new IntersectionVertex(other, "a", -122.60, 45.50);
+        new IntersectionVertex(other, "b", -122.61, 45.51);
+        BasicPopulation loaded = population(false);
+        assertFalse(store.load(loaded, other));
+        // even when the file of the first graph is found under the name of the other one
+        File otherDir = new File(dir, other.getUuid());
+        otherDir.mkdirs();
+        assertTrue(file.renameTo(new File(otherDir, file.getName())));
+        assertFalse(store.load(loaded, other));
+        assertNotLinked(loaded);
+    }
+
+    public void testMissingVertex() {
+        store.save(population(true), graph);
+        graph.removeVertex(b);
+        BasicPopulation loaded = population(false);
+        assertFalse(store.load(loaded, graph));
+        assertNotLinked(loaded);
+    }
+
+}
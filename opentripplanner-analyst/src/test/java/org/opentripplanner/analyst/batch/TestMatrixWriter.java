@@ -0,0 +1,223 @@
+package org.opentripplanner.analyst.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.opentripplanner.analyst.batch.MatrixWriter.Encoding;
+import org.opentripplanner.analyst.batch.MatrixWriter.RowHandler;
+
+public class TestMatrixWriter extends TestCase {
+
+    private static final String[] COLUMNS = { "d0", "d1, with a comma", "d2" };
+
+    private static final int ROWS = 5;
+
+    private File file;
+
+    public void setUp() throws IOException {
+        file = File.createTempFile("matrix", ".out");
+    }
+
+    public void tearDown() {
+        file.delete();
+    }
+
+    /** Keeps a copy of every row it is given. */
+    private static class Rows implements RowHandler {
+
+        List<Integer> origins = new ArrayList<Integer>();
+
+        List<double[]> values = new ArrayList<double[]>();
+
+        @Override
+        public void handleRow(int origin, double[] row) {
+            origins.add(origin);
+            values.add(row.clone());
+        }
+    }
+
+    private static double[] row(int origin) {
+        return new double[] { origin * 600, -1, origin * 60 + 30 };
+    }
+
+    private MatrixWriter writer(Encoding encoding) {
+        return new MatrixWriter(file.getPath(), COLUMNS, encoding, 2);
+    }
+
+    private void write(MatrixWriter writer, int from, int to) throws IOException {
+        for (int origin = from; origin < to; origin++)
+            writer.writeRow(origin, "origin \"" + origin + "\", somewhere", row(origin));
+    }
+
+    private void truncate(long bytes) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(file.length() - bytes);
+        raf.close();
+    }
+
+    private void checkRows(Rows rows, int n, Encoding encoding) {
+        assertEquals(n, rows.origins.size());
+        for (int origin = 0; origin < n; origin++) {
+            assertEquals(origin, (int) rows.origins.get(origin));
+            double[] expected = row(origin);
+            if (encoding == Encoding.MINUTES16) {
+                for (int c = 0; c < expected.length; c++)
+                    expected[c] = MatrixWriter.decodeMinutes(MatrixWriter.encodeMinutes(expected[c]));
+            }
+            for (int c = 0; c < COLUMNS.length; c++)
+                assertEquals(expected[c], rows.values.get(origin)[c], 0);
+        }
+    }
+
+    private void checkResume(Encoding encoding) throws IOException {
+        MatrixWriter writer = writer(encoding);
+        assertEquals(-1, writer.open(true, null));
+        write(writer, 0, ROWS);
+        writer.close();
+
+        // a crash in the middle of the last row loses only that row
+        truncate(3);
+        writer = writer(encoding);
+        Rows rows = new Rows();
+        assertEquals(ROWS - 2, writer.open(true, rows));
+        checkRows(rows, ROWS - 1, encoding);
+        write(writer, ROWS - 1, ROWS);
+        writer.close();
+
+        // and once it is written again the file is complete
+        writer = writer(encoding);
+        rows = new Rows();
+        assertEquals(ROWS - 1, writer.open(true, rows));
+        checkRows(rows, ROWS, encoding);
+        writer.close();
+
+        // without resume the file is started again
+        writer = writer(encoding);
+        assertEquals(-1, writer.open(false, null));
+        write(writer, 0, 1);
+        writer.close();
+        writer = writer(encoding);
+        rows = new Rows();
+        assertEquals(0, writer.open(true, rows));
+        checkRows(rows, 1, encoding);
+        writer.close();
+
+        // and so it is when the columns differ
+        writer = new MatrixWriter(file.getPath(), new String[] { "d0" }, encoding, 2);
+        rows = new Rows();
+        assertEquals(-1, writer.open(true, rows));
+        assertTrue(rows.origins.isEmpty());
+        writer.close();
+    }
+
+    public void testResumeCsv() throws IOException {
+        checkResume(Encoding.CSV);
+    }
+
+    public void testResumeFloat32() throws IOException {
+        checkResume(Encoding.FLOAT32);
+    }
+
+    public void testResumeMinutes16() throws IOException {
+        checkResume(Encoding.MINUTES16);
+    }
+
+    public void testResumeLargeCsv() throws IOException {
+        // rows spanning the buffers the file is scanned in
+        int n = 5000;
+        MatrixWriter writer = writer(Encoding.CSV);
+        writer.open(false, null);
+        write(writer, 0, n);
+        writer.close();
+        assertTrue(file.length() > 256 * 1024);
+        truncate(1);
+        writer = writer(Encoding.CSV);
+        Rows rows = new Rows();
+        assertEquals(n - 2, writer.open(true, rows));
+        checkRows(rows, n - 1, Encoding.CSV);
+        writer.close();
+    }
+
+    public void testTruncatedHeader() throws IOException {
+        for (Encoding encoding : Encoding.values()) {
+            MatrixWriter writer = writer(encoding);
+            writer.open(false, null);
+            writer.close();
+            truncate(2);
+            writer = writer(encoding);
+            Rows rows = new Rows();
+            assertEquals(-1, writer.open(true, rows));
+            assertTrue(rows.origins.isEmpty());
+            write(writer, 0, 1);
+            writer.close();
+            writer = writer(encoding);
+            assertEquals(0, writer.open(true, null));
+            writer.close();
+        }
+    }
+
+    /** @return the values read back after writing a single row of the given values. */
+    private double[] roundTrip(Encoding encoding, double... values) throws IOException {
+        String[] columns = new String[values.length];
+        for (int c = 0; c < columns.length; c++)
+            columns[c] = "d" + c;
+        MatrixWriter writer = new MatrixWriter(file.getPath(), columns, encoding, 1);
+        writer.open(false, null);
+        writer.writeRow(0, "o", values);
+        writer.close();
+        Rows rows = new Rows();
+        writer = new MatrixWriter(file.getPath(), columns, encoding, 1);
+        writer.open(true, rows);
+        writer.close();
+        assertEquals(1, rows.values.size());
+        return rows.values.get(0);
+    }
+
+    public void testFloat32() throws IOException {
+        double[] values = roundTrip(Encoding.FLOAT32, 0, 3600, -1, -2, 1e39, Double.NaN);
+        assertEquals(0, values[0], 0);
+        assertEquals(3600, values[1], 0);
+        // unreachable and unlinked are kept apart
+        assertEquals(-1, values[2], 0);
+        assertEquals(-2, values[3], 0);
+        // values too large for a float become infinite rather than wrapping around
+        assertEquals(Double.POSITIVE_INFINITY, values[4], 0);
+        assertTrue(Double.isNaN(values[5]));
+    }
+
+    public void testMinutes16() throws IOException {
+        double[] values = roundTrip(Encoding.MINUTES16, 0, 89, 91, -1, -2, Double.NaN,
+                65534 * 60.0, 1e9, Double.POSITIVE_INFINITY);
+        assertEquals(0, values[0], 0);
+        // rounded to the nearest minute
+        assertEquals(60, values[1], 0);
+        assertEquals(120, values[2], 0);
+        // anything negative or undefined reads back as unreachable
+        assertEquals(-1, values[3], 0);
+        assertEquals(-1, values[4], 0);
+        assertEquals(-1, values[5], 0);
+        // and times beyond the range saturate below the unreachable value
+        assertEquals(65534 * 60.0, values[6], 0);
+        assertEquals(65534 * 60.0, values[7], 0);
+        assertEquals(65534 * 60.0, values[8], 0);
+    }
+
+    public void testShortRow() throws IOException {
+        MatrixWriter writer = writer(Encoding.CSV);
+        writer.open(false, null);
+        try {
+            writer.writeRow(0, "o", new double[] { 1 });
+            fail("a row shorter than the columns should be refused");
+        } catch (IllegalArgumentException e) {
+            // expected
+        } finally {
+            writer.close();
+        }
+    }
+
+}
@@ -0,0 +1,197 @@
+package org.opentripplanner.analyst.batch;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+import junit.framework.TestCase;
+
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.Trip;
+import org.onebusaway.gtfs.model.calendar.CalendarServiceData;
+import org.opentripplanner.analyst.core.Sample;
+import org.opentripplanner.analyst.request.MatrixRequest;
+import org.opentripplanner.gtfs.GtfsContext;
+import org.opentripplanner.gtfs.GtfsLibrary;
+import org.opentripplanner.routing.core.CancellationToken;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.edgetype.TableTripPattern;
+import org.opentripplanner.routing.edgetype.TransitBoardAlight;
+import org.opentripplanner.routing.edgetype.factory.GTFSPatternHopFactory;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.impl.raptor.RaptorData;
+import org.opentripplanner.routing.impl.raptor.RaptorDataService;
+import org.opentripplanner.routing.impl.raptor.RaptorRoute;
+import org.opentripplanner.routing.impl.raptor.RaptorStop;
+import org.opentripplanner.routing.vertextype.TransitStop;
+import org.opentripplanner.util.TestUtils;
+
+/**
+ * Matrices over routes 1 (A-B-C) and 2 (B-C-D) of the test agency, with samples linked
+ * directly to the stops since the test agency has no streets.
+ */
+public class TestTravelTimeMatrix extends TestCase {
+
+    private Graph graph;
+
+    private Vertex stopA, stopB, stopC, stopD, stopE;
+
+    private Sample[] destinations;
+
+    public void setUp() throws Exception {
+        GtfsContext context = GtfsLibrary.readGtfs(new File(
+                "../opentripplanner-routing/src/test/resources/testagency.zip"));
+        graph = new Graph();
+        GTFSPatternHopFactory factory = new GTFSPatternHopFactory(context);
+        factory.run(graph);
+        graph.putService(CalendarServiceData.class,
+                GtfsLibrary.createCalendarServiceData(context.getDao()));
+        graph.putService(RaptorDataService.class, new RaptorDataService(makeData("1.1", "2.1")));
+        stopA = graph.getVertex("agency_A");
+        stopB = graph.getVertex("agency_B");
+        stopC = graph.getVertex("agency_C");
+        stopD = graph.getVertex("agency_D");
+        stopE = graph.getVertex("agency_E");
+        destinations = new Sample[] {
+                new Sample(stopC, 60, stopC, 60),
+                new Sample(stopD, 30, stopB, 300),
+                null,
+                // E is only served by route 3, which is not in the RAPTOR data
+                new Sample(stopE, 0, stopE, 0),
+                new Sample(stopA, 30, stopA, 30) };
+    }
+
+    /** Make RAPTOR data holding only the patterns of the given trips, one route per pattern. */
+    @SuppressWarnings("unchecked")
+    private RaptorData makeData(String... tripIds) {
+        RaptorData data = new RaptorData();
+        List<TransitBoardAlight> boardAlights = new ArrayList<TransitBoardAlight>();
+        for (Vertex v : graph.getVertices()) {
+            for (Edge e : v.getOutgoing()) {
+                if (e instanceof TransitBoardAlight)
+                    boardAlights.add((TransitBoardAlight) e);
+            }
+        }
+        data.stops = new RaptorStop[0];
+        for (String tripId : tripIds) {
+            TableTripPattern pattern = null;
+            for (TransitBoardAlight ba : boardAlights) {
+                for (Trip trip : ba.getPattern().getTrips()) {
+                    if (trip.getId().getId().equals(tripId))
+                        pattern = ba.getPattern();
+                }
+            }
+            List<Stop> stops = pattern.getStops();
+            RaptorRoute route = new RaptorRoute(stops.size(), 1);
+            for (int i = 0; i < stops.size(); i++) {
+                Stop stop = stops.get(i);
+                RaptorStop raptorStop = data.raptorStopsForStopId.get(stop.getId());
+                if (raptorStop == null) {
+                    raptorStop = new RaptorStop();
+                    raptorStop.index = data.stops.length;
+                    raptorStop.stopVertex = (TransitStop) graph.getVertex(
+                            stop.getId().getAgencyId() + "_" + stop.getId().getId());
+                    data.stops = Arrays.copyOf(data.stops, data.stops.length + 1);
+                    data.stops[raptorStop.index] = raptorStop;
+                    data.raptorStopsForStopId.put(stop.getId(), raptorStop);
+                }
+                route.stops[i] = raptorStop;
+            }
+            for (TransitBoardAlight ba : boardAlights) {
+                if (ba.getPattern() != pattern)
+                    continue;
+                if (ba.isBoarding())
+                    route.boards[ba.getStopIndex()][0] = ba;
+                else
+                    route.alights[ba.getStopIndex()][0] = ba;
+            }
+            data.routes.add(route);
+        }
+        data.routesForStop = new List[data.stops.length];
+        for (RaptorRoute route : data.routes) {
+            for (RaptorStop stop : route.stops) {
+                if (data.routesForStop[stop.index] == null)
+                    data.routesForStop[stop.index] = new ArrayList<RaptorRoute>();
+                data.routesForStop[stop.index].add(route);
+            }
+        }
+        return data;
+    }
+
+    private TravelTimeMatrix makeMatrix() {
+        RoutingRequest options = new RoutingRequest();
+        options.dateTime = TestUtils.dateInSeconds("America/New_York", 2009, 8, 7, 0, 0, 0);
+        return new TravelTimeMatrix(graph, options, destinations);
+    }
+
+    public void testGetRow() {
+        TravelTimeMatrix matrix = makeMatrix();
+        assertEquals(5, matrix.getNDestinations());
+        int[] row = matrix.getRow(stopA);
+        // trip 1.1 reaches C at 00:20
+        assertEquals(20 * 60 + 60, row[0]);
+        // B at 00:10 is nearer than D at 00:40 after changing to trip 2.1
+        assertEquals(10 * 60 + 300, row[1]);
+        assertEquals(TravelTimeMatrix.UNLINKED, row[2]);
+        assertEquals(TravelTimeMatrix.UNREACHABLE, row[3]);
+        // walk only
+        assertEquals(30, row[4]);
+    }
+
+    public void testGetRows() {
+        TravelTimeMatrix matrix = makeMatrix();
+        int[][] rows = matrix.getRows(stopA, 5 * 60, 5 * 60);
+        assertEquals(2, rows.length);
+        assertTrue(Arrays.equals(matrix.getRow(stopA), rows[0]));
+        // leaving at 00:05, trip 1.2 leaves A at 00:20
+        assertEquals(35 * 60 + 60, rows[1][0]);
+        assertEquals(25 * 60 + 300, rows[1][1]);
+        assertEquals(TravelTimeMatrix.UNLINKED, rows[1][2]);
+        assertEquals(30, rows[1][4]);
+    }
+
+    public void testCancelledRow() {
+        TravelTimeMatrix matrix = makeMatrix();
+        CancellationToken cancellation = new CancellationToken();
+        cancellation.cancel();
+        int[] row = matrix.getRow(stopA, cancellation);
+        // no transit round is made, but destinations reached on foot are kept
+        assertEquals(TravelTimeMatrix.UNREACHABLE, row[0]);
+        assertEquals(30, row[4]);
+        // another request with its own token is unaffected
+        assertEquals(20 * 60 + 60, matrix.getRow(stopA, new CancellationToken())[0]);
+    }
+
+    public void testCancelledMatrix() {
+        RoutingRequest options = new RoutingRequest();
+        options.dateTime = TestUtils.dateInSeconds("America/New_York", 2009, 8, 7, 0, 0, 0);
+        CancellationToken cancellation = new CancellationToken();
+        cancellation.cancel();
+        try {
+            new TravelTimeMatrix(graph, options, destinations, cancellation);
+            fail("the walks from the stops should not be made for a cancelled request");
+        } catch (CancellationException e) {
+            // expected
+        }
+    }
+
+    public void testMatrixRequestKey() {
+        RoutingRequest options = new RoutingRequest();
+        double[] coords = { 45.5, -122.6, 45.6, -122.7 };
+        MatrixRequest a = new MatrixRequest(options, new double[] { 45.4, -122.5 },
+                coords.clone(), new CancellationToken());
+        MatrixRequest b = new MatrixRequest(options, new double[] { 45.3, -122.4, 45.2, -122.3 },
+                coords.clone(), null);
+        // the matrix does not depend on the origins, nor on the token of the request
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+        MatrixRequest c = new MatrixRequest(options, a.origins, new double[] { 45.5, -122.6 },
+                null);
+        assertFalse(a.equals(c));
+    }
+
+}
@@ -0,0 +1,54 @@
+package org.opentripplanner.analyst.batch;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class TestWindowStatistic extends TestCase {
+
+    private static final int U = TravelTimeMatrix.UNREACHABLE;
+
+    private static final int L = TravelTimeMatrix.UNLINKED;
+
+    /* four departures to four destinations, the second unreachable at one departure */
+    private static final int[][] ROWS = {
+        { 600, U, L, 300 },
+        { 900, 1200, L, 100 },
+        { 300, 1500, L, 200 },
+        { 1200, 900, L, 400 } };
+
+    private static void assertSummary(double[] expected, double[] actual) {
+        assertTrue(Arrays.toString(actual), Arrays.equals(expected, actual));
+    }
+
+    public void testMin() {
+        assertSummary(new double[] { 300, 900, L, 100 }, WindowStatistic.MIN.summarize(ROWS, 0));
+        int[][] never = { { U }, { U } };
+        assertSummary(new double[] { U }, WindowStatistic.MIN.summarize(never, 0));
+    }
+
+    public void testMean() {
+        assertSummary(new double[] { 750, U, L, 250 }, WindowStatistic.MEAN.summarize(ROWS, 0));
+        // rounded to the nearest second
+        int[][] rows = { { 1 }, { 2 } };
+        assertSummary(new double[] { 2 }, WindowStatistic.MEAN.summarize(rows, 0));
+    }
+
+    public void testPercentile() {
+        WindowStatistic p = WindowStatistic.PERCENTILE;
+        assertSummary(new double[] { 600, 1200, L, 200 }, p.summarize(ROWS, 50));
+        assertSummary(new double[] { 900, 1500, L, 300 }, p.summarize(ROWS, 75));
+        // unreachable departures are the longest times
+        assertSummary(new double[] { 1200, U, L, 400 }, p.summarize(ROWS, 100));
+        // the lowest rank is the minimum
+        assertSummary(WindowStatistic.MIN.summarize(ROWS, 0), p.summarize(ROWS, 0));
+    }
+
+    public void testSingleDeparture() {
+        int[][] rows = { ROWS[1] };
+        for (WindowStatistic statistic : WindowStatistic.values()) {
+            assertSummary(new double[] { 900, 1200, L, 100 }, statistic.summarize(rows, 50));
+        }
+    }
+
+}
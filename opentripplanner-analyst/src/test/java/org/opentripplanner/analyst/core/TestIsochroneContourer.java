@@ -0,0 +1,60 @@
+package org.opentripplanner.analyst.core;
+
+import junit.framework.TestCase;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+
+public class TestIsochroneContourer extends TestCase {
+
+    private static final int U = TimeSurface.UNREACHED;
+
+    private static final double EPSILON = 1e-9;
+
+    /** @return the area within the cutoff on a grid of unit cells with its origin at (0, 0). */
+    private static double area(int width, int height, int[] times, int cutoff) {
+        Envelope env = new Envelope(0, width - 1, 0, height - 1);
+        TimeSurface surface = new TimeSurface(env, width, height, times);
+        return new IsochroneContourer(surface).contour(cutoff).getArea();
+    }
+
+    public void testWholeGrid() {
+        int[] times = new int[9];
+        assertEquals(4, area(3, 3, times, 10), EPSILON);
+    }
+
+    public void testNothingReached() {
+        int[] times = { U, U, U, U };
+        Envelope env = new Envelope(0, 1, 0, 1);
+        Geometry isochrone = new IsochroneContourer(new TimeSurface(env, 2, 2, times))
+                .contour(3600);
+        assertTrue(isochrone.isEmpty());
+    }
+
+    public void testInterpolation() {
+        // the west side of the cell is reached at once, the east side after 100 seconds
+        int[] times = { 0, 100, 0, 100 };
+        assertEquals(0.5, area(2, 2, times, 50), EPSILON);
+        assertEquals(0.25, area(2, 2, times, 25), EPSILON);
+        // rows of cells wholly within the cutoff are merged with the partial cells
+        times = new int[] { 0, 100, 200, 0, 100, 200 };
+        assertEquals(1.5, area(3, 2, times, 150), EPSILON);
+        assertEquals(2, area(3, 2, times, 200), EPSILON);
+    }
+
+    public void testUnreachedNodes() {
+        // boundaries with unreached nodes are halfway along the cell edges
+        int[] times = { 0, U, U, U };
+        assertEquals(0.125, area(2, 2, times, 10), EPSILON);
+        // reachable corners on one diagonal are joined across the cell
+        times = new int[] { 0, U, U, 0 };
+        assertEquals(0.75, area(2, 2, times, 10), EPSILON);
+    }
+
+    public void testCornerAtCutoff() {
+        int[] times = { 10, 100, 100, 100 };
+        assertTrue(new IsochroneContourer(new TimeSurface(new Envelope(0, 1, 0, 1), 2, 2, times))
+                .contour(10).isEmpty());
+    }
+
+}
@@ -0,0 +1,53 @@
+package org.opentripplanner.analyst.request;
+
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import junit.framework.TestCase;
+
+import org.opentripplanner.analyst.core.TimeSurface;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+
+public class TestSurfaceCache extends TestCase {
+
+    /** A cache always returning the same surface, which is reached from west to east. */
+    private SurfaceCache cache = new SurfaceCache() {
+        @Override
+        public TimeSurface get(SurfaceRequest req) {
+            int[] times = { 0, 100, 200, 0, 100, 200 };
+            return new TimeSurface(new Envelope(0, 2, 0, 1), 3, 2, times);
+        }
+    };
+
+    public void testIsochrones() throws Exception {
+        List<Geometry> isochrones = cache.getIsochrones(null, new int[] { 150, 50, 200 });
+        assertEquals(3, isochrones.size());
+        // in the order of the cutoffs
+        assertEquals(1.5, isochrones.get(0).getArea(), 1e-9);
+        assertEquals(0.5, isochrones.get(1).getArea(), 1e-9);
+        assertEquals(2, isochrones.get(2).getArea(), 1e-9);
+        cache.shutdown();
+    }
+
+    public void testShutdown() throws Exception {
+        // nothing to stop before the first request
+        cache.shutdown();
+        cache = new SurfaceCache() {
+            @Override
+            public TimeSurface get(SurfaceRequest req) {
+                return new TimeSurface(new Envelope(0, 1, 0, 1), 2, 2, new int[4]);
+            }
+        };
+        assertEquals(1, cache.getIsochrones(null, new int[] { 60 }).size());
+        cache.shutdown();
+        try {
+            cache.getIsochrones(null, new int[] { 60 });
+            fail("contouring after shutdown should be rejected");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+    }
+
+}
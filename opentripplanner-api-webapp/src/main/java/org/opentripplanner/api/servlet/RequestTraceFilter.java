@@ -0,0 +1,88 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.api.servlet;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+
+import org.opentripplanner.routing.core.RequestTrace;
+import org.opentripplanner.routing.impl.RequestTraceCollector;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Starts a RequestTrace before the request reaches the web service, and records it once the
+ * response has been written, so that the trace covers serialization as well. The trace is passed
+ * to the resource as a request attribute. Without this filter the Planner records its own
+ * traces, which end when the response is ready to be serialized.
+ *
+ * Map it only to the trip planning paths (e.g. /ws/plan/*), since every trace it starts is
+ * counted as a routing request. Batch requests are let through untraced, as the BatchPlanner
+ * traces each of their trips instead. The bean is found by component scanning, under the name the
+ * DelegatingFilterProxy in web.xml looks for.
+ */
+@Component("requestTraceFilter")
+public class RequestTraceFilter implements Filter {
+
+    /** The servlet request attribute under which the request's trace is stored. */
+    public static final String TRACE_ATTRIBUTE = RequestTrace.class.getName();
+
+    /** The end of the path of batch requests, which plan many trips rather than one. */
+    private static final String BATCH_PATH = "/plan/batch";
+
+    @Autowired(required = false)
+    private RequestTraceCollector collector;
+
+    public void setCollector(RequestTraceCollector collector) {
+        this.collector = collector;
+    }
+
+    @Override
+    public void init(FilterConfig fc) throws ServletException {
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+        throws IOException, ServletException {
+        if (collector == null || ! collector.isEnabled() || isBatch(request)) {
+            chain.doFilter(request, response);
+            return;
+        }
+        RequestTrace trace = new RequestTrace();
+        request.setAttribute(TRACE_ATTRIBUTE, trace);
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            trace.responseWritten();
+            collector.record(trace);
+        }
+    }
+
+    private static boolean isBatch(ServletRequest request) {
+        return request instanceof HttpServletRequest
+                && ((HttpServletRequest) request).getRequestURI().endsWith(BATCH_PATH);
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+}
@@ -0,0 +1,180 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.api.ws;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
+
+import org.opentripplanner.routing.impl.AdmissionController;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * The threads shared by all batch planning requests. There is at most one thread per processor,
+ * however many batches are running, and each batch is only given as many of them as it asks 
+ * for. A worker gives up its thread after each task and queues up again behind the workers of
+ * the other batches, so a large batch does not hold up the ones submitted after it until it 
+ * completes.
+ * 
+ * When searches are limited by an AdmissionController, there is one thread fewer than the
+ * searches it admits at once, so that batches never take every search slot from interactive 
+ * requests.
+ */
+@Component
+public class BatchExecutor {
+
+    public static final int MAX_THREADS = Runtime.getRuntime().availableProcessors();
+
+    @Autowired(required = false) public AdmissionController admissionController;
+
+    private ExecutorService executor;
+
+    /** @return the number of threads shared by all batches. */
+    public int getThreads() {
+        if (admissionController == null)
+            return MAX_THREADS;
+        return Math.max(1, Math.min(MAX_THREADS, admissionController.getMaxConcurrent() - 1));
+    }
+
+    /** 
+     * @return the number of threads a batch is given when it does not ask for a number: half of 
+     *         them, so that another batch can run alongside.
+     */
+    public int getDefaultParallelism() {
+        return Math.max(1, getThreads() / 2);
+    }
+
+    /**
+     * Run the tasks on at most the given number of the shared threads.
+     * @return the batch, from which the results can be taken as they complete
+     */
+    public <T> Batch<T> submit(List<? extends Callable<T>> tasks, int parallelism) {
+        Batch<T> batch = new Batch<T>(tasks, getExecutor());
+        int nWorkers = Math.max(1, Math.min(Math.min(parallelism, getThreads()), tasks.size()));
+        for (int i = 0; i < nWorkers; i++) {
+            Batch<T>.Worker worker = batch.new Worker();
+            batch.workers.add(worker);
+            worker.start();
+        }
+        return batch;
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(getThreads(), new ThreadFactory() {
+                private int n = 0;
+                @Override
+                public synchronized Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "batch-planner-" + n++);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (executor != null)
+            executor.shutdownNow();
+    }
+
+    /** The tasks of one request, handed out one at a time to the workers of the request. */
+    public static class Batch<T> {
+
+        private final List<? extends Callable<T>> tasks;
+
+        private final AtomicInteger next = new AtomicInteger();
+
+        private final BlockingQueue<FutureTask<T>> completed =
+                new LinkedBlockingQueue<FutureTask<T>>();
+
+        private final List<Worker> workers = new CopyOnWriteArrayList<Worker>();
+
+        private final ExecutorService pool;
+
+        private volatile boolean cancelled = false;
+
+        private Batch(List<? extends Callable<T>> tasks, ExecutorService pool) {
+            this.tasks = tasks;
+            this.pool = pool;
+        }
+
+        /**
+         * @return the result of the next task to complete, waiting for it if need be.
+         * @throws ExecutionException if the task threw an exception.
+         */
+        public T take() throws InterruptedException, ExecutionException {
+            return completed.take().get();
+        }
+
+        /** Stop handing out tasks, and interrupt those that are running. */
+        public void cancel() {
+            cancelled = true;
+            for (Worker worker : workers)
+                worker.cancel();
+        }
+
+        /** Runs one task at a time, each as a separate submission to the shared threads. */
+        private class Worker implements Runnable {
+
+            private volatile Future<?> future;
+
+            void start() {
+                future = pool.submit(this);
+            }
+
+            void cancel() {
+                Future<?> f = future;
+                if (f != null)
+                    f.cancel(true);
+            }
+
+            @Override
+            public void run() {
+                // a worker resubmitted just as the batch was cancelled stops here
+                if (cancelled || Thread.currentThread().isInterrupted())
+                    return;
+                int i = next.getAndIncrement();
+                if (i >= tasks.size())
+                    return;
+                FutureTask<T> task = new FutureTask<T>(tasks.get(i));
+                task.run();
+                completed.add(task);
+                if (cancelled || next.get() >= tasks.size())
+                    return;
+                try {
+                    start();
+                } catch (RejectedExecutionException e) {
+                    // the executor is shutting down
+                }
+            }
+        }
+    }
+
+}
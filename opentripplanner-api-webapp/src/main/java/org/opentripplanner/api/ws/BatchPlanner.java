@@ -0,0 +1,237 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.api.ws;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.opentripplanner.api.common.RoutingResource;
+import org.opentripplanner.api.model.TripPlan;
+import org.opentripplanner.api.model.error.PlannerError;
+import org.opentripplanner.api.model.json_serializers.SerializerUtils;
+import org.opentripplanner.api.ws.BatchExecutor.Batch;
+import org.opentripplanner.routing.core.CancellationToken;
+import org.opentripplanner.routing.core.RequestTrace;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.edgetype.TimetableResolver;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.impl.RequestTraceCollector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import com.sun.jersey.api.spring.Autowire;
+
+/**
+ * Plans many trips in one request. The body lists origin-destination pairs, either as a JSON 
+ * array of objects with the fields id, fromPlace, toPlace and optionally date, time and arriveBy, 
+ * or as CSV lines of id,fromLat,fromLon,toLat,toLon with optional date and time columns. All 
+ * other parameters are taken from the query string as for /plan, and apply to every trip.
+ * 
+ * The trips are planned on the threads shared by all batches, at most threads of them at a 
+ * time (by default half of them, see BatchExecutor), all against the same real-time timetable snapshot, and the results are streamed back as 
+ * newline-delimited JSON in the order they complete: each line holds the id and either a plan 
+ * or an error.
+ */
+@Path("/plan/batch")
+@Autowire
+public class BatchPlanner extends RoutingResource {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BatchPlanner.class);
+
+    private static final int MAX_ITEMS = 10000;
+
+    @Autowired public PlanGenerator planGenerator;
+
+    @Autowired public BatchExecutor batchExecutor;
+
+    @Autowired(required = false) public RequestTraceCollector traceCollector;
+
+    @QueryParam("threads") @DefaultValue("0") int threads;
+
+    /** One origin-destination pair of the batch. */
+    public static class BatchItem {
+        public String id;
+        public String fromPlace;
+        public String toPlace;
+        public String date;
+        public String time;
+        public Boolean arriveBy;
+    }
+
+    @POST
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces("application/x-ndjson")
+    public Response planJson(String body) throws Exception {
+        List<BatchItem> items;
+        try {
+            BatchItem[] array = new ObjectMapper().readValue(body, BatchItem[].class);
+            items = new ArrayList<BatchItem>(array.length);
+            for (BatchItem item : array)
+                items.add(item);
+        } catch (IOException e) {
+            return badRequest("could not parse JSON body: " + e.getMessage());
+        }
+        return plan(items);
+    }
+
+    @POST
+    @Consumes({ "text/csv", MediaType.TEXT_PLAIN })
+    @Produces("application/x-ndjson")
+    public Response planCsv(String body) throws Exception {
+        List<BatchItem> items = new ArrayList<BatchItem>();
+        BufferedReader reader = new BufferedReader(new StringReader(body));
+        String line;
+        int n = 0;
+        while ((line = reader.readLine()) != null) {
+            n += 1;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+            String[] fields = line.split(",");
+            if (fields.length < 5)
+                return badRequest("line " + n + " does not have the form " +
+                        "id,fromLat,fromLon,toLat,toLon[,date,time]");
+            BatchItem item = new BatchItem();
+            item.id = fields[0].trim();
+            item.fromPlace = fields[1].trim() + "," + fields[2].trim();
+            item.toPlace = fields[3].trim() + "," + fields[4].trim();
+            if (fields.length > 5)
+                item.date = fields[5].trim();
+            if (fields.length > 6)
+                item.time = fields[6].trim();
+            items.add(item);
+        }
+        return plan(items);
+    }
+
+    private Response plan(final List<BatchItem> items) throws Exception {
+        if (items.isEmpty())
+            return badRequest("no trips given");
+        if (items.size() > MAX_ITEMS)
+            return badRequest("at most " + MAX_ITEMS + " trips may be planned at once");
+        final RoutingRequest prototype = buildRequest();
+        Graph graph = graphService.getGraph(prototype.getRouterId());
+        if (graph == null)
+            return badRequest("unknown routerId");
+        final TimeZone tz = graph.getTimeZone();
+        // every trip sees the same real-time data
+        final TimetableResolver snapshot = graph.timetableSnapshotSource == null ? null 
+                : graph.timetableSnapshotSource.getSnapshot();
+        int nThreads = threads > 0 ? Math.min(threads, batchExecutor.getThreads()) 
+                : batchExecutor.getDefaultParallelism();
+        List<Callable<Map<String, Object>>> tasks = 
+                new ArrayList<Callable<Map<String, Object>>>(items.size());
+        for (final BatchItem item : items) {
+            tasks.add(new Callable<Map<String, Object>>() {
+                @Override
+                public Map<String, Object> call() {
+                    return planItem(prototype, item, tz, snapshot);
+                }
+            });
+        }
+        final Batch<Map<String, Object>> batch = batchExecutor.submit(tasks, nThreads);
+        LOG.debug("planning {} trips on {} threads", items.size(), nThreads);
+        StreamingOutput stream = new StreamingOutput() {
+            @Override
+            public void write(OutputStream out) throws IOException, WebApplicationException {
+                ObjectMapper mapper = SerializerUtils.getMapper();
+                try {
+                    for (int i = 0; i < items.size(); i++) {
+                        Map<String, Object> result = batch.take();
+                        out.write(mapper.writeValueAsBytes(result));
+                        out.write('\n');
+                        out.flush();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    // planItem reports its own errors, so this is a bug
+                    throw new WebApplicationException(e.getCause());
+                } finally {
+                    // the client may have gone away: stop any searches still running
+                    batch.cancel();
+                }
+            }
+        };
+        return Response.ok(stream).build();
+    }
+
+    Map<String, Object> planItem(RoutingRequest prototype, BatchItem item, TimeZone tz,
+            TimetableResolver snapshot) {
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        result.put("id", item.id);
+        RoutingRequest request = prototype.clone();
+        // the batch as a whole is not traced (see RequestTraceFilter), but each of its trips is
+        RequestTrace trace = null;
+        if (traceCollector != null && traceCollector.isEnabled()) {
+            trace = new RequestTrace();
+            trace.setDescription(item.fromPlace + " to " + item.toPlace);
+            request.trace = trace;
+        }
+        try {
+            if (item.fromPlace == null || item.toPlace == null)
+                throw new IllegalArgumentException("fromPlace and toPlace are required");
+            request.setFrom(item.fromPlace);
+            request.setTo(item.toPlace);
+            if (item.date != null || item.time != null)
+                request.setDateTime(item.date, item.time, tz);
+            if (item.arriveBy != null)
+                request.setArriveBy(item.arriveBy);
+            request.timetableSnapshot = snapshot;
+            // each trip has its own token, aborted when its worker is interrupted, and as much
+            // time as a single plan request counted from when the trip is started
+            request.cancellation = new CancellationToken(Thread.currentThread());
+            request.cancellation.setTimeout(request.timeout);
+            TripPlan plan = planGenerator.generate(request);
+            result.put("plan", plan);
+        } catch (Exception e) {
+            result.put("error", new PlannerError(e));
+        } finally {
+            if (request.getRoutingContext() != null)
+                request.cleanup();
+            if (trace != null) {
+                trace.responseReady();
+                traceCollector.record(trace);
+            }
+        }
+        return result;
+    }
+
+    private static Response badRequest(String message) {
+        return Response.status(Response.Status.BAD_REQUEST).entity(message).build();
+    }
+
+}
@@ -0,0 +1,313 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.api.ws;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.PostConstruct;
+
+import lombok.Setter;
+
+import org.opentripplanner.api.model.Itinerary;
+import org.opentripplanner.api.model.Leg;
+import org.opentripplanner.api.model.TripPlan;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.edgetype.TimetableResolver;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.impl.StreetVertexIndexServiceImpl.CandidateEdge;
+import org.opentripplanner.routing.impl.StreetVertexIndexServiceImpl.CandidateEdgeBundle;
+import org.opentripplanner.routing.services.GraphService;
+import org.opentripplanner.util.monitoring.MonitoringStore;
+import org.opentripplanner.util.monitoring.MonitoringStoreFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.vividsolutions.jts.geom.Coordinate;
+
+/**
+ * An optional cache of trip plans, for the near-duplicate requests produced by client retries,
+ * map drags and preset trips. Requests are considered the same when their origins and 
+ * destinations snap to the same place on the same street, their times fall into the same 
+ * bucket of timeBucket seconds, and all of the options which affect routing are equal. A plan is 
+ * only served from the cache while the graph and the real-time timetable snapshot it was 
+ * computed on are still current.
+ * 
+ * Plans are computed for the representative time of their bucket, which every request mapped to
+ * the bucket can use: its last second when departing after, its first when arriving by. A plan
+ * departing after the end of the bucket departs after any request time in it, and one arriving 
+ * by its start arrives before any of them.
+ * 
+ * The cache is bounded by an estimate of the memory taken by the plans, and is disabled unless 
+ * enabled is set.
+ */
+@Component
+public class PlanCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PlanCache.class);
+
+    private static final MonitoringStore store = MonitoringStoreFactory.getStore();
+
+    /* the store drops values for keys nobody has asked it to monitor */
+    static {
+        for (String key : new String[] { "hits", "misses", "hitRatePercent", "evictions", 
+                "size" })
+            store.monitor("planCache." + key);
+    }
+
+    private static final Pattern LAT_LON = Pattern.compile(
+            "^\\s*(-?\\d+(\\.\\d+)?)(\\s*,\\s*|\\s+)(-?\\d+(\\.\\d+)?)\\s*$");
+
+    @Setter private boolean enabled = false;
+
+    /** The width in seconds of the buckets request times are rounded down to. */
+    @Setter private int timeBucket = 60;
+
+    /** The precision in degrees to which snapped points on a street are rounded. */
+    @Setter private double snapPrecision = 0.0001;
+
+    /** The approximate number of bytes of plans to keep. */
+    @Setter private long maxBytes = 64 * 1024 * 1024;
+
+    /** The number of seconds a plan may be served for. */
+    @Setter private int maxAge = 600;
+
+    @Autowired @Setter private GraphService graphService;
+
+    private Cache<PlanKey, TripPlan> cache;
+
+    /** The graph and timetable snapshot that the current generation of each router refers to */
+    private ConcurrentMap<String, Generation> generations = 
+            new ConcurrentHashMap<String, Generation>();
+
+    @PostConstruct
+    public void setup() {
+        cache = CacheBuilder.newBuilder()
+                .concurrencyLevel(16)
+                .maximumWeight(maxBytes)
+                .weigher(new Weigher<PlanKey, TripPlan>() {
+                    @Override
+                    public int weigh(PlanKey key, TripPlan plan) {
+                        return estimateSize(plan);
+                    }
+                })
+                .expireAfterWrite(maxAge, TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * @return the cached plan for an equivalent request, or else the plan found by the generator,
+     *         which is then cached. When the request can be cached, its time is first moved to 
+     *         the representative time of its bucket, so the generator plans for that time.
+     */
+    public TripPlan get(RoutingRequest request, final Callable<TripPlan> generator) {
+        PlanKey key = enabled && cache != null ? makeKey(request) : null;
+        if (key != null)
+            request.dateTime = key.request.dateTime;
+        if (key == null) {
+            try {
+                return generator.call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+        try {
+            return cache.get(key, generator);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } catch (UncheckedExecutionException e) {
+            // rethrow PathNotFoundException etc. so they are reported as usual
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw e;
+        } finally {
+            recordStats();
+        }
+    }
+
+    /** @return the key for the request, or null if the request should not be cached. */
+    private PlanKey makeKey(RoutingRequest request) {
+        if (request.from == null || request.to == null)
+            return null;
+        if (request.intermediatePlaces != null && ! request.intermediatePlaces.isEmpty())
+            return null;
+        Graph graph = graphService.getGraph(request.getRouterId());
+        if (graph == null || graph.streetIndex == null)
+            return null;
+        TimetableResolver snapshot = graph.timetableSnapshotSource == null ? null 
+                : graph.timetableSnapshotSource.getSnapshot();
+        RoutingRequest normalized = request.clone();
+        normalized.from = snap(graph, request.from, request);
+        normalized.to = snap(graph, request.to, request);
+        if (timeBucket > 1) {
+            long t = request.getSecondsSinceEpoch();
+            long start = t - t % timeBucket;
+            normalized.dateTime = request.arriveBy ? start : start + timeBucket - 1;
+        }
+        return new PlanKey(request.getRouterId(), generation(request.getRouterId(), graph, 
+                snapshot), normalized);
+    }
+
+    /** 
+     * @return a string identifying the place on the street network that the given place will be 
+     *         linked to, without linking it.
+     */
+    private String snap(Graph graph, String place, RoutingRequest options) {
+        if (place == null)
+            return null;
+        Matcher matcher = LAT_LON.matcher(place);
+        if ( ! matcher.matches())
+            return place;
+        Coordinate c = new Coordinate(Double.parseDouble(matcher.group(4)), 
+                Double.parseDouble(matcher.group(1)));
+        CandidateEdgeBundle bundle = graph.streetIndex.getClosestEdges(c, options, null, null, 
+                false);
+        if (bundle == null || bundle.best == null)
+            return place;
+        if (bundle.endwiseVertex != null)
+            return bundle.endwiseVertex.getLabel();
+        CandidateEdge best = bundle.best;
+        Coordinate p = best.nearestPointOnEdge;
+        return String.format("%s>%s@%d,%d", best.edge.getFromVertex().getLabel(), 
+                best.edge.getToVertex().getLabel(), Math.round(p.y / snapPrecision), 
+                Math.round(p.x / snapPrecision));
+    }
+
+    /**
+     * @return the number of the generation of plans for the router, which is advanced whenever 
+     *         the router's graph or timetable snapshot changes. Plans of older generations are 
+     *         never matched again, and are left to expire or to be evicted by newer plans rather 
+     *         than scanned for on every change of snapshot.
+     */
+    private int generation(String routerId, Graph graph, TimetableResolver snapshot) {
+        Generation current = generations.get(routerId);
+        if (current != null && current.graph.get() == graph && current.snapshot.get() == snapshot)
+            return current.number;
+        Generation next = new Generation(current == null ? 0 : current.number + 1, graph, 
+                snapshot);
+        boolean replaced = current == null ? generations.putIfAbsent(routerId, next) == null 
+                : generations.replace(routerId, current, next);
+        if ( ! replaced)
+            return generations.get(routerId).number;
+        if (current != null)
+            LOG.debug("graph or timetables changed on router '{}', starting generation {}", 
+                    routerId, next.number);
+        return next.number;
+    }
+
+    private void recordStats() {
+        CacheStats stats = cache.stats();
+        store.setLong("planCache.hits", stats.hitCount());
+        store.setLong("planCache.misses", stats.missCount());
+        store.setLong("planCache.hitRatePercent", Math.round(stats.hitRate() * 100));
+        store.setLong("planCache.evictions", stats.evictionCount());
+        store.setLong("planCache.size", cache.size());
+    }
+
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    /** A rough count of the bytes of heap a plan holds on to. */
+    private static int estimateSize(TripPlan plan) {
+        int size = 512;
+        for (Itinerary itinerary : plan.itinerary) {
+            size += 512;
+            for (Leg leg : itinerary.legs) {
+                size += 1024;
+                if (leg.legGeometry != null)
+                    size += 2 * leg.legGeometry.getPoints().length();
+                if (leg.walkSteps != null)
+                    size += 256 * leg.walkSteps.size();
+                if (leg.stop != null)
+                    size += 256 * leg.stop.size();
+            }
+        }
+        return size;
+    }
+
+    private static class Generation {
+
+        final int number;
+
+        final WeakReference<Graph> graph;
+
+        final WeakReference<TimetableResolver> snapshot;
+
+        Generation(int number, Graph graph, TimetableResolver snapshot) {
+            this.number = number;
+            this.graph = new WeakReference<Graph>(graph);
+            this.snapshot = new WeakReference<TimetableResolver>(snapshot);
+        }
+    }
+
+    /**
+     * The normalized request, with the fields that RoutingRequest.equals leaves out because they 
+     * do not change the shortest path tree, but do change the plan.
+     */
+    private static class PlanKey {
+
+        final String routerId;
+
+        final int generation;
+
+        final RoutingRequest request;
+
+        PlanKey(String routerId, int generation, RoutingRequest request) {
+            this.routerId = routerId == null ? "" : routerId;
+            this.generation = generation;
+            this.request = request;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if ( ! (o instanceof PlanKey))
+                return false;
+            PlanKey other = (PlanKey) o;
+            return generation == other.generation && routerId.equals(other.routerId) 
+                    && request.equals(other.request)
+                    && equal(request.from, other.request.from) 
+                    && equal(request.to, other.request.to)
+                    && equal(request.fromName, other.request.fromName)
+                    && equal(request.toName, other.request.toName)
+                    && request.showIntermediateStops == other.request.showIntermediateStops;
+        }
+
+        @Override
+        public int hashCode() {
+            return request.hashCode() * 31 + routerId.hashCode() + generation
+                    + (request.to == null ? 0 : request.to.hashCode() * 7);
+        }
+
+        private static boolean equal(Object a, Object b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+
+}
@@ -30,15 +30,16 @@ import org.opentripplanner.api.model.RelativeDirection;
 import org.opentripplanner.api.model.TripPlan;
 import org.opentripplanner.api.model.WalkStep;
 import org.opentripplanner.common.geometry.DirectionUtils;
-import org.opentripplanner.common.geometry.GeometryUtils;
 import org.opentripplanner.common.geometry.PackedCoordinateSequence;
 import org.opentripplanner.common.model.P2;
+import org.opentripplanner.routing.core.RequestTrace;
 import org.opentripplanner.routing.core.RoutingContext;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.core.TraverseMode;
 import org.opentripplanner.routing.edgetype.DwellEdge;
 import org.opentripplanner.routing.edgetype.EdgeWithElevation;
+import org.opentripplanner.routing.edgetype.EdgeWithEncodedGeometry;
 import org.opentripplanner.routing.edgetype.ElevatorAlightEdge;
 import org.opentripplanner.routing.edgetype.ElevatorBoardEdge;
 import org.opentripplanner.routing.edgetype.ElevatorEdge;
@@ -52,6 +53,7 @@ import org.opentripplanner.routing.edgetype.StreetEdge;
 import org.opentripplanner.routing.error.PathNotFoundException;
 import org.opentripplanner.routing.error.TrivialPathException;
 import org.opentripplanner.routing.error.VertexNotFoundException;
+import org.opentripplanner.routing.impl.AdmissionController;
 import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Vertex;
@@ -62,7 +64,8 @@ import org.opentripplanner.routing.services.PathService;
 import org.opentripplanner.routing.services.TransitIndexService;
 import org.opentripplanner.routing.spt.GraphPath;
 import org.opentripplanner.routing.vertextype.TransitVertex;
-import org.opentripplanner.util.PolylineEncoder;
+import org.opentripplanner.util.PolylineBuilder;
+import org.opentripplanner.util.PolylineFragment;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -81,6 +84,8 @@ public class PlanGenerator {
 
     @Autowired public PathService pathService;
     @Autowired GraphService graphService;
+    /** Limits concurrent searches per router; when absent, searches are not limited. */
+    @Autowired(required = false) public AdmissionController admissionController;
     
     /** Generates a TripPlan from a Request */
     public TripPlan generate(RoutingRequest options) {
@@ -92,7 +97,10 @@ public class PlanGenerator {
         /* try to plan the trip */
         List<GraphPath> paths = null;
         boolean tooSloped = false;
+        AdmissionController.Permit permit = null;
         try {
+            if (admissionController != null)
+                permit = admissionController.admit(options.getRouterId());
             paths = pathService.getPaths(options);
             if (paths == null && options.isWheelchairAccessible()) {
                 // There are no paths that meet the user's slope restrictions.
@@ -104,6 +112,9 @@ public class PlanGenerator {
         } catch (VertexNotFoundException e) {
             LOG.info("Vertex not found: " + options.getFrom() + " : " + options.getTo(), e);
             throw e;
+        } finally {
+            if (permit != null)
+                permit.release();
         }
 
         if (paths == null || paths.size() == 0) {
@@ -179,7 +190,7 @@ public class PlanGenerator {
         Itinerary itinerary = makeEmptyItinerary(path);
         Set<Alert> postponedAlerts = null;
         Leg leg = null;
-        CoordinateArrayListSequence coordinates = new CoordinateArrayListSequence();
+        PolylineBuilder polyline = new PolylineBuilder();
         double previousElevation = Double.MAX_VALUE;
         int startWalk = -1;
         int i = -1;
@@ -275,11 +286,10 @@ public class PlanGenerator {
                 } else if (mode == TraverseMode.TRANSFER) {
                     // handle the whole thing in one step
                     leg = makeLeg(itinerary, state);
-                    coordinates = new CoordinateArrayListSequence();
-                    coordinates.add(state.getBackState().getVertex().getCoordinate());
-                    coordinates.add(state.getVertex().getCoordinate());
-                    finalizeLeg(leg, state, path.states, i, i, coordinates);
-                    coordinates.clear();
+                    polyline.clear();
+                    polyline.append(state.getBackState().getVertex().getCoordinate());
+                    polyline.append(state.getVertex().getCoordinate());
+                    finalizeLeg(leg, state, path.states, i, i, polyline);
                 } else {
                     LOG.error("Unexpected state (in START): " + mode);
                 }
@@ -291,24 +301,24 @@ public class PlanGenerator {
                 if (mode == TraverseMode.WALK) {
                     // do nothing
                 } else if (mode == TraverseMode.BICYCLE) {
-                    finalizeLeg(leg, state, path.states, startWalk, i, coordinates);
+                    finalizeLeg(leg, state, path.states, startWalk, i, polyline);
                     startWalk = i;
                     leg = makeLeg(itinerary, state);
                     pgstate = PlanGenState.BICYCLE;
                 } else if (mode == TraverseMode.STL) {
-                    finalizeLeg(leg, state, path.states, startWalk, i, coordinates);
+                    finalizeLeg(leg, state, path.states, startWalk, i, polyline);
                     leg = null;
                     pgstate = PlanGenState.PRETRANSIT;
                 } else if (mode == TraverseMode.BOARDING) {
                     // this only happens in case of a timed transfer.
                     pgstate = PlanGenState.PRETRANSIT;
-                    finalizeLeg(leg, state, path.states, startWalk, i, coordinates);
+                    finalizeLeg(leg, state, path.states, startWalk, i, polyline);
                     leg = makeLeg(itinerary, state);
                     itinerary.transfers++;
                 } else if (backEdge instanceof LegSwitchingEdge) {
                     nextName = state.getBackState().getBackState().getBackState().getVertex()
                             .getName();
-                    finalizeLeg(leg, state, path.states, startWalk, i - 1, coordinates);
+                    finalizeLeg(leg, state, path.states, startWalk, i - 1, polyline);
                     leg = null;
                     pgstate = PlanGenState.START;
                 } else {
@@ -349,16 +359,16 @@ public class PlanGenerator {
                 if (mode == TraverseMode.BICYCLE) {
                     // do nothing
                 } else if (mode == TraverseMode.WALK) {
-                    finalizeLeg(leg, state, path.states, startWalk, i, coordinates);
+                    finalizeLeg(leg, state, path.states, startWalk, i, polyline);
                     leg = makeLeg(itinerary, state);
                     startWalk = i;
                     pgstate = PlanGenState.WALK;
                 } else if (mode == TraverseMode.STL) {
-                    finalizeLeg(leg, state, path.states, startWalk, i, coordinates);
+                    finalizeLeg(leg, state, path.states, startWalk, i, polyline);
                     leg = null;
                     pgstate = PlanGenState.PRETRANSIT;
                 } else if (backEdge instanceof LegSwitchingEdge) {
-                    finalizeLeg(leg, state, path.states, startWalk, i - 1, coordinates);
+                    finalizeLeg(leg, state, path.states, startWalk, i - 1, polyline);
                     leg = null;
                     pgstate = PlanGenState.START;
                 } else {
@@ -372,11 +382,11 @@ public class PlanGenerator {
                 if (mode == TraverseMode.CAR) {
                     // do nothing
                 } else if (mode == TraverseMode.STL) {
-                    finalizeLeg(leg, state, path.states, startWalk, i, coordinates);
+                    finalizeLeg(leg, state, path.states, startWalk, i, polyline);
                     leg = null;
                     pgstate = PlanGenState.PRETRANSIT;
                 } else if (backEdge instanceof LegSwitchingEdge) {
-                    finalizeLeg(leg, state, path.states, startWalk, i - 1, coordinates);
+                    finalizeLeg(leg, state, path.states, startWalk, i - 1, polyline);
                     leg = null;
                     pgstate = PlanGenState.START;
                 } else {
@@ -410,7 +420,7 @@ public class PlanGenerator {
                         }
                     }
                     leg.alightRule = (String) state.getExtension("boardAlightRule");
-                    finalizeLeg(leg, state, null, -1, -1, coordinates);
+                    finalizeLeg(leg, state, null, -1, -1, polyline);
                     leg = null;
                     pgstate = PlanGenState.START;
                 } else if (mode.toString().equals(leg.mode)) {
@@ -428,7 +438,7 @@ public class PlanGenerator {
                     }
                     if (!route.equals(leg.route)) {
                         // interline dwell
-                        finalizeLeg(leg, state, null, -1, -1, coordinates);
+                        finalizeLeg(leg, state, null, -1, -1, polyline);
                         leg = makeLeg(itinerary, state);
                         leg.stop = new ArrayList<Place>();
                         fixupTransitLeg(leg, state, transitIndex);
@@ -442,15 +452,14 @@ public class PlanGenerator {
             }
             if (leg != null) {
                 leg.distance += backEdge.getDistance();
-                Geometry edgeGeometry = backEdge.getGeometry();
-                if (edgeGeometry != null) {
-                    Coordinate[] edgeCoordinates = edgeGeometry.getCoordinates();
-                    if (coordinates.size() > 0
-                            && coordinates.getCoordinate(coordinates.size() - 1).equals(
-                                    edgeCoordinates[0])) {
-                        coordinates.extend(edgeCoordinates, 1);
-                    } else {
-                        coordinates.extend(edgeCoordinates);
+                // streets and hops keep their geometry already encoded
+                if (backEdge instanceof EdgeWithEncodedGeometry) {
+                    polyline.append(((EdgeWithEncodedGeometry) backEdge).getEncodedGeometry());
+                } else {
+                    Geometry edgeGeometry = backEdge.getGeometry();
+                    if (edgeGeometry != null) {
+                        polyline.append(PolylineFragment.fromCoordinates(
+                                edgeGeometry.getCoordinates()));
                     }
                 }
 
@@ -466,7 +475,7 @@ public class PlanGenerator {
         } /* end loop over graphPath edge list */
 
         if (leg != null) {
-            finalizeLeg(leg, path.states.getLast(), path.states, startWalk, i, coordinates);
+            finalizeLeg(leg, path.states.getLast(), path.states, startWalk, i, polyline);
         }
         itinerary.removeBogusLegs();
         itinerary.fixupDates(graph.getService(CalendarServiceData.class));
@@ -514,13 +523,12 @@ public class PlanGenerator {
     }
 
     private void finalizeLeg(Leg leg, State state, List<State> states, int start, int end,
-            CoordinateArrayListSequence coordinates) {
+            PolylineBuilder polyline) {
         if (start != -1) {
             leg.walkSteps = getWalkSteps(states.subList(start, end + 1));
         }
         leg.endTime = makeCalendar(state.getBackState());
-        Geometry geometry = GeometryUtils.getGeometryFactory().createLineString(coordinates);
-        leg.legGeometry = PolylineEncoder.createEncodings(geometry);
+        leg.legGeometry = polyline.toEncodedPolyline();
         Edge backEdge = state.getBackEdge();
         String name;
         if (backEdge instanceof StreetEdge) {
@@ -529,7 +537,7 @@ public class PlanGenerator {
             name = state.getVertex().getName();
         }
         leg.to = makePlace(state, name, true);
-        coordinates.clear();
+        polyline.clear();
     }
 
     private Set<Alert> addNotesToLeg(Leg leg, Set<Alert> notes) {
@@ -609,7 +617,10 @@ public class PlanGenerator {
         Graph graph = path.getRoutingContext().graph;
         FareService fareService = graph.getService(FareService.class);
         if (fareService != null) {
+            RequestTrace trace = path.getRoutingContext().trace;
+            long faresBegin = trace.begin();
             itinerary.fare = fareService.getCost(path);
+            trace.end(RequestTrace.Phase.FARES, faresBegin);
         }
         itinerary.transfers = -1;
         return itinerary;
@@ -12,6 +12,9 @@
  along with this program.  If not, see <http://www.gnu.org/licenses/>. */
 package org.opentripplanner.api.ws;
 
+import java.io.IOException;
+import java.util.concurrent.Callable;
+
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
@@ -24,7 +27,13 @@ import org.codehaus.jettison.json.JSONException;
 import org.opentripplanner.api.common.RoutingResource;
 import org.opentripplanner.api.model.TripPlan;
 import org.opentripplanner.api.model.error.PlannerError;
+import org.opentripplanner.api.servlet.RequestTraceFilter;
+import org.opentripplanner.jsonp.WriteFailureListener;
+import org.opentripplanner.routing.core.CancellationToken;
+import org.opentripplanner.routing.core.RequestTrace;
 import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.error.ServerBusyException;
+import org.opentripplanner.routing.impl.RequestTraceCollector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -51,7 +60,11 @@ import com.sun.jersey.api.spring.Autowire;
 public class Planner extends RoutingResource {
 
     private static final Logger LOG = LoggerFactory.getLogger(Planner.class);
+    /** The servlet request attribute under which the search's CancellationToken is stored. */
+    public static final String CANCELLATION_ATTRIBUTE = CancellationToken.class.getName();
     @Autowired public PlanGenerator planGenerator;
+    @Autowired(required = false) public PlanCache planCache;
+    @Autowired(required = false) public RequestTraceCollector traceCollector;
     @Context protected HttpServletRequest httpServletRequest;
 
     /** Java is immensely painful */
@@ -71,18 +84,51 @@ public class Planner extends RoutingResource {
         // create response object, containing a copy of all request parameters
         Response response = new Response(httpServletRequest);
         RoutingRequest request = null;
+        // a RequestTraceFilter may have started a trace which also covers serialization
+        RequestTrace trace = (RequestTrace) httpServletRequest.getAttribute(
+                RequestTraceFilter.TRACE_ATTRIBUTE);
+        boolean ownTrace = trace == null && traceCollector != null && traceCollector.isEnabled();
+        if (ownTrace)
+            trace = new RequestTrace();
         try {
             // fill in request from query parameters via shared superclass method
             request = super.buildRequest();
+            // The search stops if the request thread is interrupted, e.g. by a stuck thread
+            // valve or at shutdown, if a filter cancels the token found in the request
+            // attributes, if writing the response fails, or at the deadline of the request,
+            // which holds for all the searches made for it.
+            final CancellationToken cancellation = new CancellationToken(Thread.currentThread());
+            cancellation.setTimeout(request.timeout);
+            request.cancellation = cancellation;
+            httpServletRequest.setAttribute(CANCELLATION_ATTRIBUTE, cancellation);
+            httpServletRequest.setAttribute(WriteFailureListener.ATTRIBUTE,
+                    new WriteFailureListener() {
+                        @Override
+                        public void writeFailed(IOException e) {
+                            cancellation.cancel();
+                        }
+                    });
+            if (trace != null) {
+                trace.setDescription(request.getFrom() + " to " + request.getTo());
+                request.trace = trace;
+            }
             TripPlan plan = func.call(request);
             response.setPlan(plan);
         } catch (Exception e) {
             PlannerError error = new PlannerError(e);
-            e.printStackTrace();
+            // refusals are expected under load, and already counted and logged
+            if ( ! (e instanceof ServerBusyException))
+                e.printStackTrace();
             response.setError(error);
         } finally {
-            if (request != null) 
+            // plans served from the cache never create a routing context
+            if (request != null && request.getRoutingContext() != null) 
                 request.cleanup();
+            if (trace != null) {
+                trace.responseReady();
+                if (ownTrace)
+                    traceCollector.record(trace);
+            }
         }
         return response;
     }
@@ -91,8 +137,13 @@ public class Planner extends RoutingResource {
     @Produces( { MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML, MediaType.TEXT_XML })
     public Response getItineraries() throws JSONException {
         return wrapGenerate(new OneArgFunc<TripPlan, RoutingRequest>() {
-            public TripPlan call(RoutingRequest request) {
-                return planGenerator.generate(request);
+            public TripPlan call(final RoutingRequest request) {
+                if (planCache == null)
+                    return planGenerator.generate(request);
+                return planCache.get(request, new Callable<TripPlan>() {
+                    public TripPlan call() {
+                        return planGenerator.generate(request);
+                    }});
             }});
     }
 
@@ -139,12 +139,19 @@ public class Routers {
 
     /** 
      * Reload the graphs for all registered routerIds from disk.
+     * @param async load the new graphs on a background thread and return immediately. The old
+     * graphs are not pre-evicted, and each keeps serving requests until its replacement is ready.
      */
     @Secured({ "ROLE_ROUTERS" })
     @PUT @Produces({ MediaType.APPLICATION_JSON })
     public Response reloadGraphs(@QueryParam("path") String path, 
-            @QueryParam("preEvict") @DefaultValue("true") boolean preEvict) {
+            @QueryParam("preEvict") @DefaultValue("true") boolean preEvict,
+            @QueryParam("async") @DefaultValue("false") boolean async) {
         GraphServiceImpl gsi = (GraphServiceImpl) graphService;
+        if (async) {
+            gsi.reloadGraphsInBackground();
+            return Response.status(Status.ACCEPTED).build();
+        }
         gsi.reloadGraphs(preEvict);
         return Response.status(Status.OK).build();
     }
@@ -155,6 +162,8 @@ public class Routers {
      * memory usage from increasing during the reload, but routing will be unavailable on this 
      * routerId for the duration of the operation.
      * @param upload read the graph from the PUT data stream instead of from disk.
+     * @param async load the graph from disk on a background thread and return immediately, 
+     * without pre-evicting the existing graph.
      */
     @Secured({ "ROLE_ROUTERS" })
     @PUT @Path("{routerId}") @Produces({ MediaType.TEXT_PLAIN })
@@ -163,9 +172,14 @@ public class Routers {
             @PathParam("routerId") String routerId, 
             @QueryParam("preEvict") @DefaultValue("true") boolean preEvict, 
             @QueryParam("upload") @DefaultValue("false") boolean upload,
+            @QueryParam("async") @DefaultValue("false") boolean async,
             //@QueryParam("loadLevel") @DefaultValue("FULL") LoadLevel level,
             InputStream is) {
         Graph graph;
+        if (async && ! upload && graphService instanceof GraphServiceImpl) {
+            ((GraphServiceImpl) graphService).registerGraphInBackground(routerId);
+            return Response.status(Status.ACCEPTED).entity("graph loading.").build();
+        }
         if (preEvict) {
             LOG.debug("pre-evicting graph");
             graphService.evictGraph(routerId);
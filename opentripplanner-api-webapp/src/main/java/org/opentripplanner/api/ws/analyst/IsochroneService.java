@@ -0,0 +1,104 @@
+package org.opentripplanner.api.ws.analyst;
+
+import java.util.List;
+
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import org.geotools.geojson.geom.GeometryJSON;
+import org.opentripplanner.analyst.request.SurfaceCache;
+import org.opentripplanner.analyst.request.SurfaceRequest;
+import org.opentripplanner.api.common.RoutingResource;
+import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.jersey.api.core.InjectParam;
+import com.sun.jersey.api.spring.Autowire;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Isochrones around the fromPlace (given as "lat,lon") as a GeoJSON FeatureCollection, with one
+ * polygon feature per cutoff. Travel times are sampled on a grid of the given resolution in
+ * meters, extending radius meters from the origin; the grid is cached so that later requests
+ * for other cutoffs only need to be contoured.
+ */
+@Path("/isochrone")
+@Autowire
+public class IsochroneService extends RoutingResource {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IsochroneService.class);
+
+    private static final int MAX_GRID_NODES = 1000 * 1000;
+
+    @InjectParam
+    private SurfaceCache surfaceCache;
+
+    /** cutoff times in minutes */
+    @QueryParam("cutoff") List<Integer> cutoffs;
+    @QueryParam("resolution") @DefaultValue("100") double resolution;
+    @QueryParam("radius") @DefaultValue("10000") double radius;
+
+    @GET @Produces(MediaType.APPLICATION_JSON)
+    public Response getIsochrones() throws Exception {
+        if (cutoffs == null || cutoffs.isEmpty())
+            return badRequest("at least one cutoff is required");
+        if (resolution <= 0 || radius <= 0)
+            return badRequest("resolution and radius must be positive");
+        RoutingRequest req = buildRequest();
+        req.batch = true;
+        if (req.arriveBy)
+            return badRequest("isochrones are only computed departing after a time");
+        String[] latLon = req.getFromPlace().place.split(",");
+        double lat, lon;
+        try {
+            lat = Double.parseDouble(latLon[0].trim());
+            lon = Double.parseDouble(latLon[1].trim());
+        } catch (RuntimeException e) {
+            return badRequest("fromPlace must be given as lat,lon");
+        }
+        // a grid with nodes evenly spaced in meters, in the equirectangular approximation
+        double dLat = SphericalDistanceLibrary.metersToDegrees(resolution);
+        double dLon = dLat / Math.cos(Math.toRadians(lat));
+        int half = (int) Math.ceil(radius / resolution);
+        int size = 2 * half + 1;
+        if ((long) size * size > MAX_GRID_NODES)
+            return badRequest("too many grid cells, increase resolution or reduce radius");
+        Envelope env = new Envelope(lon - half * dLon, lon + half * dLon,
+                lat - half * dLat, lat + half * dLat);
+        SurfaceRequest surfaceRequest = new SurfaceRequest(req, env, size, size);
+
+        int[] seconds = new int[cutoffs.size()];
+        for (int i = 0; i < seconds.length; i++)
+            seconds[i] = cutoffs.get(i) * 60;
+        long t0 = System.currentTimeMillis();
+        List<Geometry> isochrones = surfaceCache.getIsochrones(surfaceRequest, seconds);
+        LOG.debug("{} isochrones in {}msec", seconds.length, System.currentTimeMillis() - t0);
+
+        GeometryJSON json = new GeometryJSON();
+        StringBuilder sb = new StringBuilder("{\"type\":\"FeatureCollection\",\"features\":[");
+        for (int i = 0; i < isochrones.size(); i++) {
+            if (i > 0)
+                sb.append(',');
+            sb.append("{\"type\":\"Feature\",\"properties\":{\"time\":");
+            sb.append(seconds[i]);
+            sb.append("},\"geometry\":");
+            sb.append(json.toString(isochrones.get(i)));
+            sb.append('}');
+        }
+        sb.append("]}");
+        return Response.ok(sb.toString()).build();
+    }
+
+    private static Response badRequest(String message) {
+        return Response.status(Response.Status.BAD_REQUEST).entity(message).build();
+    }
+
+}
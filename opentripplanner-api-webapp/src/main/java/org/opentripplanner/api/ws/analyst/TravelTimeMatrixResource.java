@@ -0,0 +1,132 @@
+package org.opentripplanner.api.ws.analyst;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Response;
+
+import org.opentripplanner.analyst.batch.TravelTimeMatrix;
+import org.opentripplanner.analyst.request.MatrixRequest;
+import org.opentripplanner.analyst.request.TravelTimeMatrixCache;
+import org.opentripplanner.api.common.RoutingResource;
+import org.opentripplanner.routing.core.CancellationToken;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.error.VertexNotFoundException;
+import org.opentripplanner.routing.graph.Graph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.jersey.api.core.InjectParam;
+import com.sun.jersey.api.spring.Autowire;
+
+/**
+ * Travel times in seconds from each origin to each destination, computed with RAPTOR. Origins
+ * and destinations are given as repeated "lat,lon" parameters; the usual routing parameters
+ * (date, time, maxWalkDistance, maxTransfers, slacks) apply to every origin. The response is
+ * CSV with one line per origin, where -1 marks an unreachable destination and -2 a point that
+ * could not be linked into the graph. If the rows are not all found within timeout seconds
+ * (by default, no limit) the request fails with 503 Service Unavailable.
+ */
+@Path("/matrix")
+@Autowire
+public class TravelTimeMatrixResource extends RoutingResource {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TravelTimeMatrixResource.class);
+
+    @InjectParam
+    private TravelTimeMatrixCache matrixCache;
+
+    @QueryParam("origin") List<String> origins;
+    @QueryParam("destination") List<String> destinations;
+    @DefaultValue("-1") @QueryParam("timeout") double timeout;
+
+    @GET @Produces("text/csv")
+    public Response getMatrix() throws Exception {
+        if (origins == null || origins.isEmpty() || destinations == null || destinations.isEmpty())
+            return Response.status(Response.Status.BAD_REQUEST)
+                    .entity("at least one origin and one destination are required").build();
+        double[] orig = new double[origins.size() * 2];
+        for (int o = 0; o < origins.size(); o++) {
+            if ( ! parseLatLon(origins.get(o), orig, o))
+                return badPoint(origins.get(o));
+        }
+        double[] dest = new double[destinations.size() * 2];
+        for (int d = 0; d < destinations.size(); d++) {
+            if ( ! parseLatLon(destinations.get(d), dest, d))
+                return badPoint(destinations.get(d));
+        }
+        // one matrix serves every origin, so the request must not depend on the origin
+        RoutingRequest options = buildRequest();
+        options.batch = true;
+        options.setArriveBy(false);
+        options.setFrom(prototypeRoutingRequest.getFromPlace().getRepresentation());
+
+        // the matrix and its options are shared, so this request brings its own deadline, which
+        // also holds for the walks from every stop when the matrix is not cached yet
+        CancellationToken cancellation = new CancellationToken(Thread.currentThread());
+        cancellation.setTimeout(timeout);
+        TravelTimeMatrix matrix;
+        try {
+            matrix = matrixCache.get(new MatrixRequest(options, orig, dest, cancellation));
+        } catch (CancellationException e) {
+            return notCompleted();
+        }
+
+        Graph graph = graphService.getGraph(options.routerId);
+        StringBuilder sb = new StringBuilder();
+        for (String origin : origins) {
+            RoutingRequest req = options.clone();
+            req.setFrom(origin);
+            int[] row = null;
+            try {
+                req.setRoutingContext(graph);
+                row = matrix.getRow(req.rctx.origin, cancellation);
+            } catch (VertexNotFoundException vnfe) {
+                LOG.debug("no vertex could be created near the origin point {}", origin);
+            } finally {
+                if (req.rctx != null)
+                    req.cleanup();
+            }
+            if (cancellation.shouldAbort())
+                return notCompleted();
+            sb.append(origin.replace(',', ' '));
+            for (int d = 0; d < matrix.getNDestinations(); d++)
+                sb.append(',').append(row == null ? TravelTimeMatrix.UNLINKED : row[d]);
+            sb.append('\n');
+        }
+        return Response.ok(sb.toString()).build();
+    }
+
+    private static Response notCompleted() {
+        return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                .entity("travel time matrix was not completed in time").build();
+    }
+
+    private static Response badPoint(String point) {
+        return Response.status(Response.Status.BAD_REQUEST)
+                .entity("cannot parse coordinates " + point).build();
+    }
+
+    /**
+     * Store the latitude and longitude in a "lat,lon" string as the given pair of coords.
+     * @return false if the string is malformed.
+     */
+    private static boolean parseLatLon(String s, double[] coords, int pair) {
+        String[] parts = s.split(",");
+        if (parts.length != 2)
+            return false;
+        try {
+            coords[pair * 2] = Double.parseDouble(parts[0].trim());
+            coords[pair * 2 + 1] = Double.parseDouble(parts[1].trim());
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+}
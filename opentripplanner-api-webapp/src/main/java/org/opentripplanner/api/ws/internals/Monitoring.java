@@ -13,6 +13,9 @@
 
 package org.opentripplanner.api.ws.internals;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import javax.ws.rs.FormParam;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
@@ -22,8 +25,11 @@ import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
 import javax.xml.bind.annotation.XmlRootElement;
 
+import org.opentripplanner.routing.core.RequestTrace;
+import org.opentripplanner.routing.impl.RequestTraceCollector;
 import org.opentripplanner.util.monitoring.MonitoringStore;
 import org.opentripplanner.util.monitoring.MonitoringStoreFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.access.annotation.Secured;
 
 import com.sun.jersey.api.spring.Autowire;
@@ -42,6 +48,9 @@ import com.sun.jersey.spi.resource.Singleton;
 public class Monitoring {
     static MonitoringStore store = MonitoringStoreFactory.getStore();
 
+    @Autowired(required = false)
+    RequestTraceCollector traceCollector;
+
     /**
      * Get a Long from the monitoring store
      * 
@@ -86,4 +95,41 @@ public class Monitoring {
         return store.isMonitoring(key);
     }
 
+    /**
+     * Routing request statistics (phase times, expanded states, timeouts...) and every long in
+     * the monitoring store (admission control, plan cache, updaters, graph loading...) in the
+     * Prometheus text exposition format.
+     */
+    @Secured({ "ROLE_USER" })
+    @GET
+    @Path("/metrics")
+    @Produces({ MediaType.TEXT_PLAIN })
+    public String getMetrics() {
+        StringBuilder sb = new StringBuilder();
+        if (traceCollector != null)
+            sb.append(traceCollector.toPrometheus());
+        store.writePrometheus(sb, "otp_");
+        return sb.toString();
+    }
+
+    /**
+     * The traces of the slowest routing requests, slowest first.
+     * 
+     * @param clear whether to forget them afterward
+     */
+    @Secured({ "ROLE_USER" })
+    @GET
+    @Path("/slowest")
+    @Produces({ MediaType.APPLICATION_JSON })
+    public Object getSlowest(@QueryParam("clear") boolean clear) {
+        List<String> traces = new ArrayList<String>();
+        if (traceCollector == null)
+            return traces;
+        for (RequestTrace trace : traceCollector.getSlowest())
+            traces.add(trace.toString());
+        if (clear)
+            traceCollector.clearSlowest();
+        return traces;
+    }
+
 }
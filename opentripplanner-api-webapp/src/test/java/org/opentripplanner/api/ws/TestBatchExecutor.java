@@ -0,0 +1,190 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.api.ws;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.opentripplanner.api.ws.BatchExecutor.Batch;
+import org.opentripplanner.routing.impl.AdmissionController;
+
+public class TestBatchExecutor extends TestCase {
+
+    private BatchExecutor executor;
+
+    public void setUp() {
+        executor = new BatchExecutor();
+    }
+
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    public void testResults() throws Exception {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+        for (int i = 0; i < 50; i++) {
+            final int n = i;
+            tasks.add(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    int r = running.incrementAndGet();
+                    synchronized (maxRunning) {
+                        if (r > maxRunning.get())
+                            maxRunning.set(r);
+                    }
+                    Thread.sleep(1);
+                    running.decrementAndGet();
+                    return n;
+                }
+            });
+        }
+        Batch<Integer> batch = executor.submit(tasks, 2);
+        Set<Integer> results = new HashSet<Integer>();
+        for (int i = 0; i < tasks.size(); i++)
+            results.add(batch.take());
+        assertEquals(50, results.size());
+        // the batch never has more than the threads it asked for
+        assertTrue(maxRunning.get() <= 2);
+    }
+
+    public void testFailure() throws Exception {
+        List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+        tasks.add(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                throw new IllegalStateException("no plan");
+            }
+        });
+        try {
+            executor.submit(tasks, 1).take();
+            fail("the exception of the task should be reported");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    public void testCancel() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+        for (int i = 0; i < 10; i++) {
+            tasks.add(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    calls.incrementAndGet();
+                    started.countDown();
+                    try {
+                        Thread.sleep(10000);
+                    } catch (InterruptedException e) {
+                        interrupted.countDown();
+                    }
+                    return 0;
+                }
+            });
+        }
+        Batch<Integer> batch = executor.submit(tasks, 1);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        batch.cancel();
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        Thread.sleep(50);
+        // the rest of the batch is never started
+        assertEquals(1, calls.get());
+        // and the thread goes back to the other batches
+        List<Callable<Integer>> more = new ArrayList<Callable<Integer>>();
+        more.add(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return Thread.currentThread().isInterrupted() ? 1 : 2;
+            }
+        });
+        assertEquals(Integer.valueOf(2), executor.submit(more, 1).take());
+    }
+
+    /** A batch submitted behind a large one gets a thread between the tasks of the first. */
+    public void testInterleaving() throws Exception {
+        final AtomicInteger done = new AtomicInteger();
+        List<Callable<Integer>> large = new ArrayList<Callable<Integer>>();
+        for (int i = 0; i < 200; i++) {
+            large.add(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    Thread.sleep(5);
+                    done.incrementAndGet();
+                    return 0;
+                }
+            });
+        }
+        Batch<Integer> first = executor.submit(large, executor.getThreads());
+        List<Callable<Integer>> small = new ArrayList<Callable<Integer>>();
+        small.add(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return done.get();
+            }
+        });
+        int doneBefore = executor.submit(small, 1).take();
+        assertTrue(doneBefore < large.size() / 2);
+        first.cancel();
+    }
+
+    public void testThreads() {
+        int n = BatchExecutor.MAX_THREADS;
+        assertEquals(n, executor.getThreads());
+        assertEquals(Math.max(1, n / 2), executor.getDefaultParallelism());
+        // batches leave at least one search slot to other requests
+        AdmissionController admission = new AdmissionController();
+        executor.admissionController = admission;
+        admission.setMaxConcurrent(3);
+        assertEquals(Math.min(n, 2), executor.getThreads());
+        admission.setMaxConcurrent(1);
+        assertEquals(1, executor.getThreads());
+        assertEquals(1, executor.getDefaultParallelism());
+        admission.setMaxConcurrent(n + 4);
+        assertEquals(n, executor.getThreads());
+    }
+
+    public void testShutdown() {
+        // shutting down before the first batch is harmless
+        executor.shutdown();
+        List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+        tasks.add(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return 0;
+            }
+        });
+        executor.submit(tasks, 1);
+        executor.shutdown();
+        try {
+            executor.submit(tasks, 1);
+            fail("a shut down executor should not accept batches");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+    }
+
+}
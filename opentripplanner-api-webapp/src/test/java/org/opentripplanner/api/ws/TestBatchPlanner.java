@@ -0,0 +1,128 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.api.ws;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import junit.framework.TestCase;
+
+import org.opentripplanner.api.model.TripPlan;
+import org.opentripplanner.api.model.error.PlannerError;
+import org.opentripplanner.api.ws.BatchPlanner.BatchItem;
+import org.opentripplanner.routing.core.CancellationToken;
+import org.opentripplanner.routing.core.RequestTrace;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.edgetype.TimetableResolver;
+import org.opentripplanner.routing.impl.RequestTraceCollector;
+
+public class TestBatchPlanner extends TestCase {
+
+    /** Records the requests it is given, and whether their tokens follow the calling thread. */
+    private static class RecordingGenerator extends PlanGenerator {
+
+        List<RoutingRequest> requests = new ArrayList<RoutingRequest>();
+
+        List<Boolean> abortedByInterrupt = new ArrayList<Boolean>();
+
+        @Override
+        public synchronized TripPlan generate(RoutingRequest options) {
+            requests.add(options);
+            CancellationToken token = options.cancellation;
+            boolean before = token.shouldAbort();
+            Thread.currentThread().interrupt();
+            abortedByInterrupt.add( ! before && token.shouldAbort());
+            Thread.interrupted();
+            return new TripPlan();
+        }
+    }
+
+    private BatchItem item(String id, String from, String to) {
+        BatchItem item = new BatchItem();
+        item.id = id;
+        item.fromPlace = from;
+        item.toPlace = to;
+        return item;
+    }
+
+    public void testPlanItem() {
+        RecordingGenerator generator = new RecordingGenerator();
+        BatchPlanner planner = new BatchPlanner();
+        planner.planGenerator = generator;
+        RoutingRequest prototype = new RoutingRequest();
+        TimetableResolver snapshot = new TimetableResolver();
+        TimeZone tz = TimeZone.getTimeZone("America/New_York");
+
+        Map<String, Object> first = planner.planItem(prototype, item("1", "A", "B"), tz, snapshot);
+        Map<String, Object> second = planner.planItem(prototype, item("2", "B", "C"), tz, snapshot);
+        assertEquals("1", first.get("id"));
+        assertTrue(first.get("plan") instanceof TripPlan);
+        assertEquals(2, generator.requests.size());
+        RoutingRequest a = generator.requests.get(0);
+        RoutingRequest b = generator.requests.get(1);
+        assertEquals("A", a.from);
+        assertEquals("C", b.to);
+        assertSame(snapshot, a.timetableSnapshot);
+        // every trip has a token of its own, which stops it when its thread is interrupted
+        assertNotNull(a.cancellation);
+        assertNotSame(a.cancellation, b.cancellation);
+        assertNull(prototype.cancellation);
+        // and nothing is traced without a collector
+        assertNull(a.trace);
+        assertEquals(Boolean.TRUE, generator.abortedByInterrupt.get(0));
+        assertEquals(Boolean.TRUE, generator.abortedByInterrupt.get(1));
+        // cancelling one trip leaves the others alone
+        a.cancellation.cancel();
+        assertFalse(b.cancellation.shouldAbort());
+        assertEquals("2", second.get("id"));
+    }
+
+    public void testPlanItemTraces() {
+        RecordingGenerator generator = new RecordingGenerator();
+        BatchPlanner planner = new BatchPlanner();
+        planner.planGenerator = generator;
+        planner.traceCollector = new RequestTraceCollector();
+        RoutingRequest prototype = new RoutingRequest();
+        TimeZone tz = TimeZone.getTimeZone("America/New_York");
+        planner.planItem(prototype, item("1", "A", "B"), tz, null);
+        planner.planItem(prototype, item("2", "B", "C"), tz, null);
+        // every trip is traced and recorded on its own
+        RequestTrace a = generator.requests.get(0).trace;
+        RequestTrace b = generator.requests.get(1).trace;
+        assertNotNull(a);
+        assertNotSame(a, b);
+        assertNull(prototype.trace);
+        assertEquals("A to B", a.getDescription());
+        assertTrue(a.getTotalNanos() >= 0);
+        List<RequestTrace> recorded = planner.traceCollector.getSlowest();
+        assertEquals(2, recorded.size());
+        assertTrue(recorded.contains(a));
+        assertTrue(recorded.contains(b));
+    }
+
+    public void testPlanItemError() {
+        RecordingGenerator generator = new RecordingGenerator();
+        BatchPlanner planner = new BatchPlanner();
+        planner.planGenerator = generator;
+        Map<String, Object> result = planner.planItem(new RoutingRequest(),
+                item("3", "A", null), TimeZone.getTimeZone("America/New_York"), null);
+        assertEquals("3", result.get("id"));
+        assertTrue(result.get("error") instanceof PlannerError);
+        assertFalse(result.containsKey("plan"));
+        assertTrue(generator.requests.isEmpty());
+    }
+
+}
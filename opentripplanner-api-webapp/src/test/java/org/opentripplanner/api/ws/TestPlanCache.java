@@ -0,0 +1,145 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.api.ws;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import junit.framework.TestCase;
+
+import org.opentripplanner.api.model.TripPlan;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.edgetype.TimetableResolver;
+import org.opentripplanner.routing.edgetype.TimetableSnapshotSource;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.impl.GraphServiceBeanImpl;
+import org.opentripplanner.routing.impl.StreetVertexIndexServiceImpl;
+import org.opentripplanner.util.monitoring.MonitoringStoreFactory;
+
+public class TestPlanCache extends TestCase {
+
+    private Graph graph;
+
+    private TimetableResolver snapshot;
+
+    private PlanCache cache;
+
+    private int generated;
+
+    /** the times of the requests plans were generated for */
+    private List<Long> times;
+
+    public void setUp() {
+        graph = new Graph();
+        graph.streetIndex = new StreetVertexIndexServiceImpl(graph);
+        snapshot = new TimetableResolver();
+        graph.timetableSnapshotSource = new TimetableSnapshotSource() {
+            @Override
+            public TimetableResolver getSnapshot() {
+                return snapshot;
+            }
+        };
+        cache = new PlanCache();
+        cache.setGraphService(new GraphServiceBeanImpl(graph));
+        cache.setEnabled(true);
+        cache.setTimeBucket(60);
+        cache.setup();
+        generated = 0;
+        times = new ArrayList<Long>();
+    }
+
+    /** @return a request between places that are not coordinates, so are never snapped. */
+    private RoutingRequest request(String from, String to, long time) {
+        RoutingRequest request = new RoutingRequest();
+        request.setFrom(from);
+        request.setTo(to);
+        request.dateTime = time;
+        return request;
+    }
+
+    private TripPlan plan(final RoutingRequest request) {
+        return cache.get(request, new Callable<TripPlan>() {
+            @Override
+            public TripPlan call() {
+                generated++;
+                times.add(request.dateTime);
+                return new TripPlan();
+            }
+        });
+    }
+
+    public void testHit() {
+        TripPlan first = plan(request("stop A", "stop D", 1200));
+        // a request in the same time bucket is the same request
+        assertSame(first, plan(request("stop A", "stop D", 1259)));
+        assertEquals(1, generated);
+        assertEquals(1, cache.getStats().hitCount());
+        assertEquals(Long.valueOf(1), MonitoringStoreFactory.getStore().getLong("planCache.hits"));
+    }
+
+    public void testMiss() {
+        TripPlan first = plan(request("stop A", "stop D", 1200));
+        assertNotSame(first, plan(request("stop A", "stop D", 1260)));
+        assertNotSame(first, plan(request("stop A", "stop C", 1200)));
+        RoutingRequest arriveBy = request("stop A", "stop D", 1200);
+        arriveBy.setArriveBy(true);
+        assertNotSame(first, plan(arriveBy));
+        assertEquals(4, generated);
+        assertEquals(0, cache.getStats().hitCount());
+    }
+
+    public void testInvalidation() {
+        TripPlan first = plan(request("stop A", "stop D", 1200));
+        assertSame(first, plan(request("stop A", "stop D", 1200)));
+        // new real-time data invalidates the plans made on the previous snapshot
+        snapshot = new TimetableResolver();
+        TripPlan second = plan(request("stop A", "stop D", 1200));
+        assertNotSame(first, second);
+        assertSame(second, plan(request("stop A", "stop D", 1200)));
+        // and so does a new graph
+        Graph reloaded = new Graph();
+        reloaded.streetIndex = graph.streetIndex;
+        reloaded.timetableSnapshotSource = graph.timetableSnapshotSource;
+        cache.setGraphService(new GraphServiceBeanImpl(reloaded));
+        assertNotSame(second, plan(request("stop A", "stop D", 1200)));
+        assertEquals(3, generated);
+    }
+
+    public void testRepresentativeTime() {
+        // whichever request of the bucket comes first, the plan departs after all of them
+        TripPlan departing = plan(request("stop A", "stop D", 1210));
+        assertSame(departing, plan(request("stop A", "stop D", 1259)));
+        assertEquals(Long.valueOf(1259), times.get(0));
+        // and arrives before all of them
+        RoutingRequest arriveBy = request("stop A", "stop D", 1250);
+        arriveBy.setArriveBy(true);
+        TripPlan arriving = plan(arriveBy);
+        assertEquals(Long.valueOf(1200), times.get(1));
+        arriveBy = request("stop A", "stop D", 1200);
+        arriveBy.setArriveBy(true);
+        assertSame(arriving, plan(arriveBy));
+        assertEquals(2, generated);
+    }
+
+    public void testDisabled() {
+        cache.setEnabled(false);
+        plan(request("stop A", "stop D", 1210));
+        plan(request("stop A", "stop D", 1210));
+        assertEquals(2, generated);
+        // uncached requests keep their own time
+        assertEquals(Long.valueOf(1210), times.get(1));
+    }
+
+}
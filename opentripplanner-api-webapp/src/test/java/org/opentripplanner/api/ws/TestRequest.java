@@ -85,6 +85,7 @@ import org.opentripplanner.routing.impl.RetryingPathServiceImpl;
 import org.opentripplanner.routing.impl.StreetVertexIndexServiceImpl;
 import org.opentripplanner.routing.impl.TravelingSalesmanPathService;
 import org.opentripplanner.routing.patch.Patch;
+import org.opentripplanner.routing.services.GraphRegistrationListener;
 import org.opentripplanner.routing.services.GraphService;
 import org.opentripplanner.routing.services.PatchService;
 import org.opentripplanner.routing.spt.GraphPath;
@@ -141,6 +142,15 @@ class SimpleGraphServiceImpl implements GraphService {
         return 0;
     }
 
+    @Override
+    public void addGraphRegistrationListener(String routerId, 
+            GraphRegistrationListener listener) {
+    }
+
+    @Override
+    public void removeGraphRegistrationListener(GraphRegistrationListener listener) {
+    }
+
 }
 
 /* This is a hack to hold context and graph data between test runs, since loading it is slow. */
@@ -0,0 +1,90 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.opentripplanner.routing.algorithm.GenericAStar;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+
+/**
+ * Complete GenericAStar searches, including the creation of the routing context and its
+ * heuristic, cycling through a fixed set of origin and destination pairs. Walking searches run
+ * on the street graph and transit searches on the Caltrain graph.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AStarBenchmark {
+
+    private static final int N_PAIRS = 16;
+
+    private static final TraverseModeSet WALK = new TraverseModeSet(TraverseMode.WALK);
+
+    private static final TraverseModeSet TRANSIT = new TraverseModeSet("TRANSIT,WALK");
+
+    private final GenericAStar aStar = new GenericAStar();
+
+    private Graph streetGraph;
+
+    private Graph transitGraph;
+
+    private Vertex[][] streetPairs;
+
+    private Vertex[][] transitPairs;
+
+    private int nextStreet = 0;
+
+    private int nextTransit = 0;
+
+    @Setup
+    public void setup() {
+        streetGraph = BenchmarkGraphs.getStreetGraph();
+        streetPairs = BenchmarkGraphs.connectedPairs(streetGraph, 
+                BenchmarkGraphs.getIntersections(streetGraph), WALK, 
+                BenchmarkGraphs.TRANSIT_DATE_TIME, N_PAIRS);
+        transitGraph = BenchmarkGraphs.getTransitGraph();
+        transitPairs = BenchmarkGraphs.connectedPairs(transitGraph, 
+                BenchmarkGraphs.getTransitStops(transitGraph), TRANSIT, 
+                BenchmarkGraphs.TRANSIT_DATE_TIME, N_PAIRS);
+    }
+
+    @Benchmark
+    public ShortestPathTree streetSearch() {
+        Vertex[] pair = streetPairs[nextStreet];
+        nextStreet = (nextStreet + 1) % N_PAIRS;
+        return aStar.getShortestPathTree(BenchmarkGraphs.request(streetGraph, pair[0], pair[1], 
+                WALK, BenchmarkGraphs.TRANSIT_DATE_TIME));
+    }
+
+    @Benchmark
+    public ShortestPathTree transitSearch() {
+        Vertex[] pair = transitPairs[nextTransit];
+        nextTransit = (nextTransit + 1) % N_PAIRS;
+        return aStar.getShortestPathTree(BenchmarkGraphs.request(transitGraph, pair[0], pair[1], 
+                TRANSIT, BenchmarkGraphs.TRANSIT_DATE_TIME));
+    }
+
+}
@@ -0,0 +1,208 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.onebusaway.gtfs.model.calendar.CalendarServiceData;
+import org.opentripplanner.graph_builder.impl.osm.DefaultWayPropertySetSource;
+import org.opentripplanner.graph_builder.impl.osm.OpenStreetMapGraphBuilderImpl;
+import org.opentripplanner.gtfs.GtfsContext;
+import org.opentripplanner.gtfs.GtfsLibrary;
+import org.opentripplanner.openstreetmap.impl.FileBasedOpenStreetMapProviderImpl;
+import org.opentripplanner.routing.algorithm.GenericAStar;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.edgetype.factory.GTFSPatternHopFactory;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.routing.vertextype.TransitStop;
+import org.opentripplanner.util.TestUtils;
+
+/**
+ * The small graphs the microbenchmarks run against, built from test data bundled in the benchmark
+ * jar: a street graph of part of Poznan from OpenStreetMap, and a transit graph of the Caltrain
+ * GTFS feed. Each graph is built once per JVM and shared by the benchmarks in that fork.
+ *
+ * Everything derived from the graphs (vertex samples, origin and destination pairs) is drawn
+ * in a fixed order from a seeded Random, so that all runs measure the same work.
+ */
+public class BenchmarkGraphs {
+
+    public static final long SEED = 42;
+
+    /** Noon on a weekday of the Caltrain feed. */
+    public static final long TRANSIT_DATE_TIME = 
+            TestUtils.dateInSeconds("America/Los_Angeles", 2009, 8, 7, 12, 0, 0);
+
+    private static Graph streetGraph;
+
+    private static Graph transitGraph;
+
+    public static synchronized Graph getStreetGraph() {
+        if (streetGraph == null) {
+            Graph graph = new Graph();
+            OpenStreetMapGraphBuilderImpl builder = new OpenStreetMapGraphBuilderImpl();
+            builder.setDefaultWayPropertySetSource(new DefaultWayPropertySetSource());
+            FileBasedOpenStreetMapProviderImpl provider = new FileBasedOpenStreetMapProviderImpl();
+            provider.setPath(extract("map.osm.gz"));
+            builder.setProvider(provider);
+            builder.buildGraph(graph, new HashMap<Class<?>, Object>());
+            streetGraph = graph;
+        }
+        return streetGraph;
+    }
+
+    public static synchronized Graph getTransitGraph() {
+        if (transitGraph == null) {
+            GtfsContext context;
+            try {
+                context = GtfsLibrary.readGtfs(extract("caltrain_gtfs.zip"));
+            } catch (IOException e) {
+                throw new IllegalStateException("could not read the bundled GTFS feed", e);
+            }
+            Graph graph = new Graph();
+            GTFSPatternHopFactory factory = new GTFSPatternHopFactory(context);
+            factory.run(graph);
+            graph.putService(CalendarServiceData.class, 
+                    GtfsLibrary.createCalendarServiceData(context.getDao()));
+            transitGraph = graph;
+        }
+        return transitGraph;
+    }
+
+    /** @return the street intersections of the graph, sorted by label. */
+    public static List<Vertex> getIntersections(Graph graph) {
+        return sortedVertices(graph, IntersectionVertex.class);
+    }
+
+    /** @return the transit stops of the graph, sorted by label. */
+    public static List<Vertex> getTransitStops(Graph graph) {
+        return sortedVertices(graph, TransitStop.class);
+    }
+
+    private static List<Vertex> sortedVertices(Graph graph, Class<? extends Vertex> type) {
+        List<Vertex> vertices = new ArrayList<Vertex>();
+        for (Vertex v : graph.getVertices()) {
+            if (type.isInstance(v))
+                vertices.add(v);
+        }
+        Collections.sort(vertices, new Comparator<Vertex>() {
+            @Override
+            public int compare(Vertex a, Vertex b) {
+                return a.getLabel().compareTo(b.getLabel());
+            }
+        });
+        return vertices;
+    }
+
+    /** @return the edges of the given type in the graph, in a fixed random order. */
+    public static <T extends Edge> List<T> getEdges(Graph graph, Class<T> type) {
+        List<T> edges = new ArrayList<T>();
+        for (Vertex v : sortedVertices(graph, Vertex.class)) {
+            for (Edge e : v.getOutgoing()) {
+                if (type.isInstance(e))
+                    edges.add(type.cast(e));
+            }
+        }
+        Collections.shuffle(edges, new Random(SEED));
+        return edges;
+    }
+
+    /** @return the first n of the given items, repeating them as needed to make up n. */
+    public static <T> List<T> sample(List<T> items, int n) {
+        if (items.isEmpty())
+            throw new IllegalStateException("nothing to sample from");
+        List<T> sample = new ArrayList<T>(n);
+        for (int i = 0; i < n; i++)
+            sample.add(items.get(i % items.size()));
+        return sample;
+    }
+
+    /**
+     * Draw random pairs of the given vertices between which a path exists with the given modes,
+     * so that searches stop at their target rather than exploring a disconnected component.
+     * @return n pairs of origin and destination vertices
+     */
+    public static Vertex[][] connectedPairs(Graph graph, List<Vertex> vertices, 
+            TraverseModeSet modes, long dateTime, int n) {
+        GenericAStar aStar = new GenericAStar();
+        Random random = new Random(SEED);
+        Vertex[][] pairs = new Vertex[n][];
+        int found = 0;
+        for (int tries = 0; found < n && tries < n * 100; tries++) {
+            Vertex from = vertices.get(random.nextInt(vertices.size()));
+            Vertex to = vertices.get(random.nextInt(vertices.size()));
+            if (from == to)
+                continue;
+            RoutingRequest options = request(graph, from, to, modes, dateTime);
+            ShortestPathTree spt = aStar.getShortestPathTree(options);
+            if (spt != null && spt.getState(to) != null)
+                pairs[found++] = new Vertex[] { from, to };
+        }
+        if (found < n)
+            throw new IllegalStateException("only found " + found + " connected pairs");
+        return pairs;
+    }
+
+    /** @return a request between the given vertices, with a routing context for the graph. */
+    public static RoutingRequest request(Graph graph, Vertex from, Vertex to, 
+            TraverseModeSet modes, long dateTime) {
+        RoutingRequest options = new RoutingRequest(modes.clone());
+        options.dateTime = dateTime;
+        options.setRoutingContext(graph, from, to);
+        return options;
+    }
+
+    /** Copy a bundled resource to a temporary file, keeping its suffix. */
+    public static File extract(String name) {
+        InputStream in = BenchmarkGraphs.class.getResourceAsStream(name);
+        if (in == null)
+            throw new IllegalStateException("resource " + name + " is missing from the jar");
+        try {
+            try {
+                File file = File.createTempFile("benchmark-", "-" + name);
+                file.deleteOnExit();
+                OutputStream out = new FileOutputStream(file);
+                try {
+                    byte[] buf = new byte[8192];
+                    int n;
+                    while ((n = in.read(buf)) != -1)
+                        out.write(buf, 0, n);
+                } finally {
+                    out.close();
+                }
+                return file;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("could not extract resource " + name, e);
+        }
+    }
+
+}
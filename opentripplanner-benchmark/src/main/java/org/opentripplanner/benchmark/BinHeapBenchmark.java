@@ -0,0 +1,82 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.opentripplanner.common.pqueue.BinHeap;
+
+/**
+ * The priority queue of GenericAStar: filling a heap with random keys and draining it, and the
+ * interleaved extract and insert of a search, where each removed element is followed by one with
+ * a slightly greater key.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BinHeapBenchmark {
+
+    @Param({ "100", "10000" })
+    public int size;
+
+    private Integer[] elements;
+
+    private double[] keys;
+
+    private BinHeap<Integer> heap;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(BenchmarkGraphs.SEED);
+        elements = new Integer[size];
+        keys = new double[size];
+        for (int i = 0; i < size; i++) {
+            elements[i] = i;
+            keys[i] = random.nextDouble() * 3600;
+        }
+        heap = new BinHeap<Integer>(size);
+    }
+
+    @Benchmark
+    public void insertExtract(Blackhole bh) {
+        heap.reset();
+        for (int i = 0; i < size; i++)
+            heap.insert(elements[i], keys[i]);
+        while ( ! heap.empty())
+            bh.consume(heap.extract_min());
+    }
+
+    @Benchmark
+    public void interleaved(Blackhole bh) {
+        heap.reset();
+        for (int i = 0; i < size; i++)
+            heap.insert(elements[i], keys[i]);
+        for (int i = 0; i < size; i++) {
+            double key = heap.peek_min_key();
+            bh.consume(heap.extract_min());
+            heap.insert(elements[i], key + keys[i] / 60);
+        }
+    }
+
+}
@@ -0,0 +1,76 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.benchmark;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Graph.LoadLevel;
+
+/**
+ * Deserialization of a saved graph at the FULL load level, which also rebuilds the vertex map
+ * and the street index, as at server startup. Each graph is saved once to a temporary file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class GraphLoadBenchmark {
+
+    @Param({ "street", "transit" })
+    public String graph;
+
+    private File file;
+
+    @Setup
+    public void save() throws IOException {
+        Graph saved = "street".equals(graph) ? 
+                BenchmarkGraphs.getStreetGraph() : BenchmarkGraphs.getTransitGraph();
+        file = File.createTempFile("benchmark-", ".obj");
+        saved.save(file);
+    }
+
+    @TearDown
+    public void delete() {
+        file.delete();
+    }
+
+    /** Reads the graph from a stream, as GraphServiceImpl does. */
+    @Benchmark
+    public Graph load() throws IOException, ClassNotFoundException {
+        InputStream is = new FileInputStream(file);
+        try {
+            return Graph.load(is, LoadLevel.FULL);
+        } finally {
+            is.close();
+        }
+    }
+
+}
@@ -0,0 +1,58 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the routing microbenchmarks from the shaded jar built by this module:
+ *
+ * <pre>
+ * mvn -Pbenchmark -pl opentripplanner-benchmark -am package
+ * java -jar opentripplanner-benchmark/target/benchmarks.jar [JMH options] [benchmark regexp]
+ * </pre>
+ *
+ * The arguments are those of the JMH runner, for instance "-f 1 -wi 5 -i 5 AStar" to run only
+ * the search benchmarks in a single fork. Unless other profilers are requested with -prof, the
+ * GC profiler is added, so the results include the bytes allocated per operation alongside the
+ * time (ask for "-prof gc" explicitly when adding another profiler). Unless another result file
+ * is given with -rf and -rff, the results are also written as JSON to jmh-result.json, which can
+ * be compared between runs.
+ */
+public class RunMicrobenchmarksMain {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cmd = new CommandLineOptions(args);
+        if (cmd.shouldHelp()) {
+            cmd.showHelp();
+            return;
+        }
+        if (cmd.shouldList()) {
+            new Runner(cmd).list();
+            return;
+        }
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(cmd);
+        if (cmd.getProfilers().isEmpty())
+            options.addProfiler(GCProfiler.class);
+        if ( ! cmd.getResultFormat().hasValue() && ! cmd.getResult().hasValue())
+            options.resultFormat(ResultFormatType.JSON).result("jmh-result.json");
+        new Runner(options.build()).run();
+    }
+
+}
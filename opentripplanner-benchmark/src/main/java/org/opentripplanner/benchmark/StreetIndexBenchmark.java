@@ -0,0 +1,84 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.impl.StreetVertexIndexServiceImpl;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Linking of request coordinates into the street graph, which happens twice for every trip
+ * planned. The coordinates are spread uniformly over the extent of the street graph, so most of
+ * them fall between intersections and split an edge. The temporary edges made for each one are
+ * removed again, as at the end of a request.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StreetIndexBenchmark {
+
+    private static final int SAMPLE = 256;
+
+    private StreetVertexIndexServiceImpl index;
+
+    private Coordinate[] coordinates;
+
+    private RoutingRequest options;
+
+    @Setup
+    public void setup() {
+        Graph graph = BenchmarkGraphs.getStreetGraph();
+        index = new StreetVertexIndexServiceImpl(graph);
+        options = new RoutingRequest(TraverseMode.WALK);
+        Envelope extent = new Envelope();
+        for (Vertex v : BenchmarkGraphs.getIntersections(graph))
+            extent.expandToInclude(v.getCoordinate());
+        Random random = new Random(BenchmarkGraphs.SEED);
+        coordinates = new Coordinate[SAMPLE];
+        for (int i = 0; i < SAMPLE; i++) {
+            coordinates[i] = new Coordinate(
+                    extent.getMinX() + random.nextDouble() * extent.getWidth(),
+                    extent.getMinY() + random.nextDouble() * extent.getHeight());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLE)
+    public void getClosestVertex(Blackhole bh) {
+        for (int i = 0; i < SAMPLE; i++) {
+            Vertex v = index.getClosestVertex(coordinates[i], null, options);
+            bh.consume(v);
+            if (v != null)
+                v.removeTemporaryEdges();
+        }
+    }
+
+}
@@ -0,0 +1,160 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.benchmark;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.onebusaway.gtfs.model.Stop;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.edgetype.TableTripPattern;
+import org.opentripplanner.routing.edgetype.Timetable;
+import org.opentripplanner.routing.edgetype.TimetableResolver;
+import org.opentripplanner.routing.edgetype.TransitBoardAlight;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.trippattern.TripTimes;
+import org.opentripplanner.routing.trippattern.Update;
+import org.opentripplanner.routing.trippattern.UpdateBlock;
+
+/**
+ * Timetable lookups on the Caltrain graph: finding the next trip departing a stop of a pattern at
+ * times spread over the service day, and committing a TimetableResolver in which every trip has
+ * been delayed, which copies and re-indexes the timetable of every pattern.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TimetableBenchmark {
+
+    private static final int SAMPLE = 512;
+
+    private static final int FIRST_DEPARTURE = 5 * 3600;
+
+    private static final int LAST_DEPARTURE = 24 * 3600;
+
+    private TableTripPattern[] patterns;
+
+    private int[] stopIndexes;
+
+    private int[] times;
+
+    private RoutingRequest options;
+
+    @Setup
+    public void setup() {
+        Graph graph = BenchmarkGraphs.getTransitGraph();
+        List<Vertex> stops = BenchmarkGraphs.getTransitStops(graph);
+        options = BenchmarkGraphs.request(graph, stops.get(0), stops.get(1), 
+                new TraverseModeSet("TRANSIT,WALK"), BenchmarkGraphs.TRANSIT_DATE_TIME);
+        List<TransitBoardAlight> boarding = boardingEdges(graph);
+        List<TransitBoardAlight> sample = BenchmarkGraphs.sample(boarding, SAMPLE);
+        patterns = new TableTripPattern[SAMPLE];
+        stopIndexes = new int[SAMPLE];
+        times = new int[SAMPLE];
+        Random random = new Random(BenchmarkGraphs.SEED);
+        for (int i = 0; i < SAMPLE; i++) {
+            patterns[i] = sample.get(i).getPattern();
+            stopIndexes[i] = sample.get(i).getStopIndex();
+            times[i] = FIRST_DEPARTURE + random.nextInt(LAST_DEPARTURE - FIRST_DEPARTURE);
+        }
+    }
+
+    static List<TransitBoardAlight> boardingEdges(Graph graph) {
+        List<TransitBoardAlight> boarding = new ArrayList<TransitBoardAlight>();
+        for (TransitBoardAlight edge : BenchmarkGraphs.getEdges(graph, TransitBoardAlight.class)) {
+            if (edge.isBoarding())
+                boarding.add(edge);
+        }
+        return boarding;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLE)
+    public void getNextTrip(Blackhole bh) {
+        for (int i = 0; i < SAMPLE; i++)
+            bh.consume(patterns[i].getNextTrip(stopIndexes[i], times[i], false, options, true));
+    }
+
+    /**
+     * A resolver holding a delay for every scheduled trip. The updates are applied afresh before
+     * each commit, since committing leaves the resolver clean.
+     */
+    @State(Scope.Thread)
+    public static class DirtyResolver {
+
+        private static final int DELAY = 120;
+
+        private Map<TableTripPattern, List<UpdateBlock>> blocks;
+
+        private TimetableResolver resolver;
+
+        @Setup(Level.Trial)
+        public void makeUpdates() {
+            blocks = new IdentityHashMap<TableTripPattern, List<UpdateBlock>>();
+            TimetableResolver scheduled = new TimetableResolver();
+            for (TransitBoardAlight edge : boardingEdges(BenchmarkGraphs.getTransitGraph())) {
+                TableTripPattern pattern = edge.getPattern();
+                if (blocks.containsKey(pattern))
+                    continue;
+                Timetable timetable = scheduled.resolve(pattern);
+                List<Stop> stops = pattern.getStops();
+                List<Update> updates = new ArrayList<Update>();
+                for (int t = 0; t < pattern.getNumScheduledTrips(); t++) {
+                    TripTimes tripTimes = timetable.getTripTimes(t);
+                    int nHops = tripTimes.getNumHops();
+                    for (int s = 0; s <= nHops; s++) {
+                        int arrive = s == 0 ? 
+                                tripTimes.getDepartureTime(0) : tripTimes.getArrivalTime(s - 1);
+                        int depart = s == nHops ? 
+                                tripTimes.getArrivalTime(nHops - 1) : tripTimes.getDepartureTime(s);
+                        updates.add(new Update(tripTimes.getTrip().getId(), 
+                                stops.get(s).getId().getId(), s, arrive + DELAY, depart + DELAY, 
+                                Update.Status.PREDICTION, 0));
+                    }
+                }
+                blocks.put(pattern, UpdateBlock.splitByTrip(updates));
+            }
+        }
+
+        @Setup(Level.Invocation)
+        public void applyUpdates() throws InterruptedException {
+            resolver = new TimetableResolver();
+            resolver.update(blocks, null);
+        }
+
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public TimetableResolver commit(DirtyResolver dirty) {
+        return dirty.resolver.commit();
+    }
+
+}
@@ -0,0 +1,103 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.edgetype.PlainStreetEdge;
+import org.opentripplanner.routing.edgetype.TransitBoardAlight;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+
+/**
+ * Single edge traversals, the innermost step of every search: walking along PlainStreetEdges,
+ * and boarding Caltrain at a stop through TransitBoardAlight, which looks up the next trip.
+ * Each invocation traverses a fixed sample of edges from a state at their from vertex.
+ */
+@org.openjdk.jmh.annotations.State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TraverseBenchmark {
+
+    private static final int SAMPLE = 512;
+
+    private PlainStreetEdge[] streetEdges;
+
+    private State[] streetStates;
+
+    private TransitBoardAlight[] boardEdges;
+
+    private State[] boardStates;
+
+    @Setup
+    public void setup() {
+        Graph streetGraph = BenchmarkGraphs.getStreetGraph();
+        List<Vertex> intersections = BenchmarkGraphs.getIntersections(streetGraph);
+        RoutingRequest walk = BenchmarkGraphs.request(streetGraph, intersections.get(0), 
+                intersections.get(1), new TraverseModeSet(TraverseMode.WALK), 
+                BenchmarkGraphs.TRANSIT_DATE_TIME);
+        streetEdges = BenchmarkGraphs.sample(BenchmarkGraphs.getEdges(streetGraph, 
+                PlainStreetEdge.class), SAMPLE).toArray(new PlainStreetEdge[SAMPLE]);
+        streetStates = new State[SAMPLE];
+        for (int i = 0; i < SAMPLE; i++)
+            streetStates[i] = new State(streetEdges[i].getFromVertex(), walk);
+
+        Graph transitGraph = BenchmarkGraphs.getTransitGraph();
+        List<Vertex> stops = BenchmarkGraphs.getTransitStops(transitGraph);
+        RoutingRequest transit = BenchmarkGraphs.request(transitGraph, stops.get(0), 
+                stops.get(1), new TraverseModeSet("TRANSIT,WALK"), 
+                BenchmarkGraphs.TRANSIT_DATE_TIME);
+        // alighting edges only make sense on board, so keep the boarding ones
+        List<TransitBoardAlight> boarding = new ArrayList<TransitBoardAlight>();
+        for (TransitBoardAlight edge : BenchmarkGraphs.getEdges(transitGraph, 
+                TransitBoardAlight.class)) {
+            if (edge.isBoarding())
+                boarding.add(edge);
+        }
+        boardEdges = BenchmarkGraphs.sample(boarding, SAMPLE)
+                .toArray(new TransitBoardAlight[SAMPLE]);
+        boardStates = new State[SAMPLE];
+        for (int i = 0; i < SAMPLE; i++)
+            boardStates[i] = new State(boardEdges[i].getFromVertex(), transit);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLE)
+    public void plainStreetEdge(Blackhole bh) {
+        for (int i = 0; i < SAMPLE; i++)
+            bh.consume(streetEdges[i].traverse(streetStates[i]));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLE)
+    public void transitBoard(Blackhole bh) {
+        for (int i = 0; i < SAMPLE; i++)
+            bh.consume(boardEdges[i].traverse(boardStates[i]));
+    }
+
+}
@@ -22,12 +22,16 @@ import org.opentripplanner.common.geometry.DistanceLibrary;
 import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
 import org.opentripplanner.common.model.T2;
 import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.gtfs.GtfsLibrary;
 import org.opentripplanner.graph_builder.services.GraphBuilder;
 import org.opentripplanner.routing.algorithm.GenericDijkstra;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.ServiceDay;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.edgetype.FrequencyAlight;
+import org.opentripplanner.routing.edgetype.FrequencyBasedTripPattern;
+import org.opentripplanner.routing.edgetype.FrequencyBoard;
 import org.opentripplanner.routing.edgetype.InterlineDwellData;
 import org.opentripplanner.routing.edgetype.PatternHop;
 import org.opentripplanner.routing.edgetype.PatternInterlineDwell;
@@ -39,6 +43,7 @@ import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.impl.StreetVertexIndexServiceImpl;
+import org.opentripplanner.routing.impl.raptor.FrequencyRaptorRoute;
 import org.opentripplanner.routing.impl.raptor.MaxTransitRegions;
 import org.opentripplanner.routing.impl.raptor.MaxWalkState;
 import org.opentripplanner.routing.impl.raptor.Raptor;
@@ -212,6 +217,8 @@ public class RaptorDataBuilder implements GraphBuilder {
             }
         }
 
+        addFrequencyRoutes(graph, data);
+
         data.stops = Arrays.copyOfRange(data.stops, 0, data.raptorStopsForStopId.size());
         nTotalStops = data.stops.length;
         // initNearbyStops();
@@ -774,6 +781,66 @@ public class RaptorDataBuilder implements GraphBuilder {
         return index;
     }
 
+    /**
+     * Frequency-based patterns do not appear in the transit index route variants, so they are
+     * found by scanning the graph for their board and alight edges. Each one becomes a route of
+     * its own.
+     */
+    private void addFrequencyRoutes(Graph graph, RaptorData data) {
+        HashMap<FrequencyBasedTripPattern, FrequencyRaptorRoute> routes = new HashMap<FrequencyBasedTripPattern, FrequencyRaptorRoute>();
+        for (Vertex v : graph.getVertices()) {
+            for (Edge e : v.getOutgoing()) {
+                if (e instanceof FrequencyBoard) {
+                    FrequencyBoard board = (FrequencyBoard) e;
+                    FrequencyRaptorRoute route = getFrequencyRoute(data, routes, board.getPattern());
+                    int stopNo = board.getStopIndex();
+                    route.frequencyBoards[stopNo] = board;
+                    for (Edge e2 : board.getFromVertex().getIncoming()) {
+                        if (e2 instanceof PreBoardEdge) {
+                            addFrequencyStop(data, route, stopNo, (TransitStop) e2.getFromVertex());
+                        }
+                    }
+                } else if (e instanceof FrequencyAlight) {
+                    FrequencyAlight alight = (FrequencyAlight) e;
+                    FrequencyRaptorRoute route = getFrequencyRoute(data, routes, alight.getPattern());
+                    int stopNo = alight.getStopIndex() + 1;
+                    route.frequencyAlights[stopNo - 1] = alight;
+                    for (Edge e2 : alight.getToVertex().getOutgoing()) {
+                        if (e2 instanceof PreAlightEdge) {
+                            addFrequencyStop(data, route, stopNo, (TransitStop) e2.getToVertex());
+                        }
+                    }
+                }
+            }
+        }
+        log.debug("Added " + routes.size() + " frequency-based routes");
+    }
+
+    private FrequencyRaptorRoute getFrequencyRoute(RaptorData data,
+            HashMap<FrequencyBasedTripPattern, FrequencyRaptorRoute> routes,
+            FrequencyBasedTripPattern pattern) {
+        FrequencyRaptorRoute route = routes.get(pattern);
+        if (route == null) {
+            route = new FrequencyRaptorRoute(pattern);
+            route.mode = GtfsLibrary.getTraverseMode(pattern.getTrip().getRoute());
+            routes.put(pattern, route);
+            data.routes.add(route);
+        }
+        return route;
+    }
+
+    private void addFrequencyStop(RaptorData data, RaptorRoute route, int stopNo,
+            TransitStop stopVertex) {
+        if (route.stops[stopNo] != null)
+            return;
+        RaptorStop raptorStop = makeRaptorStop(data, stopVertex.getStop());
+        raptorStop.stopVertex = stopVertex;
+        route.stops[stopNo] = raptorStop;
+        if (data.routesForStop[raptorStop.index] == null)
+            data.routesForStop[raptorStop.index] = new ArrayList<RaptorRoute>();
+        data.routesForStop[raptorStop.index].add(route);
+    }
+
     private RaptorStop makeRaptorStop(RaptorData data, Stop stop) {
         RaptorStop rs = data.raptorStopsForStopId.get(stop.getId());
         if (rs == null) {
@@ -153,6 +153,10 @@ public class StopProfile {
         this.atDestination = atDestination;
     }
 
+    /**
+     * Only scheduled patterns are profiled. A FrequencyRaptorRoute has no entries in boards, so
+     * frequency-based service is left out of the profiles.
+     */
     public boolean transitTo(StopProfile destination, RaptorRoute route, int originStopIndex,
             int destinationStopIndex, ArrayList<ServiceDay> days, long startTime, int round) {
 
@@ -0,0 +1,413 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.algorithm;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.PreDestroy;
+
+import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.common.pqueue.OTPPriorityQueue;
+import org.opentripplanner.routing.algorithm.strategies.RemainingWeightHeuristic;
+import org.opentripplanner.routing.core.CancellationToken;
+import org.opentripplanner.routing.core.RoutingContext;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.services.SPTService;
+import org.opentripplanner.routing.spt.BasicShortestPathTree;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bidirectional A* for street-only searches between two fixed vertices. One frontier grows from
+ * the origin in the direction of the request, the other from the target using the reverse
+ * traversal that every edge already supports for arrive-by searches. The search stops when the
+ * lowest key in either queue reaches the weight of the best meeting found so far (the symmetric
+ * criterion, valid for the consistent heuristics used on the street network). Optionally the
+ * reverse frontier runs on a pool shared by all requests.
+ *
+ * The reverse part of the winning path is then traversed again in the direction of the request,
+ * starting from the meeting state, so the tree returned has exactly the states a unidirectional
+ * search would have produced along that path. Turn restrictions are checked where the frontiers
+ * meet and again during this re-traversal; if the joined path is rejected by a turn restriction
+ * or a path parser, the request is handed to the unidirectional search instead.
+ *
+ * Requests involving transit, bike rental, intermediate places or batch (one-to-many) searches
+ * are always handed to the unidirectional search.
+ *
+ * The stopping criterion is only valid if the remaining weight heuristic is consistent in both
+ * directions, that is it never drops by more than the weight of the edge traversed. This holds
+ * for the default heuristic on street edges weighted by time, but not for every heuristic,
+ * mode and optimization, so every traversal is checked: as soon as the heuristic is found to
+ * be inconsistent the request is handed to the unidirectional search.
+ *
+ * The unidirectional search is the one given to the constructor, normally the search that
+ * would otherwise be configured as the sptService, so that its strategies still apply.
+ */
+public class BidirectionalStreetSearch implements SPTService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BidirectionalStreetSearch.class);
+
+    /**
+     * Allowed decrease of the heuristic beyond the weight of an edge, relative to the heuristic,
+     * which absorbs the error of the fast distance approximation it uses.
+     */
+    private static final double CONSISTENCY_SLACK = 1e-3;
+
+    private final SPTService fallback;
+
+    private boolean parallel = false;
+
+    private ExecutorService executor;
+
+    /** @param fallback the search used for requests which cannot be handled bidirectionally. */
+    public BidirectionalStreetSearch(SPTService fallback) {
+        this.fallback = fallback;
+    }
+
+    /**
+     * If true, run the reverse frontier on a shared pool while the calling thread runs the main
+     * one. When the pool is busy the main frontier simply searches on alone.
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    @Override
+    public ShortestPathTree getShortestPathTree(RoutingRequest req) {
+        return getShortestPathTree(req, -1); // negative timeout means no timeout
+    }
+
+    /** The timeout only brings the deadline of the request forward, as in GenericAStar. */
+    @Override
+    public ShortestPathTree getShortestPathTree(RoutingRequest options, double relTimeout) {
+        if ( ! isBidirectional(options))
+            return fallback.getShortestPathTree(options, relTimeout);
+
+        options.getRoutingContext().cancellation.setTimeout(relTimeout);
+        Search search = new Search(options);
+        boolean complete = parallel ? search.runParallel(getExecutor()) : search.runAlternating();
+        if (search.inconsistent) {
+            LOG.debug("Inconsistent heuristic, falling back on unidirectional search.");
+            return fallback.getShortestPathTree(options);
+        }
+        if ( ! complete) {
+            // cancelled or timed out, same convention as GenericAStar
+            return null;
+        }
+        ShortestPathTree spt = search.join();
+        if (spt == null) {
+            LOG.debug("Joined path rejected, falling back on unidirectional search.");
+            // within what is left of the deadline of the request
+            return fallback.getShortestPathTree(options);
+        }
+        return spt;
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            int nThreads = Runtime.getRuntime().availableProcessors();
+            executor = Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
+                private int n = 0;
+                @Override
+                public synchronized Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "bidirectional-reverse-" + n++);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (executor != null)
+            executor.shutdownNow();
+    }
+
+    /** @return true if this request can be searched in both directions. */
+    private boolean isBidirectional(RoutingRequest options) {
+        RoutingContext rctx = options.getRoutingContext();
+        if (rctx == null || rctx.origin == null || rctx.target == null)
+            return false;
+        if (options.batch || ! rctx.intermediateVertices.isEmpty() || rctx.startingStop != null)
+            return false;
+        // transit and bike rental need time-dependent edges and multi-state trees
+        TraverseModeSet modes = options.getModes();
+        if (modes.isTransit() || (modes.getWalk() && modes.getBicycle()))
+            return false;
+        return true;
+    }
+
+    /** One direction of the search. */
+    private static class Frontier {
+
+        final RoutingRequest options;
+
+        final RoutingContext rctx;
+
+        final RemainingWeightHeuristic heuristic;
+
+        final ShortestPathTree spt;
+
+        final OTPPriorityQueue<State> pq;
+
+        /** Best state found at each vertex, read by the opposite frontier's thread. */
+        final ConcurrentHashMap<Vertex, State> labels = new ConcurrentHashMap<Vertex, State>();
+
+        /** Whether the request's worst time should be enforced in this direction. */
+        final boolean checkWorstTime;
+
+        final State initialState;
+
+        Frontier(RoutingRequest options, boolean checkWorstTime) {
+            this.options = options;
+            this.rctx = options.getRoutingContext();
+            this.heuristic = rctx.remainingWeightHeuristic;
+            this.checkWorstTime = checkWorstTime;
+            spt = new BasicShortestPathTree(options);
+            pq = BinHeap.FACTORY.create(rctx.graph.getVertices().size());
+            initialState = new State(options);
+            spt.add(initialState);
+            labels.put(initialState.getVertex(), initialState);
+            pq.insert(initialState, heuristic.computeInitialWeight(initialState, rctx.target));
+        }
+
+        double remainingWeight(State s) {
+            if (options.isArriveBy())
+                return heuristic.computeReverseWeight(s, rctx.target);
+            else
+                return heuristic.computeForwardWeight(s, rctx.target);
+        }
+
+        boolean worstTimeExceeded(State s) {
+            if ( ! checkWorstTime)
+                return false;
+            if (options.isArriveBy())
+                return s.getTime() < options.worstTime;
+            else
+                return s.getTime() > options.worstTime;
+        }
+    }
+
+    private static class Search {
+
+        final Frontier main;
+
+        final Frontier reverse;
+
+        final CancellationToken cancellation;
+
+        /** Weight of the best path through a meeting point found so far. */
+        volatile double bestWeight = Double.POSITIVE_INFINITY;
+
+        /* The two halves of the best path, in the main and reverse directions. Guarded by this. */
+        State bestMain, bestReverse;
+
+        /** Set when either frontier has found the search complete. */
+        volatile boolean finished = false;
+
+        volatile boolean aborted = false;
+
+        /** Set when the heuristic was found to be inconsistent, which also aborts the search. */
+        volatile boolean inconsistent = false;
+
+        Search(RoutingRequest options) {
+            RoutingContext rctx = options.getRoutingContext();
+            RoutingRequest reverseOptions = options.clone();
+            reverseOptions.setArriveBy( ! options.isArriveBy());
+            reverseOptions.rctx = rctx.reversed(reverseOptions);
+            main = new Frontier(options, true);
+            reverse = new Frontier(reverseOptions, false);
+            cancellation = rctx.cancellation;
+            // origin and target may coincide
+            State other = reverse.labels.get(main.initialState.getVertex());
+            if (other != null)
+                meet(main.initialState, other);
+        }
+
+        /** Expand both frontiers on this thread, always advancing the one with the lower key. */
+        boolean runAlternating() {
+            int nExpanded = 0;
+            while (true) {
+                if (shouldAbort(nExpanded++))
+                    return false;
+                if (main.pq.empty() || reverse.pq.empty())
+                    return true;
+                double mainKey = main.pq.peek_min_key();
+                double reverseKey = reverse.pq.peek_min_key();
+                if (Math.max(mainKey, reverseKey) >= bestWeight)
+                    return true;
+                if (reverseKey < mainKey)
+                    expand(reverse, main);
+                else
+                    expand(main, reverse);
+                if (inconsistent)
+                    return false;
+            }
+        }
+
+        /**
+         * Expand the reverse frontier on the pool while this thread expands the main one. The
+         * main frontier meets the reverse one's initial state at the target, so it finds the
+         * best path alone if the reverse task never gets a thread; in that case the task is
+         * claimed back here and does nothing once it runs.
+         */
+        boolean runParallel(ExecutorService pool) {
+            final AtomicBoolean claimed = new AtomicBoolean(false);
+            final CountDownLatch reverseDone = new CountDownLatch(1);
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if ( ! claimed.compareAndSet(false, true))
+                        return;
+                    try {
+                        runFrontier(reverse, main);
+                    } finally {
+                        reverseDone.countDown();
+                    }
+                }
+            });
+            runFrontier(main, reverse);
+            if ( ! claimed.compareAndSet(false, true)) {
+                try {
+                    reverseDone.await();
+                } catch (InterruptedException e) {
+                    aborted = true;
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return ! aborted;
+        }
+
+        void runFrontier(Frontier f, Frontier opposite) {
+            int nExpanded = 0;
+            while ( ! finished) {
+                if (shouldAbort(nExpanded++)) {
+                    aborted = true;
+                    break;
+                }
+                if ( ! expand(f, opposite))
+                    break;
+            }
+            finished = true;
+        }
+
+        boolean shouldAbort(int nExpanded) {
+            if ((nExpanded & CancellationToken.CHECK_MASK) != 0)
+                return false;
+            if (inconsistent)
+                return true;
+            if (aborted || cancellation.shouldAbort()) {
+                LOG.warn("Bidirectional search aborted. origin={} target={}", main.rctx.origin,
+                        main.rctx.target);
+                return true;
+            }
+            return false;
+        }
+
+        /** @return false when this frontier can no longer improve on the best meeting. */
+        boolean expand(Frontier f, Frontier opposite) {
+            if (f.pq.empty() || f.pq.peek_min_key() >= bestWeight)
+                return false;
+            State u = f.pq.extract_min();
+            if ( ! f.spt.visit(u))
+                return true;
+            Vertex uVertex = u.getVertex();
+            double uRemaining = f.remainingWeight(u);
+            Collection<Edge> edges = f.options.isArriveBy() ? uVertex.getIncoming()
+                    : uVertex.getOutgoing();
+            for (Edge edge : edges) {
+                for (State v = edge.traverse(u); v != null; v = v.getNextResult()) {
+                    double remaining = f.remainingWeight(v);
+                    if (remaining < 0 || Double.isInfinite(remaining))
+                        continue;
+                    if (uRemaining - remaining > v.getWeight() - u.getWeight()
+                            + CONSISTENCY_SLACK * uRemaining) {
+                        inconsistent = true;
+                        aborted = true;
+                        return false;
+                    }
+                    double estimate = v.getWeight() + remaining;
+                    if (estimate > f.options.maxWeight || f.worstTimeExceeded(v))
+                        continue;
+                    if (f.spt.add(v)) {
+                        f.pq.insert(v, estimate);
+                        Vertex vVertex = v.getVertex();
+                        State label = f.labels.get(vVertex);
+                        if (label == null || v.betterThan(label))
+                            f.labels.put(vVertex, v);
+                        State other = opposite.labels.get(vVertex);
+                        if (other != null) {
+                            if (f == main)
+                                meet(v, other);
+                            else
+                                meet(other, v);
+                        }
+                    }
+                }
+            }
+            return true;
+        }
+
+        /** Record a meeting of the two frontiers if it improves on the best path so far. */
+        synchronized void meet(State mainState, State reverseState) {
+            double weight = mainState.getWeight() + reverseState.getWeight();
+            if (weight >= bestWeight)
+                return;
+            // check the turn between the two halves, which neither frontier has seen
+            Edge next = reverseState.getBackEdge();
+            if (next != null && next.traverse(mainState) == null)
+                return;
+            bestMain = mainState;
+            bestReverse = reverseState;
+            bestWeight = weight;
+        }
+
+        /**
+         * Continue the main half along the edges of the reverse half, producing a state at the
+         * target whose back-pointers form the complete path.
+         * @return the main tree including that state, or null if the joined path was rejected.
+         */
+        synchronized ShortestPathTree join() {
+            if (bestMain == null) {
+                // the frontiers never met, there is no path
+                return main.spt;
+            }
+            State s = bestMain;
+            for (State r = bestReverse; r.getBackState() != null; r = r.getBackState()) {
+                s = r.getBackEdge().traverse(s);
+                if (s == null)
+                    return null;
+            }
+            if (s.getVertex() != main.rctx.target || ! s.isFinal() || ! s.allPathParsersAccept()
+                    || main.worstTimeExceeded(s))
+                return null;
+            main.spt.add(s);
+            return main.spt;
+        }
+    }
+
+}
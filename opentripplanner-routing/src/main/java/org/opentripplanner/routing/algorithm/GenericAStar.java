@@ -22,6 +22,8 @@ import org.opentripplanner.routing.algorithm.strategies.RemainingWeightHeuristic
 import org.opentripplanner.routing.algorithm.strategies.SearchTerminationStrategy;
 import org.opentripplanner.routing.algorithm.strategies.SkipTraverseResultStrategy;
 import org.opentripplanner.routing.algorithm.strategies.TrivialRemainingWeightHeuristic;
+import org.opentripplanner.routing.core.CancellationToken;
+import org.opentripplanner.routing.core.RequestTrace;
 import org.opentripplanner.routing.core.RoutingContext;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.State;
@@ -32,7 +34,6 @@ import org.opentripplanner.routing.spt.BasicShortestPathTree;
 import org.opentripplanner.routing.spt.MultiShortestPathTree;
 import org.opentripplanner.routing.spt.ShortestPathTree;
 import org.opentripplanner.routing.spt.ShortestPathTreeFactory;
-import org.opentripplanner.util.DateUtils;
 import org.opentripplanner.util.monitoring.MonitoringStore;
 import org.opentripplanner.util.monitoring.MonitoringStoreFactory;
 import org.slf4j.Logger;
@@ -73,11 +74,16 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
         return getShortestPathTree(req, -1); // negative timeout means no timeout
     }
 
-    /** @return the shortest path, or null if none is found */
+    /**
+     * The timeout only brings the deadline of the request forward, so that it also holds for
+     * whatever else is done for the request after this search.
+     * @return the shortest path, or null if none is found
+     */
     public ShortestPathTree getShortestPathTree(RoutingRequest options, double relTimeout) {
 
         RoutingContext rctx = options.getRoutingContext();
-        long abortTime = DateUtils.absoluteTimeout(relTimeout);
+        CancellationToken cancellation = rctx.cancellation;
+        cancellation.setTimeout(relTimeout);
 
         // null checks on origin and destination vertices are already performed in setRoutingContext
         // options.rctx.check();
@@ -89,7 +95,9 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
 
         // heuristic calc could actually be done when states are constructed, inside state
         State initialState = new State(options);
+        long heuristicBegin = rctx.trace.begin();
         double initialWeight = heuristic.computeInitialWeight(initialState, rctx.target);
+        rctx.trace.end(RequestTrace.Phase.HEURISTIC, heuristicBegin);
         spt.add(initialState);
 
         // Priority Queue
@@ -105,6 +113,9 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
 //        options.setMaxWalkDistance(Math.max(options.getMaxWalkDistance(), rctx.getMinWalkDistance()));
 
         int nVisited = 0;
+        int nExpanded = 0;
+        int nEnqueued = 0;
+        long searchBegin = rctx.trace.begin();
 
         /* the core of the A* algorithm */
         while (!pq.empty()) { // Until the priority queue is empty:
@@ -114,10 +125,16 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
             }
 
             /**
-             * Terminate the search prematurely if we've hit our computation wall.
+             * Terminate the search prematurely if the request is past its deadline or was
+             * abandoned. The clock is only consulted every few hundred expansions.
              */
-            if (abortTime < Long.MAX_VALUE  && System.currentTimeMillis() > abortTime) {
-                LOG.warn("Search timeout. origin={} target={}", rctx.origin, rctx.target);
+            if (cancellation.shouldAbort(nExpanded++)) {
+                if (cancellation.isCancelled())
+                    LOG.info("Search cancelled. origin={} target={}", rctx.origin, rctx.target);
+                else
+                    LOG.warn("Search timeout. origin={} target={}", rctx.origin, rctx.target);
+                traceSearch(rctx.trace, searchBegin, nExpanded, nEnqueued,
+                        ! cancellation.isCancelled());
                 // Returning null indicates something went wrong and search should be aborted.
                 // This is distinct from the empty list of paths which implies that a result may still
                 // be found by retrying with altered options (e.g. max walk distance)
@@ -156,6 +173,7 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
             // TODO AMB: Replace isFinal with bicycle conditions in BasicPathParser
             } else if (!options.batch && u_vertex == rctx.target && u.isFinal() && u.allPathParsersAccept()) {
                 LOG.debug("total vertices visited {}", nVisited);
+                traceSearch(rctx.trace, searchBegin, nExpanded, nEnqueued, false);
                 storeMemory();
                 return spt;
             }
@@ -213,15 +231,28 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
                             if (traverseVisitor != null)
                                 traverseVisitor.visitEnqueue(v);
                             pq.insert(v, estimate);
+                            nEnqueued += 1;
                         } 
                     }
                 }
             }
         }
+        traceSearch(rctx.trace, searchBegin, nExpanded, nEnqueued, false);
         storeMemory();
         return spt;
     }
 
+    private void traceSearch(RequestTrace trace, long begin, int nExpanded, int nEnqueued,
+            boolean timedOut) {
+        trace.end(RequestTrace.Phase.SEARCH, begin);
+        trace.add(RequestTrace.Counter.SEARCHES, 1);
+        trace.add(RequestTrace.Counter.EXPANDED, nExpanded);
+        trace.add(RequestTrace.Counter.ENQUEUED, nEnqueued);
+        if (timedOut)
+            trace.add(RequestTrace.Counter.TIMEOUTS, 1);
+        trace.recordHeap();
+    }
+
     private void storeMemory() {
         if (store.isMonitoring("memoryUsed")) {
             System.gc();
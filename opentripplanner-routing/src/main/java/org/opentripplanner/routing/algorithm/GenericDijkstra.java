@@ -18,6 +18,7 @@ import org.opentripplanner.routing.algorithm.strategies.SearchTerminationStrateg
 import org.opentripplanner.routing.algorithm.strategies.SkipEdgeStrategy;
 import org.opentripplanner.routing.algorithm.strategies.SkipTraverseResultStrategy;
 import org.opentripplanner.routing.algorithm.strategies.TrivialRemainingWeightHeuristic;
+import org.opentripplanner.routing.core.CancellationToken;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.graph.Edge;
@@ -76,8 +77,10 @@ public class GenericDijkstra {
 
     public ShortestPathTree getShortestPathTree(State initialState) {
         Vertex target = null;
+        CancellationToken cancellation = CancellationToken.NONE;
         if (options.rctx != null) {
             target = initialState.getOptions().rctx.target;
+            cancellation = options.rctx.cancellation;
         }
         ShortestPathTree spt = createShortestPathTree(options);
         OTPPriorityQueue<State> queue = createPriorityQueue();
@@ -85,7 +88,13 @@ public class GenericDijkstra {
         spt.add(initialState);
         queue.insert(initialState, initialState.getWeight());
 
+        int nExpanded = 0;
         while (!queue.empty()) { // Until the priority queue is empty:
+            // give up if the request has been abandoned; callers should check the token
+            // since the resulting tree is incomplete
+            if (cancellation.shouldAbort(nExpanded++))
+                break;
+
             State u = queue.extract_min();
             Vertex u_vertex = u.getVertex();
 
@@ -0,0 +1,73 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.bike_rental;
+
+/**
+ * An immutable snapshot of the number of bikes and free spaces at every bike rental station
+ * managed by an updater, indexed by the station's availability index. Updaters publish a new
+ * snapshot as a whole, so readers always see the bikes and spaces of a station from the same
+ * update without any locking, and the graph itself is not touched when only counts change.
+ */
+public class BikeRentalAvailability {
+
+    public static final BikeRentalAvailability EMPTY = 
+            new BikeRentalAvailability(0, new int[0], new int[0]);
+
+    /** The count of stations which are not currently in service. */
+    public static final int OUT_OF_SERVICE = -1;
+
+    private final int version;
+
+    private final int[] bikes;
+
+    private final int[] spaces;
+
+    /**
+     * @param bikes the bikes available at each station, or OUT_OF_SERVICE. The arrays are not 
+     *        copied and must not be modified afterwards.
+     */
+    public BikeRentalAvailability(int version, int[] bikes, int[] spaces) {
+        if (bikes.length != spaces.length)
+            throw new IllegalArgumentException("bikes and spaces are for different stations");
+        this.version = version;
+        this.bikes = bikes;
+        this.spaces = spaces;
+    }
+
+    /** @return a number which increases with every snapshot published by the same updater. */
+    public int getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return bikes.length;
+    }
+
+    /** 
+     * @return false for stations which have vanished from the feed, are not yet published, or
+     *         have been removed, whose index is negative.
+     */
+    public boolean isInService(int index) {
+        return index >= 0 && index < bikes.length && bikes[index] != OUT_OF_SERVICE;
+    }
+
+    public int getBikesAvailable(int index) {
+        return isInService(index) ? bikes[index] : 0;
+    }
+
+    public int getSpacesAvailable(int index) {
+        return isInService(index) ? spaces[index] : 0;
+    }
+
+}
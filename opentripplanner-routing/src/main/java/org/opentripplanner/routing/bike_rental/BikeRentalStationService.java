@@ -14,25 +14,79 @@
 package org.opentripplanner.routing.bike_rental;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
+/**
+ * The bike rental stations of a graph. Several updaters, each with its own data source, may
+ * share one service: each publishes its own station set and availability snapshots, keyed by
+ * the updater, and the station sets are merged for readers.
+ */
 public class BikeRentalStationService implements Serializable {
     private static final long serialVersionUID = -1288992939159246764L;
 
-    private Set<BikeRentalStation> stations = new HashSet<BikeRentalStation>();
+    /* replaced as a whole rather than modified, since it is read by other threads */
+    private volatile Set<BikeRentalStation> stations = new HashSet<BikeRentalStation>();
+
+    /* the stations last published by each updater */
+    private transient Map<Object, Collection<BikeRentalStation>> stationsByUpdater;
+
+    /* the latest snapshot of each updater, replaced as a whole like the stations */
+    private transient volatile Map<Object, BikeRentalAvailability> availabilityByUpdater;
 
     public Collection<BikeRentalStation> getStations() {
-        return stations;
+        return Collections.unmodifiableSet(stations);
     }
     
-    public void addStation(BikeRentalStation station) {
-        stations.remove(station);
-        stations.add(station);
+    public synchronized void addStation(BikeRentalStation station) {
+        Set<BikeRentalStation> copy = new HashSet<BikeRentalStation>(stations);
+        copy.remove(station);
+        copy.add(station);
+        stations = copy;
     }
     
-    public void removeStation(BikeRentalStation station) {
-        stations.remove(station);
+    public synchronized void removeStation(BikeRentalStation station) {
+        Set<BikeRentalStation> copy = new HashSet<BikeRentalStation>(stations);
+        copy.remove(station);
+        stations = copy;
+    }
+
+    /**
+     * Replace the stations of one updater, leaving those of other updaters and those added
+     * directly in place.
+     */
+    public synchronized void setStations(Object updater, Collection<BikeRentalStation> stations) {
+        if (stationsByUpdater == null)
+            stationsByUpdater = new HashMap<Object, Collection<BikeRentalStation>>();
+        Collection<BikeRentalStation> previous = stationsByUpdater.put(updater,
+                new ArrayList<BikeRentalStation>(stations));
+        Set<BikeRentalStation> copy = new HashSet<BikeRentalStation>(this.stations);
+        if (previous != null)
+            copy.removeAll(previous);
+        // another updater may publish a station equal to one which vanished from this one
+        for (Collection<BikeRentalStation> published : stationsByUpdater.values())
+            copy.addAll(published);
+        this.stations = copy;
+    }
+
+    /** @return the latest availability snapshot published by the given updater. */
+    public BikeRentalAvailability getAvailability(Object updater) {
+        Map<Object, BikeRentalAvailability> snapshots = availabilityByUpdater;
+        BikeRentalAvailability a = snapshots == null ? null : snapshots.get(updater);
+        return a == null ? BikeRentalAvailability.EMPTY : a;
+    }
+
+    public synchronized void setAvailability(Object updater,
+            BikeRentalAvailability availability) {
+        Map<Object, BikeRentalAvailability> copy = new HashMap<Object, BikeRentalAvailability>();
+        if (availabilityByUpdater != null)
+            copy.putAll(availabilityByUpdater);
+        copy.put(updater, availability);
+        availabilityByUpdater = copy;
     }
 }
@@ -0,0 +1,108 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.core;
+
+/**
+ * A request-scoped cancellation flag and deadline, shared by every search carried out on behalf
+ * of a single routing request (retries, RAPTOR walk phases, etc.). Searches poll it every
+ * CHECK_INTERVAL expansions, so it must stay cheap: one volatile read and one nanoTime call.
+ *
+ * The token is created by whoever owns the request (e.g. the web service) and placed on the
+ * RoutingRequest before the RoutingContext is built; the RoutingContext then carries it into the
+ * search algorithms. It may be cancelled from any thread.
+ */
+public class CancellationToken {
+
+    /**
+     * Searches check the token once every this many expansions. Must be a power of two so that
+     * callers can test (n & CHECK_MASK) == 0.
+     */
+    public static final int CHECK_INTERVAL = 256;
+
+    public static final int CHECK_MASK = CHECK_INTERVAL - 1;
+
+    /** A token that is never cancelled and has no deadline. */
+    public static final CancellationToken NONE = new CancellationToken() {
+        @Override
+        public void cancel() {
+            // the shared token must never be cancelled
+        }
+        @Override
+        public void setTimeout(double seconds) {
+            // nor given a deadline
+        }
+    };
+
+    private volatile boolean cancelled = false;
+
+    /** Absolute deadline in System.nanoTime() units, or Long.MAX_VALUE for no deadline. */
+    private volatile long deadline = Long.MAX_VALUE;
+
+    /** The thread that owns the request, checked for interruption. May be null. */
+    private final Thread owner;
+
+    public CancellationToken() {
+        this.owner = null;
+    }
+
+    /**
+     * @param owner a thread whose interruption should also abort the search, typically the
+     * servlet thread handling the request.
+     */
+    public CancellationToken(Thread owner) {
+        this.owner = owner;
+    }
+
+    /** Abort all searches using this token as soon as they next check it. */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Set the deadline this many seconds from now. A negative or zero value means no deadline.
+     * A deadline is never extended by a later call, only tightened.
+     */
+    public void setTimeout(double seconds) {
+        if (seconds <= 0)
+            return;
+        long d = System.nanoTime() + (long) (seconds * 1e9);
+        if (d < deadline)
+            deadline = d;
+    }
+
+    /** @return true if the token was explicitly cancelled or its owner thread interrupted. */
+    public boolean isCancelled() {
+        return cancelled || (owner != null && owner.isInterrupted());
+    }
+
+    /** @return true if the deadline (if any) has passed. */
+    public boolean isExpired() {
+        long d = deadline;
+        return d != Long.MAX_VALUE && System.nanoTime() > d;
+    }
+
+    /** @return true if searches using this token should stop now, for whatever reason. */
+    public boolean shouldAbort() {
+        return isCancelled() || isExpired();
+    }
+
+    /**
+     * Convenience method for search loops: only consult the clock once every CHECK_INTERVAL
+     * calls, as indicated by the caller's expansion counter.
+     */
+    public final boolean shouldAbort(int nExpanded) {
+        return (nExpanded & CHECK_MASK) == 0 && shouldAbort();
+    }
+
+}
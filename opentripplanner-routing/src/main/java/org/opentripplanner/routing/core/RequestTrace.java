@@ -0,0 +1,171 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Where the time went while answering a single routing request: the time spent in each phase,
+ * the number of states expanded and enqueued, the searches that timed out, and the largest heap
+ * seen along the way.
+ *
+ * Like the CancellationToken, the trace is created by whoever owns the request and placed on the
+ * RoutingRequest, from which the RoutingContext picks it up. Clones of the request share it, so
+ * retries and parallel searches add to the same trace, and every method is thread-safe. Phases
+ * are only timed at their boundaries and search counters added once per search, so the cost is
+ * a few nanoTime calls per request. Phases may recur (e.g. one SEARCH per retry) and their times
+ * add up. A phase run in parallel must be timed once around all of its threads, not in each of
+ * them, or its time would exceed the wall-clock time of the request; SEARCHES counts the
+ * individual searches.
+ */
+public class RequestTrace {
+
+    public static enum Phase {
+        /** finding or making the vertices for the endpoints */
+        LINKING,
+        /** finding the services running around the departure time */
+        SERVICE_DAYS,
+        /** initializing the remaining weight heuristic */
+        HEURISTIC,
+        /** the shortest path searches themselves, in wall-clock time when run in parallel */
+        SEARCH,
+        /** building (and optimizing) GraphPaths from the shortest path trees */
+        PATHS,
+        /** computing the fares of itineraries */
+        FARES,
+        /** writing out the response, from the end of the resource method */
+        SERIALIZATION
+    }
+
+    public static enum Counter {
+        SEARCHES, EXPANDED, ENQUEUED, TIMEOUTS
+    }
+
+    /** A trace which records nothing, for requests nobody is tracing. */
+    public static final RequestTrace NONE = new RequestTrace() {
+        @Override
+        public long begin() {
+            return 0;
+        }
+        @Override
+        public void end(Phase phase, long begin) {
+        }
+        @Override
+        public void add(Counter counter, long n) {
+        }
+        @Override
+        public void recordHeap() {
+        }
+        @Override
+        public void responseReady() {
+        }
+        @Override
+        public void responseWritten() {
+        }
+    };
+
+    private final long startTime = System.nanoTime();
+
+    private final AtomicLongArray phaseNanos = new AtomicLongArray(Phase.values().length);
+
+    private final AtomicLongArray counts = new AtomicLongArray(Counter.values().length);
+
+    private final AtomicLong maxHeapUsed = new AtomicLong();
+
+    private volatile long responseReadyTime = 0;
+
+    private volatile long totalNanos = -1;
+
+    /** A short description of the request for logs, e.g. its endpoints. */
+    private volatile String description = "";
+
+    /** @return the beginning of a phase, to be passed to end() */
+    public long begin() {
+        return System.nanoTime();
+    }
+
+    public void end(Phase phase, long begin) {
+        phaseNanos.addAndGet(phase.ordinal(), System.nanoTime() - begin);
+    }
+
+    public void add(Counter counter, long n) {
+        counts.addAndGet(counter.ordinal(), n);
+    }
+
+    /** Note the heap currently in use, without forcing a garbage collection. */
+    public void recordHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = runtime.totalMemory() - runtime.freeMemory();
+        long max = maxHeapUsed.get();
+        while (used > max && ! maxHeapUsed.compareAndSet(max, used))
+            max = maxHeapUsed.get();
+    }
+
+    /** Called when the response has been computed and is about to be serialized. */
+    public void responseReady() {
+        responseReadyTime = System.nanoTime();
+        totalNanos = responseReadyTime - startTime;
+    }
+
+    /** Called once the response has been written, to account for its serialization. */
+    public void responseWritten() {
+        long now = System.nanoTime();
+        if (responseReadyTime != 0)
+            end(Phase.SERIALIZATION, responseReadyTime);
+        totalNanos = now - startTime;
+    }
+
+    public long getPhaseNanos(Phase phase) {
+        return phaseNanos.get(phase.ordinal());
+    }
+
+    public long getCount(Counter counter) {
+        return counts.get(counter.ordinal());
+    }
+
+    public long getMaxHeapUsed() {
+        return maxHeapUsed.get();
+    }
+
+    /** @return the time from creation to the end of the response, or -1 if it is not over. */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public void setDescription(String description) {
+        this.description = description;
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder("trace ");
+        sb.append(description);
+        sb.append(" total=").append(totalNanos / 1000000).append("ms");
+        for (Phase phase : Phase.values()) {
+            long nanos = getPhaseNanos(phase);
+            if (nanos > 0)
+                sb.append(' ').append(phase.name().toLowerCase()).append('=')
+                        .append(nanos / 1000000).append("ms");
+        }
+        for (Counter counter : Counter.values())
+            sb.append(' ').append(counter.name().toLowerCase()).append('=').append(getCount(counter));
+        sb.append(" heapMB=").append(getMaxHeapUsed() / (1024 * 1024));
+        return sb.toString();
+    }
+
+}
@@ -65,14 +65,16 @@ public class RoutingContext implements Cloneable {
     public ArrayList<ServiceDay> serviceDays;
 
     /**
-     * The search will be aborted if it is still running after this time (in milliseconds since the 
-     * epoch). A negative or zero value implies no limit. 
-     * This provides an absolute timeout, whereas the maxComputationTime is relative to the 
-     * beginning of an individual search. While the two might seem equivalent, we trigger search 
-     * retries in various places where it is difficult to update relative timeout value. 
-     * The earlier of the two timeouts is applied. 
+     * Cancellation flag and absolute deadline shared by all the searches carried out for this
+     * request. This provides an absolute timeout, whereas the timeouts passed to individual 
+     * SPTServices are relative to the beginning of each search. While the two might seem 
+     * equivalent, we trigger search retries in various places where it is difficult to update 
+     * relative timeout values. The earlier of the two timeouts is applied. 
      */
-    public long searchAbortTime = 0;
+    public final CancellationToken cancellation;
+
+    /** Phase timings and search counts for the request, shared by all its searches. */
+    public final RequestTrace trace;
     
     public PathParser[] pathParsers = new PathParser[] { };
 
@@ -84,6 +86,8 @@ public class RoutingContext implements Cloneable {
                           Vertex from, Vertex to, boolean findPlaces) {
         this.opt = traverseOptions;
         this.graph = graph;
+        trace = opt.trace != null ? opt.trace : RequestTrace.NONE;
+        long linkingBegin = trace.begin();
         if (findPlaces) {
             // normal mode, search for vertices based on fromPlace and toPlace
             fromVertex = graph.streetIndex.getVertexForPlace(opt.getFromPlace(), opt);
@@ -109,17 +113,46 @@ public class RoutingContext implements Cloneable {
             AgencyAndId stopId = opt.getStartingTransitStopId();
             startingStop = tis.getPreBoardEdge(stopId).getToVertex();
         }
+        trace.end(RequestTrace.Phase.LINKING, linkingBegin);
         origin = opt.arriveBy ? toVertex : fromVertex;
         target = opt.arriveBy ? fromVertex : toVertex;
+        cancellation = opt.cancellation != null ? opt.cancellation : new CancellationToken();
         calendarService = graph.getCalendarService();
         transferTable = graph.getTransferTable();
         // the graph's snapshot may be frequently updated. 
         // Grab a reference to ensure a coherent view of the timetables throughout this search.
-        if (graph.timetableSnapshotSource != null)
+        if (opt.timetableSnapshot != null)
+            timetableSnapshot = opt.timetableSnapshot;
+        else if (graph.timetableSnapshotSource != null)
             timetableSnapshot = graph.timetableSnapshotSource.getSnapshot();
         else
             timetableSnapshot = null;
+        long serviceDaysBegin = trace.begin();
         setServiceDays();
+        trace.end(RequestTrace.Phase.SERVICE_DAYS, serviceDaysBegin);
+        if (opt.batch)
+            remainingWeightHeuristic = new TrivialRemainingWeightHeuristic();
+        else
+            remainingWeightHeuristic = heuristicFactory.getInstanceForSearch(opt);
+    }
+
+    /** Copy the endpoints and cached service days of an existing context for a new request. */
+    private RoutingContext(RoutingRequest traverseOptions, RoutingContext other) {
+        this.opt = traverseOptions;
+        graph = other.graph;
+        trace = other.trace;
+        fromVertex = other.fromVertex;
+        toVertex = other.toVertex;
+        intermediateVertices.addAll(other.intermediateVertices);
+        startingStop = other.startingStop;
+        origin = opt.arriveBy ? toVertex : fromVertex;
+        target = opt.arriveBy ? fromVertex : toVertex;
+        cancellation = other.cancellation;
+        calendarService = other.calendarService;
+        transferTable = other.transferTable;
+        timetableSnapshot = other.timetableSnapshot;
+        serviceDays = other.serviceDays;
+        pathParsers = other.pathParsers;
         if (opt.batch)
             remainingWeightHeuristic = new TrivialRemainingWeightHeuristic();
         else
@@ -128,6 +161,15 @@ public class RoutingContext implements Cloneable {
     
     
     /* INSTANCE METHODS */
+
+    /**
+     * Make a context for searching between the same vertices in the opposite direction. The 
+     * endpoints are not linked again and the service days are shared, so the request's trace 
+     * records those phases once. The reversed request must have the same departure time.
+     */
+    public RoutingContext reversed(RoutingRequest reversedOptions) {
+        return new RoutingContext(reversedOptions, this);
+    }
     
     public void check() {
         ArrayList<String> notFound = new ArrayList<String>();
@@ -27,6 +27,7 @@ import lombok.Data;
 import org.onebusaway.gtfs.model.AgencyAndId;
 import org.opentripplanner.common.MavenVersion;
 import org.opentripplanner.common.model.NamedPlace;
+import org.opentripplanner.routing.edgetype.TimetableResolver;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.util.DateUtils;
@@ -264,6 +265,31 @@ public class RoutingRequest implements Cloneable, Serializable {
      */
     public RoutingContext rctx;
 
+    /** 
+     * Allows the owner of this request to abort the search or set an overall deadline. It is 
+     * picked up by the RoutingContext and shared with all clones of this request.
+     */
+    public transient CancellationToken cancellation;
+
+    /** 
+     * Give up on all the searches made for this request after this many seconds, counted from
+     * when the request is received. Applied once to the cancellation token of the request; a
+     * negative or zero value means search forever.
+     */
+    public double timeout = 0;
+
+    /** 
+     * If set, the timetable snapshot to search instead of the graph's latest one, so that the 
+     * requests of a batch all see the same real-time data. Picked up by the RoutingContext.
+     */
+    public transient TimetableResolver timetableSnapshot;
+
+    /** 
+     * If set, records the time spent in each phase of answering this request. It is picked up by
+     * the RoutingContext and shared with all clones of this request.
+     */
+    public transient RequestTrace trace;
+
     /** A transit stop that this trip must start from */
     private AgencyAndId startingTransitStopId;
     private boolean walkingBike;
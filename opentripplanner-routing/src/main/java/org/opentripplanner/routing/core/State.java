@@ -36,6 +36,16 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class State implements Cloneable {
+
+    /**
+     * A state can only dominate another whose weight exceeds both its own weight divided by
+     * DOMINANCE_WEIGHT_RATIO and its own weight less DOMINANCE_WEIGHT_SLACK (see dominates).
+     * StateBag relies on these bounds to limit its scans.
+     */
+    public static final double DOMINANCE_WEIGHT_RATIO = 1.02;
+
+    public static final double DOMINANCE_WEIGHT_SLACK = 30;
+
     /* Data which is likely to change at most traversals */
     // the current time at this state, in seconds
     protected long time;
@@ -274,7 +284,8 @@ public class State implements Cloneable {
 
         double weightDiff = this.weight / other.weight;
         return walkDistance <= other.getWalkDistance() * 1.05
-                && (weightDiff < 1.02 && this.weight - other.weight < 30)
+                && (weightDiff < DOMINANCE_WEIGHT_RATIO
+                        && this.weight - other.weight < DOMINANCE_WEIGHT_SLACK)
                 && this.getElapsedTime() - other.getElapsedTime() <= 30;
     }
 
@@ -13,6 +13,10 @@
 
 package org.opentripplanner.routing.core;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -21,10 +25,27 @@ import java.util.Map.Entry;
 import org.opentripplanner.common.model.P2;
 import org.opentripplanner.routing.graph.Vertex;
 
+/**
+ * Transfer times (or transfer types) between pairs of stop vertices, as given in GTFS 
+ * transfers.txt. This is queried on every transit boarding and alighting, so lookups must not 
+ * allocate: transfers are kept in an open-addressing hash table keyed on the pair of vertex 
+ * indices packed into a long. When the table is empty (as it is for most feeds), lookups return 
+ * immediately.
+ * 
+ * Vertex indices are reassigned when a graph is deserialized, so the serialized form of this 
+ * class remains the original map from vertex pairs to transfer times, and the primitive table is 
+ * rebuilt from it on load.
+ */
 public class TransferTable implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
+    /** The serialized form is that of the former HashMap-backed implementation. */
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("table", HashMap.class),
+        new ObjectStreamField("preferredTransfers", boolean.class)
+    };
+
     public static final int UNKNOWN_TRANSFER = -999;
 
     public static final int PREFERRED_TRANSFER = -2;
@@ -37,10 +58,31 @@ public class TransferTable implements Serializable {
                                                  * the minimum transfer time is effectively zero
                                                  */
 
+    private static final int INITIAL_CAPACITY = 16;
+
+    /* open-addressing hash table, capacity is always a power of two and never more than half full */
+    private transient long[] keys;
+    private transient int[] values;
+    private transient Vertex[] fromVertices;
+    private transient Vertex[] toVertices;
+    private transient boolean[] used;
+    private transient int size;
 
-    protected HashMap<P2<Vertex>, Integer> table = new HashMap<P2<Vertex>, Integer>();
     protected boolean preferredTransfers = false;
-    
+
+    public TransferTable() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        fromVertices = new Vertex[capacity];
+        toVertices = new Vertex[capacity];
+        used = new boolean[capacity];
+        size = 0;
+    }
+
     public void setPreferredTransfers(boolean preferredTransfers) {
         this.preferredTransfers = preferredTransfers;
     }
@@ -48,21 +90,78 @@ public class TransferTable implements Serializable {
     public boolean hasPreferredTransfers() {
         return preferredTransfers;
     }    
+
+    /** @return the number of transfers in this table. */
+    public int size() {
+        return size;
+    }
+
     /** Get the transfer time, in seconds, between the stops */
     public int getTransferTime(Vertex previousStop, Vertex vertex) {
-        Integer result = table.get(new P2<Vertex>(previousStop, vertex));
-        if (result == null) {
+        if (size == 0 || previousStop == null || vertex == null) {
             return UNKNOWN_TRANSFER;
         }
-        return result;
+        long key = key(previousStop, vertex);
+        int mask = keys.length - 1;
+        for (int slot = hash(key) & mask; used[slot]; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return values[slot];
+            }
+        }
+        return UNKNOWN_TRANSFER;
     }
     
     public void setTransferTime(Vertex fromStop, Vertex toStop, int transferTime) {
-        table.put(new P2<Vertex>(fromStop, toStop), transferTime);
+        put(fromStop, toStop, transferTime);
         if (transferTime == PREFERRED_TRANSFER) {
             setPreferredTransfers(true);
         }
     }
+
+    private void put(Vertex fromStop, Vertex toStop, int transferTime) {
+        if ((size + 1) * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+        long key = key(fromStop, toStop);
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (used[slot]) {
+            if (keys[slot] == key) {
+                values[slot] = transferTime;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        used[slot] = true;
+        keys[slot] = key;
+        values[slot] = transferTime;
+        fromVertices[slot] = fromStop;
+        toVertices[slot] = toStop;
+        size += 1;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldValues = values;
+        Vertex[] oldFrom = fromVertices;
+        Vertex[] oldTo = toVertices;
+        boolean[] oldUsed = used;
+        allocate(capacity);
+        for (int i = 0; i < oldUsed.length; i++) {
+            if (oldUsed[i]) {
+                put(oldFrom[i], oldTo[i], oldValues[i]);
+            }
+        }
+    }
+
+    private static long key(Vertex from, Vertex to) {
+        return ((long) from.getIndex() << 32) | (to.getIndex() & 0xFFFFFFFFL);
+    }
+
+    /** Mix the bits of the key, since vertex indices are small and clustered. */
+    private static int hash(long key) {
+        key *= 0x9E3779B97F4A7C15L;
+        return (int) (key ^ (key >>> 32));
+    }
     
     public static class Transfer {
         public Vertex from, to;
@@ -75,11 +174,45 @@ public class TransferTable implements Serializable {
     }
     
     public Iterable<Transfer> getAllTransfers() {
-        ArrayList<Transfer> transfers = new ArrayList<Transfer>(table.size());
-        for (Entry<P2<Vertex>, Integer> entry : table.entrySet()) {
-            P2<Vertex> p2 = entry.getKey();
-            transfers.add(new Transfer(p2.getFirst(), p2.getSecond(), entry.getValue()));
+        ArrayList<Transfer> transfers = new ArrayList<Transfer>(size);
+        for (int i = 0; i < used.length; i++) {
+            if (used[i]) {
+                transfers.add(new Transfer(fromVertices[i], toVertices[i], values[i]));
+            }
         }
         return transfers;
     }
+
+    /* SERIALIZATION METHODS */
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        HashMap<P2<Vertex>, Integer> table = new HashMap<P2<Vertex>, Integer>(size * 2);
+        for (Transfer transfer : getAllTransfers()) {
+            table.put(new P2<Vertex>(transfer.from, transfer.to), transfer.seconds);
+        }
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("table", table);
+        fields.put("preferredTransfers", preferredTransfers);
+        out.writeFields();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        HashMap<P2<Vertex>, Integer> table = (HashMap<P2<Vertex>, Integer>) fields.get("table", null);
+        preferredTransfers = fields.get("preferredTransfers", false);
+        int capacity = INITIAL_CAPACITY;
+        if (table != null) {
+            while (capacity < table.size() * 2)
+                capacity *= 2;
+        }
+        allocate(capacity);
+        if (table != null) {
+            // vertex indices have been reassigned by now, so keys are computed afresh
+            for (Entry<P2<Vertex>, Integer> entry : table.entrySet()) {
+                P2<Vertex> p2 = entry.getKey();
+                put(p2.getFirst(), p2.getSecond(), entry.getValue());
+            }
+        }
+    }
 }
@@ -0,0 +1,27 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.edgetype;
+
+import org.opentripplanner.util.PolylineFragment;
+
+/**
+ * An edge which keeps the polyline encoding of its geometry, so that itineraries can be encoded
+ * by concatenating the fragments of their edges.
+ */
+public interface EdgeWithEncodedGeometry {
+
+    /** @return the encoding of getGeometry(), or null if the edge has no geometry. */
+    public PolylineFragment getEncodedGeometry();
+
+}
@@ -92,6 +92,8 @@ public class FrequencyAlight extends Edge  implements OnBoardReverseEdge {
              */
             long currentTime = state0.getTime();
             int bestWait = -1;
+            int bestTime = -1;
+            ServiceDay bestServiceDay = null;
             TraverseMode mode = state0.getNonTransitMode();
             if (options.bannedTrips.contains(trip.getId())) {
                 //This behaves a little differently than with ordinary trip patterns,
@@ -119,6 +121,8 @@ public class FrequencyAlight extends Edge  implements OnBoardReverseEdge {
                         if (bestWait < 0 || wait < bestWait) {
                             // track the soonest departure over all relevant schedules
                             bestWait = wait;
+                            bestTime = startTime;
+                            bestServiceDay = sd;
                         }
                     }
 
@@ -168,6 +172,9 @@ public class FrequencyAlight extends Edge  implements OnBoardReverseEdge {
             s1.incrementTimeInSeconds(bestWait);
             s1.incrementNumBoardings();
             s1.setTripId(trip.getId());
+            s1.setServiceDay(bestServiceDay);
+            // materialize only the run actually alighted, for consumers that need exact times
+            s1.setTripTimes(pattern.getTripTimesArriving(stopIndex, bestTime));
             s1.setZone(pattern.getZone(stopIndex));
             s1.setRoute(trip.getRoute().getId());
 
@@ -243,6 +250,10 @@ public class FrequencyAlight extends Edge  implements OnBoardReverseEdge {
         return stopIndex;
     }
 
+    public FrequencyBasedTripPattern getPattern() {
+        return pattern;
+    }
+
     public String toString() {
         return "FrequencyAlight(" + getFromVertex() + ", " + getToVertex() + ")";
     }
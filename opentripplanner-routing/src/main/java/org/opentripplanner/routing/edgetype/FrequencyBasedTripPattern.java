@@ -23,6 +23,7 @@ import org.onebusaway.gtfs.model.Frequency;
 import org.onebusaway.gtfs.model.Stop;
 import org.onebusaway.gtfs.model.Trip;
 import org.opentripplanner.common.model.T2;
+import org.opentripplanner.routing.trippattern.FrequencyTripTimes;
 
 public class FrequencyBasedTripPattern implements Serializable, TripPattern {
 
@@ -148,6 +149,10 @@ public class FrequencyBasedTripPattern implements Serializable, TripPattern {
 
     }
 
+    /**
+     * Find the latest run that reaches the end of the given hop (that is, stop stopIndex + 1) no
+     * later than beforeTime, and return its arrival time there, or -1 if there is none.
+     */
     public int getPreviousArrivalTime(int stopIndex, int beforeTime,
             boolean wheelchairAccessible, boolean bikesAllowed, boolean pickup) {
         int mask = pickup ? TableTripPattern.MASK_PICKUP : TableTripPattern.MASK_DROPOFF;
@@ -156,7 +161,7 @@ public class FrequencyBasedTripPattern implements Serializable, TripPattern {
             return -1;
         }
         if (wheelchairAccessible
-                && (perStopFlags[stopIndex] & TableTripPattern.FLAG_WHEELCHAIR_ACCESSIBLE) == 0) {
+                && (perStopFlags[stopIndex + 1] & TableTripPattern.FLAG_WHEELCHAIR_ACCESSIBLE) == 0) {
             return -1;
         }
 
@@ -168,7 +173,7 @@ public class FrequencyBasedTripPattern implements Serializable, TripPattern {
             }
         }
 
-        int stopArrivalTimeOffset = arrivalTimes[stopIndex];
+        int stopArrivalTimeOffset = arrivalTimes[stopIndex + 1];
         int beforeTimeAtStart = beforeTime - stopArrivalTimeOffset;
 
         int timeRange = Arrays.binarySearch(timeRangeEnd, beforeTimeAtStart);
@@ -210,6 +215,29 @@ public class FrequencyBasedTripPattern implements Serializable, TripPattern {
 
     }
 
+    /**
+     * Materialize the single run of this pattern that leaves the given stop at the given time 
+     * (as returned by getNextDepartureTime). Runs are only ever created on demand like this, so 
+     * headway-based service never has to be enumerated trip by trip.
+     */
+    public FrequencyTripTimes getTripTimesDeparting(int stopIndex, int departureTime) {
+        return new FrequencyTripTimes(exemplar, departureTime - departureTimes[stopIndex],
+                departureTimes, arrivalTimes, headsigns);
+    }
+
+    /**
+     * Materialize the single run of this pattern that reaches the end of the given hop at the 
+     * given time (as returned by getPreviousArrivalTime).
+     */
+    public FrequencyTripTimes getTripTimesArriving(int stopIndex, int arrivalTime) {
+        return new FrequencyTripTimes(exemplar, arrivalTime - arrivalTimes[stopIndex + 1],
+                departureTimes, arrivalTimes, headsigns);
+    }
+
+    public int getNumStops() {
+        return departureTimes.length;
+    }
+
     public int getDwellTime(int stopIndex) {
         return dwellTimes[stopIndex];
     }
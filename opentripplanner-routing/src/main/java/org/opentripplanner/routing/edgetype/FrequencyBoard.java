@@ -113,6 +113,8 @@ public class FrequencyBoard extends Edge  implements OnBoardForwardEdge {
              */
             long currentTime = state0.getTime();
             int bestWait = -1;
+            int bestTime = -1;
+            ServiceDay bestServiceDay = null;
             TraverseMode mode = state0.getNonTransitMode();
             if (options.bannedTrips.contains(trip.getId())) {
                 //This behaves a little differently than with ordinary trip patterns,
@@ -139,6 +141,8 @@ public class FrequencyBoard extends Edge  implements OnBoardForwardEdge {
                         if (bestWait < 0 || wait < bestWait) {
                             // track the soonest departure over all relevant schedules
                             bestWait = wait;
+                            bestTime = startTime;
+                            bestServiceDay = sd;
                         }
                     }
 
@@ -187,6 +191,9 @@ public class FrequencyBoard extends Edge  implements OnBoardForwardEdge {
             s1.incrementTimeInSeconds(bestWait);
             s1.incrementNumBoardings();
             s1.setTripId(trip.getId());
+            s1.setServiceDay(bestServiceDay);
+            // materialize only the run actually boarded, for consumers that need exact times
+            s1.setTripTimes(pattern.getTripTimesDeparting(stopIndex, bestTime));
             s1.setZone(pattern.getZone(stopIndex));
             s1.setRoute(trip.getRoute().getId());
             s1.setBackMode(TraverseMode.BOARDING);
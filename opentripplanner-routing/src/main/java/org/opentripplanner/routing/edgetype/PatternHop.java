@@ -23,6 +23,7 @@ import org.opentripplanner.routing.core.StateEditor;
 import org.opentripplanner.routing.core.TraverseMode;
 import org.opentripplanner.routing.trippattern.TripTimes;
 import org.opentripplanner.routing.vertextype.PatternStopVertex;
+import org.opentripplanner.util.PolylineFragment;
 
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.LineString;
@@ -32,7 +33,7 @@ import com.vividsolutions.jts.geom.LineString;
  * This version represents a set of such journeys specified by a TripPattern.
  */
 public class PatternHop extends PatternEdge implements OnBoardForwardEdge, OnBoardReverseEdge, 
-        HopEdge {
+        HopEdge, EdgeWithEncodedGeometry {
 
     private static final long serialVersionUID = 1L;
 
@@ -42,6 +43,8 @@ public class PatternHop extends PatternEdge implements OnBoardForwardEdge, OnBoa
 
     private LineString geometry = null;
 
+    private PolylineFragment encodedGeometry = null;
+
     public PatternHop(PatternStopVertex from, PatternStopVertex to, Stop start, Stop end, int stopIndex) {
         super(from, to);
         this.start = start;
@@ -98,6 +101,15 @@ public class PatternHop extends PatternEdge implements OnBoardForwardEdge, OnBoa
 
     public void setGeometry(LineString geometry) {
         this.geometry = geometry;
+        this.encodedGeometry = geometry == null ? null 
+                : PolylineFragment.fromCoordinates(geometry.getCoordinates());
+    }
+
+    @Override
+    public PolylineFragment getEncodedGeometry() {
+        if (encodedGeometry == null)
+            encodedGeometry = PolylineFragment.fromCoordinates(getGeometry().getCoordinates());
+        return encodedGeometry;
     }
 
     public LineString getGeometry() {
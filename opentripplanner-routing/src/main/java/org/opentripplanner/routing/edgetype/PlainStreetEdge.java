@@ -32,6 +32,7 @@ import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.patch.Alert;
 import org.opentripplanner.routing.util.ElevationProfileSegment;
 import org.opentripplanner.routing.vertextype.StreetVertex;
+import org.opentripplanner.util.PolylineFragment;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -45,7 +46,7 @@ import com.vividsolutions.jts.geom.LineString;
  * @author novalis
  * 
  */
-public class PlainStreetEdge extends StreetEdge implements Cloneable {
+public class PlainStreetEdge extends StreetEdge implements Cloneable, EdgeWithEncodedGeometry {
 
     private static Logger LOG = LoggerFactory.getLogger(PlainStreetEdge.class); 
 
@@ -59,6 +60,8 @@ public class PlainStreetEdge extends StreetEdge implements Cloneable {
 
     private LineString geometry;
 
+    private PolylineFragment encodedGeometry;
+
     private String name;
 
     private boolean wheelchairAccessible = true;
@@ -107,6 +110,8 @@ public class PlainStreetEdge extends StreetEdge implements Cloneable {
             StreetTraversalPermission permission, boolean back) {
         super(v1, v2);
         this.geometry = geometry;
+        if (geometry != null)
+            this.encodedGeometry = PolylineFragment.fromCoordinates(geometry.getCoordinates());
         this.length = length;
         this.elevationProfileSegment = new ElevationProfileSegment(length);
         this.name = name;
@@ -202,6 +207,13 @@ public class PlainStreetEdge extends StreetEdge implements Cloneable {
         return geometry;
     }
 
+    @Override
+    public PolylineFragment getEncodedGeometry() {
+        if (encodedGeometry == null && geometry != null)
+            encodedGeometry = PolylineFragment.fromCoordinates(geometry.getCoordinates());
+        return encodedGeometry;
+    }
+
     @Override
     public String getName() {
         return name;
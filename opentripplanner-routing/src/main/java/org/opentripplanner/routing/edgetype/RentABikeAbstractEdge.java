@@ -54,6 +54,8 @@ public abstract class RentABikeAbstractEdge extends Edge {
             return null;
 
         BikeRentalStationVertex dropoff = (BikeRentalStationVertex) tov;
+        if ( ! dropoff.isInService())
+            return null;
         if (options.isUseBikeRentalAvailabilityInformation() && dropoff.getBikesAvailable() == 0) {
             return null;
         }
@@ -78,6 +80,8 @@ public abstract class RentABikeAbstractEdge extends Edge {
         if (!s0.isBikeRenting() || !s0.getBikeRentalNetwork().equals(network))
             return null;
         BikeRentalStationVertex pickup = (BikeRentalStationVertex) tov;
+        if ( ! pickup.isInService())
+            return null;
         if (options.isUseBikeRentalAvailabilityInformation() && pickup.getSpacesAvailable() == 0) {
             return null;
         }
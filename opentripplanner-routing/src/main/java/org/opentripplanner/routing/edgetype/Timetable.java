@@ -3,8 +3,11 @@ package org.opentripplanner.routing.edgetype;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 import org.onebusaway.gtfs.model.AgencyAndId;
 import org.onebusaway.gtfs.model.StopTime;
@@ -33,12 +36,10 @@ public class Timetable implements Serializable {
     private static final Logger LOG = LoggerFactory.getLogger(Timetable.class);
 
     /** 
-     * The Timetable size (number of TripTimes) at which indexes will be built for all stops. 
-     * Below this size, departure and arrival times will be found by linear search. Above this
-     * size, it will be possible to use binary search.
-     * Break even list size for linear and binary searches was determined to be around 16.
+     * When a Timetable that has already been indexed is updated, its index is patched rather than
+     * rebuilt if fewer than 1/INCREMENTAL_INDEX_RATIO of its trips have changed.
      */
-    private static final int INDEX_THRESHOLD = 16;
+    private static final int INCREMENTAL_INDEX_RATIO = 4;
 
     private final TableTripPattern pattern;
     
@@ -49,13 +50,20 @@ public class Timetable implements Serializable {
     private final ArrayList<TripTimes> tripTimes;
 
     /** 
-     * If the departures index is null, this timetable has not been indexed: use a linear search. 
-     * Unfortunately you really do need 2 indexes, because dwell times for different trips at
-     * the same stop may overlap. The indexes always contain the same elements as the main
-     * tripTimes List, but are re-sorted at each stop to allow binary searches.
+     * If the index is null, this timetable has not been indexed: use a linear search. 
+     * Unfortunately you really do need both departures and arrivals, because dwell times for 
+     * different trips at the same stop may overlap. The index contains the same elements as the
+     * main tripTimes List (minus cancelled or passed trips at each stop), but re-sorted at each 
+     * stop and bucketed by time. An index may be shared with the Timetable this one was copied
+     * from, and is never modified in place.
      */
-    private transient TripTimes[][] arrivalsIndex = null;
-    private transient TripTimes[][] departuresIndex = null;
+    private transient TimetableIndex index = null;
+
+    /** 
+     * TripTimes replaced by update() since this Timetable was last finished, mapping each new 
+     * TripTimes to the one it replaced in the index. Used to patch the index incrementally.
+     */
+    private transient IdentityHashMap<TripTimes, TripTimes> pendingUpdates = null;
 
     /** For each hop, the best running time. This serves to provide lower bounds on traversal time. */
     private transient int bestRunningTimes[];
@@ -76,6 +84,10 @@ public class Timetable implements Serializable {
     private Timetable (Timetable tt) {
         tripTimes = new ArrayList<TripTimes>(tt.tripTimes);
         this.pattern = tt.pattern;
+        // share the existing index and bounds, they will be patched rather than rebuilt
+        this.index = tt.index;
+        this.bestRunningTimes = tt.bestRunningTimes;
+        this.bestDwellTimes = tt.bestDwellTimes;
     }
     
     /** 
@@ -88,43 +100,19 @@ public class Timetable implements Serializable {
     }
     
     /**
-     * Produces 2D index arrays that are stop-major and sorted, allowing binary search at any 
-     * given stop. It is of course inefficient to call this after updating only one or two 
-     * trips in a pattern since we can usually get by with swapping only the new trip into the 
-     * existing already-sorted lists. But let's see realistically how resource-intensive this 
-     * is before optimizing it.
+     * Produces sorted, bucketed rows of departures and arrivals at each stop, allowing the next 
+     * trip to be found in (nearly) constant time. When only a few trips have been updated since
+     * the last call, the existing index is patched by swapping the new TripTimes into the 
+     * already-sorted rows instead of sorting everything again.
      */
     private void index() {
         int nHops = pattern.stops.length - 1;
-        arrivalsIndex = new TripTimes[nHops][];
-        departuresIndex = new TripTimes[nHops][];
-        boolean departuresFifo = true;
-        boolean arrivalsMatchDepartures = true;
-        for (int hop = 0; hop < nHops; hop++) {
-            // copy canonical TripTimes List into new arrays
-            arrivalsIndex[hop] = tripTimes.toArray(new TripTimes[tripTimes.size()]);
-            departuresIndex[hop] = tripTimes.toArray(new TripTimes[tripTimes.size()]);
-            // TODO: STOP VS HOP
-            Arrays.sort(arrivalsIndex[hop], new TripTimes.ArrivalsComparator(hop));
-            Arrays.sort(departuresIndex[hop], new TripTimes.DeparturesComparator(hop));
-            if (hop > 0) {
-                if (Arrays.equals(departuresIndex[hop], departuresIndex[hop - 1]))
-                    departuresIndex[hop] = departuresIndex[hop - 1];
-                else
-                    departuresFifo = false;
-            }
-            if (Arrays.equals(departuresIndex[hop], arrivalsIndex[hop]))
-                arrivalsIndex[hop] = departuresIndex[hop];
-            else
-                arrivalsMatchDepartures = false;
-        }
-        if (departuresFifo) {
-            //LOG.debug("Compressing FIFO Timetable index.");
-            departuresIndex = Arrays.copyOf(departuresIndex, 1);
-        }
-        if (arrivalsMatchDepartures) {
-            //LOG.debug("Reusing departures index where arrivals index is identical.");
-            arrivalsIndex = departuresIndex;
+        if (index != null && pendingUpdates != null 
+                && pendingUpdates.size() * INCREMENTAL_INDEX_RATIO < tripTimes.size()) {
+            index = index.update(new ArrayList<TripTimes>(pendingUpdates.values()), 
+                    new ArrayList<TripTimes>(pendingUpdates.keySet()));
+        } else {
+            index = TimetableIndex.build(tripTimes, nHops);
         }
     }
     
@@ -143,64 +131,57 @@ public class Timetable implements Serializable {
      */
     protected TripTimes getNextTrip(int stopIndex, int time, boolean haveBicycle,
             RoutingRequest options, boolean boarding) {
+        TimetableIndex index = this.index; // may be replaced concurrently by finish()
+        if (index == null) {
+            // no index present on this timetable (it has not been finished). use a linear search:
+            // because trips may change with stoptime updates, we cannot count on them being sorted
+            return getNextTripUnindexed(stopIndex, time, haveBicycle, options, boarding);
+        }
+        // capabilities are checked against precomputed per-trip bitmasks
+        int required = 0;
+        if (options.wheelchairAccessible)
+            required |= TimetableIndex.FLAG_WHEELCHAIR_ACCESSIBLE;
+        if (haveBicycle)
+            required |= TimetableIndex.FLAG_BIKES_ALLOWED;
+        Set<AgencyAndId> bannedTrips = options.bannedTrips.isEmpty() ? null : options.bannedTrips;
+        if (boarding) {
+            TimetableIndex.Row row = index.departures[stopIndex];
+            int n = row.times.length;
+            for (int i = row.firstAtOrAfter(time); i < n; i++) {
+                if ((row.flags[i] & required) == required && (bannedTrips == null 
+                        || ! bannedTrips.contains(row.trips[i].getTrip().getId())))
+                    return row.trips[i];
+            }
+        } else {
+            TimetableIndex.Row row = index.arrivals[stopIndex];
+            for (int i = row.lastAtOrBefore(time); i >= 0; i--) {
+                if ((row.flags[i] & required) == required && (bannedTrips == null 
+                        || ! bannedTrips.contains(row.trips[i].getTrip().getId())))
+                    return row.trips[i];
+            }
+        }
+        return null;
+    }
+
+    private TripTimes getNextTripUnindexed(int stopIndex, int time, boolean haveBicycle,
+            RoutingRequest options, boolean boarding) {
         TripTimes bestTrip = null;
-        int idxLo = -1, idxHi = Integer.MAX_VALUE;
-        TripTimes[][] tableIndex = boarding ? departuresIndex : arrivalsIndex; 
-        // sorted = tripTimes; ARGH, Array versus List APIs
-        // for the purposes of adjacent trips, guess that unindexed tables are roughly FIFO
-        List<TripTimes> ordered = tripTimes;
-        if (tableIndex != null) {
-            TripTimes[] sorted;
-            // this timetable has been indexed, use binary search
-            if (tableIndex.length == 1) // for optimized FIFO patterns
-                sorted = tableIndex[0]; 
-            else
-                sorted = tableIndex[stopIndex];
-            // an alternative to conditional increment/decrement would be to sort the arrivals
-            // index in decreasing order, but that would require changing the search algorithm
+        int bestTime = boarding ? Integer.MAX_VALUE : Integer.MIN_VALUE;
+        for (TripTimes tt : tripTimes) { 
+            // hoping JVM JIT will distribute the loop over the if clauses as needed
             if (boarding) {
-                idxLo = idxHi = TripTimes.binarySearchDepartures(sorted, stopIndex, time); 
-                for (; idxHi < sorted.length; idxHi++) {
-                    TripTimes tt = sorted[idxHi];
-                    if (tt.tripAcceptable(options, haveBicycle)) {
-                        bestTrip = tt;
-                        break;
-                    }
+                int depTime = tt.getDepartureTime(stopIndex);
+                if (depTime >= time && depTime < bestTime && tt.tripAcceptable(options, haveBicycle)) {
+                    bestTrip = tt;
+                    bestTime = depTime;
                 }
             } else {
-                idxLo = idxHi = TripTimes.binarySearchArrivals(sorted, stopIndex, time); 
-                for (; idxLo >= 0; idxLo--) {
-                    TripTimes tt = sorted[idxLo];
-                    if (tt.tripAcceptable(options, haveBicycle)) {
-                        bestTrip = tt;
-                        break;
-                    }
-                }
-            }
-            ordered = Arrays.asList(sorted); // find adjacent entries in the sorted list
-        } else { 
-            // no index present on this timetable. use a linear search:
-            // because trips may change with stoptime updates, we cannot count on them being sorted
-            int bestTime = boarding ? Integer.MAX_VALUE : Integer.MIN_VALUE;
-            int idx = 0;
-            for (TripTimes tt : tripTimes) { 
-                // hoping JVM JIT will distribute the loop over the if clauses as needed
-                if (boarding) {
-                    int depTime = tt.getDepartureTime(stopIndex);
-                    if (depTime >= time && depTime < bestTime && tt.tripAcceptable(options, haveBicycle)) {
-                        bestTrip = tt;
-                        bestTime = depTime;
-                        idxLo = idxHi = idx;
-                    }
-                } else {
-                    int arvTime = tt.getArrivalTime(stopIndex);
-                    if (arvTime <= time && arvTime > bestTime && tt.tripAcceptable(options, haveBicycle)) {
-                        bestTrip = tt;
-                        bestTime = arvTime;
-                        idxLo = idxHi = idx;
-                    }
+                int arvTime = tt.getArrivalTime(stopIndex);
+                if (arvTime <= time && arvTime > bestTime && arvTime >= 0 
+                        && tt.tripAcceptable(options, haveBicycle)) {
+                    bestTrip = tt;
+                    bestTime = arvTime;
                 }
-                ++idx;
             }
         }
         return bestTrip;
@@ -233,40 +214,48 @@ public class Timetable implements Serializable {
      * actions to compact the data structure such as trimming and deduplicating arrays.
      */
     public void finish() {
-        int nHops = pattern.stops.length - 1;
-        int nTrips = tripTimes.size();
-        bestRunningTimes = new int[nHops];
-        boolean nullArrivals = false; // TODO: should scan through triptimes?
-        if ( ! nullArrivals) {
+        if (index != null && pendingUpdates != null && bestRunningTimes != null
+                && pendingUpdates.size() * INCREMENTAL_INDEX_RATIO < tripTimes.size()) {
+            // lower bounds remain valid when trips are removed, so only the new trips are examined
+            lowerBounds(pendingUpdates.keySet());
+        } else {
+            int nHops = pattern.stops.length - 1;
+            bestRunningTimes = new int[nHops];
             bestDwellTimes = new int[nHops];
-            for (int h = 1; h < nHops; ++h) { // dwell time is undefined on first hop
-                bestDwellTimes[h] = Integer.MAX_VALUE;
-                for (int t = 0; t < nTrips; ++t) {
-                    int dt = this.getDwellTime(h,  t);
-                    if (bestDwellTimes[h] > dt) {
-                        bestDwellTimes[h] = dt;
-                    }
-                }
-            }
+            Arrays.fill(bestRunningTimes, Integer.MAX_VALUE);
+            Arrays.fill(bestDwellTimes, Integer.MAX_VALUE);
+            bestDwellTimes[0] = 0; // dwell time is undefined on first hop
+            lowerBounds(tripTimes);
         }
-        // Q: Why is incoming running times 1 shorter than departures?
-        // A: Because when there are no arrivals array, the last departure is actually used for an arrival. 
-        for (int h = 0; h < nHops; ++h) {
-            bestRunningTimes[h] = Integer.MAX_VALUE;
-            for (int t = 0; t < nTrips; ++t) { 
-                int rt = this.getRunningTime(h, t);
-                if (bestRunningTimes[h] > rt) {
-                    bestRunningTimes[h] = rt;
+        index();
+        pendingUpdates = null;
+    }
+
+    /** Lower the best running and dwell times as needed to account for the given trips. */
+    private void lowerBounds(Collection<TripTimes> trips) {
+        int nHops = pattern.stops.length - 1;
+        // bounds may be shared with the timetable this one was copied from
+        int[] running = bestRunningTimes.clone();
+        int[] dwell = bestDwellTimes.clone();
+        for (TripTimes tt : trips) {
+            // Q: Why is incoming running times 1 shorter than departures?
+            // A: Because when there are no arrivals array, the last departure is actually used 
+            // for an arrival. 
+            for (int h = 0; h < nHops; ++h) {
+                if (tt.getDepartureTime(h) < 0)
+                    continue; // passed or cancelled
+                int rt = tt.getRunningTime(h);
+                if (running[h] > rt)
+                    running[h] = rt;
+                if (h > 0 && tt.getArrivalTime(h - 1) >= 0) {
+                    int dt = tt.getDwellTime(h);
+                    if (dwell[h] > dt)
+                        dwell[h] = dt;
                 }
             }
         }
-        if (nTrips > INDEX_THRESHOLD) {
-            //LOG.debug("indexing pattern with {} trips", nTrips);
-            index(); 
-        } else {
-            arrivalsIndex = null;
-            departuresIndex = null;
-        }
+        bestRunningTimes = running;
+        bestDwellTimes = dwell;
     }
     
     public class DeparturesIterator implements Iterator<Integer> {
@@ -376,6 +365,11 @@ public class Timetable implements Serializable {
             }
             // Update succeeded, save the new TripTimes back into this Timetable.
             this.tripTimes.set(tripIndex, newTimes);
+            // Remember which indexed TripTimes it replaces, so the index can be patched.
+            if (pendingUpdates == null)
+                pendingUpdates = new IdentityHashMap<TripTimes, TripTimes>();
+            TripTimes indexedTimes = pendingUpdates.remove(existingTimes);
+            pendingUpdates.put(newTimes, indexedTimes == null ? existingTimes : indexedTimes);
             return true;
         } catch (Exception e) { // prevent server from dying while debugging
             e.printStackTrace();
@@ -0,0 +1,277 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.edgetype;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.onebusaway.gtfs.model.Trip;
+import org.opentripplanner.routing.trippattern.TripTimes;
+
+/**
+ * A search index over the TripTimes of one Timetable. For each hop there is one row of
+ * departures and one row of arrivals, each holding the trips sorted by time together with
+ * their times as a primitive array and a bitmask of per-trip capabilities (wheelchair, bikes).
+ * Rows with more than a handful of trips also carry a table of time buckets, giving the first
+ * position at or after the start of each bucket, so that the next departure is usually found
+ * after examining only one or two entries.
+ *
+ * Trips that have been cancelled or already passed a stop (negative sentinel times) do not
+ * appear in the rows for that hop. Indexes are immutable once built; when a Timetable is
+ * updated a new index is derived from the previous one by patching only the changed trips.
+ */
+final class TimetableIndex {
+
+    public static final int FLAG_WHEELCHAIR_ACCESSIBLE = 1;
+
+    public static final int FLAG_BIKES_ALLOWED = 2;
+
+    /** Rows at or below this size are scanned linearly rather than through buckets. */
+    static final int BUCKET_THRESHOLD = 16;
+
+    /** Sorted departures, one row per hop. */
+    final Row[] departures;
+
+    /** Sorted arrivals, one row per hop. Rows may be shared with departures[hop + 1]. */
+    final Row[] arrivals;
+
+    private TimetableIndex(Row[] departures, Row[] arrivals) {
+        this.departures = departures;
+        this.arrivals = arrivals;
+    }
+
+    /** Build an index from scratch. */
+    static TimetableIndex build(List<TripTimes> tripTimes, int nHops) {
+        int nTrips = tripTimes.size();
+        TripTimes[] trips = tripTimes.toArray(new TripTimes[nTrips]);
+        int[] flags = new int[nTrips];
+        for (int t = 0; t < nTrips; t++) {
+            flags[t] = tripFlags(trips[t].getTrip());
+        }
+        Row[] departures = new Row[nHops];
+        Row[] arrivals = new Row[nHops];
+        Row prev = null;
+        for (int hop = 0; hop < nHops; hop++) {
+            Row row = Row.build(trips, flags, hop, true);
+            // in FIFO patterns the trip order is the same at every stop
+            if (prev != null && Arrays.equals(prev.trips, row.trips))
+                row = row.sharingTripsWith(prev);
+            departures[hop] = row;
+            prev = row;
+        }
+        for (int hop = 0; hop < nHops; hop++) {
+            Row row = Row.build(trips, flags, hop, false);
+            // when dwell times are zero, arriving at the end of a hop is departing on the next
+            if (hop + 1 < nHops && row.sameAs(departures[hop + 1]))
+                row = departures[hop + 1];
+            else if (row.sameAs(departures[hop]))
+                row = departures[hop];
+            else if (Arrays.equals(row.trips, departures[hop].trips))
+                row = row.sharingTripsWith(departures[hop]);
+            arrivals[hop] = row;
+        }
+        return new TimetableIndex(departures, arrivals);
+    }
+
+    /**
+     * Derive a new index in which the given TripTimes have been replaced. Only the positions of
+     * changed trips are recomputed; this is linear in the size of each row rather than requiring
+     * a full sort.
+     */
+    TimetableIndex update(List<TripTimes> oldTimes, List<TripTimes> newTimes) {
+        Set<TripTimes> removed = Collections.newSetFromMap(new IdentityHashMap<TripTimes, Boolean>());
+        removed.addAll(oldTimes);
+        TripTimes[] added = newTimes.toArray(new TripTimes[newTimes.size()]);
+        int[] addedFlags = new int[added.length];
+        for (int i = 0; i < added.length; i++) {
+            addedFlags[i] = tripFlags(added[i].getTrip());
+        }
+        int nHops = departures.length;
+        Row[] newDepartures = new Row[nHops];
+        Row[] newArrivals = new Row[nHops];
+        for (int hop = 0; hop < nHops; hop++) {
+            newDepartures[hop] = departures[hop].update(removed, added, addedFlags, hop, true);
+            newArrivals[hop] = arrivals[hop].update(removed, added, addedFlags, hop, false);
+        }
+        return new TimetableIndex(newDepartures, newArrivals);
+    }
+
+    /**
+     * GTFS bike extensions based on mailing list message at:
+     * https://groups.google.com/d/msg/gtfs-changes/QqaGOuNmG7o/xyqORy-T4y0J
+     * If route OR trip explicitly allows bikes, bikes are allowed, unless the trip explicitly
+     * forbids them. This mirrors TripTimes.tripAcceptable.
+     */
+    static int tripFlags(Trip trip) {
+        int flags = 0;
+        if (trip.getWheelchairAccessible() == 1)
+            flags |= FLAG_WHEELCHAIR_ACCESSIBLE;
+        if (trip.getTripBikesAllowed() == 2 ||
+           (trip.getRoute().getBikesAllowed() == 2 && trip.getTripBikesAllowed() != 1))
+            flags |= FLAG_BIKES_ALLOWED;
+        return flags;
+    }
+
+    /** The trips serving one hop, sorted by departure or arrival time. */
+    static final class Row {
+
+        final TripTimes[] trips;
+
+        final int[] times;
+
+        final int[] flags;
+
+        /* bucket table, null for short rows */
+        private final int[] buckets;
+
+        private final int shift;
+
+        private final int base;
+
+        private Row(TripTimes[] trips, int[] times, int[] flags) {
+            this.trips = trips;
+            this.times = times;
+            this.flags = flags;
+            int n = times.length;
+            if (n <= BUCKET_THRESHOLD) {
+                buckets = null;
+                shift = 0;
+                base = 0;
+                return;
+            }
+            // choose a power-of-two bucket width giving at most about one bucket per trip
+            int span = times[n - 1] - times[0];
+            int s = 0;
+            while ((span >> s) >= n)
+                s++;
+            shift = s;
+            base = times[0] >> s;
+            int nBuckets = (times[n - 1] >> s) - base + 1;
+            buckets = new int[nBuckets];
+            int i = 0;
+            for (int b = 0; b < nBuckets; b++) {
+                while (i < n && (times[i] >> s) - base < b)
+                    i++;
+                buckets[b] = i;
+            }
+        }
+
+        /** Sort the trips at the given hop, leaving out those with sentinel (negative) times. */
+        static Row build(TripTimes[] trips, int[] flags, int hop, boolean departures) {
+            long[] keys = new long[trips.length];
+            int n = 0;
+            for (int t = 0; t < trips.length; t++) {
+                int time = departures ? trips[t].getDepartureTime(hop) : trips[t].getArrivalTime(hop);
+                if (time < 0)
+                    continue; // TripTimes.PASSED or TripTimes.CANCELED
+                // sorting packed keys keeps ties in timetable order without boxing
+                keys[n++] = ((long) time << 32) | t;
+            }
+            Arrays.sort(keys, 0, n);
+            TripTimes[] sortedTrips = new TripTimes[n];
+            int[] sortedTimes = new int[n];
+            int[] sortedFlags = new int[n];
+            for (int i = 0; i < n; i++) {
+                int t = (int) keys[i];
+                sortedTrips[i] = trips[t];
+                sortedTimes[i] = (int) (keys[i] >>> 32);
+                sortedFlags[i] = flags[t];
+            }
+            return new Row(sortedTrips, sortedTimes, sortedFlags);
+        }
+
+        /** @return an equivalent row reusing the trip and flag arrays of another row. */
+        Row sharingTripsWith(Row other) {
+            return new Row(other.trips, times, other.flags);
+        }
+
+        boolean sameAs(Row other) {
+            return Arrays.equals(times, other.times) && Arrays.equals(trips, other.trips);
+        }
+
+        /** Merge changed trips into this row, producing a new row. */
+        Row update(Set<TripTimes> removed, TripTimes[] added, int[] addedFlags, int hop,
+                boolean departures) {
+            Row insert = build(added, addedFlags, hop, departures);
+            int n = 0;
+            for (TripTimes tt : trips) {
+                if (!removed.contains(tt))
+                    n++;
+            }
+            int size = n + insert.times.length;
+            TripTimes[] newTrips = new TripTimes[size];
+            int[] newTimes = new int[size];
+            int[] newFlags = new int[size];
+            int i = 0, j = 0, k = 0;
+            while (k < size) {
+                while (i < trips.length && removed.contains(trips[i]))
+                    i++;
+                boolean takeExisting = j >= insert.times.length ||
+                        (i < trips.length && times[i] <= insert.times[j]);
+                if (takeExisting) {
+                    newTrips[k] = trips[i];
+                    newTimes[k] = times[i];
+                    newFlags[k] = flags[i];
+                    i++;
+                } else {
+                    newTrips[k] = insert.trips[j];
+                    newTimes[k] = insert.times[j];
+                    newFlags[k] = insert.flags[j];
+                    j++;
+                }
+                k++;
+            }
+            return new Row(newTrips, newTimes, newFlags);
+        }
+
+        /** @return the position of the first trip whose time is at or after the given time. */
+        int firstAtOrAfter(int time) {
+            int n = times.length;
+            if (n == 0 || time <= times[0])
+                return 0;
+            int i = 0;
+            if (buckets != null) {
+                int b = (time >> shift) - base;
+                if (b >= buckets.length)
+                    return n;
+                i = buckets[b];
+            }
+            while (i < n && times[i] < time)
+                i++;
+            return i;
+        }
+
+        /** @return the position of the last trip whose time is at or before the given time. */
+        int lastAtOrBefore(int time) {
+            int n = times.length;
+            if (n == 0 || time < times[0])
+                return -1;
+            int i = 0;
+            if (buckets != null) {
+                int b = (time >> shift) - base;
+                if (b >= buckets.length)
+                    return n - 1;
+                i = buckets[b];
+            }
+            while (i < n && times[i] <= time)
+                i++;
+            return i - 1;
+        }
+
+    }
+
+}
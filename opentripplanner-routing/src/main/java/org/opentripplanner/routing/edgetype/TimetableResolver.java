@@ -1,9 +1,16 @@
 package org.opentripplanner.routing.edgetype;
 
+import java.util.ArrayList;
 import java.util.ConcurrentModificationException;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.opentripplanner.routing.trippattern.UpdateBlock;
 import org.slf4j.Logger;
@@ -19,7 +26,8 @@ import org.slf4j.LoggerFactory;
  * for that duration to provide a consistent view not only of trips that have been boarded, 
  * but of relative arrival and departure times of other trips that have not necessarily been boarded.
  * 
- * At this point, only one writing thread at a time is supported.
+ * At this point, only one writing thread at a time is supported, though a batch of updates
+ * may be applied by several worker threads, each working on different patterns.
  */
 public class TimetableResolver {
     
@@ -66,6 +74,75 @@ public class TimetableResolver {
         }
     }
     
+    /**
+     * Apply a batch of updates, grouped by pattern. The blocks for each pattern are applied in
+     * order to a single copy of its timetable, and different patterns are handled in parallel by
+     * the given executor (or in the calling thread if it is null). No commit can happen while
+     * the batch is being applied.
+     * @return the number of update blocks actually applied
+     */
+    public int update(Map<TableTripPattern, List<UpdateBlock>> blocksByPattern,
+            ExecutorService executor) throws InterruptedException {
+        synchronized(this) {
+            if (dirty == null)
+                throw new ConcurrentModificationException("This TimetableResolver is read-only.");
+            // the workers only read the maps, all writes happen here once they are finished
+            List<PatternUpdate> tasks = new ArrayList<PatternUpdate>(blocksByPattern.size());
+            for (Map.Entry<TableTripPattern, List<UpdateBlock>> entry : blocksByPattern.entrySet())
+                tasks.add(new PatternUpdate(entry.getKey(), entry.getValue()));
+            if (executor == null || tasks.size() < 2) {
+                for (PatternUpdate task : tasks)
+                    task.call();
+            } else {
+                List<Future<PatternUpdate>> futures = executor.invokeAll(tasks);
+                for (Future<PatternUpdate> future : futures) {
+                    try {
+                        future.get();
+                    } catch (ExecutionException e) {
+                        // Timetable.update catches its own exceptions, so this is a bug
+                        throw new RuntimeException(e.getCause());
+                    }
+                }
+            }
+            int applied = 0;
+            for (PatternUpdate task : tasks) {
+                if (task.applied > 0 && ! dirty.contains(task.timetable)) {
+                    timetables.put(task.pattern, task.timetable);
+                    dirty.add(task.timetable);
+                }
+                applied += task.applied;
+            }
+            return applied;
+        }
+    }
+
+    /** Applies the update blocks for one pattern to a private copy of its timetable. */
+    private class PatternUpdate implements Callable<PatternUpdate> {
+
+        final TableTripPattern pattern;
+        final List<UpdateBlock> blocks;
+        Timetable timetable;
+        int applied = 0;
+
+        PatternUpdate(TableTripPattern pattern, List<UpdateBlock> blocks) {
+            this.pattern = pattern;
+            this.blocks = blocks;
+        }
+
+        @Override
+        public PatternUpdate call() {
+            timetable = resolve(pattern);
+            // copy only once per commit, whatever the number of batches touching this pattern
+            if ( ! dirty.contains(timetable))
+                timetable = timetable.copy();
+            for (UpdateBlock block : blocks) {
+                if (timetable.update(block))
+                    applied += 1;
+            }
+            return this;
+        }
+    }
+
     /**
      * This produces a small delay of typically around 50ms, which is almost entirely due to
      * the indexing step. Cloning the map is much faster (2ms). 
@@ -37,6 +37,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.onebusaway.gtfs.impl.calendar.CalendarServiceImpl;
@@ -71,6 +72,9 @@ public class Graph implements Serializable {
 
     private final MavenVersion mavenVersion = MavenVersion.VERSION;
 
+    /* identifies this graph as built, and is saved with it; null for graphs saved without one */
+    private final String uuid = UUID.randomUUID().toString();
+
     private static final Logger LOG = LoggerFactory.getLogger(Graph.class);
 
     // transit feed validity information in seconds since epoch
@@ -240,6 +244,14 @@ public class Graph implements Serializable {
         return t >= this.transitServiceStarts && t < this.transitServiceEnds;
     }
 
+    /**
+     * @return an identifier assigned when this graph was built and kept when it is saved and
+     * loaded, or null if the graph was saved before graphs had one.
+     */
+    public String getUuid() {
+        return uuid;
+    }
+
     public GraphBundle getBundle() {
         return bundle;
     }
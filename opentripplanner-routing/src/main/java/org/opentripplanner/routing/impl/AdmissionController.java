@@ -0,0 +1,214 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.impl;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.Setter;
+
+import org.opentripplanner.routing.error.ServerBusyException;
+import org.opentripplanner.util.monitoring.MonitoringStore;
+import org.opentripplanner.util.monitoring.MonitoringStoreFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Limits the number of searches running at once on each router. Every search allocates 
+ * priority queues and states in proportion to the graph, so beyond a few searches per core more
+ * concurrency only adds garbage collection pressure, and under a traffic spike every request
+ * ends up timing out. Requests over the limit wait in a bounded queue, for at most maxWait 
+ * milliseconds. A request is refused immediately, with a ServerBusyException, when the queue is 
+ * full or when the wait predicted from the recent search times would exceed maxWait.
+ * 
+ * Usage: call admit(routerId) before searching and release() the returned permit in a finally
+ * block. Searches are only limited when an admissionController bean is declared in the
+ * application context.
+ */
+public class AdmissionController {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AdmissionController.class);
+
+    private static final MonitoringStore store = MonitoringStoreFactory.getStore();
+
+    /** The weight of the latest search time in the moving average of search times. */
+    private static final double SMOOTHING = 0.1;
+
+    /** Refusals are logged as warnings at most this often on each router, in milliseconds. */
+    private static final long WARN_INTERVAL = 10000;
+
+    /** The number of searches which may run at once on each router. */
+    @Setter private int maxConcurrent = Runtime.getRuntime().availableProcessors();
+
+    /** The number of requests which may wait for a search slot on each router. */
+    @Setter private int maxQueued = 4 * Runtime.getRuntime().availableProcessors();
+
+    /** The longest time in milliseconds a request may wait for a search slot. */
+    @Setter private long maxWait = 5000;
+
+    private ConcurrentMap<String, Gate> gates = new ConcurrentHashMap<String, Gate>();
+
+    /**
+     * Wait for a search slot on the given router.
+     * @return a permit which must be released when the search is finished.
+     * @throws ServerBusyException if no slot is expected to become free in time.
+     */
+    public Permit admit(String routerId) {
+        if (routerId == null)
+            routerId = "";
+        Gate gate = gates.get(routerId);
+        if (gate == null) {
+            gates.putIfAbsent(routerId, new Gate(routerId, maxConcurrent));
+            gate = gates.get(routerId);
+        }
+        return gate.admit();
+    }
+
+    /** @return the number of searches which may run at once on each router. */
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    /** @return the number of requests waiting for a search slot on the given router. */
+    public int getQueued(String routerId) {
+        Gate gate = gates.get(routerId);
+        return gate == null ? 0 : gate.queued.get();
+    }
+
+    /** @return the number of requests refused on the given router. */
+    public long getRejected(String routerId) {
+        Gate gate = gates.get(routerId);
+        return gate == null ? 0 : gate.rejected.get();
+    }
+
+    public class Permit {
+
+        private final Gate gate;
+
+        private final long start = System.currentTimeMillis();
+
+        private boolean released = false;
+
+        private Permit(Gate gate) {
+            this.gate = gate;
+        }
+
+        public void release() {
+            if (released)
+                return;
+            released = true;
+            gate.release(System.currentTimeMillis() - start);
+        }
+    }
+
+    private class Gate {
+
+        final String key;
+
+        final Semaphore slots;
+
+        final AtomicInteger queued = new AtomicInteger();
+
+        final AtomicLong rejected = new AtomicLong();
+
+        /** the time of the last refusal logged as a warning */
+        final AtomicLong lastWarned = new AtomicLong();
+
+        /** moving average of the search times in milliseconds, written under a lock */
+        volatile double meanServiceTime = 0;
+
+        Gate(String routerId, int nSlots) {
+            this.key = "admission." + (routerId.isEmpty() ? "default" : routerId);
+            this.slots = new Semaphore(nSlots, true);
+            for (String stat : new String[] { "queued", "maxQueued", "waitMsec", "maxWaitMsec",
+                    "active", "rejected", "meanSearchMsec" })
+                store.monitor(key + "." + stat);
+        }
+
+        Permit admit() {
+            boolean free;
+            try {
+                // unlike tryAcquire(), this honors fairness and does not overtake queued requests
+                free = slots.tryAcquire(0, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                // the request was abandoned
+                Thread.currentThread().interrupt();
+                return reject("interrupted");
+            }
+            if (free)
+                return admitted(0);
+            // every slot is taken: decide whether waiting is worthwhile, and if so take a place
+            // in the queue without letting concurrent requests push it past its bound
+            int ahead;
+            do {
+                ahead = queued.get();
+                if (ahead >= maxQueued)
+                    return reject("queue full");
+                double predictedWait = (ahead + 1) * meanServiceTime / maxConcurrent;
+                if (predictedWait > maxWait)
+                    return reject(String.format("predicted wait %.0fmsec", predictedWait));
+            } while ( ! queued.compareAndSet(ahead, ahead + 1));
+            long t0 = System.currentTimeMillis();
+            store.setLongMax(key + ".maxQueued", ahead + 1);
+            boolean acquired;
+            try {
+                acquired = slots.tryAcquire(maxWait, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                // the request was abandoned
+                Thread.currentThread().interrupt();
+                acquired = false;
+            } finally {
+                store.setLong(key + ".queued", queued.decrementAndGet());
+            }
+            if ( ! acquired)
+                return reject("no slot within " + maxWait + "msec");
+            return admitted(System.currentTimeMillis() - t0);
+        }
+
+        private Permit admitted(long wait) {
+            store.setLong(key + ".waitMsec", wait);
+            store.setLongMax(key + ".maxWaitMsec", wait);
+            store.setLong(key + ".active", maxConcurrent - slots.availablePermits());
+            return new Permit(this);
+        }
+
+        private Permit reject(String reason) {
+            long n = rejected.incrementAndGet();
+            store.setLong(key + ".rejected", n);
+            // an overloaded server would otherwise spend its time logging refusals
+            long now = System.currentTimeMillis();
+            long last = lastWarned.get();
+            if (now - last >= WARN_INTERVAL && lastWarned.compareAndSet(last, now))
+                LOG.warn("{}: request refused, {} ({} refused so far)", new Object[] { key, reason, n });
+            else
+                LOG.debug("{}: request refused, {} ({} refused so far)", new Object[] { key, reason, n });
+            throw new ServerBusyException(reason);
+        }
+
+        void release(long serviceTime) {
+            synchronized (this) {
+                meanServiceTime = meanServiceTime == 0 ? serviceTime 
+                        : (1 - SMOOTHING) * meanServiceTime + SMOOTHING * serviceTime;
+            }
+            slots.release();
+            store.setLong(key + ".active", maxConcurrent - slots.availablePermits());
+            store.setLong(key + ".meanSearchMsec", (long) meanServiceTime);
+        }
+    }
+
+}
@@ -15,9 +15,11 @@ package org.opentripplanner.routing.impl;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Graph.LoadLevel;
+import org.opentripplanner.routing.services.GraphRegistrationListener;
 import org.opentripplanner.routing.services.GraphService;
 
 /**
@@ -30,6 +32,9 @@ public class GraphServiceBeanImpl implements GraphService {
 
     private Graph graph;
 
+    private List<GraphRegistrationListener> listeners = 
+            new CopyOnWriteArrayList<GraphRegistrationListener>();
+
     // 0-arg bean constructor
     public GraphServiceBeanImpl() {
     }
@@ -38,7 +43,10 @@ public class GraphServiceBeanImpl implements GraphService {
         this.graph = graph;
     }
 
+    /** Replace the single graph, letting the listeners bind to it first. */
     public void setGraph(Graph graph) {
+        for (GraphRegistrationListener listener : listeners)
+            listener.onGraphRegistered("default", graph);
         this.graph = graph;
     }
 
@@ -82,4 +90,16 @@ public class GraphServiceBeanImpl implements GraphService {
         return 0;
     }
 
+    /** Every listener follows the single graph, whatever its routerId. */
+    @Override
+    public void addGraphRegistrationListener(String routerId, 
+            GraphRegistrationListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeGraphRegistrationListener(GraphRegistrationListener listener) {
+        listeners.remove(listener);
+    }
+
 }
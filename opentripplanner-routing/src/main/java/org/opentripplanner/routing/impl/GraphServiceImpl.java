@@ -15,21 +15,39 @@ package org.opentripplanner.routing.impl;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 import lombok.Setter;
 
+import org.opentripplanner.routing.algorithm.GenericAStar;
+import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Graph.LoadLevel;
+import org.opentripplanner.routing.services.GraphRegistrationListener;
 import org.opentripplanner.routing.services.GraphService;
+import org.opentripplanner.util.monitoring.MonitoringStore;
+import org.opentripplanner.util.monitoring.MonitoringStoreFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.ResourceLoaderAware;
@@ -42,6 +60,14 @@ import org.springframework.core.io.ResourceLoader;
  * It can handle multiple graphs, each with its own routerId. These graphs are loaded from 
  * serialized graph files in subdirectories immediately under the specified base 
  * resource/filesystem path.
+ * 
+ * Lookups never block on loading. A replacement graph is deserialized and warmed up (calendar
+ * service and time zone resolved, optional canned searches run) before it is swapped into the
+ * router map, so requests already in progress finish on the graph they started with, and the 
+ * old graph becomes garbage once the last of them lets go of it. Registration listeners, such as
+ * the realtime updaters, rebind to the new graph before it is swapped in, so they must not hold 
+ * on to the old one either. Loads can also be run on a background thread via 
+ * registerGraphInBackground and reloadGraphsInBackground.
  */
 @Scope("singleton")
 public class GraphServiceImpl implements GraphService, ResourceLoaderAware {
@@ -50,9 +76,29 @@ public class GraphServiceImpl implements GraphService, ResourceLoaderAware {
 
     private String resourceBase = "file:/var/otp/graphs";
 
-    private Map<String, Graph> graphs = new HashMap<String, Graph>();
+    private static final MonitoringStore store = MonitoringStoreFactory.getStore();
 
-    private Map<String, LoadLevel> levels = new HashMap<String, LoadLevel>();
+    /* the store drops values for keys nobody has asked it to monitor */
+    static {
+        store.monitor("graphService.retiredGraphs");
+    }
+
+    /** Routers whose load statistics have been enabled in the monitoring store. */
+    private Set<String> monitoredRouters = Collections.newSetFromMap(
+            new ConcurrentHashMap<String, Boolean>());
+
+    private Map<String, Graph> graphs = new ConcurrentHashMap<String, Graph>();
+
+    private Map<String, LoadLevel> levels = new ConcurrentHashMap<String, LoadLevel>();
+
+    /** Graphs which were replaced or evicted, until they are garbage collected. */
+    private ReferenceQueue<Graph> retiredQueue = new ReferenceQueue<Graph>();
+
+    private Set<RetiredGraph> retired = new HashSet<RetiredGraph>();
+
+    private List<Registration> listeners = new CopyOnWriteArrayList<Registration>();
+
+    private ExecutorService loader;
 
     private LoadLevel loadLevel = LoadLevel.FULL;
 
@@ -67,6 +113,16 @@ public class GraphServiceImpl implements GraphService, ResourceLoaderAware {
     /** If true, on startup register the graph in the location defaultRouterId. */
     @Setter private boolean attemptRegisterDefault = true;
 
+    /** 
+     * Searches run on a newly loaded graph before it is published, each given as two "lat,lon" 
+     * places separated by a semicolon. These touch the street index, the transit timetables 
+     * and the JIT before the first real request arrives.
+     */
+    @Setter private List<String> warmupQueries;
+
+    /** The time limit in seconds for each warmup search. */
+    @Setter private double warmupTimeout = 5;
+
     /** 
      * Router IDs may contain alphanumeric characters, underscores, and dashes only. 
      * This prevents any confusion caused by the presence of special characters that might have a 
@@ -134,14 +190,10 @@ public class GraphServiceImpl implements GraphService, ResourceLoaderAware {
             routerId = defaultRouterId;
             LOG.debug("routerId not specified, set to default of '{}'", routerId);
         }
-        synchronized (graphs) {
-            if ( ! graphs.containsKey(routerId)) {
-                LOG.error("no graph registered with the routerId '{}'", routerId);
-                return null;
-            } else {
-                return graphs.get(routerId);
-            }
-        }
+        Graph graph = graphs.get(routerId);
+        if (graph == null)
+            LOG.error("no graph registered with the routerId '{}'", routerId);
+        return graph;
     }
 
     @Override
@@ -186,16 +238,92 @@ public class GraphServiceImpl implements GraphService, ResourceLoaderAware {
         }
     }
 
+    /**
+     * Prepare a freshly loaded graph for routing, so that the first requests it serves are not 
+     * slowed down by lazy initialization.
+     */
+    private void warmUp(String routerId, Graph graph) {
+        // the time zone also needs the calendar service when the graph has agencies
+        if (graph.getCalendarService() != null)
+            graph.getTimeZone();
+        if (warmupQueries == null || graph.streetIndex == null)
+            return;
+        GenericAStar search = new GenericAStar();
+        for (String query : warmupQueries) {
+            String[] places = query.split(";");
+            if (places.length != 2) {
+                LOG.warn("warmup query '{}' is not of the form 'lat,lon;lat,lon'", query);
+                continue;
+            }
+            RoutingRequest options = new RoutingRequest();
+            options.setFrom(places[0].trim());
+            options.setTo(places[1].trim());
+            try {
+                options.setRoutingContext(graph);
+                search.getShortestPathTree(options, warmupTimeout);
+            } catch (Exception e) {
+                LOG.warn("warmup query '{}' failed on routerId {}: {}", 
+                        new Object[] { query, routerId, e.toString() });
+            } finally {
+                if (options.getRoutingContext() != null)
+                    options.cleanup();
+            }
+        }
+    }
+
+    /**
+     * Reload the graphs for all registered routerIds. When preEvict is false, each router keeps 
+     * serving requests on its old graph until the new one is ready.
+     */
     public boolean reloadGraphs(boolean preEvict) {
         boolean allSucceeded = true;
-        synchronized (graphs) {
-            for (String routerId : this.getRouterIds()) {
-                boolean success = registerGraph(routerId, preEvict);
-                allSucceeded &= success;
-            }
+        for (String routerId : this.getRouterIds()) {
+            boolean success = registerGraph(routerId, preEvict);
+            allSucceeded &= success;
         }
         return allSucceeded;
     }
+
+    /**
+     * Reload the graphs for all registered routerIds on the background loader thread, one at a 
+     * time, without evicting the old graphs first.
+     */
+    public List<Future<Boolean>> reloadGraphsInBackground() {
+        List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+        for (String routerId : this.getRouterIds())
+            results.add(registerGraphInBackground(routerId));
+        return results;
+    }
+
+    /**
+     * Load and warm up the graph for the given routerId on the background loader thread, then 
+     * swap it in. Any existing graph keeps serving requests in the meantime.
+     * @return the eventual result of registerGraph
+     */
+    public synchronized Future<Boolean> registerGraphInBackground(final String routerId) {
+        if (loader == null) {
+            loader = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "graph-loader");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return loader.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return registerGraph(routerId, false);
+            }
+        });
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (loader != null)
+            loader.shutdownNow();
+    }
     
     @Override
     public Collection<String> getRouterIds() {
@@ -207,40 +335,175 @@ public class GraphServiceImpl implements GraphService, ResourceLoaderAware {
         if (preEvict)
             evictGraph(routerId);
         LOG.info("registering routerId {}", routerId);
+        LoadLevel level = loadLevel;
+        long heap0 = usedHeap();
+        long t0 = System.currentTimeMillis();
         Graph graph = this.loadGraph(routerId);
-        if (graph != null) {
-            synchronized (graphs) {
-                graphs.put(routerId, graph);
-            }
-            levels.put(routerId, loadLevel);
-            return true;
+        if (graph == null) {
+            LOG.info("routerId {} was not registered (graph was null).", routerId);
+            return false;
+        }
+        long t1 = System.currentTimeMillis();
+        warmUp(routerId, graph);
+        long t2 = System.currentTimeMillis();
+        // this includes any garbage made while loading, so it is only an upper bound
+        long heapMB = (usedHeap() - heap0) / (1024 * 1024);
+        levels.put(routerId, level);
+        notifyRegistered(routerId, graph);
+        retire(routerId, graphs.put(routerId, graph));
+        LOG.info("routerId {} registered: loaded in {}msec, warmed up in {}msec, ~{}MB heap", 
+                new Object[] { routerId, t1 - t0, t2 - t1, heapMB });
+        if (monitoredRouters.add(routerId)) {
+            for (String key : new String[] { "loadMsec", "warmupMsec", "heapMB", "registeredAt" })
+                store.monitor("graphService." + routerId + "." + key);
         }
-        LOG.info("routerId {} was not registered (graph was null).", routerId);
-        return false;
+        store.setLong("graphService." + routerId + ".loadMsec", t1 - t0);
+        store.setLong("graphService." + routerId + ".warmupMsec", t2 - t1);
+        store.setLong("graphService." + routerId + ".heapMB", heapMB);
+        store.setLong("graphService." + routerId + ".registeredAt", t2);
+        return true;
     }
 
     @Override
     public boolean registerGraph(String routerId, Graph graph) {
+        notifyRegistered(routerId, graph);
         Graph existing = graphs.put(routerId, graph);
+        retire(routerId, existing);
         return existing == null;
     }
     
     @Override
     public boolean evictGraph(String routerId) {
         LOG.debug("evicting graph {}", routerId);
-        synchronized (graphs) {
-            Graph existing = graphs.remove(routerId);
-            return existing != null;
-        }
+        Graph existing = graphs.remove(routerId);
+        if (existing != null)
+            notifyEvicted(routerId, existing);
+        retire(routerId, existing);
+        return existing != null;
     }
 
     @Override
     public int evictAll() {
-        int n;
-        synchronized(graphs) {
-            n = graphs.size(); 
-            graphs.clear();
+        int n = 0;
+        for (String routerId : this.getRouterIds()) {
+            if (evictGraph(routerId))
+                n += 1;
         }
         return n;
     }
+
+    @Override
+    public void addGraphRegistrationListener(String routerId, 
+            GraphRegistrationListener listener) {
+        listeners.add(new Registration(routerId, listener));
+    }
+
+    @Override
+    public void removeGraphRegistrationListener(GraphRegistrationListener listener) {
+        for (Registration r : listeners) {
+            if (r.listener == listener)
+                listeners.remove(r);
+        }
+    }
+
+    /** @return whether the registration follows the given router, resolving the default one. */
+    private boolean follows(Registration r, String routerId) {
+        String id = r.routerId;
+        if (id == null || id.isEmpty())
+            id = defaultRouterId;
+        return id.equals(routerId);
+    }
+
+    /** A failing listener is logged rather than preventing the graph from being registered. */
+    private void notifyRegistered(String routerId, Graph graph) {
+        for (Registration r : listeners) {
+            if (! follows(r, routerId))
+                continue;
+            try {
+                r.listener.onGraphRegistered(routerId, graph);
+            } catch (RuntimeException e) {
+                LOG.error("listener {} failed on a new graph for routerId {}: {}", 
+                        new Object[] { r.listener, routerId, e.toString() });
+            }
+        }
+    }
+
+    private void notifyEvicted(String routerId, Graph graph) {
+        for (Registration r : listeners) {
+            if (! follows(r, routerId))
+                continue;
+            try {
+                r.listener.onGraphEvicted(routerId, graph);
+            } catch (RuntimeException e) {
+                LOG.error("listener {} failed on the eviction of routerId {}: {}", 
+                        new Object[] { r.listener, routerId, e.toString() });
+            }
+        }
+    }
+
+    /** @return the number of graphs replaced or evicted which have not yet been collected. */
+    public int getRetiredGraphCount() {
+        synchronized (retired) {
+            pollRetired();
+            return retired.size();
+        }
+    }
+
+    /** 
+     * Keep track of a graph leaving the router map. It is still referenced by any requests in 
+     * progress, and is released once they complete, when the garbage collector enqueues it.
+     */
+    private void retire(String routerId, Graph graph) {
+        synchronized (retired) {
+            pollRetired();
+            if (graph != null) {
+                retired.add(new RetiredGraph(routerId, graph, retiredQueue));
+                LOG.debug("retired a graph for routerId {}, {} retired graphs not yet released", 
+                        routerId, retired.size());
+            }
+            store.setLong("graphService.retiredGraphs", retired.size());
+        }
+    }
+
+    private void pollRetired() {
+        Reference<? extends Graph> ref;
+        while ((ref = retiredQueue.poll()) != null) {
+            RetiredGraph r = (RetiredGraph) ref;
+            retired.remove(r);
+            LOG.info("a retired graph for routerId {} was released {}msec after retirement", 
+                    r.routerId, System.currentTimeMillis() - r.retiredAt);
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static class Registration {
+
+        final String routerId;
+
+        final GraphRegistrationListener listener;
+
+        Registration(String routerId, GraphRegistrationListener listener) {
+            this.routerId = routerId;
+            this.listener = listener;
+        }
+
+    }
+
+    private static class RetiredGraph extends WeakReference<Graph> {
+
+        final String routerId;
+
+        final long retiredAt = System.currentTimeMillis();
+
+        RetiredGraph(String routerId, Graph graph, ReferenceQueue<Graph> queue) {
+            super(graph, queue);
+            this.routerId = routerId;
+        }
+
+    }
+
 }
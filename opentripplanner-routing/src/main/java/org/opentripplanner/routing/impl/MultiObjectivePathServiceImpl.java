@@ -13,10 +13,21 @@
 
 package org.opentripplanner.routing.impl;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.annotation.PreDestroy;
 
 import org.opentripplanner.common.geometry.DistanceLibrary;
 import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
@@ -25,6 +36,8 @@ import org.opentripplanner.routing.algorithm.TraverseVisitor;
 import org.opentripplanner.routing.algorithm.strategies.BidirectionalRemainingWeightHeuristic;
 import org.opentripplanner.routing.algorithm.strategies.DefaultRemainingWeightHeuristic;
 import org.opentripplanner.routing.algorithm.strategies.RemainingWeightHeuristic;
+import org.opentripplanner.routing.core.CancellationToken;
+import org.opentripplanner.routing.core.RequestTrace;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.graph.Edge;
@@ -35,6 +48,7 @@ import org.opentripplanner.routing.pathparser.PathParser;
 import org.opentripplanner.routing.services.GraphService;
 import org.opentripplanner.routing.services.PathService;
 import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.spt.StateBag;
 import org.opentripplanner.util.monitoring.MonitoringStore;
 import org.opentripplanner.util.monitoring.MonitoringStoreFactory;
 import org.slf4j.Logger;
@@ -61,6 +75,9 @@ import org.springframework.beans.factory.annotation.Autowired;
  * pruned due to excessive walking distance or excessive number of transfers 
  * without compromising other paths. 
  * 
+ * The search can be split into time slices searched in parallel, which share the paths they
+ * find (see setTimeSlices).
+ * 
  * This path service cannot be used with edges that return multiple (chained) states.
  *
  * @author andrewbyrd
@@ -80,6 +97,12 @@ public class MultiObjectivePathServiceImpl implements PathService {
     
     private double _maxPaths = 4;
 
+    private int timeSlices = 1;
+
+    private int sliceMinutes = 10;
+
+    private ExecutorService executor;
+
     private TraverseVisitor traverseVisitor;
 
     private DistanceLibrary distanceLibrary = SphericalDistanceLibrary.getInstance();
@@ -98,6 +121,20 @@ public class MultiObjectivePathServiceImpl implements PathService {
         _maxPaths = numPaths;
     }
 
+    /**
+     * Split transit searches into this many searches departing sliceMinutes apart, run in
+     * parallel on a pool shared by all requests. The slices share the paths they find, which
+     * prune all of them, so more distinct itineraries are found within the same timeouts.
+     * A traverse visitor must be thread-safe when there is more than one slice.
+     */
+    public void setTimeSlices(int timeSlices) {
+        this.timeSlices = timeSlices;
+    }
+
+    public void setSliceMinutes(int sliceMinutes) {
+        this.sliceMinutes = sliceMinutes;
+    }
+
     public void setTraverseVisitor(TraverseVisitor traverseVisitor) {
         this.traverseVisitor = traverseVisitor;
     }
@@ -123,11 +160,8 @@ public class MultiObjectivePathServiceImpl implements PathService {
         }        
                 
         // the states that will eventually be turned into paths and returned
-        List<State> returnStates = new LinkedList<State>();
+        List<State> returnStates = Collections.emptyList();
 
-        BinHeap<State> pq = new BinHeap<State>();
-//        List<State> boundingStates = new ArrayList<State>();
-        
         Vertex originVertex = options.rctx.origin;
         Vertex targetVertex = options.rctx.target;
         
@@ -154,41 +188,189 @@ public class MultiObjectivePathServiceImpl implements PathService {
             
             State origin = new State(options);
             // (used to) initialize heuristic outside loop so table can be reused
+            long heuristicBegin = options.rctx.trace.begin();
             heuristic.computeInitialWeight(origin, targetVertex);
+            options.rctx.trace.end(RequestTrace.Phase.HEURISTIC, heuristicBegin);
             
             options.maxWeight = cutoff + 30 * 60 * options.waitReluctance;
             
-            // reinitialize states for each retry
-            HashMap<Vertex, List<State>> states = new HashMap<Vertex, List<State>>();
-            pq.reset();
-            pq.insert(origin, 0);
-            long startTime = System.currentTimeMillis();
-            long endTime = startTime + (int)(_timeouts[0] * 1000);
-            LOG.debug("starttime {} endtime {}", startTime, endTime); 
+            // reinitialize targets for each retry
+            Targets targets = new Targets(options.isArriveBy());
+            Outcome outcome = search(options, heuristic, targets);
+            storeMemory();
+            if (outcome == Outcome.CANCELLED)
+                return Collections.emptyList();
+            returnStates = targets.getStates();
+            if (outcome == Outcome.STOPPED)
+                break WALK; // disable walk distance increases
+        }
+
+        // Make the states into paths and return them
+        long pathsBegin = options.rctx.trace.begin();
+        List<GraphPath> paths = new LinkedList<GraphPath>();
+        for (State s : returnStates) {
+            LOG.debug(s.toStringVerbose());
+            paths.add(new GraphPath(s, true));
+        }
+        options.rctx.trace.end(RequestTrace.Phase.PATHS, pathsBegin);
+        // sort by arrival time, though paths are already in order of increasing difficulty
+        // Collections.sort(paths, new PathComparator(origin.getOptions().isArriveBy()));
+        return paths;
+    }
+
+    /**
+     * Run one search per time slice, the first on the calling thread and the others on the
+     * worker pool, and wait for all of them to finish.
+     */
+    private Outcome search(RoutingRequest options, RemainingWeightHeuristic heuristic,
+            Targets targets) {
+        long startTime = System.currentTimeMillis();
+        // timed here rather than in each slice, so that SEARCH stays within the wall-clock time
+        RequestTrace trace = options.rctx.trace;
+        long begin = trace.begin();
+        try {
+            return searchSlices(options, heuristic, targets, startTime);
+        } finally {
+            trace.end(RequestTrace.Phase.SEARCH, begin);
+        }
+    }
+
+    private Outcome searchSlices(RoutingRequest options, RemainingWeightHeuristic heuristic,
+            Targets targets, long startTime) {
+        int nSlices = options.getModes().isTransit() ? timeSlices : 1;
+        if (nSlices <= 1)
+            return new Search(options, heuristic, targets, startTime).call();
+        List<Future<Outcome>> slices = new ArrayList<Future<Outcome>>(nSlices - 1);
+        try {
+            ExecutorService pool = getExecutor();
+            for (int i = 1; i < nSlices; i++) {
+                RoutingRequest slice = options.clone();
+                long shift = i * sliceMinutes * 60L;
+                slice.dateTime = options.isArriveBy() ? options.dateTime - shift
+                        : options.dateTime + shift;
+                slices.add(pool.submit(new Search(slice, heuristic, targets, startTime)));
+            }
+            Outcome outcome = new Search(options, heuristic, targets, startTime).call();
+            for (Future<Outcome> slice : slices) {
+                Outcome sliceOutcome = slice.get();
+                if (sliceOutcome.compareTo(outcome) > 0)
+                    outcome = sliceOutcome;
+            }
+            return outcome;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Outcome.CANCELLED;
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            // release any slices still running if this thread gave up early
+            targets.stop();
+        }
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            int nThreads = Runtime.getRuntime().availableProcessors();
+            executor = Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
+                private int n = 0;
+                @Override
+                public synchronized Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "multi-objective-search-" + n++);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (executor != null)
+            executor.shutdownNow();
+    }
+
+    /** How a single search ended, in increasing order of precedence when merging slices. */
+    private static enum Outcome {
+        /** the queue was emptied */
+        EXHAUSTED,
+        /** timed out, aborted, or found enough paths */
+        STOPPED,
+        /** the request was cancelled, no paths should be returned */
+        CANCELLED
+    }
+
+    /**
+     * The label-setting search from one departure time. States are pruned by the shared target
+     * set as well as by the other states at their vertex.
+     */
+    private class Search implements Callable<Outcome> {
+
+        private final RoutingRequest options;
+
+        private final RemainingWeightHeuristic heuristic;
+
+        private final Targets targets;
+
+        private final long startTime;
+
+        private int nExpanded = 0;
+
+        private int nEnqueued = 0;
+
+        private boolean timedOut = false;
+
+        Search(RoutingRequest options, RemainingWeightHeuristic heuristic, Targets targets,
+                long startTime) {
+            this.options = options;
+            this.heuristic = heuristic;
+            this.targets = targets;
+            this.startTime = startTime;
+        }
+
+        @Override
+        public Outcome call() {
+            RequestTrace trace = options.rctx.trace;
+            try {
+                return run();
+            } finally {
+                trace.add(RequestTrace.Counter.SEARCHES, 1);
+                trace.add(RequestTrace.Counter.EXPANDED, nExpanded);
+                trace.add(RequestTrace.Counter.ENQUEUED, nEnqueued);
+                if (timedOut)
+                    trace.add(RequestTrace.Counter.TIMEOUTS, 1);
+                trace.recordHeap();
+            }
+        }
+
+        private Outcome run() {
+            Vertex targetVertex = options.rctx.target;
+            CancellationToken cancellation = options.rctx.cancellation;
+            HashMap<Vertex, StateBag> states = new HashMap<Vertex, StateBag>();
+            BinHeap<State> pq = new BinHeap<State>();
+            pq.insert(new State(options), 0);
             QUEUE: while ( ! pq.empty()) {
                 
-                if (System.currentTimeMillis() > endTime) {
+                if (cancellation.shouldAbort(nExpanded++)) {
+                    LOG.debug("search aborted after {} msec", System.currentTimeMillis() - startTime);
+                    return cancellation.isCancelled() ? Outcome.CANCELLED : Outcome.STOPPED;
+                }
+
+                if (targets.isStopped())
+                    return Outcome.STOPPED;
+
+                if (System.currentTimeMillis() > startTime + timeout(targets.size())) {
                     LOG.debug("timeout at {} msec", System.currentTimeMillis() - startTime);
-                    if (returnStates.isEmpty())
-                        break WALK; // disable walk distance increases
-                    else {
-                        storeMemory();
-                        break WALK;
-                    }
+                    timedOut = true;
+                    return Outcome.STOPPED;
                 }
     
-//                if (pq.peek_min_key() > options.maxWeight) {
-//                    LOG.debug("max weight {} exceeded", options.maxWeight);
-//                    break QUEUE;
-//                }
-                
+                double key = pq.peek_min_key();
                 State su = pq.extract_min();
     
-//                for (State bs : boundingStates) {
-//                    if (eDominates(bs, su)) {
-//                        continue QUEUE;
-//                    }
-//                }
+                // a path found since su was queued may already be better than any through it
+                if (targets.bounds(su, key - su.getWeight()))
+                    continue QUEUE;
     
                 Vertex u = su.getVertex();
     
@@ -197,19 +379,16 @@ public class MultiObjectivePathServiceImpl implements PathService {
                 }
     
                 if (u.equals(targetVertex)) {
-//                    boundingStates.add(su);
-                    returnStates.add(su);
+                    targets.add(su);
                     if ( ! options.getModes().isTransit())
                         break QUEUE;
                     // options should contain max itineraries
-                    if (returnStates.size() >= _maxPaths)
+                    if (targets.size() >= _maxPaths) {
+                        targets.stop();
                         break QUEUE;
-                    if (returnStates.size() < _timeouts.length) {
-                        endTime = startTime + (int)(_timeouts[returnStates.size()] * 1000);
-                        LOG.debug("{} path, set timeout to {}", 
-                                  returnStates.size(), 
-                                  _timeouts[returnStates.size()] * 1000);
                     }
+                    LOG.debug("{} paths, timeout {} msec", targets.size(),
+                              timeout(targets.size()));
                     continue QUEUE;
                 }
                 
@@ -221,50 +400,105 @@ public class MultiObjectivePathServiceImpl implements PathService {
 
                         double h = heuristic.computeForwardWeight(new_sv, targetVertex);
                         if (h == Double.MAX_VALUE) continue;
-//                    for (State bs : boundingStates) {
-//                        if (eDominates(bs, new_sv)) {
-//                            continue STATE;
-//                        }
-//                    }
+                        if (targets.bounds(new_sv, h))
+                            continue STATE;
                         Vertex v = new_sv.getVertex();
-                        List<State> old_states = states.get(v);
+                        StateBag old_states = states.get(v);
                         if (old_states == null) {
-                            old_states = new LinkedList<State>();
+                            old_states = new StateBag(E_DOMINANCE);
                             states.put(v, old_states);
-                        } else {
-                            for (State old_sv : old_states) {
-                                if (eDominates(old_sv, new_sv)) {
-                                    continue STATE;
-                                }
-                            }
-                            Iterator<State> iter = old_states.iterator();
-                            while (iter.hasNext()) {
-                                State old_sv = iter.next();
-                                if (eDominates(new_sv, old_sv)) {
-                                    iter.remove();
-                                }
-                            }
                         }
+                        if ( ! old_states.add(new_sv))
+                            continue STATE;
                         if (traverseVisitor != null)
                             traverseVisitor.visitEnqueue(new_sv);
     
-                        old_states.add(new_sv);
                         pq.insert(new_sv, new_sv.getWeight() + h);
+                        nEnqueued += 1;
                     }
                 }
             }
+            return Outcome.EXHAUSTED;
         }
-        storeMemory();
+    }
 
-        // Make the states into paths and return them
-        List<GraphPath> paths = new LinkedList<GraphPath>();
-        for (State s : returnStates) {
-            LOG.debug(s.toStringVerbose());
-            paths.add(new GraphPath(s, true));
+    /** @return the time in msec allowed for the search once n paths have been found. */
+    private long timeout(int n) {
+        return (long) (_timeouts[Math.min(n, _timeouts.length - 1)] * 1000);
+    }
+
+    /**
+     * The paths found by all slices of a search, kept Pareto-optimal on departure time, arrival
+     * time, weight, walk distance and boardings. Since none of these can improve along a path,
+     * a state which a path found already dominates (counting the remaining weight heuristic) can
+     * be dropped by every slice. The set is small and read far more often than written, so it is
+     * copied on write.
+     */
+    static final class Targets {
+
+        /** 1 for a depart-after search, -1 when time runs backward */
+        private final int sign;
+
+        private volatile State[] states = new State[0];
+
+        private volatile boolean stopped = false;
+
+        Targets(boolean arriveBy) {
+            this.sign = arriveBy ? -1 : 1;
+        }
+
+        /** @return whether path t is at least as good as any path through s. */
+        private boolean dominates(State t, State s, double h) {
+            return t.getWeight() <= s.getWeight() + h
+                    && sign * t.getTime() <= sign * s.getTime()
+                    && sign * t.getStartTime() >= sign * s.getStartTime()
+                    && t.getWalkDistance() <= s.getWalkDistance()
+                    && t.getNumBoardings() <= s.getNumBoardings();
+        }
+
+        public boolean bounds(State s, double h) {
+            for (State t : states) {
+                if (dominates(t, s, h))
+                    return true;
+            }
+            return false;
+        }
+
+        public synchronized void add(State s) {
+            if (bounds(s, 0))
+                return;
+            List<State> kept = new ArrayList<State>(states.length + 1);
+            for (State t : states) {
+                if ( ! dominates(s, t, 0))
+                    kept.add(t);
+            }
+            kept.add(s);
+            states = kept.toArray(new State[kept.size()]);
+        }
+
+        public int size() {
+            return states.length;
+        }
+
+        public void stop() {
+            stopped = true;
+        }
+
+        public boolean isStopped() {
+            return stopped;
+        }
+
+        /** @return the paths found in order of increasing weight. */
+        public List<State> getStates() {
+            State[] sorted = states.clone();
+            Arrays.sort(sorted, new Comparator<State>() {
+                @Override
+                public int compare(State a, State b) {
+                    return Double.compare(a.getWeight(), b.getWeight());
+                }
+            });
+            return Arrays.asList(sorted);
         }
-        // sort by arrival time, though paths are already in order of increasing difficulty
-        // Collections.sort(paths, new PathComparator(origin.getOptions().isArriveBy()));
-        return paths;
     }
 
     private void storeMemory() {
@@ -284,9 +518,29 @@ public class MultiObjectivePathServiceImpl implements PathService {
 //               s0.getNumBoardings() <= s1.getNumBoardings();
 //    }
     
+    private static final double EPSILON = 0.05;
+
+    /** Epsilon-dominance of states along similar route sequences, for the per-vertex bags. */
+    private static final StateBag.Dominance E_DOMINANCE = new StateBag.Dominance() {
+
+        @Override
+        public boolean dominates(State a, State b) {
+            return eDominates(a, b);
+        }
+
+        @Override
+        public double maxDominatingWeight(double weight) {
+            return weight * (1 + EPSILON);
+        }
+
+        @Override
+        public double minDominatedWeight(double weight) {
+            return weight / (1 + EPSILON);
+        }
+    };
+
     // TODO: move into an epsilon-dominance shortest path tree
-    private boolean eDominates(State s0, State s1) {
-        final double EPSILON = 0.05;
+    private static boolean eDominates(State s0, State s1) {
         if (s0.similarRouteSequence(s1)) {
             return s0.getWeight() <= s1.getWeight() * (1 + EPSILON) &&
                     s0.getElapsedTime() <= s1.getElapsedTime() * (1 + EPSILON) &&
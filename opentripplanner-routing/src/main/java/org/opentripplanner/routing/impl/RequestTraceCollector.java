@@ -0,0 +1,151 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import org.opentripplanner.routing.core.RequestTrace;
+import org.opentripplanner.util.monitoring.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Aggregates the traces of finished requests into counters and histograms of phase times, which
+ * can be exported in the Prometheus text format, and keeps the traces of the slowest requests.
+ * Recording a trace takes no lock unless it is among the slowest seen.
+ */
+@Component
+public class RequestTraceCollector {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RequestTraceCollector.class);
+
+    private static final String PREFIX = "otp_routing_";
+
+    private static final Comparator<RequestTrace> BY_TOTAL = new Comparator<RequestTrace>() {
+        @Override
+        public int compare(RequestTrace a, RequestTrace b) {
+            long ta = a.getTotalNanos(), tb = b.getTotalNanos();
+            return ta < tb ? -1 : (ta == tb ? 0 : 1);
+        }
+    };
+
+    /** Whether request handlers should trace requests at all. */
+    @Getter @Setter private boolean enabled = true;
+
+    /** The number of slowest traces to keep. */
+    @Setter private int slowest = 10;
+
+    /** Whether to log a trace when it enters the slowest kept. */
+    @Setter private boolean logSlowest = false;
+
+    private final Histogram total = new Histogram();
+
+    private final Histogram[] phases = new Histogram[RequestTrace.Phase.values().length];
+
+    private final AtomicLongArray counters = new AtomicLongArray(
+            RequestTrace.Counter.values().length);
+
+    private final AtomicLong requests = new AtomicLong();
+
+    private final AtomicLong lastHeapUsed = new AtomicLong();
+
+    /* a min-heap, so the fastest of the slowest traces is the one evicted */
+    private final PriorityQueue<RequestTrace> slowestTraces = new PriorityQueue<RequestTrace>(
+            11, BY_TOTAL);
+
+    private volatile long slowestThreshold = 0;
+
+    public RequestTraceCollector() {
+        for (int i = 0; i < phases.length; i++)
+            phases[i] = new Histogram();
+    }
+
+    /** Add a finished trace to the statistics. */
+    public void record(RequestTrace trace) {
+        if (trace == RequestTrace.NONE || trace.getTotalNanos() < 0)
+            return;
+        requests.incrementAndGet();
+        total.observeNanos(trace.getTotalNanos());
+        for (RequestTrace.Phase phase : RequestTrace.Phase.values()) {
+            long nanos = trace.getPhaseNanos(phase);
+            if (nanos > 0)
+                phases[phase.ordinal()].observeNanos(nanos);
+        }
+        for (RequestTrace.Counter counter : RequestTrace.Counter.values())
+            counters.addAndGet(counter.ordinal(), trace.getCount(counter));
+        if (trace.getMaxHeapUsed() > 0)
+            lastHeapUsed.set(trace.getMaxHeapUsed());
+        if (slowest > 0 && trace.getTotalNanos() > slowestThreshold)
+            keepIfSlow(trace);
+    }
+
+    private synchronized void keepIfSlow(RequestTrace trace) {
+        if (slowestTraces.size() >= slowest) {
+            if (BY_TOTAL.compare(trace, slowestTraces.peek()) <= 0)
+                return;
+            slowestTraces.poll();
+        }
+        slowestTraces.add(trace);
+        if (slowestTraces.size() >= slowest)
+            slowestThreshold = slowestTraces.peek().getTotalNanos();
+        if (logSlowest)
+            LOG.info("slow request: {}", trace);
+    }
+
+    /** @return the slowest traces kept, slowest first. */
+    public synchronized List<RequestTrace> getSlowest() {
+        List<RequestTrace> traces = new ArrayList<RequestTrace>(slowestTraces);
+        Collections.sort(traces, Collections.reverseOrder(BY_TOTAL));
+        return traces;
+    }
+
+    /** Forget the slowest traces, e.g. after they have been looked into. */
+    public synchronized void clearSlowest() {
+        slowestTraces.clear();
+        slowestThreshold = 0;
+    }
+
+    /** @return the statistics in the Prometheus text exposition format. */
+    public String toPrometheus() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# TYPE ").append(PREFIX).append("requests_total counter\n");
+        sb.append(PREFIX).append("requests_total ").append(requests.get()).append('\n');
+        for (RequestTrace.Counter counter : RequestTrace.Counter.values()) {
+            String name = PREFIX + counter.name().toLowerCase() + "_total";
+            sb.append("# TYPE ").append(name).append(" counter\n");
+            sb.append(name).append(' ').append(counters.get(counter.ordinal())).append('\n');
+        }
+        sb.append("# TYPE ").append(PREFIX).append("heap_used_bytes gauge\n");
+        sb.append(PREFIX).append("heap_used_bytes ").append(lastHeapUsed.get()).append('\n');
+        sb.append("# TYPE ").append(PREFIX).append("request_seconds histogram\n");
+        total.writePrometheus(sb, PREFIX + "request_seconds", null);
+        sb.append("# TYPE ").append(PREFIX).append("phase_seconds histogram\n");
+        for (RequestTrace.Phase phase : RequestTrace.Phase.values()) {
+            phases[phase.ordinal()].writePrometheus(sb, PREFIX + "phase_seconds",
+                    "phase=\"" + phase.name().toLowerCase() + "\"");
+        }
+        return sb.toString();
+    }
+
+}
@@ -20,6 +20,8 @@ import java.util.List;
 import java.util.Queue;
 
 import org.onebusaway.gtfs.model.AgencyAndId;
+import org.opentripplanner.routing.core.CancellationToken;
+import org.opentripplanner.routing.core.RequestTrace;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.pathparser.BasicPathParser;
 import org.opentripplanner.routing.pathparser.NoThruTrafficPathParser;
@@ -47,6 +49,11 @@ public class RetryingPathServiceImpl implements PathService {
     @Autowired
     private SPTService sptService;
 
+    /*
+     * Both timeouts only bring the deadline carried by the cancellation token of the request
+     * forward, so they never extend the time allowed to the request as a whole. The
+     * sub-searches themselves have no timeout of their own.
+     */
     private double firstPathTimeout = 0; // seconds
     private double multiPathTimeout = 0; // seconds
     
@@ -90,6 +97,8 @@ public class RetryingPathServiceImpl implements PathService {
         }
 
         long searchBeginTime = System.currentTimeMillis();
+        CancellationToken cancellation = options.rctx.cancellation;
+        cancellation.setTimeout(firstPathTimeout);
         
         // The list of options specifying various modes, banned routes, etc to try for multiple
         // itineraries
@@ -107,20 +116,23 @@ public class RetryingPathServiceImpl implements PathService {
                 LOG.debug("Ran out of options to try.");
                 break;
             }
+            if (cancellation.shouldAbort()) {
+                LOG.debug("Request cancelled or past its deadline, not retrying.");
+                break;
+            }
             currOptions.setMaxWalkDistance(maxWalk);
             
-            // apply appropriate timeout
-            double timeout = paths.isEmpty() ? firstPathTimeout : multiPathTimeout;
-            
             // options.worstTime = maxTime;
             //options.maxWeight = maxWeight;
             long subsearchBeginTime = System.currentTimeMillis();
             
             LOG.debug("BEGIN SUBSEARCH");
-            ShortestPathTree spt = sptService.getShortestPathTree(currOptions, timeout);
+            ShortestPathTree spt = sptService.getShortestPathTree(currOptions);
             if (spt == null) // timeout or other fail
                 break;
+            long pathsBegin = options.rctx.trace.begin();
             List<GraphPath> somePaths = spt.getPaths();
+            options.rctx.trace.end(RequestTrace.Phase.PATHS, pathsBegin);
             LOG.debug("END SUBSEARCH ({} msec of {} msec total)", 
                     System.currentTimeMillis() - subsearchBeginTime,
                     System.currentTimeMillis() - searchBeginTime);
@@ -160,6 +172,13 @@ public class RetryingPathServiceImpl implements PathService {
                 LOG.debug("No paths were found.");
                 continue;
             }
+            boolean outOfTime = false;
+            if (paths.isEmpty() && multiPathTimeout > 0) {
+                // the first itinerary is found, leave only so much time for the others
+                double elapsed = (System.currentTimeMillis() - searchBeginTime) / 1000.0;
+                outOfTime = elapsed >= multiPathTimeout;
+                cancellation.setTimeout(multiPathTimeout - elapsed);
+            }
             for (GraphPath path : somePaths) {
                 if (!paths.contains(path)) {
                     if (path.getWalkDistance() > maxWalk) {
@@ -179,6 +198,8 @@ public class RetryingPathServiceImpl implements PathService {
                 }
             }
             LOG.debug("{} / {} itineraries", paths.size(), currOptions.numItineraries);
+            if (outOfTime)
+                break;
         }
         if (paths.size() == 0) {
             return null;
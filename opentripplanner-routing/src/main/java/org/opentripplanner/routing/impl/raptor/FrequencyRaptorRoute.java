@@ -0,0 +1,114 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.impl.raptor;
+
+import org.onebusaway.gtfs.model.Trip;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.edgetype.FrequencyAlight;
+import org.opentripplanner.routing.edgetype.FrequencyBasedTripPattern;
+import org.opentripplanner.routing.edgetype.FrequencyBoard;
+import org.opentripplanner.routing.graph.Edge;
+
+/**
+ * A RaptorRoute made of a single frequency-based (headway) pattern. Boarding is resolved from the
+ * headways directly, and only the run actually boarded is materialized as a TripTimes, so the
+ * transit phase handles it exactly like a scheduled route.
+ * 
+ * The inherited boards and alights arrays are left empty, since they only hold scheduled edges;
+ * code that reads them directly rather than through getBoardEdge/getAlightEdge (such as the
+ * graph builder's StopProfile) does not see frequency-based service.
+ */
+public class FrequencyRaptorRoute extends RaptorRoute {
+    private static final long serialVersionUID = 1L;
+
+    public FrequencyBasedTripPattern pattern;
+
+    public FrequencyBoard[/* stops - 1 */] frequencyBoards;
+
+    public FrequencyAlight[/* stops - 1 */] frequencyAlights;
+
+    public FrequencyRaptorRoute(FrequencyBasedTripPattern pattern) {
+        super(pattern.getNumStops(), 0);
+        this.pattern = pattern;
+        frequencyBoards = new FrequencyBoard[pattern.getNumStops() - 1];
+        frequencyAlights = new FrequencyAlight[pattern.getNumStops() - 1];
+    }
+
+    @Override
+    public int getNPatterns() {
+        return 1;
+    }
+
+    @Override
+    public boolean canBoard(int patternIndex, int stopNo) {
+        return pattern.canBoard(stopNo);
+    }
+
+    @Override
+    public boolean canAlight(int patternIndex, int stopNo) {
+        return pattern.canAlight(stopNo);
+    }
+
+    @Override
+    public int getServiceId(int patternIndex) {
+        return pattern.getServiceId();
+    }
+
+    @Override
+    public Trip getExemplar() {
+        return pattern.getTrip();
+    }
+
+    @Override
+    public Edge getBoardEdge(int stopNo, int patternIndex) {
+        return frequencyBoards[stopNo];
+    }
+
+    @Override
+    public Edge getAlightEdge(int stopNo, int patternIndex) {
+        return frequencyAlights[stopNo - 1];
+    }
+
+    @Override
+    public RaptorBoardSpec getTripIndex(RoutingRequest request, int arrivalTime, int stopNo) {
+        FrequencyBoard board = frequencyBoards[stopNo];
+        State state = new State(board.getFromVertex(), arrivalTime, request);
+        State result = board.traverse(state);
+        if (result == null)
+            return null;
+        return makeSpec(result);
+    }
+
+    @Override
+    public RaptorBoardSpec getTripIndexReverse(RoutingRequest request, int arrivalTime, int stopNo) {
+        FrequencyAlight alight = frequencyAlights[stopNo - 1];
+        State state = new State(alight.getToVertex(), arrivalTime, request);
+        State result = alight.traverse(state);
+        if (result == null)
+            return null;
+        return makeSpec(result);
+    }
+
+    private RaptorBoardSpec makeSpec(State result) {
+        RaptorBoardSpec spec = new RaptorBoardSpec();
+        spec.departureTime = (int) result.getTime();
+        spec.tripTimes = result.getTripTimes();
+        spec.patternIndex = 0;
+        spec.serviceDay = result.getServiceDay();
+        spec.tripId = result.getTripId();
+        return spec;
+    }
+
+}
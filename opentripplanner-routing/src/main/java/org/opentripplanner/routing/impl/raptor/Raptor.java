@@ -28,10 +28,15 @@ import org.onebusaway.gtfs.model.AgencyAndId;
 import org.onebusaway.gtfs.model.Stop;
 import org.opentripplanner.common.geometry.DistanceLibrary;
 import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
+import org.opentripplanner.routing.core.CancellationToken;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.ServiceDay;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.edgetype.FrequencyAlight;
+import org.opentripplanner.routing.edgetype.FrequencyBoard;
+import org.opentripplanner.routing.edgetype.FrequencyDwell;
+import org.opentripplanner.routing.edgetype.FrequencyHop;
 import org.opentripplanner.routing.edgetype.PatternDwell;
 import org.opentripplanner.routing.edgetype.PatternHop;
 import org.opentripplanner.routing.edgetype.PatternInterlineDwell;
@@ -69,8 +74,6 @@ public class Raptor implements PathService {
 
     private RaptorData cachedRaptorData;
 
-    private double multiPathTimeout = 0; // seconds
-
     /**
      * This is used for short paths (under shortPathCutoff).
      */
@@ -87,20 +90,6 @@ public class Raptor implements PathService {
         shortPathService.setSptService(sptService);
     }
 
-    /** Give up on searching for additional itineraries after this many seconds have elapsed. */
-    public void setTimeout (double seconds) {
-        multiPathTimeout = seconds;
-    }
-
-    /**
-     * Stop searching for additional itineraries (beyond the first one) after this many seconds 
-     * have elapsed, relative to the beginning of the search for the first itinerary. 
-     * A negative or zero value means search forever. 
-     */
-    public void setMultiPathTimeout (double seconds) {
-        multiPathTimeout = seconds;
-    }
-
     //fallback for nontransit trips
     @Autowired public SPTService sptService;
 
@@ -171,9 +160,9 @@ public class Raptor implements PathService {
             search.maxTimeDayIndex = day;
         }
 
-        int rushAheadRound = preliminaryRaptorSearch(data, options, walkOptions, search);
+        CancellationToken cancellation = options.rctx.cancellation;
 
-        long searchBeginTime = System.currentTimeMillis();
+        int rushAheadRound = preliminaryRaptorSearch(data, options, walkOptions, search);
 
         double expectedWorstTime = 1.5 * distanceLibrary.distance(options.rctx.origin.getCoordinate(),
                 options.rctx.target.getCoordinate()) / options.getWalkSpeed();
@@ -185,9 +174,8 @@ public class Raptor implements PathService {
                 if (!round(data, options, walkOptions, search, round))
                     break;
 
-                long elapsed = System.currentTimeMillis() - searchBeginTime;
-                if (elapsed > multiPathTimeout * 1000 && multiPathTimeout > 0
-                        && search.getTargetStates().size() > 0)
+                // past the deadline of the request, keep what has been found so far
+                if (search.getTargetStates().size() > 0 && cancellation.shouldAbort())
                     break RETRY;
 
                 ArrayList<RaptorState> toRemove = new ArrayList<RaptorState>();
@@ -219,6 +207,9 @@ public class Raptor implements PathService {
 
             }
 
+            if (cancellation.shouldAbort())
+                break;
+
             if (foundSoFar < search.getTargetStates().size()) {
                 foundSoFar = search.getTargetStates().size();
             } else if (foundSoFar > 0) {
@@ -236,6 +227,11 @@ public class Raptor implements PathService {
 
         } while (options.getMaxWalkDistance() < initialWalk * MAX_WALK_MULTIPLE && initialWalk < Double.MAX_VALUE);
 
+        if (cancellation.isCancelled()) {
+            log.info("RAPTOR search cancelled");
+            return Collections.emptyList();
+        }
+
         collectRoutesUsed(data, options, search.getTargetStates());
 
         List<RaptorState> targetStates = search.getTargetStates();
@@ -467,15 +463,15 @@ public class Raptor implements PathService {
                             break;
                         }
                     }
-                    TransitBoardAlight board = cur.getRoute().boards[cur.boardStopSequence][cur.patternIndex];
+                    Edge board = cur.getRoute().getBoardEdge(cur.boardStopSequence, cur.patternIndex);
                     state = board.traverse(state);
                 }
                 // now traverse the hops and dwells until we find the alight we're looking for
                 HOP: while (true) {
                     for (Edge e : state.getVertex().getOutgoing()) {
-                        if (e instanceof PatternDwell) {
+                        if (e instanceof PatternDwell || e instanceof FrequencyDwell) {
                             state = e.traverse(state);
-                        } else if (e instanceof PatternHop) {
+                        } else if (e instanceof PatternHop || e instanceof FrequencyHop) {
                             state = e.traverse(state);
                             if (cur.interlining) {
                                 for (Edge e2 : state.getVertex().getOutgoing()) {
@@ -496,7 +492,7 @@ public class Raptor implements PathService {
                                 }
                             } else {
                                 for (Edge e2 : state.getVertex().getOutgoing()) {
-                                    if (e2 instanceof TransitBoardAlight) {
+                                    if (e2 instanceof TransitBoardAlight || e2 instanceof FrequencyAlight) {
                                         for (Edge e3 : e2.getToVertex().getOutgoing()) {
                                             if (e3 instanceof PreAlightEdge) {
                                                 if (data.raptorStopsForStopId.get(((TransitStop) e3
@@ -541,7 +537,7 @@ public class Raptor implements PathService {
                             state = e.traverse(state);
                         }
                     }
-                    TransitBoardAlight alight = cur.getRoute().alights[cur.boardStopSequence - 1][cur.patternIndex];
+                    Edge alight = cur.getRoute().getAlightEdge(cur.boardStopSequence, cur.patternIndex);
                     State oldState = state;
                     state = alight.traverse(state);
                     if (state == null) {
@@ -551,9 +547,9 @@ public class Raptor implements PathService {
                 // now traverse the hops and dwells until we find the board we're looking for
                 HOP: while (true) {
                     for (Edge e : state.getVertex().getIncoming()) {
-                        if (e instanceof PatternDwell) {
+                        if (e instanceof PatternDwell || e instanceof FrequencyDwell) {
                             state = e.traverse(state);
-                        } else if (e instanceof PatternHop) {
+                        } else if (e instanceof PatternHop || e instanceof FrequencyHop) {
                             state = e.traverse(state);
                             if (cur.interlining) {
                                 for (Edge e2 : state.getVertex().getIncoming()) {
@@ -574,7 +570,7 @@ public class Raptor implements PathService {
                                 }
                             } else {
                                 for (Edge e2 : state.getVertex().getIncoming()) {
-                                    if (e2 instanceof TransitBoardAlight) {
+                                    if (e2 instanceof TransitBoardAlight || e2 instanceof FrequencyBoard) {
                                         for (Edge e3 : e2.getFromVertex().getIncoming()) {
                                             if (e3 instanceof PreBoardEdge) {
                                                 if (data.raptorStopsForStopId.get(((TransitStop) e3
@@ -615,15 +611,8 @@ public class Raptor implements PathService {
         for (RaptorRoute route : data.routes) {
             ArrayList<Integer> keep = new ArrayList<Integer>();
 
-            for (int i = 0; i < route.boards[0].length; ++i) {
-                Edge board = route.boards[0][i];
-                int serviceId;
-                if (board instanceof TransitBoardAlight) {
-                    serviceId = ((TransitBoardAlight) board).getPattern().getServiceId();
-                } else {
-                    log.debug("Unexpected nonboard among boards");
-                    continue;
-                }
+            for (int i = 0; i < route.getNPatterns(); ++i) {
+                int serviceId = route.getServiceId(i);
                 for (ServiceDay day : serviceDays) {
                     if (day.serviceIdRunning(serviceId)) {
                         keep.add(i);
@@ -633,13 +622,6 @@ public class Raptor implements PathService {
             }
             if (keep.isEmpty())
                 continue;
-            int nPatterns = keep.size();
-            RaptorRoute prunedRoute = new RaptorRoute(route.getNStops(), nPatterns);
-            for (int stop = 0; stop < route.getNStops() - 1; ++stop) {
-                for (int pattern = 0; pattern < nPatterns; ++pattern) {
-                    prunedRoute.boards[stop][pattern] = route.boards[stop][keep.get(pattern)];
-                }
-            }
             pruned.routes.add(route);
             for (RaptorStop stop : route.stops) {
                 List<RaptorRoute> routes = pruned.routesForStop[stop.index];
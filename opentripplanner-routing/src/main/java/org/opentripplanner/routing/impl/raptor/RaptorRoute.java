@@ -17,11 +17,13 @@ import java.io.Serializable;
 import java.util.HashMap;
 
 import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Trip;
 import org.opentripplanner.gtfs.GtfsLibrary;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.core.TraverseMode;
 import org.opentripplanner.routing.edgetype.TransitBoardAlight;
+import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.trippattern.TripTimes;
 
 /**
@@ -57,6 +59,39 @@ public class RaptorRoute implements Serializable {
         return stops.length;
     }
 
+    /** @return the number of trip patterns making up this route */
+    public int getNPatterns() {
+        return boards[0].length;
+    }
+
+    /** @return true if the given pattern allows boarding at the given stop */
+    public boolean canBoard(int patternIndex, int stopNo) {
+        return boards[0][patternIndex].getPattern().canBoard(stopNo);
+    }
+
+    /** @return true if the given pattern allows alighting at the given stop */
+    public boolean canAlight(int patternIndex, int stopNo) {
+        return boards[0][patternIndex].getPattern().canAlight(stopNo);
+    }
+
+    public int getServiceId(int patternIndex) {
+        return boards[0][patternIndex].getPattern().getServiceId();
+    }
+
+    public Trip getExemplar() {
+        return boards[0][0].getPattern().getExemplar();
+    }
+
+    /** @return the edge boarding the given pattern at the given stop */
+    public Edge getBoardEdge(int stopNo, int patternIndex) {
+        return boards[stopNo][patternIndex];
+    }
+
+    /** @return the edge alighting the given pattern at the given stop */
+    public Edge getAlightEdge(int stopNo, int patternIndex) {
+        return alights[stopNo - 1][patternIndex];
+    }
+
     public int getAlightTime(TripTimes tripTimes, int stopNo) {
         return tripTimes.getArrivalTime(stopNo - 1);
     }
@@ -127,7 +162,7 @@ public class RaptorRoute implements Serializable {
     }
 
     public String toString() {
-        return GtfsLibrary.getRouteName(boards[0][0].getPattern().getExemplar().getRoute())
+        return GtfsLibrary.getRouteName(getExemplar().getRoute())
                 + " from " + stops[0].stopVertex.getLabel();
     }
 
@@ -26,6 +26,7 @@ import org.opentripplanner.common.pqueue.BinHeap;
 import org.opentripplanner.common.pqueue.OTPPriorityQueue;
 import org.opentripplanner.common.pqueue.OTPPriorityQueueFactory;
 import org.opentripplanner.routing.algorithm.GenericDijkstra;
+import org.opentripplanner.routing.core.CancellationToken;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.ServiceDay;
 import org.opentripplanner.routing.core.State;
@@ -129,6 +130,9 @@ public class RaptorSearch {
 
         List<RaptorState> createdStates = new ArrayList<RaptorState>();
 
+        CancellationToken cancellation = options.rctx.cancellation;
+        int nRoutesScanned = 0;
+
         int boardSlack;
         if (options.isArriveBy()) {
             boardSlack = nBoardings == 1 ? options.getAlightSlack()
@@ -138,6 +142,10 @@ public class RaptorSearch {
                     : (options.getTransferSlack() - options.getAlightSlack());
         }
         for (RaptorRoute route : routesToVisit) {
+            if (cancellation.shouldAbort(nRoutesScanned++)) {
+                // leave the states found so far in place; walkPhase will stop the search
+                break;
+            }
             List<RaptorState> boardStates = new ArrayList<RaptorState>(); // not really states
             boolean started;
 
@@ -192,7 +200,7 @@ public class RaptorSearch {
 
                     int travelTime;
                     if (options.isArriveBy()) {
-                        if (!route.alights[0][boardState.patternIndex].getPattern().canBoard(stopNo))
+                        if (!route.canBoard(boardState.patternIndex, stopNo))
                             continue;
                         int boardTime = route.getBoardTime(boardState.tripTimes, stopNo);
                         newState.arrivalTime = (int) sd.time(boardTime);
@@ -200,8 +208,7 @@ public class RaptorSearch {
                         newState.arrivalTime -= options.getBoardSlack();
                         travelTime = newState.getParent().arrivalTime - newState.arrivalTime;
                     } else {
-                        if (!route.boards[0][boardState.patternIndex].getPattern()
-                                .canAlight(stopNo))
+                        if (!route.canAlight(boardState.patternIndex, stopNo))
                             continue;
                         int alightTime = route.getAlightTime(boardState.tripTimes, stopNo);
                         newState.arrivalTime = (int) sd.time(alightTime);
@@ -575,6 +582,12 @@ public class RaptorSearch {
             transitStopStates = bounder.getTransitStopsVisited();
         }
 
+        if (options.rctx.cancellation.shouldAbort()) {
+            // the walk search was cut short, so its results are incomplete
+            log.debug("RAPTOR search aborted in round {}", nBoardings);
+            return false;
+        }
+
         List<? extends State> targetStates = null;
         if (walkOptions.rctx.target != null)
             targetStates = spt.getStates(walkOptions.rctx.target);
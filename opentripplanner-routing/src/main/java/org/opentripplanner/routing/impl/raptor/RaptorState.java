@@ -89,7 +89,7 @@ public class RaptorState implements Comparable<RaptorState>, Cloneable {
         while (state != null) {
             String routeStr = "()";
             if (state.route != null) {
-                Trip gtfsTrip = state.route.boards[0][0].getPattern().getExemplar();
+                Trip gtfsTrip = state.route.getExemplar();
                 Route gtfsRoute = gtfsTrip.getRoute();
                 routeStr = gtfsTrip.getTripHeadsign();
                 if (routeStr == null) {
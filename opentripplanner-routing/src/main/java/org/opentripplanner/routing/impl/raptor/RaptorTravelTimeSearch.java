@@ -0,0 +1,364 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.impl.raptor;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.opentripplanner.routing.algorithm.GenericDijkstra;
+import org.opentripplanner.routing.algorithm.strategies.SkipTraverseResultStrategy;
+import org.opentripplanner.routing.core.CancellationToken;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.ServiceDay;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.routing.trippattern.TripTimes;
+import org.opentripplanner.routing.vertextype.TransitStop;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A stripped-down RAPTOR computing only the earliest arrival time at every stop, for use when
+ * many origins are searched against the same destinations (travel time matrices). Unlike
+ * RaptorSearch it keeps no RaptorStates or paths: each round works on primitive arrays of
+ * arrival times indexed by RaptorStop.index, and walking between stops uses transfer times
+ * computed once when this object is created rather than a street search in every round.
+ *
+ * Callers supply the walk time from their origin to each stop, and combine the resulting
+ * arrival times with their own walk times from stops to destinations. Only depart-after
+ * searches are supported.
+ */
+public class RaptorTravelTimeSearch {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RaptorTravelTimeSearch.class);
+
+    /** Arrival time of stops which cannot be reached. */
+    public static final int UNREACHED = Integer.MAX_VALUE;
+
+    /** Receives the walk search made from each stop while transfers are computed. */
+    public interface StopTreeVisitor {
+        public void visit(RaptorStop stop, ShortestPathTree spt);
+    }
+
+    private final RaptorData data;
+
+    private final RoutingRequest options;
+
+    private final RoutingRequest walkOptions;
+
+    /* transfers from each stop: the stops within walking distance and the time to walk there */
+    private int[][] transferStops;
+
+    private int[][] transferTimes;
+
+    /**
+     * @param options the request whose date, time, slacks, maximum walk distance and number of
+     *        transfers apply to every search. A routing context on the given graph is created
+     *        for it if it does not have one.
+     */
+    public RaptorTravelTimeSearch(Graph graph, RoutingRequest options) {
+        RaptorDataService service = graph.getService(RaptorDataService.class);
+        if (service == null)
+            throw new IllegalStateException("No raptor data. Rebuild with RaptorDataBuilder");
+        if (options.isArriveBy())
+            throw new IllegalArgumentException("Travel time searches must depart after a time");
+        this.data = service.getData();
+        this.options = options;
+        if (options.rctx == null)
+            options.setRoutingContext(graph, (Vertex) null, (Vertex) null);
+        walkOptions = options.clone();
+        TraverseModeSet modes = options.getModes().clone();
+        modes.setTransit(false);
+        walkOptions.setModes(modes);
+        walkOptions.batch = true;
+        walkOptions.setRoutingContext(graph, (Vertex) null, (Vertex) null);
+    }
+
+    /** @return the number of stops, which is the length of the arrays used by search(). */
+    public int getNStops() {
+        return data.stops.length;
+    }
+
+    public RaptorStop[] getStops() {
+        return data.stops;
+    }
+
+    /**
+     * @return the stop at the given vertex, or null if it is not a stop served by any route.
+     */
+    public RaptorStop getStop(Vertex vertex) {
+        if ( ! (vertex instanceof TransitStop))
+            return null;
+        return data.raptorStopsForStopId.get(((TransitStop) vertex).getStopId());
+    }
+
+    /**
+     * Make a walk search from the given vertex, limited to the maximum walk distance of the
+     * request. This is used for transfers, and is available to callers for access and egress.
+     */
+    public ShortestPathTree walkSearch(Vertex origin) {
+        GenericDijkstra dijkstra = new GenericDijkstra(walkOptions);
+        // the walk options have no transit, so their own limit is disabled
+        final double maxWalk = options.getMaxWalkDistance();
+        dijkstra.setSkipTraverseResultStrategy(new SkipTraverseResultStrategy() {
+            @Override
+            public boolean shouldSkipTraversalResult(Vertex origin, Vertex target, State parent,
+                    State current, ShortestPathTree spt, RoutingRequest traverseOptions) {
+                return current.getWalkDistance() > maxWalk;
+            }
+        });
+        return dijkstra.getShortestPathTree(new State(origin, walkOptions));
+    }
+
+    /**
+     * Walk from every stop to find the transfers between stops. This must be called before
+     * search(). The visitor, which may be null, sees each walk search so that walk times from
+     * stops to destinations can be collected in the same pass.
+     */
+    public void computeTransfers(StopTreeVisitor visitor) {
+        computeTransfers(visitor, options.rctx.cancellation);
+    }
+
+    /**
+     * As computeTransfers(StopTreeVisitor), but giving up between two walk searches when the
+     * given token is cancelled or expires. Searches cannot be made until transfers have been
+     * computed again.
+     * @return false if the transfers were not all computed.
+     */
+    public boolean computeTransfers(StopTreeVisitor visitor, CancellationToken cancellation) {
+        int nStops = data.stops.length;
+        transferStops = new int[nStops][];
+        transferTimes = new int[nStops][];
+        int[] stops = new int[nStops];
+        int[] times = new int[nStops];
+        long t0 = System.currentTimeMillis();
+        for (RaptorStop stop : data.stops) {
+            if (stop == null)
+                continue;
+            if (cancellation.shouldAbort()) {
+                LOG.info("transfers abandoned after {} msec", System.currentTimeMillis() - t0);
+                transferStops = null;
+                transferTimes = null;
+                return false;
+            }
+            ShortestPathTree spt = walkSearch(stop.stopVertex);
+            int n = 0;
+            for (State state : spt.getAllStates()) {
+                RaptorStop other = getStop(state.getVertex());
+                if (other == null || other == stop)
+                    continue;
+                stops[n] = other.index;
+                times[n] = (int) state.getElapsedTime();
+                n++;
+            }
+            transferStops[stop.index] = Arrays.copyOf(stops, n);
+            transferTimes[stop.index] = Arrays.copyOf(times, n);
+            if (visitor != null)
+                visitor.visit(stop, spt);
+        }
+        LOG.info("computed transfers for {} stops in {} msec", nStops,
+                System.currentTimeMillis() - t0);
+        return true;
+    }
+
+    /**
+     * Find the earliest arrival at every stop.
+     * @param accessTimes for each stop, the time in seconds needed to reach it from the origin
+     *        without transit, or UNREACHED
+     * @return for each stop, the time in seconds after the departure time of the request at
+     *         which it is reached, or UNREACHED. Arrivals by transit include the alight slack.
+     */
+    public int[] search(int[] accessTimes) {
+        return search(accessTimes, options.rctx.cancellation);
+    }
+
+    /**
+     * As search(int[]), but stopping early when the given token is cancelled or expires. This
+     * object is shared by every caller, so callers with their own deadline pass their own token.
+     */
+    public int[] search(int[] accessTimes, CancellationToken cancellation) {
+        int[][] rounds = newRounds();
+        int departure = (int) options.dateTime;
+        searchRounds(departure, accessTimes, rounds, cancellation);
+        return relativeArrivals(rounds, departure);
+    }
+
+    /**
+     * Find the earliest arrival at every stop for each of a range of departure times, starting
+     * at the departure time of the request. Departures are searched from the latest to the
+     * earliest, and the arrival times found for each round are kept as the starting point for
+     * the next (earlier) departure, since waiting makes them reachable from it too. Each search
+     * then only needs to scan the routes on which the earlier departure improves something.
+     * @param window the length of the range of departure times in seconds
+     * @param step the interval in seconds between departure times
+     * @return for each departure, the arrivals as they would be returned by search() for that
+     *         departure time. The first row is the earliest departure.
+     */
+    public int[][] searchRange(int[] accessTimes, int window, int step) {
+        return searchRange(accessTimes, window, step, options.rctx.cancellation);
+    }
+
+    /** As searchRange(int[], int, int), but stopping early when the given token aborts. */
+    public int[][] searchRange(int[] accessTimes, int window, int step,
+            CancellationToken cancellation) {
+        if (step <= 0)
+            throw new IllegalArgumentException("step between departures must be positive");
+        int nDepartures = window / step + 1;
+        int[][] arrivals = new int[nDepartures][];
+        int[][] rounds = newRounds();
+        int first = (int) options.dateTime;
+        for (int d = nDepartures - 1; d >= 0; d--) {
+            int departure = first + d * step;
+            searchRounds(departure, accessTimes, rounds, cancellation);
+            arrivals[d] = relativeArrivals(rounds, departure);
+        }
+        return arrivals;
+    }
+
+    /** @return an empty array of arrival times at each stop for round 0 to the last round. */
+    private int[][] newRounds() {
+        if (transferStops == null)
+            throw new IllegalStateException("computeTransfers must be called before searching");
+        int[][] rounds = new int[options.getMaxTransfers() + 2][data.stops.length];
+        for (int[] round : rounds)
+            Arrays.fill(round, UNREACHED);
+        return rounds;
+    }
+
+    /**
+     * Improve the arrival times of every round with the given departure time. Round 0 holds the
+     * arrivals on foot from the origin, and round k the arrivals using at most k vehicles.
+     */
+    private void searchRounds(int departure, int[] accessTimes, int[][] rounds,
+            CancellationToken cancellation) {
+        int nStops = data.stops.length;
+        boolean[] marked = new boolean[nStops];
+        boolean[] improved = new boolean[nStops];
+        boolean anyMarked = false;
+        for (int s = 0; s < nStops; s++) {
+            if (accessTimes[s] != UNREACHED && departure + accessTimes[s] < rounds[0][s]) {
+                rounds[0][s] = departure + accessTimes[s];
+                marked[s] = true;
+                anyMarked = true;
+            }
+        }
+        for (int round = 1; anyMarked && round < rounds.length; round++) {
+            if (cancellation.shouldAbort())
+                break;
+            int[] previous = rounds[round - 1];
+            int[] best = rounds[round];
+            // anything reached in the previous round is reached in this one
+            for (int s = 0; s < nStops; s++) {
+                if (marked[s] && previous[s] < best[s])
+                    best[s] = previous[s];
+            }
+            Arrays.fill(improved, false);
+            int boardSlack = (round == 1) ? options.getBoardSlack()
+                    : options.getTransferSlack() - options.getAlightSlack();
+            for (RaptorRoute route : routesServing(marked)) {
+                scanRoute(route, round, boardSlack, previous, marked, best, improved);
+            }
+            // walk on from every stop improved by transit in this round
+            anyMarked = false;
+            Arrays.fill(marked, false);
+            for (int s = 0; s < nStops; s++) {
+                if ( ! improved[s])
+                    continue;
+                marked[s] = true;
+                anyMarked = true;
+                int[] toStops = transferStops[s];
+                int[] toTimes = transferTimes[s];
+                if (toStops == null)
+                    continue;
+                for (int t = 0; t < toStops.length; t++) {
+                    int arrival = best[s] + toTimes[t];
+                    if (arrival < best[toStops[t]]) {
+                        best[toStops[t]] = arrival;
+                        marked[toStops[t]] = true;
+                    }
+                }
+            }
+        }
+    }
+
+    /** @return the earliest arrival over all rounds, relative to the departure time. */
+    private int[] relativeArrivals(int[][] rounds, int departure) {
+        int nStops = data.stops.length;
+        int[] arrivals = new int[nStops];
+        for (int s = 0; s < nStops; s++) {
+            int best = UNREACHED;
+            for (int[] round : rounds) {
+                if (round[s] < best)
+                    best = round[s];
+            }
+            arrivals[s] = (best == UNREACHED) ? UNREACHED : best - departure;
+        }
+        return arrivals;
+    }
+
+    private Set<RaptorRoute> routesServing(boolean[] marked) {
+        Set<RaptorRoute> routes = new LinkedHashSet<RaptorRoute>();
+        for (int s = 0; s < marked.length; s++) {
+            if ( ! marked[s])
+                continue;
+            List<RaptorRoute> routesForStop = data.routesForStop[s];
+            if (routesForStop != null)
+                routes.addAll(routesForStop);
+        }
+        return routes;
+    }
+
+    /** Ride the route from the first stop to the last, always on the earliest trip boardable. */
+    private void scanRoute(RaptorRoute route, int round, int boardSlack, int[] previous,
+            boolean[] marked, int[] best, boolean[] improved) {
+        TripTimes trip = null;
+        ServiceDay serviceDay = null;
+        int patternIndex = -1;
+        int lastStop = route.getNStops() - 1;
+        for (int stopNo = 0; stopNo <= lastStop; stopNo++) {
+            RaptorStop stop = route.stops[stopNo];
+            int s = stop.index;
+            if (trip != null && stopNo > 0 && route.canAlight(patternIndex, stopNo)) {
+                int arrival = (int) serviceDay.time(route.getAlightTime(trip, stopNo))
+                        + options.getAlightSlack();
+                if (arrival < best[s]) {
+                    best[s] = arrival;
+                    improved[s] = true;
+                }
+            }
+            if (stopNo == lastStop || ! marked[s] || previous[s] == UNREACHED)
+                continue;
+            if (round > 1 && stop.stopVertex.isLocal())
+                continue; // cannot transfer at a local stop
+            int earliest = previous[s] + boardSlack;
+            if (trip != null && (int) serviceDay.time(route.getBoardTime(trip, stopNo)) <= earliest)
+                continue; // already on a trip at least as early
+            RaptorBoardSpec spec = route.getTripIndex(options, earliest, stopNo);
+            if (spec == null)
+                continue;
+            if (trip == null || spec.departureTime
+                    < (int) serviceDay.time(route.getBoardTime(trip, stopNo))) {
+                trip = spec.tripTimes;
+                serviceDay = spec.serviceDay;
+                patternIndex = spec.patternIndex;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,34 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (props, at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+
+package org.opentripplanner.routing.services;
+
+import org.opentripplanner.routing.graph.Graph;
+
+/**
+ * Components which keep state bound to a graph, such as realtime updaters, implement this to
+ * follow the graphs of a router as they are replaced. The {@link GraphService} calls 
+ * {@link #onGraphRegistered} with a new graph before it is published, so the listener can bind 
+ * to and index it before any request sees it, and should let go of the graph it replaces so
+ * that the replaced graph can be garbage collected once the requests using it complete.
+ */
+public interface GraphRegistrationListener {
+
+    /** Called with a graph about to be registered under the routerId, before it is published. */
+    public void onGraphRegistered(String routerId, Graph graph);
+
+    /** Called after the graph registered under the routerId has been evicted. */
+    public void onGraphEvicted(String routerId, Graph graph);
+
+}
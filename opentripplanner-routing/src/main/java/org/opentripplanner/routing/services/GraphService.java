@@ -85,4 +85,12 @@ public interface GraphService {
      */
     public int evictAll();
 
+    /**
+     * Notify the listener of the graphs registered under the routerId from now on, before they
+     * are published, and of their eviction. A null routerId follows the default router.
+     */
+    public void addGraphRegistrationListener(String routerId, GraphRegistrationListener listener);
+
+    public void removeGraphRegistrationListener(GraphRegistrationListener listener);
+
 }
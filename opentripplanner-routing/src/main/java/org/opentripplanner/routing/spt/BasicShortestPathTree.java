@@ -16,9 +16,7 @@ package org.opentripplanner.routing.spt;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Map;
 
 import org.opentripplanner.common.MavenVersion;
 import org.opentripplanner.routing.core.State;
@@ -32,34 +30,20 @@ import org.opentripplanner.routing.graph.Vertex;
  * single optimal state per vertex. It maintains a closed vertex list since decrease-key operations
  * are not guaranteed to be supported by the priority queue.
  * 
+ * States are held in a table indexed by vertex index (see VertexTable), which is dense from the
+ * start for batch searches that are expected to reach most of the graph.
+ * 
  * @author andrewbyrd
  */
 public class BasicShortestPathTree extends AbstractShortestPathTree {
     
     private static final long serialVersionUID = MavenVersion.VERSION.getUID();
 
-    private static final int DEFAULT_CAPACITY = 500;
-
-    Map<Vertex, State> states;
+    VertexTable<State> states;
 
-    /**
-     * Parameterless constructor that uses a default capacity for internal vertex-keyed data
-     * structures.
-     */
     public BasicShortestPathTree(RoutingRequest options) {
-        this(options, DEFAULT_CAPACITY);
-    }
-
-    /**
-     * Constructor with a parameter indicating the initial capacity of the data structures holding
-     * vertices. This can help avoid resizing and rehashing these objects during path searches.
-     * 
-     * @param n
-     *            - the initial size of vertex-keyed maps
-     */
-    public BasicShortestPathTree(RoutingRequest options, int n) {
         super(options);
-        states = new IdentityHashMap<Vertex, State>(n);
+        states = new VertexTable<State>(options != null && options.batch);
     }
 
     @Override
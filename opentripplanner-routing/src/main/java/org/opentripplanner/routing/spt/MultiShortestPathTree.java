@@ -15,10 +15,9 @@ package org.opentripplanner.routing.spt;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.IdentityHashMap;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import org.opentripplanner.common.MavenVersion;
@@ -26,21 +25,34 @@ import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.graph.Vertex;
 
+/**
+ * A ShortestPathTree keeping every non-dominated state at each vertex, in a StateBag sorted by
+ * weight. The bags are held in a table indexed by vertex index (see VertexTable), which is dense
+ * from the start for batch searches that are expected to reach most of the graph.
+ */
 public class MultiShortestPathTree extends AbstractShortestPathTree {
     
     private static final long serialVersionUID = MavenVersion.VERSION.getUID();
 
     public static final ShortestPathTreeFactory FACTORY = new FactoryImpl();
 
-    private Map<Vertex, List<State>> stateSets;
+    private VertexTable<StateBag> stateSets;
 
     public MultiShortestPathTree(RoutingRequest options) {
+        this(options, options != null && options.batch);
+    }
+
+    /** @param dense whether to allocate the vertex-indexed table up front */
+    protected MultiShortestPathTree(RoutingRequest options, boolean dense) {
         super(options);
-        stateSets = new IdentityHashMap<Vertex, List<State>>();
+        stateSets = new VertexTable<StateBag>(dense);
     }
     
     public Set<Vertex> getVertices() {
-        return stateSets.keySet();
+        Set<Vertex> vertices = Collections.newSetFromMap(new IdentityHashMap<Vertex, Boolean>());
+        for (StateBag states : stateSets.values())
+            vertices.add(states.get(0).getVertex());
+        return vertices;
     }
 
     /****
@@ -49,40 +61,27 @@ public class MultiShortestPathTree extends AbstractShortestPathTree {
 
     @Override
     public boolean add(State newState) {
-    	Vertex vertex = newState.getVertex();
-        List<State> states = stateSets.get(vertex);
+        Vertex vertex = newState.getVertex();
+        StateBag states = stateSets.get(vertex);
         if (states == null) {
-            states = new ArrayList<State>();
+            states = new StateBag(StateBag.STATE_DOMINANCE);
             stateSets.put(vertex, states);
-            states.add(newState);
-            return true;
         }
-        Iterator<State> it = states.iterator();
-        while (it.hasNext()) {
-            State oldState = it.next();
-            // order is important, because in the case of a tie
-            // we want to reject the new state
-            if (oldState.dominates(newState))
-            	return false;
-            if (newState.dominates(oldState))
-            	it.remove();
-        }
-        states.add(newState);
-        return true;
+        // in the case of a tie the bag rejects the new state
+        return states.add(newState);
     }
 
 	@Override
 	public State getState(Vertex dest) {
-		Collection<State> states = stateSets.get(dest);
+		StateBag states = stateSets.get(dest);
 		if (states == null)
 			return null;
-		State ret = null;
+		// the bag is sorted by weight, so the first acceptable state is the best
 		for (State s : states) {
-			if ((ret == null || s.betterThan(ret)) && s.isFinal() && s.allPathParsersAccept()) {
-				ret = s;
-			}
+			if (s.isFinal() && s.allPathParsersAccept())
+				return s;
 		}
-		return ret;
+		return null;
 	}
 
 	@Override
@@ -92,19 +91,13 @@ public class MultiShortestPathTree extends AbstractShortestPathTree {
 
 	@Override
 	public int getVertexCount() {
-		return stateSets.keySet().size();
+		return stateSets.size();
 	}
 
 	@Override
 	public boolean visit(State state) {
-		boolean ret = false;
-		for (State s : stateSets.get(state.getVertex())) {
-			if (s == state) {
-				ret = true;
-				break;
-			}
-		}
-		return ret;
+		StateBag states = stateSets.get(state.getVertex());
+		return states != null && states.contains(state);
 	}
 
 	public String toString() {
@@ -121,7 +114,7 @@ public class MultiShortestPathTree extends AbstractShortestPathTree {
     @Override
     public Collection<State> getAllStates() {
         ArrayList<State> allStates = new ArrayList<State>();
-        for (List<State> stateSet : stateSets.values()) {
+        for (StateBag stateSet : stateSets.values()) {
             allStates.addAll(stateSet);
         }
         return allStates;
@@ -0,0 +1,179 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.spt;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+
+import org.opentripplanner.routing.core.State;
+
+/**
+ * The Pareto set of states at one vertex: a new state is rejected if an existing state dominates
+ * it, and otherwise replaces the states it dominates.
+ *
+ * States are kept in arrays sorted by weight. Every dominance rule in use only lets a state
+ * dominate others within some distance of its own weight, so checking whether a new state is
+ * dominated scans up from the lowest weight, where dominating states are most likely, and stops
+ * beyond the reach of the new state. Dominated states are removed in a single compacting pass
+ * over the weights they can have, rather than one array shift per removal.
+ *
+ * The bag is a read-only List of its states, in order of increasing weight.
+ */
+public class StateBag extends AbstractList<State> {
+
+    /** A dominance rule and the range of weights over which it can apply. */
+    public interface Dominance {
+
+        public boolean dominates(State a, State b);
+
+        /** @return the highest weight of a state that could dominate one of the given weight. */
+        public double maxDominatingWeight(double weight);
+
+        /** @return the lowest weight of a state that one of the given weight could dominate. */
+        public double minDominatedWeight(double weight);
+
+    }
+
+    /** The rule of State.dominates, used by MultiShortestPathTree. */
+    public static final Dominance STATE_DOMINANCE = new Dominance() {
+
+        @Override
+        public boolean dominates(State a, State b) {
+            return a.dominates(b);
+        }
+
+        @Override
+        public double maxDominatingWeight(double weight) {
+            return Math.min(weight * State.DOMINANCE_WEIGHT_RATIO,
+                    weight + State.DOMINANCE_WEIGHT_SLACK);
+        }
+
+        @Override
+        public double minDominatedWeight(double weight) {
+            return Math.max(weight / State.DOMINANCE_WEIGHT_RATIO,
+                    weight - State.DOMINANCE_WEIGHT_SLACK);
+        }
+    };
+
+    private static final int INITIAL_CAPACITY = 2;
+
+    private final Dominance dominance;
+
+    private State[] states = new State[INITIAL_CAPACITY];
+
+    private double[] weights = new double[INITIAL_CAPACITY];
+
+    private int size = 0;
+
+    public StateBag(Dominance dominance) {
+        this.dominance = dominance;
+    }
+
+    /**
+     * Add a state unless it is dominated by one already in the bag, removing the states it
+     * dominates. In case of a tie the state already in the bag is kept.
+     * 
+     * @return whether the state was added
+     */
+    @Override
+    public boolean add(State state) {
+        double weight = state.getWeight();
+        double max = dominance.maxDominatingWeight(weight);
+        for (int i = 0; i < size && weights[i] <= max; i++) {
+            if (dominance.dominates(states[i], state))
+                return false;
+        }
+        removeDominated(state, lowerBound(dominance.minDominatedWeight(weight)));
+        insert(upperBound(weight), state, weight);
+        return true;
+    }
+
+    private void removeDominated(State state, int from) {
+        int kept = from;
+        for (int i = from; i < size; i++) {
+            if (dominance.dominates(state, states[i]))
+                continue;
+            states[kept] = states[i];
+            weights[kept] = weights[i];
+            kept++;
+        }
+        Arrays.fill(states, kept, size, null);
+        size = kept;
+    }
+
+    private void insert(int index, State state, double weight) {
+        if (size == states.length) {
+            int capacity = size + (size >> 1) + 1;
+            states = Arrays.copyOf(states, capacity);
+            weights = Arrays.copyOf(weights, capacity);
+        }
+        System.arraycopy(states, index, states, index + 1, size - index);
+        System.arraycopy(weights, index, weights, index + 1, size - index);
+        states[index] = state;
+        weights[index] = weight;
+        size++;
+    }
+
+    /** @return the index of the first state whose weight is at least the given weight. */
+    private int lowerBound(double weight) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (weights[mid] < weight)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /** @return the index of the first state whose weight is above the given weight. */
+    private int upperBound(double weight) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (weights[mid] <= weight)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /** Whether this very state is in the bag, found among the states of the same weight. */
+    @Override
+    public boolean contains(Object o) {
+        if ( ! (o instanceof State))
+            return false;
+        double weight = ((State) o).getWeight();
+        for (int i = lowerBound(weight); i < size && weights[i] == weight; i++) {
+            if (states[i] == o)
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    public State get(int index) {
+        if (index >= size)
+            throw new IndexOutOfBoundsException("index " + index + " size " + size);
+        return states[index];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+}
@@ -0,0 +1,162 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.spt;
+
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.opentripplanner.routing.graph.AbstractVertex;
+import org.opentripplanner.routing.graph.Vertex;
+
+/**
+ * Values keyed on vertices, stored in an array indexed by Vertex.getIndex() so that lookups in
+ * the inner loop of a search are array accesses rather than identity hash probes.
+ *
+ * The array covers the vertex indices which existed when the table was made. Vertices created
+ * after that, such as the temporary vertices of a request, go into a small side table. A table
+ * starts out sparse, with everything in the side table, and moves to the array once it holds
+ * enough vertices to be worth the allocation; tables for full-graph searches can start dense.
+ */
+class VertexTable<T> {
+
+    /** a sparse table switches to the array when it holds more than 1/SPARSE_FRACTION of it */
+    private static final int SPARSE_FRACTION = 16;
+
+    private static final int MIN_SPARSE_SIZE = 256;
+
+    private final int capacity;
+
+    private Object[] dense;
+
+    private final Map<Vertex, T> side = new IdentityHashMap<Vertex, T>();
+
+    private int size = 0;
+
+    public VertexTable(boolean dense) {
+        this.capacity = AbstractVertex.getMaxIndex();
+        if (dense)
+            this.dense = new Object[capacity];
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get(Vertex v) {
+        int index = v.getIndex();
+        if (dense != null && index < capacity)
+            return (T) dense[index];
+        return side.get(v);
+    }
+
+    /** @return the value previously held for the vertex, or null */
+    @SuppressWarnings("unchecked")
+    public T put(Vertex v, T value) {
+        int index = v.getIndex();
+        T old;
+        if (dense != null && index < capacity) {
+            old = (T) dense[index];
+            dense[index] = value;
+        } else {
+            old = side.put(v, value);
+        }
+        if (old == null) {
+            size++;
+            if (dense == null && size > Math.max(MIN_SPARSE_SIZE, capacity / SPARSE_FRACTION))
+                densify();
+        }
+        return old;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Move the values of vertices which fit in the array out of the side table. */
+    private void densify() {
+        dense = new Object[capacity];
+        Iterator<Map.Entry<Vertex, T>> it = side.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Vertex, T> entry = it.next();
+            int index = entry.getKey().getIndex();
+            if (index < capacity) {
+                dense[index] = entry.getValue();
+                it.remove();
+            }
+        }
+    }
+
+    /** @return a view of the values in the table, in no particular order. */
+    public Collection<T> values() {
+        if (dense == null)
+            return side.values();
+        return new AbstractCollection<T>() {
+            @Override
+            public Iterator<T> iterator() {
+                return new ValueIterator();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /** Walks the non-null slots of the array, then the side table. */
+    private class ValueIterator implements Iterator<T> {
+
+        private int next = -1;
+
+        private Iterator<T> sideValues = null;
+
+        ValueIterator() {
+            advance();
+        }
+
+        private void advance() {
+            next++;
+            while (next < capacity && dense[next] == null)
+                next++;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next < capacity)
+                return true;
+            if (sideValues == null)
+                sideValues = side.values().iterator();
+            return sideValues.hasNext();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T next() {
+            if (next < capacity) {
+                T value = (T) dense[next];
+                advance();
+                return value;
+            }
+            if (sideValues == null)
+                sideValues = side.values().iterator();
+            return sideValues.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+}
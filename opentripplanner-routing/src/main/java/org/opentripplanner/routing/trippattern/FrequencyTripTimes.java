@@ -0,0 +1,79 @@
+package org.opentripplanner.routing.trippattern;
+
+import org.onebusaway.gtfs.model.Trip;
+
+/**
+ * A FrequencyTripTimes is an exact-times view of a single run of a frequency-based (headway)
+ * trip pattern. Rather than enumerating every run when the graph is built, one of these is
+ * materialized when a search actually boards or alights a frequency-based vehicle. It shares the
+ * pattern's offset arrays (which are relative to the departure from the first stop) and only
+ * stores the time at which this particular run leaves the first stop.
+ */
+public class FrequencyTripTimes extends TripTimes {
+
+    private final Trip trip;
+
+    /** departure time of this run from the first stop, in seconds since midnight */
+    private final int startTime;
+
+    /** departure offsets by stop index, shared with the pattern */
+    private final int[] departureOffsets;
+
+    /** arrival offsets by stop index, shared with the pattern */
+    private final int[] arrivalOffsets;
+
+    /** headsigns by stop index, shared with the pattern */
+    private final String[] headsigns;
+
+    public FrequencyTripTimes(Trip trip, int startTime, int[] departureOffsets,
+            int[] arrivalOffsets, String[] headsigns) {
+        this.trip = trip;
+        this.startTime = startTime;
+        this.departureOffsets = departureOffsets;
+        this.arrivalOffsets = arrivalOffsets;
+        this.headsigns = headsigns;
+    }
+
+    @Override public Trip getTrip() {
+        return trip;
+    }
+
+    /** There is no published timetable entry behind a single run of a frequency-based trip. */
+    @Override public ScheduledTripTimes getScheduledTripTimes() {
+        return null;
+    }
+
+    @Override public int getNumHops() {
+        return departureOffsets.length - 1;
+    }
+
+    @Override public int getDepartureTime(int hop) {
+        return startTime + departureOffsets[hop];
+    }
+
+    @Override public int getArrivalTime(int hop) {
+        return startTime + arrivalOffsets[hop + 1];
+    }
+
+    @Override public String getHeadsign(int hop) {
+        return headsigns[hop];
+    }
+
+    @Override public int getDepartureDelay(int hop) {
+        return 0;
+    }
+
+    @Override public int getArrivalDelay(int hop) {
+        return 0;
+    }
+
+    /** @return the time at which this run leaves the first stop, in seconds since midnight. */
+    public int getStartTime() {
+        return startTime;
+    }
+
+    @Override public String toString() {
+        return "FrequencyTripTimes(" + trip.getId() + " starting at " + startTime + ")";
+    }
+
+}
@@ -1,12 +1,17 @@
 package org.opentripplanner.routing.vertextype;
 
 import org.opentripplanner.common.MavenVersion;
+import org.opentripplanner.routing.bike_rental.BikeRentalStationService;
 import org.opentripplanner.routing.graph.AbstractVertex;
 import org.opentripplanner.routing.graph.Graph;
 
 /**
  * A vertex for a bike rental station.
  * 
+ * Stations managed by an updater read their availability from the snapshot most recently 
+ * published by that updater to the BikeRentalStationService, at their availability index,
+ * rather than from fields of the vertex, so that availability changes never modify the graph.
+ * 
  * @author laurent
  * 
  */
@@ -20,6 +25,12 @@ public class BikeRentalStationVertex extends AbstractVertex {
 
     private String id;
 
+    private int availabilityIndex = -1;
+
+    private transient BikeRentalStationService availabilitySource = null;
+
+    private transient Object updater = null;
+
     public BikeRentalStationVertex(Graph g, String id, String label, double x, double y, String name,
             int capacity) {
         super(g, label, x, y, name);
@@ -37,13 +48,42 @@ public class BikeRentalStationVertex extends AbstractVertex {
     }
 
     public int getBikesAvailable() {
+        if (availabilitySource != null)
+            return availabilitySource.getAvailability(updater).getBikesAvailable(availabilityIndex);
         return bikesAvailable;
     }
 
     public int getSpacesAvailable() {
+        if (availabilitySource != null)
+            return availabilitySource.getAvailability(updater).getSpacesAvailable(availabilityIndex);
         return spacesAvailable;
     }
 
+    /** 
+     * @return false if this station is managed by an updater and is not in its latest 
+     *         snapshot, in which case bikes can be neither rented nor returned here.
+     */
+    public boolean isInService() {
+        if (availabilitySource != null)
+            return availabilitySource.getAvailability(updater).isInService(availabilityIndex);
+        return true;
+    }
+
+    /**
+     * Read availability from the snapshots published by the given updater to the given service,
+     * at the given index.
+     */
+    public void setAvailabilitySource(BikeRentalStationService source, Object updater,
+            int index) {
+        this.availabilityIndex = index;
+        this.availabilitySource = source;
+        this.updater = updater;
+    }
+
+    public int getAvailabilityIndex() {
+        return availabilityIndex;
+    }
+
     public void setBikesAvailable(int bikes) {
         this.bikesAvailable = bikes;
     }
@@ -0,0 +1,241 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.algorithm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
+import org.opentripplanner.routing.core.RoutingContext;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.StateEditor;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.graph.AbstractVertex;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.services.SPTService;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+
+import com.vividsolutions.jts.geom.LineString;
+
+public class BidirectionalStreetSearchTest {
+
+    private static final int N = 8;
+
+    private Graph _graph;
+
+    @Before
+    public void before() {
+        _graph = grid(true);
+    }
+
+    /**
+     * @param byTime weight the edges by time and walk reluctance like street edges, which keeps
+     *        the default heuristic consistent, or else by distance, which does not.
+     */
+    private Graph grid(boolean byTime) {
+        _graph = new Graph();
+        // an irregular grid, so that there is a single shortest path between most pairs
+        for (int i = 0; i < N; i++) {
+            for (int j = 0; j < N; j++) {
+                double jitter = ((i * 7 + j * 13) % 5) * 0.00005;
+                new SimpleVertex(_graph, label(i, j), 45.5 + i * 0.001 + jitter, -122.6 + j * 0.001);
+            }
+        }
+        for (int i = 0; i < N; i++) {
+            for (int j = 0; j < N; j++) {
+                if (i + 1 < N)
+                    edges(label(i, j), label(i + 1, j), byTime);
+                if (j + 1 < N)
+                    edges(label(i, j), label(i, j + 1), byTime);
+            }
+        }
+        return _graph;
+    }
+
+    /** Counts the requests handed to it and remembers the last tree it returned. */
+    private static class RecordingSearch extends GenericAStar {
+
+        int calls = 0;
+
+        ShortestPathTree returned;
+
+        @Override
+        public ShortestPathTree getShortestPathTree(RoutingRequest req, double timeout) {
+            calls++;
+            returned = super.getShortestPathTree(req, timeout);
+            return returned;
+        }
+    }
+
+    @Test
+    public void testMatchesUnidirectional() {
+        RecordingSearch fallback = new RecordingSearch();
+        BidirectionalStreetSearch bidirectional = new BidirectionalStreetSearch(fallback);
+        for (boolean arriveBy : new boolean[] { false, true }) {
+            checkSameWeight(bidirectional, label(0, 0), label(N - 1, N - 1), arriveBy);
+            checkSameWeight(bidirectional, label(0, N - 1), label(N - 1, 0), arriveBy);
+            checkSameWeight(bidirectional, label(3, 2), label(4, 6), arriveBy);
+            checkSameWeight(bidirectional, label(5, 5), label(5, 5), arriveBy);
+        }
+        // all searched from both ends
+        assertEquals(0, fallback.calls);
+    }
+
+    @Test
+    public void testParallel() {
+        RecordingSearch fallback = new RecordingSearch();
+        BidirectionalStreetSearch bidirectional = new BidirectionalStreetSearch(fallback);
+        bidirectional.setParallel(true);
+        try {
+            for (boolean arriveBy : new boolean[] { false, true }) {
+                checkSameWeight(bidirectional, label(0, 0), label(N - 1, N - 1), arriveBy);
+                checkSameWeight(bidirectional, label(N - 1, 1), label(2, N - 2), arriveBy);
+            }
+        } finally {
+            bidirectional.shutdown();
+        }
+        assertEquals(0, fallback.calls);
+    }
+
+    @Test
+    public void testInconsistentHeuristicFallsBack() {
+        // the default heuristic overestimates the weight of edges weighted by distance
+        grid(false);
+        RecordingSearch fallback = new RecordingSearch();
+        BidirectionalStreetSearch bidirectional = new BidirectionalStreetSearch(fallback);
+        for (boolean arriveBy : new boolean[] { false, true }) {
+            int calls = fallback.calls;
+            checkSameWeight(bidirectional, label(0, 0), label(N - 1, N - 1), arriveBy);
+            assertTrue(fallback.calls > calls);
+        }
+    }
+
+    @Test
+    public void testReversedContext() {
+        Vertex from = _graph.getVertex(label(0, 0));
+        Vertex to = _graph.getVertex(label(2, 2));
+        RoutingRequest options = new RoutingRequest(new TraverseModeSet(TraverseMode.WALK));
+        options.setRoutingContext(_graph, from, to);
+        RoutingRequest reverseOptions = options.clone();
+        reverseOptions.setArriveBy(true);
+        RoutingContext reverse = options.rctx.reversed(reverseOptions);
+        assertSame(from, reverse.fromVertex);
+        assertSame(to, reverse.toVertex);
+        assertSame(to, reverse.origin);
+        assertSame(from, reverse.target);
+        // service days are not computed again
+        assertSame(options.rctx.serviceDays, reverse.serviceDays);
+        assertSame(options.rctx.cancellation, reverse.cancellation);
+    }
+
+    @Test
+    public void testTransitFallsBack() {
+        RecordingSearch fallback = new RecordingSearch();
+        BidirectionalStreetSearch bidirectional = new BidirectionalStreetSearch(fallback);
+        RoutingRequest options = new RoutingRequest(new TraverseModeSet(TraverseMode.WALK,
+                TraverseMode.TRANSIT));
+        options.setRoutingContext(_graph, _graph.getVertex(label(0, 0)), _graph.getVertex(label(2, 2)));
+        ShortestPathTree spt = bidirectional.getShortestPathTree(options);
+        assertNotNull(spt);
+        assertEquals(1, fallback.calls);
+        assertSame(fallback.returned, spt);
+    }
+
+    private void checkSameWeight(SPTService bidirectional, String from, String to, boolean arriveBy) {
+        GraphPath expected = search(new GenericAStar(), from, to, arriveBy);
+        GraphPath actual = search(bidirectional, from, to, arriveBy);
+        assertNotNull(expected);
+        assertNotNull(actual);
+        assertEquals(expected.getWeight(), actual.getWeight(), 0.001);
+        assertEquals(expected.states.size(), actual.states.size());
+        assertEquals(from, actual.states.getFirst().getVertex().getLabel());
+        assertEquals(to, actual.states.getLast().getVertex().getLabel());
+    }
+
+    private GraphPath search(SPTService sptService, String from, String to, boolean arriveBy) {
+        RoutingRequest options = new RoutingRequest(new TraverseModeSet(TraverseMode.WALK));
+        options.setArriveBy(arriveBy);
+        options.setRoutingContext(_graph, _graph.getVertex(from), _graph.getVertex(to));
+        ShortestPathTree spt = sptService.getShortestPathTree(options);
+        return spt.getPath(options.getRoutingContext().target, false);
+    }
+
+    private static String label(int i, int j) {
+        return "v_" + i + "_" + j;
+    }
+
+    private void edges(String a, String b, boolean byTime) {
+        Vertex vA = _graph.getVertex(a);
+        Vertex vB = _graph.getVertex(b);
+        new SimpleEdge(vA, vB, byTime);
+        new SimpleEdge(vB, vA, byTime);
+    }
+
+    private static class SimpleVertex extends AbstractVertex {
+
+        private static final long serialVersionUID = 1L;
+
+        public SimpleVertex(Graph g, String label, double lat, double lon) {
+            super(g, label, lon, lat);
+        }
+    }
+
+    private static class SimpleEdge extends Edge {
+        private static final long serialVersionUID = 1L;
+
+        private final boolean byTime;
+
+        public SimpleEdge(Vertex v1, Vertex v2, boolean byTime) {
+            super(v1, v2);
+            this.byTime = byTime;
+        }
+
+        @Override
+        public State traverse(State s0) {
+            double d = getDistance();
+            RoutingRequest options = s0.getOptions();
+            TraverseMode mode = s0.getNonTransitMode();
+            double t = d / options.getSpeed(mode);
+            StateEditor s1 = s0.edit(this);
+            s1.incrementTimeInSeconds((int) t);
+            s1.incrementWeight(byTime ? t * options.walkReluctance : d);
+            return s1.makeState();
+        }
+
+        @Override
+        public String getName() {
+            return null;
+        }
+
+        @Override
+        public LineString getGeometry() {
+            return null;
+        }
+
+        @Override
+        public double getDistance() {
+            return SphericalDistanceLibrary.getInstance().distance(getFromVertex().getCoordinate(),
+                    getToVertex().getCoordinate());
+        }
+    }
+}
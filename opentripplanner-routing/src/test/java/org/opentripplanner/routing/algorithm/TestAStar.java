@@ -22,6 +22,7 @@ import org.onebusaway.gtfs.model.calendar.CalendarServiceData;
 import org.opentripplanner.ConstantsForTests;
 import org.opentripplanner.gtfs.GtfsContext;
 import org.opentripplanner.gtfs.GtfsLibrary;
+import org.opentripplanner.routing.core.CancellationToken;
 import org.opentripplanner.routing.core.RouteSpec;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.core.RoutingRequest;
@@ -139,6 +140,32 @@ public class TestAStar extends TestCase {
         assertNull(path);        
     }
 
+    public void testDeadline() throws Exception {
+
+        Graph graph = ConstantsForTests.getInstance().getPortlandGraph();
+        Vertex start = graph.getVertex("TriMet_8371");
+        Vertex end = graph.getVertex("TriMet_8374");
+
+        RoutingRequest options = new RoutingRequest();
+        options.dateTime = TestUtils.dateInSeconds("America/Los_Angeles", 2009, 11, 1, 12, 34, 25);
+        options.cancellation = new CancellationToken();
+        options.setRoutingContext(graph, start, end);
+        assertNotNull(aStar.getShortestPathTree(options, 60));
+
+        // once the request is past its deadline, no search for it runs
+        options.cancellation.setTimeout(0.001);
+        Thread.sleep(10);
+        assertNull(aStar.getShortestPathTree(options));
+        // and a timeout given to a search cannot extend it
+        assertNull(aStar.getShortestPathTree(options, 60));
+
+        // nor can a cancelled request be searched again
+        options.cancellation = new CancellationToken();
+        options.setRoutingContext(graph, start, end);
+        options.cancellation.cancel();
+        assertNull(aStar.getShortestPathTree(options));
+    }
+
     public void testPerformance() throws Exception {
 
         Graph graph = ConstantsForTests.getInstance().getPortlandGraph();
@@ -0,0 +1,98 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.bike_rental;
+
+import java.util.Collection;
+import java.util.HashSet;
+
+import junit.framework.TestCase;
+
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.vertextype.BikeRentalStationVertex;
+
+public class TestBikeRentalStationService extends TestCase {
+
+    private BikeRentalStationService service = new BikeRentalStationService();
+
+    /* two updaters sharing the service, as with two bike share networks in one city */
+    private Object updater1 = new Object();
+
+    private Object updater2 = new Object();
+
+    private static BikeRentalStation station(String id) {
+        BikeRentalStation station = new BikeRentalStation();
+        station.id = id;
+        return station;
+    }
+
+    private static Collection<BikeRentalStation> stations(String... ids) {
+        Collection<BikeRentalStation> stations = new HashSet<BikeRentalStation>();
+        for (String id : ids)
+            stations.add(station(id));
+        return stations;
+    }
+
+    public void testStationsAreMerged() {
+        service.addStation(station("fixed"));
+        service.setStations(updater1, stations("a1", "a2"));
+        service.setStations(updater2, stations("b1"));
+        assertEquals(stations("fixed", "a1", "a2", "b1"), service.getStations());
+        // a station vanishing from one updater leaves the others' stations in place
+        service.setStations(updater1, stations("a2"));
+        assertEquals(stations("fixed", "a2", "b1"), service.getStations());
+        service.setStations(updater2, stations());
+        assertEquals(stations("fixed", "a2"), service.getStations());
+    }
+
+    public void testStationInTwoUpdaters() {
+        service.setStations(updater1, stations("shared"));
+        service.setStations(updater2, stations("shared"));
+        service.setStations(updater1, stations());
+        assertEquals(stations("shared"), service.getStations());
+    }
+
+    public void testAvailabilityPerUpdater() {
+        service.setAvailability(updater1,
+                new BikeRentalAvailability(1, new int[] { 5, 2 }, new int[] { 3, 4 }));
+        service.setAvailability(updater2, new BikeRentalAvailability(1, new int[] { 0 },
+                new int[] { 7 }));
+        assertEquals(5, service.getAvailability(updater1).getBikesAvailable(0));
+        assertEquals(0, service.getAvailability(updater2).getBikesAvailable(0));
+        assertEquals(7, service.getAvailability(updater2).getSpacesAvailable(0));
+        assertSame(BikeRentalAvailability.EMPTY, service.getAvailability(new Object()));
+
+        // vertices of different updaters may have the same index
+        Graph graph = new Graph();
+        BikeRentalStationVertex v1 = new BikeRentalStationVertex(graph, "a1", "a1", 0, 0, "a1", 10);
+        v1.setAvailabilitySource(service, updater1, 0);
+        BikeRentalStationVertex v2 = new BikeRentalStationVertex(graph, "b1", "b1", 0, 0, "b1", 10);
+        v2.setAvailabilitySource(service, updater2, 0);
+        BikeRentalStationVertex v3 = new BikeRentalStationVertex(graph, "b2", "b2", 0, 0, "b2", 10);
+        v3.setAvailabilitySource(service, updater2, 1);
+        assertEquals(5, v1.getBikesAvailable());
+        assertEquals(0, v2.getBikesAvailable());
+        assertEquals(7, v2.getSpacesAvailable());
+        // not in service until its updater publishes a snapshot including it
+        assertFalse(v3.isInService());
+        service.setAvailability(updater2, new BikeRentalAvailability(2, new int[] { 1, 6 },
+                new int[] { 6, 1 }));
+        assertTrue(v3.isInService());
+        assertEquals(6, v3.getBikesAvailable());
+        // publishing for one updater leaves the other's snapshot alone
+        assertEquals(5, v1.getBikesAvailable());
+        assertEquals(1, service.getAvailability(updater1).getVersion());
+        assertEquals(2, service.getAvailability(updater2).getVersion());
+    }
+
+}
@@ -0,0 +1,92 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import junit.framework.TestCase;
+
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+
+public class TestTransferTable extends TestCase {
+
+    public void testEmptyTable() {
+        Graph g = new Graph();
+        Vertex a = new IntersectionVertex(g, "A", 5, 5);
+        Vertex b = new IntersectionVertex(g, "B", 6, 6);
+        TransferTable table = new TransferTable();
+        assertEquals(TransferTable.UNKNOWN_TRANSFER, table.getTransferTime(a, b));
+        assertEquals(TransferTable.UNKNOWN_TRANSFER, table.getTransferTime(null, b));
+        assertFalse(table.hasPreferredTransfers());
+    }
+
+    public void testSetAndGet() {
+        Graph g = new Graph();
+        Vertex[] stops = new Vertex[100];
+        for (int i = 0; i < stops.length; i++) {
+            stops[i] = new IntersectionVertex(g, "S" + i, i, i);
+        }
+        TransferTable table = new TransferTable();
+        // enough entries to force several rehashes
+        for (int i = 0; i < stops.length - 1; i++) {
+            table.setTransferTime(stops[i], stops[i + 1], i * 10);
+        }
+        table.setTransferTime(stops[0], stops[1], TransferTable.PREFERRED_TRANSFER);
+        assertEquals(stops.length - 1, table.size());
+        assertTrue(table.hasPreferredTransfers());
+        assertEquals(TransferTable.PREFERRED_TRANSFER, table.getTransferTime(stops[0], stops[1]));
+        for (int i = 1; i < stops.length - 1; i++) {
+            assertEquals(i * 10, table.getTransferTime(stops[i], stops[i + 1]));
+            // transfers are directional
+            assertEquals(TransferTable.UNKNOWN_TRANSFER, table.getTransferTime(stops[i + 1], stops[i]));
+        }
+        int n = 0;
+        for (TransferTable.Transfer transfer : table.getAllTransfers()) {
+            assertEquals(transfer.seconds, table.getTransferTime(transfer.from, transfer.to));
+            n++;
+        }
+        assertEquals(stops.length - 1, n);
+    }
+
+    public void testSerialization() throws Exception {
+        Graph g = new Graph();
+        Vertex a = new IntersectionVertex(g, "A", 5, 5);
+        Vertex b = new IntersectionVertex(g, "B", 6, 6);
+        TransferTable table = new TransferTable();
+        table.setTransferTime(a, b, 120);
+        table.setTransferTime(b, a, TransferTable.FORBIDDEN_TRANSFER);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(new Object[] { table, a, b });
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        Object[] read = (Object[]) in.readObject();
+        in.close();
+
+        // deserialized vertices receive new indices, the table must be keyed on those
+        TransferTable table2 = (TransferTable) read[0];
+        Vertex a2 = (Vertex) read[1];
+        Vertex b2 = (Vertex) read[2];
+        assertTrue(a2.getIndex() != a.getIndex());
+        assertEquals(2, table2.size());
+        assertEquals(120, table2.getTransferTime(a2, b2));
+        assertEquals(TransferTable.FORBIDDEN_TRANSFER, table2.getTransferTime(b2, a2));
+    }
+}
@@ -0,0 +1,243 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.edgetype;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Route;
+import org.onebusaway.gtfs.model.Trip;
+import org.opentripplanner.routing.trippattern.ScheduledTripTimes;
+import org.opentripplanner.routing.trippattern.TripTimes;
+
+public class TestTimetableIndex extends TestCase {
+
+    private static final int N_HOPS = 3;
+
+    private static final Route ROUTE = new Route();
+
+    /** Fixed times, without the stop times a ScheduledTripTimes needs. */
+    private static class FixedTripTimes extends TripTimes {
+
+        final Trip trip;
+
+        final int[] departures;
+
+        final int[] arrivals;
+
+        FixedTripTimes(Trip trip, int[] departures, int[] arrivals) {
+            this.trip = trip;
+            this.departures = departures;
+            this.arrivals = arrivals;
+        }
+
+        @Override public Trip getTrip() { return trip; }
+
+        @Override public ScheduledTripTimes getScheduledTripTimes() { return null; }
+
+        @Override public int getNumHops() { return departures.length; }
+
+        @Override public int getDepartureTime(int hop) { return departures[hop]; }
+
+        @Override public int getArrivalTime(int hop) { return arrivals[hop]; }
+
+        @Override public String getHeadsign(int hop) { return null; }
+
+        /** @return a copy of this trip with all times shifted by the given delay. */
+        FixedTripTimes delayed(int delay) {
+            int[] dep = departures.clone();
+            int[] arr = arrivals.clone();
+            for (int h = 0; h < dep.length; h++) {
+                dep[h] += delay;
+                arr[h] += delay;
+            }
+            return new FixedTripTimes(trip, dep, arr);
+        }
+
+        FixedTripTimes canceled() {
+            int[] dep = new int[departures.length];
+            int[] arr = new int[arrivals.length];
+            Arrays.fill(dep, TripTimes.CANCELED);
+            Arrays.fill(arr, TripTimes.CANCELED);
+            return new FixedTripTimes(trip, dep, arr);
+        }
+    }
+
+    private static FixedTripTimes trip(int id, int start) {
+        Trip trip = new Trip();
+        trip.setId(new AgencyAndId("agency", "trip" + id));
+        trip.setRoute(ROUTE);
+        trip.setWheelchairAccessible(id % 2);
+        int[] dep = new int[N_HOPS];
+        int[] arr = new int[N_HOPS];
+        int t = start;
+        for (int h = 0; h < N_HOPS; h++) {
+            dep[h] = t;
+            t += 300;
+            arr[h] = t;
+            t += 30;
+        }
+        return new FixedTripTimes(trip, dep, arr);
+    }
+
+    /** Trips every 2 to 3 minutes in two periods separated by a gap with no trips at all. */
+    private static List<TripTimes> makeTrips(int n, Random random) {
+        List<TripTimes> trips = new ArrayList<TripTimes>();
+        int t = 6 * 3600;
+        for (int i = 0; i < n; i++) {
+            if (i == n / 2)
+                t += 3 * 3600;
+            t += 120 + random.nextInt(60);
+            trips.add(trip(i, t));
+        }
+        // the timetable order need not be the time order
+        Collections.shuffle(trips, random);
+        return trips;
+    }
+
+    /** Check positions found through the buckets against a plain count of the row times. */
+    private static void checkSearches(TimetableIndex.Row row, int from, int to) {
+        int[] times = row.times;
+        for (int time = from; time <= to; time++) {
+            int before = 0, atOrBefore = 0;
+            for (int t : times) {
+                if (t < time)
+                    before++;
+                if (t <= time)
+                    atOrBefore++;
+            }
+            assertEquals("first at or after " + time, before, row.firstAtOrAfter(time));
+            assertEquals("last at or before " + time, atOrBefore - 1, row.lastAtOrBefore(time));
+        }
+    }
+
+    public void testShortRow() {
+        List<TripTimes> trips = new ArrayList<TripTimes>();
+        trips.add(trip(0, 1000));
+        trips.add(trip(1, 2000));
+        trips.add(trip(2, 2000));
+        trips.add(trip(3, 3000));
+        TimetableIndex index = TimetableIndex.build(trips, N_HOPS);
+        TimetableIndex.Row row = index.departures[0];
+        assertTrue(row.times.length <= TimetableIndex.BUCKET_THRESHOLD);
+        assertEquals(0, row.firstAtOrAfter(0));
+        assertEquals(0, row.firstAtOrAfter(1000));
+        assertEquals(1, row.firstAtOrAfter(1001));
+        assertEquals(1, row.firstAtOrAfter(2000));
+        assertEquals(3, row.firstAtOrAfter(3000));
+        assertEquals(4, row.firstAtOrAfter(3001));
+        assertEquals(-1, row.lastAtOrBefore(999));
+        assertEquals(0, row.lastAtOrBefore(1000));
+        assertEquals(2, row.lastAtOrBefore(2000));
+        assertEquals(2, row.lastAtOrBefore(2999));
+        assertEquals(3, row.lastAtOrBefore(100000));
+        checkSearches(row, 0, 4000);
+    }
+
+    public void testEmptyRow() {
+        List<TripTimes> trips = new ArrayList<TripTimes>();
+        trips.add(trip(0, 1000).canceled());
+        TimetableIndex index = TimetableIndex.build(trips, N_HOPS);
+        TimetableIndex.Row row = index.departures[1];
+        assertEquals(0, row.times.length);
+        assertEquals(0, row.firstAtOrAfter(500));
+        assertEquals(-1, row.lastAtOrBefore(500));
+    }
+
+    public void testBucketedRows() {
+        List<TripTimes> trips = makeTrips(200, new Random(1));
+        TimetableIndex index = TimetableIndex.build(trips, N_HOPS);
+        for (int hop = 0; hop < N_HOPS; hop++) {
+            for (TimetableIndex.Row row : new TimetableIndex.Row[] { 
+                    index.departures[hop], index.arrivals[hop] }) {
+                assertEquals(200, row.times.length);
+                for (int i = 1; i < row.times.length; i++)
+                    assertTrue(row.times[i - 1] <= row.times[i]);
+                // from before the first trip, through the empty buckets of the gap, to well
+                // past the last trip
+                checkSearches(row, row.times[0] - 100, row.times[row.times.length - 1] + 100);
+            }
+        }
+    }
+
+    public void testSentinelTimesLeftOut() {
+        List<TripTimes> trips = makeTrips(40, new Random(2));
+        FixedTripTimes canceled = ((FixedTripTimes) trips.get(5)).canceled();
+        trips.set(5, canceled);
+        TimetableIndex index = TimetableIndex.build(trips, N_HOPS);
+        for (int hop = 0; hop < N_HOPS; hop++) {
+            assertEquals(39, index.departures[hop].times.length);
+            for (TripTimes tt : index.departures[hop].trips)
+                assertNotSame(canceled, tt);
+        }
+    }
+
+    /**
+     * Timetable.finish patches its index with the trips replaced since the last finish (its
+     * pendingUpdates) rather than rebuilding it. The patched index must be the rebuilt one.
+     */
+    public void testIncrementalUpdate() {
+        Random random = new Random(3);
+        List<TripTimes> trips = makeTrips(120, random);
+        List<TripTimes> originals = new ArrayList<TripTimes>(trips);
+        TimetableIndex index = TimetableIndex.build(trips, N_HOPS);
+        // two rounds of updates, the second one replacing some of the trips updated in the first
+        for (int round = 0; round < 2; round++) {
+            List<TripTimes> oldTimes = new ArrayList<TripTimes>();
+            List<TripTimes> newTimes = new ArrayList<TripTimes>();
+            for (int i = 0; i < trips.size(); i += 7 * (round + 1)) {
+                FixedTripTimes original = (FixedTripTimes) originals.get(i);
+                FixedTripTimes replacement = (i + round) % 5 == 0 ? 
+                        original.canceled() : original.delayed(random.nextInt(1800) - 300);
+                oldTimes.add(trips.get(i));
+                newTimes.add(replacement);
+                trips.set(i, replacement);
+            }
+            index = index.update(oldTimes, newTimes);
+            TimetableIndex rebuilt = TimetableIndex.build(trips, N_HOPS);
+            for (int hop = 0; hop < N_HOPS; hop++) {
+                assertSameRow(rebuilt.departures[hop], index.departures[hop], hop, true);
+                assertSameRow(rebuilt.arrivals[hop], index.arrivals[hop], hop, false);
+                TimetableIndex.Row row = index.departures[hop];
+                checkSearches(row, row.times[0] - 10, row.times[row.times.length - 1] + 10);
+            }
+        }
+    }
+
+    /** Trips with equal times may be in any order, so compare times, then trip sets. */
+    private static void assertSameRow(TimetableIndex.Row expected, TimetableIndex.Row actual,
+            int hop, boolean departures) {
+        assertTrue(Arrays.equals(expected.times, actual.times));
+        Set<TripTimes> expectedTrips = 
+                Collections.newSetFromMap(new IdentityHashMap<TripTimes, Boolean>());
+        Collections.addAll(expectedTrips, expected.trips);
+        assertEquals(expected.trips.length, actual.trips.length);
+        for (int i = 0; i < actual.trips.length; i++) {
+            TripTimes tt = actual.trips[i];
+            assertTrue(expectedTrips.contains(tt));
+            int time = departures ? tt.getDepartureTime(hop) : tt.getArrivalTime(hop);
+            assertEquals(actual.times[i], time);
+            assertEquals(TimetableIndex.tripFlags(tt.getTrip()), actual.flags[i]);
+        }
+    }
+
+}
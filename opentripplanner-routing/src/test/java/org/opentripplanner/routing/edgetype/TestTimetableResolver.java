@@ -0,0 +1,198 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.edgetype;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Trip;
+import org.opentripplanner.ConstantsForTests;
+import org.opentripplanner.gtfs.GtfsContext;
+import org.opentripplanner.gtfs.GtfsLibrary;
+import org.opentripplanner.routing.edgetype.factory.GTFSPatternHopFactory;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.trippattern.TripTimes;
+import org.opentripplanner.routing.trippattern.Update;
+import org.opentripplanner.routing.trippattern.UpdateBlock;
+
+public class TestTimetableResolver extends TestCase {
+
+    private Map<AgencyAndId, TableTripPattern> patternIndex;
+
+    public void setUp() throws Exception {
+        GtfsContext context = GtfsLibrary.readGtfs(new File(ConstantsForTests.FAKE_GTFS));
+        Graph graph = new Graph();
+        GTFSPatternHopFactory factory = new GTFSPatternHopFactory(context);
+        factory.run(graph);
+        patternIndex = new HashMap<AgencyAndId, TableTripPattern>();
+        for (Vertex v : graph.getVertices()) {
+            for (Edge e : v.getOutgoing()) {
+                if ( ! (e instanceof TransitBoardAlight))
+                    continue;
+                TableTripPattern pattern = ((TransitBoardAlight) e).getPattern();
+                for (Trip trip : pattern.getTrips())
+                    patternIndex.put(trip.getId(), pattern);
+            }
+        }
+    }
+
+    /** @return updates for a trip at the given stops, arriving and leaving at the given times. */
+    private static List<Update> updates(String tripId, long timestamp, String[] stops,
+            int... times) {
+        AgencyAndId id = new AgencyAndId("agency", tripId);
+        List<Update> updates = new ArrayList<Update>();
+        for (int i = 0; i < stops.length; i++) {
+            updates.add(new Update(id, stops[i], i + 1, times[i], times[i],
+                    Update.Status.PREDICTION, timestamp));
+        }
+        return updates;
+    }
+
+    /** @return the blocks of the updates grouped by pattern, as StoptimeUpdater does. */
+    private Map<TableTripPattern, List<UpdateBlock>> byPattern(List<Update> updates) {
+        Map<TableTripPattern, List<UpdateBlock>> blocksByPattern =
+                new LinkedHashMap<TableTripPattern, List<UpdateBlock>>();
+        for (UpdateBlock block : UpdateBlock.splitByTrip(updates)) {
+            TableTripPattern pattern = patternIndex.get(block.tripId);
+            List<UpdateBlock> blocks = blocksByPattern.get(pattern);
+            if (blocks == null) {
+                blocks = new ArrayList<UpdateBlock>();
+                blocksByPattern.put(pattern, blocks);
+            }
+            blocks.add(block);
+        }
+        return blocksByPattern;
+    }
+
+    private List<Update> batch() {
+        String[] abc = { "A", "B", "C" };
+        String[] bcd = { "B", "C", "D" };
+        List<Update> updates = new ArrayList<Update>();
+        updates.addAll(updates("1.1", 1, abc, 60, 660, 1260));
+        // a later update for the same trip replaces the first one
+        updates.addAll(updates("1.1", 2, abc, 120, 720, 1320));
+        updates.addAll(updates("1.2", 1, abc, 1500, 2100, 2700));
+        updates.addAll(updates("2.1", 1, bcd, 1500, 2100, 2700));
+        updates.addAll(updates("2.2", 1, bcd, 3300, 3900, 4500));
+        // an update for a trip of another pattern, and one whose stops do not match
+        updates.addAll(updates("4.1", 1, new String[] { "F", "G", "H" }, 18060, 19860, 21660));
+        updates.addAll(updates("3.1", 1, new String[] { "X", "Y", "Z" }, 60, 600, 1200));
+        return updates;
+    }
+
+    private static void assertSameTimes(TableTripPattern pattern, Timetable expected,
+            Timetable actual) {
+        String message = pattern.getExemplar().getId().toString();
+        for (Trip trip : pattern.getTrips()) {
+            TripTimes e = expected.getTripTimes(expected.getTripIndex(trip.getId()));
+            TripTimes a = actual.getTripTimes(actual.getTripIndex(trip.getId()));
+            for (int hop = 0; hop < e.getNumHops(); hop++) {
+                assertEquals(message, e.getDepartureTime(hop), a.getDepartureTime(hop));
+                assertEquals(message, e.getArrivalTime(hop), a.getArrivalTime(hop));
+            }
+        }
+    }
+
+    public void testParallelMatchesSequential() throws Exception {
+        TimetableResolver sequential = new TimetableResolver();
+        int nSequential = 0;
+        for (Map.Entry<TableTripPattern, List<UpdateBlock>> entry :
+                byPattern(batch()).entrySet()) {
+            for (UpdateBlock block : entry.getValue()) {
+                if (sequential.update(entry.getKey(), block))
+                    nSequential++;
+            }
+        }
+        TimetableResolver inline = new TimetableResolver();
+        Map<TableTripPattern, List<UpdateBlock>> blocks = byPattern(batch());
+        int nInline = inline.update(blocks, null);
+
+        TimetableResolver parallel = new TimetableResolver();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        int nParallel;
+        try {
+            nParallel = parallel.update(byPattern(batch()), executor);
+        } finally {
+            executor.shutdownNow();
+        }
+        // every block but the one for 3.1
+        assertEquals(6, nSequential);
+        assertEquals(nSequential, nInline);
+        assertEquals(nSequential, nParallel);
+
+        TimetableResolver sequentialSnapshot = sequential.commit();
+        TimetableResolver inlineSnapshot = inline.commit();
+        TimetableResolver parallelSnapshot = parallel.commit();
+        for (TableTripPattern pattern : blocks.keySet()) {
+            Timetable expected = sequentialSnapshot.resolve(pattern);
+            assertSameTimes(pattern, expected, inlineSnapshot.resolve(pattern));
+            assertSameTimes(pattern, expected, parallelSnapshot.resolve(pattern));
+        }
+        // the last update of trip 1.1 applies
+        TableTripPattern route1 = patternIndex.get(new AgencyAndId("agency", "1.1"));
+        Timetable updated = parallelSnapshot.resolve(route1);
+        assertNotSame(route1.scheduledTimetable, updated);
+        int trip = updated.getTripIndex(new AgencyAndId("agency", "1.1"));
+        assertEquals(120, updated.getDepartureTime(0, trip));
+        assertEquals(1320, updated.getArrivalTime(1, trip));
+        // the scheduled timetable itself is never modified
+        assertEquals(0, route1.scheduledTimetable.getDepartureTime(0, trip));
+    }
+
+    public void testBatchesBetweenCommits() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            TimetableResolver resolver = new TimetableResolver();
+            String[] abc = { "A", "B", "C" };
+            String[] bcd = { "B", "C", "D" };
+            List<Update> first = new ArrayList<Update>();
+            first.addAll(updates("1.1", 1, abc, 60, 660, 1260));
+            first.addAll(updates("2.1", 1, bcd, 1500, 2100, 2700));
+            assertEquals(2, resolver.update(byPattern(first), executor));
+            // a second batch before the commit works on the same copies of the timetables
+            List<Update> second = new ArrayList<Update>();
+            second.addAll(updates("1.2", 1, abc, 1500, 2100, 2700));
+            second.addAll(updates("2.2", 1, bcd, 3300, 3900, 4500));
+            assertEquals(2, resolver.update(byPattern(second), executor));
+            TimetableResolver snapshot = resolver.commit();
+            Timetable route1 = snapshot.resolve(patternIndex.get(new AgencyAndId("agency", "1.1")));
+            assertEquals(60, route1.getDepartureTime(0,
+                    route1.getTripIndex(new AgencyAndId("agency", "1.1"))));
+            assertEquals(1500, route1.getDepartureTime(0,
+                    route1.getTripIndex(new AgencyAndId("agency", "1.2"))));
+            // snapshots are read-only
+            try {
+                snapshot.update(byPattern(second), executor);
+                fail("updating a snapshot should fail");
+            } catch (ConcurrentModificationException e) {
+                // expected
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+}
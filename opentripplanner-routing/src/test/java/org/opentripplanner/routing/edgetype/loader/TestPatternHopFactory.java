@@ -35,6 +35,7 @@ import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.core.TransferTable;
 import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.edgetype.FrequencyAlight;
 import org.opentripplanner.routing.edgetype.FrequencyBasedTripPattern;
 import org.opentripplanner.routing.edgetype.FrequencyBoard;
 import org.opentripplanner.routing.edgetype.PatternDwell;
@@ -551,17 +552,49 @@ public class TestPatternHopFactory extends TestCase {
             int previousArrivalTime = pattern.getPreviousArrivalTime(0, 0, false, false, false);
             assertTrue(previousArrivalTime < 0);
             
+            // arrival times at V, the end of hop 0, which is 40 minutes after leaving U
             previousArrivalTime = pattern.getPreviousArrivalTime(0, 60*60*7-1, false, false, false);
-            assertEquals(60*60*6, previousArrivalTime);
+            assertEquals(60*60*6 + 40*60, previousArrivalTime);
             
             previousArrivalTime = pattern.getPreviousArrivalTime(0, 60*60*11, false, false, false);
-            assertEquals(60*60*10, previousArrivalTime);
+            assertEquals(60*60*10 + 40*60, previousArrivalTime);
             
             previousArrivalTime = pattern.getPreviousArrivalTime(0, 60*60*18, false, false, false);
-            assertEquals(60*60*16, previousArrivalTime);
+            assertEquals(60*60*16 + 40*60, previousArrivalTime);
         }
         assertTrue(boarded);
         
+        // U to V - the run boarded carries its own times
+        options.dateTime = TestUtils.dateInSeconds("America/New_York", 2009, 8, 7, 7, 0, 0);
+        options.setRoutingContext(graph, stop_u, stop_v);
+        spt = aStar.getShortestPathTree(options);
+        State boardState = null;
+        for (State s = spt.getState(stop_v); s != null; s = s.getBackState()) {
+            if (s.getBackEdge() instanceof FrequencyBoard)
+                boardState = s;
+        }
+        assertNotNull(boardState);
+        assertEquals(60*60*7, boardState.getTripTimes().getDepartureTime(0));
+        assertEquals(60*60*7 + 40*60, boardState.getTripTimes().getArrivalTime(0));
+
+        // U to V, arriving by 7:00 - alights the 6:00 run at 6:40
+        options.setArriveBy(true);
+        options.dateTime = TestUtils.dateInSeconds("America/New_York", 2009, 8, 7, 7, 0, 0);
+        options.setRoutingContext(graph, stop_u, stop_v);
+        spt = aStar.getShortestPathTree(options);
+        path = spt.getPath(stop_u, false);
+        assertNotNull(path);
+        assertEquals(TestUtils.dateInSeconds("America/New_York", 2009, 8, 7, 6, 0, 0),
+                path.getStartTime());
+
+        State alightState = null;
+        for (State s = spt.getState(stop_u); s != null; s = s.getBackState()) {
+            if (s.getBackEdge() instanceof FrequencyAlight)
+                alightState = s;
+        }
+        assertNotNull(alightState);
+        assertEquals(60*60*6 + 40*60, alightState.getTripTimes().getArrivalTime(0));
+        assertEquals(60*60*6, alightState.getTripTimes().getDepartureTime(0));
     }
     
     public void testFewestTransfers() {
@@ -0,0 +1,100 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.opentripplanner.routing.error.ServerBusyException;
+
+public class TestAdmissionController extends TestCase {
+
+    public void testLimits() {
+        AdmissionController controller = new AdmissionController();
+        controller.setMaxConcurrent(1);
+        controller.setMaxQueued(0);
+        AdmissionController.Permit permit = controller.admit("a");
+        try {
+            controller.admit("a");
+            fail("a second search should have been refused");
+        } catch (ServerBusyException e) {
+            assertEquals(1, controller.getRejected("a"));
+        }
+        // other routers have their own limits
+        controller.admit("b").release();
+        permit.release();
+        // releasing twice must not free an extra slot
+        permit.release();
+        AdmissionController.Permit again = controller.admit("a");
+        try {
+            controller.admit("a");
+            fail("the slot should have been taken again");
+        } catch (ServerBusyException e) {
+            assertEquals(2, controller.getRejected("a"));
+        }
+        again.release();
+    }
+
+    /** Concurrent requests never take more places in the queue than it has. */
+    public void testQueueBound() throws Exception {
+        final AdmissionController controller = new AdmissionController();
+        controller.setMaxConcurrent(1);
+        controller.setMaxQueued(2);
+        controller.setMaxWait(10000);
+        AdmissionController.Permit permit = controller.admit("a");
+        int nThreads = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger admitted = new AtomicInteger();
+        final AtomicInteger maxQueued = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < nThreads; i++) {
+            Thread thread = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        AdmissionController.Permit p = controller.admit("a");
+                        admitted.incrementAndGet();
+                        p.release();
+                    } catch (InterruptedException e) {
+                        // not expected
+                    } catch (ServerBusyException e) {
+                        int queued = controller.getQueued("a");
+                        if (queued > maxQueued.get())
+                            maxQueued.set(queued);
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (controller.getRejected("a") < nThreads - 2
+                && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(nThreads - 2, controller.getRejected("a"));
+        assertEquals(2, controller.getQueued("a"));
+        permit.release();
+        for (Thread thread : threads)
+            thread.join(5000);
+        assertEquals(2, admitted.get());
+        assertEquals(0, controller.getQueued("a"));
+        assertTrue(maxQueued.get() <= 2);
+    }
+
+}
@@ -0,0 +1,197 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.impl;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+import org.onebusaway.gtfs.model.calendar.CalendarServiceData;
+import org.opentripplanner.ConstantsForTests;
+import org.opentripplanner.gtfs.GtfsContext;
+import org.opentripplanner.gtfs.GtfsLibrary;
+import org.opentripplanner.routing.algorithm.TraverseVisitor;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.edgetype.factory.GTFSPatternHopFactory;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.impl.MultiObjectivePathServiceImpl.Targets;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.util.TestUtils;
+
+/**
+ * Searches from A to E on the test agency, where routes 1 (A-B-C) and 3 (B-C-D-E) give a
+ * choice of departures and transfers within the first hour and a half of the day.
+ */
+public class TestMultiObjectivePathServiceImpl extends TestCase {
+
+    private static final int SLICES = 4;
+
+    private static final int SLICE_MINUTES = 10;
+
+    private Graph graph;
+
+    private MultiObjectivePathServiceImpl service;
+
+    public void setUp() throws Exception {
+        GtfsContext context = GtfsLibrary.readGtfs(new File(ConstantsForTests.FAKE_GTFS));
+        graph = new Graph();
+        GTFSPatternHopFactory factory = new GTFSPatternHopFactory(context);
+        factory.run(graph);
+        graph.putService(CalendarServiceData.class,
+                GtfsLibrary.createCalendarServiceData(context.getDao()));
+        service = new MultiObjectivePathServiceImpl();
+        // never stop early, so every slice runs until its queue is empty
+        service.setTimeouts(Arrays.asList(60.0));
+        service.setMaxPaths(1000);
+        service.setSliceMinutes(SLICE_MINUTES);
+    }
+
+    public void tearDown() {
+        service.shutdown();
+    }
+
+    /** Records the states that reach the target, from any thread. */
+    private static class TargetRecorder implements TraverseVisitor {
+
+        private final Vertex target;
+
+        final List<State> states = Collections.synchronizedList(new ArrayList<State>());
+
+        TargetRecorder(Vertex target) {
+            this.target = target;
+        }
+
+        @Override
+        public void visitEdge(Edge edge, State state) {
+        }
+
+        @Override
+        public void visitVertex(State state) {
+            if (state.getVertex() == target)
+                states.add(state);
+        }
+
+        @Override
+        public void visitEnqueue(State state) {
+        }
+    }
+
+    private RoutingRequest request(int minute) {
+        RoutingRequest options = new RoutingRequest();
+        options.dateTime = TestUtils.dateInSeconds("America/New_York", 2009, 8, 7, 0, minute, 0);
+        // enough to find paths at the first try, so that all searches use the same limits
+        options.setMaxWalkDistance(50000);
+        options.setRoutingContext(graph, "agency_A_depart", "agency_E_arrive");
+        return options;
+    }
+
+    private static boolean dominates(State t, State s) {
+        return t.getWeight() <= s.getWeight()
+                && t.getTime() <= s.getTime()
+                && t.getStartTime() >= s.getStartTime()
+                && t.getWalkDistance() <= s.getWalkDistance()
+                && t.getNumBoardings() <= s.getNumBoardings();
+    }
+
+    /** @return one of each of the states no other state is better than, by brute force. */
+    private static List<State> nonDominated(List<State> states) {
+        List<State> kept = new ArrayList<State>();
+        STATE: for (State s : states) {
+            for (State t : states) {
+                if (dominates(t, s) && ! dominates(s, t))
+                    continue STATE;
+            }
+            for (State t : kept) {
+                if (dominates(t, s))
+                    continue STATE;
+            }
+            kept.add(s);
+        }
+        return kept;
+    }
+
+    /** @return the criteria of the states, which identify them across searches. */
+    private static Set<String> criteria(List<State> states) {
+        Set<String> criteria = new TreeSet<String>();
+        for (State s : states) {
+            criteria.add(String.format("start=%d end=%d w=%.3f d=%.3f b=%d", s.getStartTime(),
+                    s.getTime(), s.getWeight(), s.getWalkDistance(), s.getNumBoardings()));
+        }
+        return criteria;
+    }
+
+    public void testParallelMatchesSequential() {
+        Vertex target = graph.getVertex("agency_E_arrive");
+        // each slice on its own, one after the other
+        service.setTimeSlices(1);
+        List<State> sequential = new ArrayList<State>();
+        for (int i = 0; i < SLICES; i++) {
+            TargetRecorder recorder = new TargetRecorder(target);
+            service.setTraverseVisitor(recorder);
+            assertFalse(service.getPaths(request(i * SLICE_MINUTES)).isEmpty());
+            sequential.addAll(recorder.states);
+        }
+        List<State> expected = nonDominated(sequential);
+        assertTrue(expected.size() > 1);
+
+        // all slices at once, pruning each other
+        service.setTimeSlices(SLICES);
+        TargetRecorder recorder = new TargetRecorder(target);
+        service.setTraverseVisitor(recorder);
+        List<GraphPath> paths = service.getPaths(request(0));
+        List<State> found = nonDominated(recorder.states);
+        assertEquals(criteria(expected), criteria(found));
+        // and one path is returned for each
+        assertEquals(expected.size(), paths.size());
+    }
+
+    public void testTargets() {
+        Vertex target = graph.getVertex("agency_E_arrive");
+        service.setTimeSlices(1);
+        List<State> states = new ArrayList<State>();
+        for (int i = 0; i < SLICES; i++) {
+            TargetRecorder recorder = new TargetRecorder(target);
+            service.setTraverseVisitor(recorder);
+            service.getPaths(request(i * SLICE_MINUTES));
+            states.addAll(recorder.states);
+        }
+        Set<String> expected = criteria(nonDominated(states));
+        // whatever the order states are added in, only the non-dominated ones are kept
+        List<State> reversed = new ArrayList<State>(states);
+        Collections.reverse(reversed);
+        for (List<State> order : Arrays.asList(states, reversed)) {
+            Targets targets = new Targets(false);
+            for (State s : order)
+                targets.add(s);
+            List<State> kept = targets.getStates();
+            assertEquals(expected, criteria(kept));
+            assertEquals(expected.size(), targets.size());
+            for (int i = 1; i < kept.size(); i++)
+                assertTrue(kept.get(i - 1).getWeight() <= kept.get(i).getWeight());
+            // and every state found is bounded by a kept one, which prunes it in all slices
+            for (State s : states)
+                assertTrue(targets.bounds(s, 0));
+        }
+    }
+
+}
@@ -0,0 +1,256 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.impl.raptor;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.Trip;
+import org.onebusaway.gtfs.model.calendar.CalendarServiceData;
+import org.opentripplanner.ConstantsForTests;
+import org.opentripplanner.gtfs.GtfsContext;
+import org.opentripplanner.gtfs.GtfsLibrary;
+import org.opentripplanner.routing.core.CancellationToken;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.edgetype.TableTripPattern;
+import org.opentripplanner.routing.edgetype.TransitBoardAlight;
+import org.opentripplanner.routing.edgetype.factory.GTFSPatternHopFactory;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.vertextype.TransitStop;
+import org.opentripplanner.util.TestUtils;
+
+/**
+ * Searches on routes 1 (A-B-C) and 2 (B-C-D) of the test agency, which run every day.
+ */
+public class TestRaptorTravelTimeSearch extends TestCase {
+
+    private static final int UNREACHED = RaptorTravelTimeSearch.UNREACHED;
+
+    private Graph graph;
+
+    private RaptorData data;
+
+    public void setUp() throws Exception {
+        GtfsContext context = GtfsLibrary.readGtfs(new File(ConstantsForTests.FAKE_GTFS));
+        graph = new Graph();
+        GTFSPatternHopFactory factory = new GTFSPatternHopFactory(context);
+        factory.run(graph);
+        graph.putService(CalendarServiceData.class,
+                GtfsLibrary.createCalendarServiceData(context.getDao()));
+        data = makeData(graph, "1.1", "2.1");
+        graph.putService(RaptorDataService.class, new RaptorDataService(data));
+    }
+
+    /** Make RAPTOR data holding only the patterns of the given trips, one route per pattern. */
+    @SuppressWarnings("unchecked")
+    static RaptorData makeData(Graph graph, String... tripIds) {
+        RaptorData data = new RaptorData();
+        List<TransitBoardAlight> boardAlights = new ArrayList<TransitBoardAlight>();
+        for (Vertex v : graph.getVertices()) {
+            for (Edge e : v.getOutgoing()) {
+                if (e instanceof TransitBoardAlight)
+                    boardAlights.add((TransitBoardAlight) e);
+            }
+        }
+        data.stops = new RaptorStop[0];
+        for (String tripId : tripIds) {
+            TableTripPattern pattern = null;
+            for (TransitBoardAlight ba : boardAlights) {
+                for (Trip trip : ba.getPattern().getTrips()) {
+                    if (trip.getId().getId().equals(tripId))
+                        pattern = ba.getPattern();
+                }
+            }
+            List<Stop> stops = pattern.getStops();
+            RaptorRoute route = new RaptorRoute(stops.size(), 1);
+            for (int i = 0; i < stops.size(); i++) {
+                Stop stop = stops.get(i);
+                RaptorStop raptorStop = data.raptorStopsForStopId.get(stop.getId());
+                if (raptorStop == null) {
+                    raptorStop = new RaptorStop();
+                    raptorStop.index = data.stops.length;
+                    raptorStop.stopVertex = (TransitStop) graph.getVertex(
+                            stop.getId().getAgencyId() + "_" + stop.getId().getId());
+                    data.stops = Arrays.copyOf(data.stops, data.stops.length + 1);
+                    data.stops[raptorStop.index] = raptorStop;
+                    data.raptorStopsForStopId.put(stop.getId(), raptorStop);
+                }
+                route.stops[i] = raptorStop;
+            }
+            for (TransitBoardAlight ba : boardAlights) {
+                if (ba.getPattern() != pattern)
+                    continue;
+                if (ba.isBoarding())
+                    route.boards[ba.getStopIndex()][0] = ba;
+                else
+                    route.alights[ba.getStopIndex()][0] = ba;
+            }
+            data.routes.add(route);
+        }
+        data.routesForStop = new List[data.stops.length];
+        for (RaptorRoute route : data.routes) {
+            for (RaptorStop stop : route.stops) {
+                if (data.routesForStop[stop.index] == null)
+                    data.routesForStop[stop.index] = new ArrayList<RaptorRoute>();
+                data.routesForStop[stop.index].add(route);
+            }
+        }
+        return data;
+    }
+
+    private RoutingRequest options(int hour, int minute) {
+        RoutingRequest options = new RoutingRequest();
+        options.dateTime = TestUtils.dateInSeconds("America/New_York", 2009, 8, 7, hour, minute, 0);
+        return options;
+    }
+
+    private int stop(String id) {
+        for (RaptorStop stop : data.stops) {
+            if (stop.stopVertex.getStopId().getId().equals(id))
+                return stop.index;
+        }
+        throw new IllegalArgumentException(id);
+    }
+
+    /** @return access times with the origin at stop A and every other stop unreached. */
+    private int[] fromA() {
+        int[] access = new int[data.stops.length];
+        Arrays.fill(access, UNREACHED);
+        access[stop("A")] = 0;
+        return access;
+    }
+
+    public void testSearch() {
+        RaptorTravelTimeSearch search = new RaptorTravelTimeSearch(graph, options(0, 0));
+        search.computeTransfers(null);
+        int[] arrivals = search.search(fromA());
+        assertEquals(4, arrivals.length);
+        assertEquals(0, arrivals[stop("A")]);
+        // trip 1.1 leaves A at 00:00
+        assertEquals(10 * 60, arrivals[stop("B")]);
+        assertEquals(20 * 60, arrivals[stop("C")]);
+        // change at B to trip 2.1, leaving at 00:20
+        assertEquals(40 * 60, arrivals[stop("D")]);
+
+        // trip 1.2 leaves A at 00:20, then 2.2 leaves B at 00:50
+        search = new RaptorTravelTimeSearch(graph, options(0, 5));
+        search.computeTransfers(null);
+        arrivals = search.search(fromA());
+        assertEquals(25 * 60, arrivals[stop("B")]);
+        assertEquals(35 * 60, arrivals[stop("C")]);
+        assertEquals(65 * 60, arrivals[stop("D")]);
+    }
+
+    public void testMaxTransfers() {
+        RoutingRequest options = options(0, 0);
+        options.setMaxTransfers(0);
+        RaptorTravelTimeSearch search = new RaptorTravelTimeSearch(graph, options);
+        search.computeTransfers(null);
+        int[] arrivals = search.search(fromA());
+        assertEquals(20 * 60, arrivals[stop("C")]);
+        assertEquals(UNREACHED, arrivals[stop("D")]);
+    }
+
+    public void testSlack() {
+        RoutingRequest options = options(0, 0);
+        options.setBoardSlack(60);
+        options.setAlightSlack(30);
+        options.setTransferSlack(120);
+        RaptorTravelTimeSearch search = new RaptorTravelTimeSearch(graph, options);
+        search.computeTransfers(null);
+        int[] arrivals = search.search(fromA());
+        // the board slack misses trip 1.1, so 1.2 is taken at 00:20
+        assertEquals(30 * 60 + 30, arrivals[stop("B")]);
+        // 2.2 leaves B at 00:50, after the transfer slack
+        assertEquals(70 * 60 + 30, arrivals[stop("D")]);
+    }
+
+    public void testSearchRange() {
+        RaptorTravelTimeSearch range = new RaptorTravelTimeSearch(graph, options(0, 0));
+        range.computeTransfers(null);
+        // every 5 minutes until 00:55, after the last trip from A that reaches D
+        int[][] arrivals = range.searchRange(fromA(), 55 * 60, 5 * 60);
+        assertEquals(12, arrivals.length);
+        for (int d = 0; d < arrivals.length; d++) {
+            RaptorTravelTimeSearch single = new RaptorTravelTimeSearch(graph, options(0, d * 5));
+            single.computeTransfers(null);
+            assertTrue("departure " + d, Arrays.equals(single.search(fromA()), arrivals[d]));
+        }
+        // leaving at 00:25 the next trip from A is 1.3 at 08:00, and route 2 runs again the
+        // next day
+        assertEquals((8 * 60 + 10 - 25) * 60, arrivals[5][stop("B")]);
+        assertEquals((24 * 60 + 40 - 25) * 60, arrivals[5][stop("D")]);
+        try {
+            range.searchRange(fromA(), 60, 0);
+            fail("a step of zero should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testCancellation() {
+        RaptorTravelTimeSearch search = new RaptorTravelTimeSearch(graph, options(0, 0));
+        search.computeTransfers(null);
+        CancellationToken cancellation = new CancellationToken();
+        cancellation.cancel();
+        int[] arrivals = search.search(fromA(), cancellation);
+        assertEquals(0, arrivals[stop("A")]);
+        assertEquals(UNREACHED, arrivals[stop("B")]);
+        // the token of the request itself is unaffected
+        arrivals = search.search(fromA());
+        assertEquals(10 * 60, arrivals[stop("B")]);
+    }
+
+    public void testCancelledTransfers() {
+        RaptorTravelTimeSearch search = new RaptorTravelTimeSearch(graph, options(0, 0));
+        CancellationToken cancellation = new CancellationToken();
+        cancellation.cancel();
+        assertFalse(search.computeTransfers(null, cancellation));
+        // the transfers are incomplete, so they cannot be searched
+        try {
+            search.search(fromA());
+            fail("searching with abandoned transfers should fail");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertTrue(search.computeTransfers(null, new CancellationToken()));
+        assertEquals(10 * 60, search.search(fromA())[stop("B")]);
+    }
+
+    public void testPreconditions() {
+        RaptorTravelTimeSearch search = new RaptorTravelTimeSearch(graph, options(0, 0));
+        try {
+            search.search(fromA());
+            fail("searching before computing transfers should fail");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        RoutingRequest arriveBy = options(0, 0);
+        arriveBy.setArriveBy(true);
+        try {
+            new RaptorTravelTimeSearch(graph, arriveBy);
+            fail("arrive-by searches are not supported");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+}
@@ -0,0 +1,99 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.spt;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+
+public class TestStateBag extends TestCase {
+
+    private static final RoutingRequest OPTIONS = new RoutingRequest();
+
+    /** Pareto dominance on weight and time, which can only apply to states of higher weight. */
+    private static final StateBag.Dominance PARETO = new StateBag.Dominance() {
+
+        @Override
+        public boolean dominates(State a, State b) {
+            return a.getWeight() <= b.getWeight() && a.getTime() <= b.getTime();
+        }
+
+        @Override
+        public double maxDominatingWeight(double weight) {
+            return weight;
+        }
+
+        @Override
+        public double minDominatedWeight(double weight) {
+            return weight;
+        }
+    };
+
+    private static class WeightedState extends State {
+        WeightedState(double weight, long time) {
+            super(null, time, OPTIONS);
+            this.weight = weight;
+        }
+    }
+
+    public void testPareto() {
+        StateBag bag = new StateBag(PARETO);
+        State a = new WeightedState(10, 100);
+        State b = new WeightedState(20, 50);
+        assertTrue(bag.add(b));
+        assertTrue(bag.add(a));
+        assertFalse(bag.add(new WeightedState(15, 120)));
+        // ties keep the state already in the bag
+        assertFalse(bag.add(new WeightedState(10, 100)));
+        assertEquals(2, bag.size());
+        assertSame(a, bag.get(0));
+        assertSame(b, bag.get(1));
+        assertTrue(bag.contains(b));
+        assertFalse(bag.contains(new WeightedState(20, 50)));
+        State c = new WeightedState(5, 10);
+        assertTrue(bag.add(c));
+        assertEquals(1, bag.size());
+        assertSame(c, bag.get(0));
+    }
+
+    public void testMatchesLinearScan() {
+        Random random = new Random(42);
+        StateBag bag = new StateBag(PARETO);
+        List<State> expected = new ArrayList<State>();
+        for (int i = 0; i < 2000; i++) {
+            State s = new WeightedState(random.nextInt(1000), random.nextInt(1000));
+            boolean dominated = false;
+            for (State old : expected)
+                dominated |= PARETO.dominates(old, s);
+            if ( ! dominated) {
+                for (int j = expected.size() - 1; j >= 0; j--)
+                    if (PARETO.dominates(s, expected.get(j)))
+                        expected.remove(j);
+                expected.add(s);
+            }
+            assertEquals( ! dominated, bag.add(s));
+            assertEquals(expected.size(), bag.size());
+        }
+        for (State s : expected)
+            assertTrue(bag.contains(s));
+        for (int i = 1; i < bag.size(); i++)
+            assertTrue(bag.get(i - 1).getWeight() <= bag.get(i).getWeight());
+    }
+
+}
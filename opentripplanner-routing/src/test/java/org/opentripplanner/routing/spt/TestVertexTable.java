@@ -0,0 +1,53 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.spt;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+
+public class TestVertexTable extends TestCase {
+
+    public void testSparseAndDense() {
+        List<Vertex> vertices = new ArrayList<Vertex>();
+        for (int i = 0; i < 2000; i++)
+            vertices.add(new IntersectionVertex(null, "v" + i, i, 0));
+        for (boolean dense : new boolean[] { false, true }) {
+            VertexTable<Integer> table = new VertexTable<Integer>(dense);
+            // vertices made after the table do not fit in its array
+            Vertex temporary = new IntersectionVertex(null, "temporary", 0, 0);
+            table.put(temporary, -1);
+            for (int i = 0; i < vertices.size(); i += 2)
+                assertNull(table.put(vertices.get(i), i));
+            assertEquals(Integer.valueOf(0), table.put(vertices.get(0), 0));
+            assertEquals(1001, table.size());
+            assertEquals(Integer.valueOf(-1), table.get(temporary));
+            assertEquals(Integer.valueOf(1998), table.get(vertices.get(1998)));
+            assertNull(table.get(vertices.get(1)));
+            int n = 0;
+            long sum = 0;
+            for (Integer value : table.values()) {
+                n++;
+                sum += value;
+            }
+            assertEquals(1001, n);
+            assertEquals(999000 - 1, sum);
+        }
+    }
+
+}
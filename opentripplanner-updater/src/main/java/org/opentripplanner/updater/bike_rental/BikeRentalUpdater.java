@@ -13,17 +13,22 @@
 
 package org.opentripplanner.updater.bike_rental;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
+import org.opentripplanner.routing.bike_rental.BikeRentalAvailability;
 import org.opentripplanner.routing.bike_rental.BikeRentalStation;
 import org.opentripplanner.routing.bike_rental.BikeRentalStationService;
 import org.opentripplanner.routing.edgetype.RentABikeOffEdge;
@@ -32,17 +37,51 @@ import org.opentripplanner.routing.edgetype.loader.LinkRequest;
 import org.opentripplanner.routing.edgetype.loader.NetworkLinkerLibrary;
 import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.services.GraphRegistrationListener;
 import org.opentripplanner.routing.services.GraphService;
 import org.opentripplanner.routing.vertextype.BikeRentalStationVertex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
-public class BikeRentalUpdater implements Runnable {
+/**
+ * Keeps the bike rental stations of a graph up to date with a data source. 
+ * 
+ * Station topology is kept apart from availability. The graph is only modified when a station 
+ * appears for the first time: its vertex is created and linked to the streets before the station 
+ * is published in an availability snapshot, so searches do not use it until it is complete. 
+ * Availability counts, which change much more often, are published as a new immutable 
+ * BikeRentalAvailability snapshot on every update, without touching the graph. Stations which 
+ * vanish from the feed are first marked out of service in the snapshot rather than removed from
+ * the graph under running searches, and are put back in service if they reappear. Once a
+ * station has been absent for removeAfterUpdates updates in a row, its vertex is removed from
+ * the graph and its availability index is reused by the next new station, so that neither the
+ * graph nor the snapshots grow with every station ever seen.
+ * 
+ * Several updaters may share the station service of a graph. Each publishes its own snapshots
+ * and station set, and numbers the stations it links independently of the others.
+ * 
+ * When the graph of its router is replaced, the updater forgets the stations it linked into the
+ * old graph and links the last stations it received into the new one before it is published.
+ */
+public class BikeRentalUpdater implements Runnable, GraphRegistrationListener {
     private static final Logger _log = LoggerFactory.getLogger(BikeRentalUpdater.class);
 
     Map<BikeRentalStation, BikeRentalStationVertex> verticesByStation = new HashMap<BikeRentalStation, BikeRentalStationVertex>();
 
+    /** vertices by availability index, null where a vertex has been removed */
+    private List<BikeRentalStationVertex> vertices = new ArrayList<BikeRentalStationVertex>();
+
+    /** availability indexes of removed vertices, to be given to new stations */
+    private Deque<Integer> freeIndexes = new ArrayDeque<Integer>();
+
+    /** the number of updates in a row each station has been missing from */
+    private Map<BikeRentalStation, Integer> absences = new HashMap<BikeRentalStation, Integer>();
+
+    private int removeAfterUpdates = 10;
+
+    private int version = 0;
+
     private BikeRentalDataSource source;
 
     private Graph graph;
@@ -65,6 +104,14 @@ public class BikeRentalUpdater implements Runnable {
         this.network = network;
     }
 
+    /**
+     * Remove the vertex of a station from the graph once the station has been missing from this
+     * many updates in a row. Zero or less keeps the vertices of vanished stations forever.
+     */
+    public void setRemoveAfterUpdates(int removeAfterUpdates) {
+        this.removeAfterUpdates = removeAfterUpdates;
+    }
+
     @Autowired
     public void setBikeRentalDataSource(BikeRentalDataSource source) {
         this.source = source;
@@ -76,11 +123,50 @@ public class BikeRentalUpdater implements Runnable {
     }
 
     @PostConstruct
-    public void setup() {
+    public synchronized void setup() {
         if (routerId != null) {
-            graph = graphService.getGraph(routerId);
+            bind(graphService.getGraph(routerId));
         } else {
-            graph = graphService.getGraph();
+            bind(graphService.getGraph());
+        }
+        graphService.addGraphRegistrationListener(routerId, this);
+    }
+
+    @PreDestroy
+    public void teardown() {
+        graphService.removeGraphRegistrationListener(this);
+    }
+
+    /** Link the stations last received into the new graph, before it is published. */
+    @Override
+    public synchronized void onGraphRegistered(String routerId, Graph graph) {
+        bind(graph);
+        List<BikeRentalStation> stations = source.getStations();
+        if (stations != null && !stations.isEmpty())
+            publish(stations);
+        _log.info("bike rental updater bound to a new graph for routerId {}", routerId);
+    }
+
+    @Override
+    public synchronized void onGraphEvicted(String routerId, Graph graph) {
+        if (graph == this.graph)
+            bind(null);
+    }
+
+    /** 
+     * Start again on the given graph. Nothing refers to the previous graph afterwards, since its
+     * station vertices are linked to its streets.
+     */
+    private void bind(Graph graph) {
+        this.graph = graph;
+        verticesByStation = new HashMap<BikeRentalStation, BikeRentalStationVertex>();
+        vertices = new ArrayList<BikeRentalStationVertex>();
+        freeIndexes = new ArrayDeque<Integer>();
+        absences = new HashMap<BikeRentalStation, Integer>();
+        if (graph == null) {
+            networkLinkerLibrary = null;
+            service = null;
+            return;
         }
         networkLinkerLibrary = new NetworkLinkerLibrary(graph, Collections.<Class<?>, Object> emptyMap());
         service = graph.getService(BikeRentalStationService.class);
@@ -95,48 +181,96 @@ public class BikeRentalUpdater implements Runnable {
     }
 
     @Override
-    public void run() {
+    public synchronized void run() {
+        if (graph == null) {
+            _log.debug("No graph registered, not updating");
+            return;
+        }
         _log.debug("Updating bike rental stations from " + source);
         if (!source.update()) {
             _log.debug("No updates");
             return;
         }
-        List<BikeRentalStation> stations = source.getStations();
-        Set<BikeRentalStation> stationSet = new HashSet<BikeRentalStation>();
+        publish(source.getStations());
+    }
+
+    private void publish(List<BikeRentalStation> stations) {
+        // topology: remove stations gone for long enough, freeing their indexes for new ones
+        removeAbsentStations(new HashSet<BikeRentalStation>(stations));
+        // and link stations never seen before, before they are published
         for (BikeRentalStation station : stations) {
-            service.addStation(station);
-            String id = station.id;
-            stationSet.add(station);
-            BikeRentalStationVertex vertex = verticesByStation.get(station);
-            if (vertex == null) {
-                String name = "bike rental station " + id;
-                vertex = new BikeRentalStationVertex(graph, id, name, station.x,
-                        station.y, station.name, station.bikesAvailable, station.spacesAvailable);
-                LinkRequest request = networkLinkerLibrary.connectVertexToStreets(vertex);
-                for (Edge e : request.getEdgesAdded()) {
-                    graph.addTemporaryEdge(e);
-                }
-                verticesByStation.put(station, vertex);
-                new RentABikeOnEdge(vertex, vertex, network);
-                new RentABikeOffEdge(vertex, vertex, network);
-            } else {
-                vertex.setBikesAvailable(station.bikesAvailable);
-                vertex.setSpacesAvailable(station.spacesAvailable);
-            }
+            if (!verticesByStation.containsKey(station))
+                linkStation(station);
+        }
+        // availability: a complete new snapshot, in which vanished stations are out of service
+        int n = vertices.size();
+        int[] bikes = new int[n];
+        int[] spaces = new int[n];
+        Arrays.fill(bikes, BikeRentalAvailability.OUT_OF_SERVICE);
+        for (BikeRentalStation station : stations) {
+            int index = verticesByStation.get(station).getAvailabilityIndex();
+            bikes[index] = Math.max(station.bikesAvailable, 0);
+            spaces[index] = Math.max(station.spacesAvailable, 0);
         }
-        List<BikeRentalStationVertex> toRemove = new ArrayList<BikeRentalStationVertex>();
-        for (Entry<BikeRentalStation, BikeRentalStationVertex> entry : verticesByStation.entrySet()) {
+        version += 1;
+        service.setAvailability(this, new BikeRentalAvailability(version, bikes, spaces));
+        service.setStations(this, stations);
+        _log.debug("published availability version {} for {} stations", version, stations.size());
+    }
+
+    private void linkStation(BikeRentalStation station) {
+        String id = station.id;
+        String name = "bike rental station " + id;
+        BikeRentalStationVertex vertex = new BikeRentalStationVertex(graph, id, name, station.x,
+                station.y, station.name, station.bikesAvailable, station.spacesAvailable);
+        // not in service until the next snapshot includes it
+        Integer index = freeIndexes.poll();
+        if (index == null) {
+            vertex.setAvailabilitySource(service, this, vertices.size());
+            vertices.add(vertex);
+        } else {
+            // out of service in the latest snapshot, since its previous station was absent
+            vertex.setAvailabilitySource(service, this, index);
+            vertices.set(index, vertex);
+        }
+        LinkRequest request = networkLinkerLibrary.connectVertexToStreets(vertex);
+        for (Edge e : request.getEdgesAdded()) {
+            graph.addTemporaryEdge(e);
+        }
+        verticesByStation.put(station, vertex);
+        new RentABikeOnEdge(vertex, vertex, network);
+        new RentABikeOffEdge(vertex, vertex, network);
+        _log.debug("linked new bike rental station {}", id);
+    }
+
+    private void removeAbsentStations(Set<BikeRentalStation> present) {
+        Iterator<Map.Entry<BikeRentalStation, BikeRentalStationVertex>> it = 
+                verticesByStation.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<BikeRentalStation, BikeRentalStationVertex> entry = it.next();
             BikeRentalStation station = entry.getKey();
-            if (stationSet.contains(station))
+            if (present.contains(station)) {
+                absences.remove(station);
                 continue;
+            }
+            Integer absent = absences.get(station);
+            absent = absent == null ? 1 : absent + 1;
+            if (removeAfterUpdates <= 0 || absent < removeAfterUpdates) {
+                absences.put(station, absent);
+                continue;
+            }
+            // searches still holding the vertex see it out of service, whoever gets its index
             BikeRentalStationVertex vertex = entry.getValue();
+            int index = vertex.getAvailabilityIndex();
+            vertex.setAvailabilitySource(service, this, -1);
             graph.removeVertexAndEdges(vertex);
-            toRemove.add(vertex);
-            service.removeStation(station);
-            //TODO: need to unsplit any streets that were split
+            vertices.set(index, null);
+            freeIndexes.add(index);
+            absences.remove(station);
+            it.remove();
+            _log.debug("removed bike rental station {}, absent from {} updates", station.id,
+                    absent);
         }
-        verticesByStation.keySet().removeAll(toRemove);
-
     }
 
 }
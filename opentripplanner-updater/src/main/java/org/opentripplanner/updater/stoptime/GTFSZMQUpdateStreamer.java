@@ -1,60 +1,127 @@
 package org.opentripplanner.updater.stoptime;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+import lombok.Setter;
+
 import org.onebusaway.gtfs.model.AgencyAndId;
 import org.opentripplanner.routing.trippattern.Update;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.google.transit.realtime.GtfsRealtime;
-import com.google.transit.realtime.GtfsRealtime.FeedEntity;
-import com.google.transit.realtime.GtfsRealtime.FeedHeader;
 import com.google.transit.realtime.GtfsRealtime.FeedMessage;
 import com.google.transit.realtime.GtfsRealtime.TripUpdate;
 import com.google.transit.realtime.GtfsRealtime.TripUpdate.StopTimeUpdate;
 
+/**
+ * Reads GTFS-realtime trip updates from a file which is periodically replaced. The file is only
+ * parsed when its contents change, and only the trip updates which differ from those last
+ * seen (see TripUpdateDiffer) are converted into Updates, so polls of an unchanged feed cost
+ * little more than a stat call.
+ */
 public class GTFSZMQUpdateStreamer implements UpdateStreamer {
 
-    private static final File file = new File("/var/otp/data/nl/gtfs-rt.protobuf");
-    
+    private static final Logger LOG = LoggerFactory.getLogger(GTFSZMQUpdateStreamer.class);
+
+    @Setter private File file = new File("/var/otp/data/nl/gtfs-rt.protobuf");
+
+    @Setter private String defaultAgencyId = "agency";
+
+    /** Milliseconds to wait between checks of a feed that has not changed. */
+    @Setter private int pollInterval = 1000;
+
+    private final TripUpdateDiffer differ = new TripUpdateDiffer();
+
+    private long lastModified = -1;
+
+    private long lastLength = -1;
+
+    private int lastHash = 0;
+
     @Override
     public List<Update> getUpdates() {
         try {
-            InputStream is = new FileInputStream(file);
-            FeedMessage feed = GtfsRealtime.FeedMessage.parseFrom(is);
-            // System.out.println(feed);
-            FeedHeader header = feed.getHeader();
-            long timestamp = header.getTimestamp();
-            List<Update> updates = new ArrayList<Update>();
-            for (FeedEntity entity : feed.getEntityList()) {
-                System.out.println(entity);
-                TripUpdate tUpdate = entity.getTripUpdate();
-                String trip = tUpdate.getTrip().getTripId();
-                AgencyAndId tripId = new AgencyAndId("agency", trip);
-                for (StopTimeUpdate sUpdate : tUpdate.getStopTimeUpdateList()) {
-                    Update u = new Update(tripId, 
-                            sUpdate.getStopId(),
-                            sUpdate.getStopSequence(), 
-                            (int) sUpdate.getArrival().getTime(), 
-                            (int) sUpdate.getDeparture().getTime(),
-                            Update.Status.UNKNOWN,
-                            0);
-                    updates.add(u);
-                }
+            while (true) {
+                List<Update> updates = poll();
+                if (updates != null && ! updates.isEmpty())
+                    return updates;
+                Thread.sleep(pollInterval);
             }
-            return updates;
-        } catch (FileNotFoundException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /** @return the updates for trips which changed, or null if the feed itself is unchanged. */
+    private List<Update> poll() {
+        long modified = file.lastModified();
+        long length = file.length();
+        if (modified == lastModified && length == lastLength)
+            return null;
+        byte[] bytes;
+        try {
+            bytes = readFile();
         } catch (IOException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+            LOG.warn("could not read {} : {}", file, e.getMessage());
+            return null;
+        }
+        lastModified = modified;
+        lastLength = length;
+        // a rewritten file often has the same contents
+        int hash = Arrays.hashCode(bytes);
+        if (hash == lastHash)
+            return null;
+        lastHash = hash;
+        FeedMessage feed;
+        try {
+            feed = GtfsRealtime.FeedMessage.parseFrom(bytes);
+        } catch (IOException e) {
+            LOG.warn("could not parse {} : {}", file, e.getMessage());
+            return null;
+        }
+        List<Update> updates = new ArrayList<Update>();
+        for (TripUpdate tUpdate : differ.changed(feed)) {
+            String trip = tUpdate.getTrip().getTripId();
+            AgencyAndId tripId = new AgencyAndId(defaultAgencyId, trip);
+            for (StopTimeUpdate sUpdate : tUpdate.getStopTimeUpdateList()) {
+                Update u = new Update(tripId,
+                        sUpdate.getStopId(),
+                        sUpdate.getStopSequence(),
+                        (int) sUpdate.getArrival().getTime(),
+                        (int) sUpdate.getDeparture().getTime(),
+                        Update.Status.UNKNOWN,
+                        0);
+                updates.add(u);
+            }
+        }
+        return updates;
+    }
+
+    private byte[] readFile() throws IOException {
+        InputStream is = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.max(file.length(), 1024));
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = is.read(buf)) != -1)
+                out.write(buf, 0, n);
+            return out.toByteArray();
+        } finally {
+            is.close();
         }
-        return null;
     }
+
+    public String toString() {
+        return "GTFS-realtime update streamer reading " + file;
+    }
+
 }
@@ -2,11 +2,16 @@ package org.opentripplanner.updater.stoptime;
 
 import static org.opentripplanner.common.IterableLibrary.filter;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 import lombok.Setter;
 
@@ -17,23 +22,45 @@ import org.opentripplanner.routing.edgetype.TimetableResolver;
 import org.opentripplanner.routing.edgetype.TimetableSnapshotSource;
 import org.opentripplanner.routing.edgetype.TransitBoardAlight;
 import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.services.GraphRegistrationListener;
 import org.opentripplanner.routing.services.GraphService;
 import org.opentripplanner.routing.trippattern.Update;
 import org.opentripplanner.routing.trippattern.UpdateBlock;
 import org.opentripplanner.routing.vertextype.TransitStopDepart;
+import org.opentripplanner.util.monitoring.MonitoringStore;
+import org.opentripplanner.util.monitoring.MonitoringStoreFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
 /**
- * Update OTP stop time tables from some (realtime) source
+ * Update OTP stop time tables from some (realtime) source.
+ * 
+ * Each message from the streamer is applied as one batch: its update blocks are grouped by 
+ * trip pattern, the patterns are updated in parallel by a pool of worker threads, and a new
+ * snapshot is considered once at the end of the batch. Batch sizes and latencies are recorded 
+ * in the monitoring store under keys beginning with "stoptimeUpdater.".
+ * 
+ * When the default graph is replaced, the updater indexes the trip patterns of the new graph and
+ * becomes its snapshot source before it is published, starting again from the scheduled 
+ * timetables, and lets go of the old graph.
  * @author abyrd
  */
-public class StoptimeUpdater implements Runnable, TimetableSnapshotSource {
+public class StoptimeUpdater implements Runnable, TimetableSnapshotSource, 
+        GraphRegistrationListener {
 
     private static final Logger LOG = LoggerFactory.getLogger(StoptimeUpdater.class);
 
-    @Autowired private GraphService graphService;
+    private static final MonitoringStore store = MonitoringStoreFactory.getStore();
+
+    /* the store drops values for keys nobody has asked it to monitor */
+    static {
+        for (String key : new String[] { "batches", "updates", "appliedBlocks",
+                "lastBatchMsec", "maxBatchMsec", "updatesPerSecond" })
+            store.monitor("stoptimeUpdater." + key);
+    }
+
+    @Autowired @Setter private GraphService graphService;
     @Setter    private UpdateStreamer updateStreamer;
     @Setter    private static int logFrequency = 2000;
 
@@ -44,6 +71,11 @@ public class StoptimeUpdater implements Runnable, TimetableSnapshotSource {
      */
     @Setter private int maxSnapshotFrequency = 1000; // msec    
 
+    /** The number of threads applying updates to different patterns. 1 applies them inline. */
+    @Setter private int threadCount = Runtime.getRuntime().availableProcessors();
+    
+    private ExecutorService executor;
+
     /** 
      * The last committed snapshot that was handed off to a routing thread. This snapshot may be
      * given to more than one routing thread if the maximum snapshot frequency is exceeded. 
@@ -59,26 +91,78 @@ public class StoptimeUpdater implements Runnable, TimetableSnapshotSource {
     // graphs at once
     private Graph graph;
     private long lastSnapshotTime = -1;
+
+    /* ingestion statistics, written only by the updater thread */
+    private volatile long batchCount = 0;
+    private volatile long updateCount = 0;
+    private volatile long appliedBlockCount = 0;
+    private volatile long lastBatchMsec = 0;
+    private volatile long maxBatchMsec = 0;
+    private volatile long totalBatchMsec = 0;
     
     /**
-     * Once the data sources and target graphs have been set, index all trip patterns on the 
-     * tripIds of Trips they contain.
+     * Once the data sources and target graphs have been set, bind to the default graph and
+     * follow its replacements.
      */
     @PostConstruct
     public void setup () {
-        graph = graphService.getGraph();
-        patternIndex = new HashMap<AgencyAndId, TableTripPattern>();
-        for (TransitStopDepart tsd : filter(graph.getVertices(), TransitStopDepart.class)) {
-            for (TransitBoardAlight tba : filter(tsd.getOutgoing(), TransitBoardAlight.class)) {
-                if (!tba.isBoarding())
-                    continue;
-                TableTripPattern pattern = tba.getPattern();
-                for (Trip trip : pattern.getTrips()) {
-                    patternIndex.put(trip.getId(), pattern);
+        bind(graphService.getGraph());
+        graphService.addGraphRegistrationListener(null, this);
+        if (threadCount > 1)
+            executor = Executors.newFixedThreadPool(threadCount);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null)
+            executor.shutdownNow();
+        if (graphService != null)
+            graphService.removeGraphRegistrationListener(this);
+    }
+
+    @Override
+    public void onGraphRegistered(String routerId, Graph graph) {
+        bind(graph);
+        LOG.info("stoptime updater bound to a new graph for routerId {}", routerId);
+    }
+
+    @Override
+    public synchronized void onGraphEvicted(String routerId, Graph graph) {
+        if (graph == this.graph)
+            bind(null);
+    }
+
+    /**
+     * Index all trip patterns of the graph on the tripIds of Trips they contain, and become its
+     * snapshot source. The timetables of the previous graph are for its own patterns, so they
+     * are dropped, along with the updates of any batch being applied at the time.
+     */
+    private void bind(Graph graph) {
+        Map<AgencyAndId, TableTripPattern> index = new HashMap<AgencyAndId, TableTripPattern>();
+        if (graph != null) {
+            for (TransitStopDepart tsd : filter(graph.getVertices(), TransitStopDepart.class)) {
+                for (TransitBoardAlight tba : filter(tsd.getOutgoing(), TransitBoardAlight.class)) {
+                    if (!tba.isBoarding())
+                        continue;
+                    TableTripPattern pattern = tba.getPattern();
+                    for (Trip trip : pattern.getTrips()) {
+                        index.put(trip.getId(), pattern);
+                    }
                 }
             }
         }
-        graph.timetableSnapshotSource = this;
+        synchronized (this) {
+            // requests still running on the old graph go on with the scheduled timetables
+            if (this.graph != null && this.graph.timetableSnapshotSource == this)
+                this.graph.timetableSnapshotSource = null;
+            this.graph = graph;
+            patternIndex = index;
+            buffer = new TimetableResolver();
+            snapshot = null;
+            lastSnapshotTime = -1;
+            if (graph != null)
+                graph.timetableSnapshotSource = this;
+        }
     }
     
     public synchronized TimetableResolver getSnapshot() {
@@ -103,49 +187,130 @@ public class StoptimeUpdater implements Runnable, TimetableSnapshotSource {
      */
     @Override
     public void run() {
-        int appliedBlockCount = 0;
         while (true) {
             List<Update> updates = updateStreamer.getUpdates(); 
             if (updates == null) {
+                // streamers return null when interrupted, and keep the interrupt status
+                if (Thread.currentThread().isInterrupted()) {
+                    LOG.info("stoptime updater interrupted, stopping.");
+                    return;
+                }
                 LOG.debug("updates is null");
                 continue;
             } 
-            List<UpdateBlock> blocks = UpdateBlock.splitByTrip(updates);
-            LOG.debug("message contains {} trip update blocks", blocks.size());
-            int uIndex = 0;
-            for (UpdateBlock block : blocks) {
-                uIndex += 1;
-                LOG.debug("update block #{} ({} updates) :", uIndex, block.updates.size());
-                LOG.trace("{}", block.toString());
-                block.filter(true, true, true);
-                if (! block.isCoherent()) {
-                    LOG.warn("Incoherent UpdateBlock, skipping.");
-                    continue; 
-                }
-                if (block.updates.size() < 1) {
-                    LOG.debug("UpdateBlock contains no updates after filtering, skipping.");
-                    continue; 
-                }
-                TableTripPattern pattern = patternIndex.get(block.tripId);
-                if (pattern == null) {
-                    LOG.debug("No pattern found for tripId {}, skipping UpdateBlock.", block.tripId);
-                    continue;
-                }
-                // we have a message we actually want to apply
-                boolean applied = buffer.update(pattern, block);
-                if (applied) {
-                    appliedBlockCount += 1;
-                    if (appliedBlockCount % logFrequency == 0) {
-                        LOG.info("applied {} stoptime update blocks.", appliedBlockCount);
-                    }
-                    // consider making a snapshot immediately in anticipation of incoming requests 
-                    getSnapshot(); 
-                }
+            try {
+                applyBatch(updates);
+            } catch (InterruptedException e) {
+                LOG.info("stoptime updater interrupted, stopping.");
+                return;
             }
             LOG.debug("end of update message");
         }
     }
 
+    /**
+     * Apply all the updates from one message, and make them available to the next snapshot.
+     * @return the number of update blocks applied
+     */
+    public int applyBatch(List<Update> updates) throws InterruptedException {
+        long t0 = System.currentTimeMillis();
+        Map<AgencyAndId, TableTripPattern> patternIndex;
+        TimetableResolver buffer;
+        synchronized (this) {
+            patternIndex = this.patternIndex;
+            buffer = this.buffer;
+        }
+        List<UpdateBlock> blocks = UpdateBlock.splitByTrip(updates);
+        LOG.debug("message contains {} trip update blocks", blocks.size());
+        // blocks for the same pattern stay in message order, and go to a single worker
+        Map<TableTripPattern, List<UpdateBlock>> blocksByPattern = 
+                new LinkedHashMap<TableTripPattern, List<UpdateBlock>>();
+        int uIndex = 0;
+        for (UpdateBlock block : blocks) {
+            uIndex += 1;
+            LOG.debug("update block #{} ({} updates) :", uIndex, block.updates.size());
+            LOG.trace("{}", block.toString());
+            block.filter(true, true, true);
+            if (! block.isCoherent()) {
+                LOG.warn("Incoherent UpdateBlock, skipping.");
+                continue; 
+            }
+            if (block.updates.size() < 1) {
+                LOG.debug("UpdateBlock contains no updates after filtering, skipping.");
+                continue; 
+            }
+            TableTripPattern pattern = patternIndex.get(block.tripId);
+            if (pattern == null) {
+                LOG.debug("No pattern found for tripId {}, skipping UpdateBlock.", block.tripId);
+                continue;
+            }
+            List<UpdateBlock> patternBlocks = blocksByPattern.get(pattern);
+            if (patternBlocks == null) {
+                patternBlocks = new ArrayList<UpdateBlock>();
+                blocksByPattern.put(pattern, patternBlocks);
+            }
+            patternBlocks.add(block);
+        }
+        int applied = 0;
+        if ( ! blocksByPattern.isEmpty()) {
+            applied = buffer.update(blocksByPattern, executor);
+            if (applied > 0) {
+                // consider making a snapshot immediately in anticipation of incoming requests 
+                getSnapshot();
+            }
+        }
+        recordBatch(updates.size(), applied, System.currentTimeMillis() - t0);
+        return applied;
+    }
+
+    private void recordBatch(int nUpdates, int nApplied, long msec) {
+        long before = appliedBlockCount;
+        batchCount += 1;
+        updateCount += nUpdates;
+        appliedBlockCount += nApplied;
+        lastBatchMsec = msec;
+        totalBatchMsec += msec;
+        if (msec > maxBatchMsec)
+            maxBatchMsec = msec;
+        if (appliedBlockCount / logFrequency > before / logFrequency) {
+            LOG.info("applied {} stoptime update blocks.", appliedBlockCount);
+        }
+        LOG.debug("applied {} of {} updates in {} msec", nApplied, nUpdates, msec);
+        store.setLong("stoptimeUpdater.batches", batchCount);
+        store.setLong("stoptimeUpdater.updates", updateCount);
+        store.setLong("stoptimeUpdater.appliedBlocks", appliedBlockCount);
+        store.setLong("stoptimeUpdater.lastBatchMsec", msec);
+        store.setLongMax("stoptimeUpdater.maxBatchMsec", msec);
+        store.setLong("stoptimeUpdater.updatesPerSecond", getUpdatesPerSecond());
+    }
+
+    public long getBatchCount() {
+        return batchCount;
+    }
+
+    public long getUpdateCount() {
+        return updateCount;
+    }
+
+    public long getAppliedBlockCount() {
+        return appliedBlockCount;
+    }
+
+    /** @return the time taken to apply the most recent batch, in milliseconds */
+    public long getLastBatchMsec() {
+        return lastBatchMsec;
+    }
+
+    public long getMaxBatchMsec() {
+        return maxBatchMsec;
+    }
+
+    /** @return the number of updates ingested per second of time spent applying batches */
+    public long getUpdatesPerSecond() {
+        long msec = totalBatchMsec;
+        return msec == 0 ? 0 : updateCount * 1000 / msec;
+    }
+
     public String toString() {
         String s = (updateStreamer == null) ? "NONE" : updateStreamer.toString();
         return "Streaming stoptime updater with update streamer = " + s;
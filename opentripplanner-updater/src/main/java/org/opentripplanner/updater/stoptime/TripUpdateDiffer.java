@@ -0,0 +1,92 @@
+package org.opentripplanner.updater.stoptime;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.transit.realtime.GtfsRealtime.FeedEntity;
+import com.google.transit.realtime.GtfsRealtime.FeedHeader;
+import com.google.transit.realtime.GtfsRealtime.FeedMessage;
+import com.google.transit.realtime.GtfsRealtime.TripDescriptor;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate;
+
+/**
+ * Remembers a fingerprint of the last TripUpdate seen for each trip, so that only the trip
+ * updates which changed since the previous message need to be converted and applied. Most
+ * entities of a full dataset feed are the same from one poll to the next.
+ *
+ * In a FULL_DATASET message, trips that are absent are forgotten, so that they are forwarded
+ * again if they reappear. In a DIFFERENTIAL message only the entities present are considered,
+ * and deleted entities are forgotten.
+ */
+public class TripUpdateDiffer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TripUpdateDiffer.class);
+
+    private final Map<String, Long> fingerprints = new HashMap<String, Long>();
+
+    private long lastTimestamp = -1;
+
+    /** @return the trip updates in the message which are new or differ from the last seen. */
+    public List<TripUpdate> changed(FeedMessage feed) {
+        FeedHeader header = feed.getHeader();
+        boolean full = header.getIncrementality() == FeedHeader.Incrementality.FULL_DATASET;
+        List<TripUpdate> changed = new ArrayList<TripUpdate>();
+        if (full && header.hasTimestamp() && header.getTimestamp() == lastTimestamp) {
+            LOG.debug("feed timestamp {} unchanged, skipping message", lastTimestamp);
+            return changed;
+        }
+        Set<String> seen = full ? new HashSet<String>() : null;
+        int nTripUpdates = 0;
+        for (FeedEntity entity : feed.getEntityList()) {
+            if ( ! entity.hasTripUpdate())
+                continue;
+            nTripUpdates += 1;
+            TripUpdate tripUpdate = entity.getTripUpdate();
+            String key = key(tripUpdate.getTrip());
+            if (entity.getIsDeleted()) {
+                fingerprints.remove(key);
+                continue;
+            }
+            if (full)
+                seen.add(key);
+            Long fingerprint = fingerprint(tripUpdate);
+            Long previous = fingerprints.put(key, fingerprint);
+            if ( ! fingerprint.equals(previous))
+                changed.add(tripUpdate);
+        }
+        if (full)
+            fingerprints.keySet().retainAll(seen);
+        if (header.hasTimestamp())
+            lastTimestamp = header.getTimestamp();
+        LOG.debug("{} of {} trip updates changed", changed.size(), nTripUpdates);
+        return changed;
+    }
+
+    /** Forget everything seen, so that the next message is forwarded in full. */
+    public void clear() {
+        fingerprints.clear();
+        lastTimestamp = -1;
+    }
+
+    private static String key(TripDescriptor trip) {
+        if (trip.hasStartDate())
+            return trip.getTripId() + '_' + trip.getStartDate();
+        return trip.getTripId();
+    }
+
+    /* 
+     * protobuf messages hash their content, including the event times of each stop, and the
+     * size makes collisions even less likely. This version of the TripUpdate has no timestamp.
+     */
+    private static Long fingerprint(TripUpdate tripUpdate) {
+        return ((long) tripUpdate.hashCode() << 32) | tripUpdate.getSerializedSize();
+    }
+
+}
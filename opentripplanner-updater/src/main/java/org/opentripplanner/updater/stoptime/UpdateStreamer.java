@@ -9,7 +9,8 @@ public interface UpdateStreamer {
     /**
      * Wait for one message to arrive, and decode it into an UpdateList. Blocking call. 
      * @return an UpdateList potentially containing updates for several different trips,
-     *         or null if an exception occurred while processing the message
+     *         or null if an exception occurred while processing the message. Streamers which
+     *         are interrupted while waiting return null with the interrupt status still set.
      */
     public List<Update> getUpdates();
     
@@ -0,0 +1,198 @@
+package org.opentripplanner.updater.bike_rental;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.routing.bike_rental.BikeRentalStation;
+import org.opentripplanner.routing.bike_rental.BikeRentalStationService;
+import org.opentripplanner.routing.edgetype.PlainStreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.impl.GraphServiceBeanImpl;
+import org.opentripplanner.routing.impl.GraphServiceImpl;
+import org.opentripplanner.routing.vertextype.BikeRentalStationVertex;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.routing.vertextype.StreetVertex;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+public class TestBikeRentalUpdater extends TestCase {
+
+    /** Serves whatever stations it was last given. */
+    private static class ListSource implements BikeRentalDataSource {
+
+        List<BikeRentalStation> stations = new ArrayList<BikeRentalStation>();
+
+        @Override
+        public boolean update() {
+            return true;
+        }
+
+        @Override
+        public List<BikeRentalStation> getStations() {
+            return stations;
+        }
+    }
+
+    private Graph graph;
+
+    private StreetVertex v1, v2;
+
+    private ListSource source;
+
+    private BikeRentalUpdater updater;
+
+    /** @return a graph of a single street, which stations are linked to. */
+    private static Graph streets() {
+        Graph graph = new Graph();
+        StreetVertex v1 = new IntersectionVertex(graph, "v1", new Coordinate(-77.0492, 38.856),
+                "v1");
+        StreetVertex v2 = new IntersectionVertex(graph, "v2", new Coordinate(-77.0492, 38.857),
+                "v2");
+        new PlainStreetEdge(v1, v2, GeometryUtils.makeLineString(-77.0492, 38.856, -77.0492,
+                38.857), "S. Crystal Dr", 111, StreetTraversalPermission.ALL, false);
+        return graph;
+    }
+
+    public void setUp() {
+        graph = streets();
+        v1 = (StreetVertex) graph.getVertex("v1");
+        v2 = (StreetVertex) graph.getVertex("v2");
+        source = new ListSource();
+        updater = new BikeRentalUpdater();
+        updater.setBikeRentalDataSource(source);
+        updater.setGraphService(new GraphServiceBeanImpl(graph));
+        updater.setRemoveAfterUpdates(2);
+        updater.setup();
+    }
+
+    private static BikeRentalStation station(String id, int bikes) {
+        BikeRentalStation station = new BikeRentalStation();
+        station.id = id;
+        station.name = id;
+        station.x = -77.0492;
+        station.y = 38.856;
+        station.bikesAvailable = bikes;
+        station.spacesAvailable = 10 - bikes;
+        return station;
+    }
+
+    private static BikeRentalStationVertex vertex(Graph graph, String id) {
+        return (BikeRentalStationVertex) graph.getVertex("bike rental station " + id);
+    }
+
+    private BikeRentalStationVertex vertex(String id) {
+        return vertex(graph, id);
+    }
+
+    /** @return whether all the graphs retired by the service have been garbage collected. */
+    private static boolean released(GraphServiceImpl graphService) throws InterruptedException {
+        for (int i = 0; i < 100 && graphService.getRetiredGraphCount() > 0; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        return graphService.getRetiredGraphCount() == 0;
+    }
+
+    public void testVanishedStationsAreRemoved() {
+        source.stations = Arrays.asList(station("a", 3), station("b", 4));
+        updater.run();
+        BikeRentalStationVertex a = vertex("a");
+        BikeRentalStationVertex b = vertex("b");
+        assertTrue(a.isInService());
+        assertEquals(4, b.getBikesAvailable());
+        assertFalse(b.getIncoming().isEmpty());
+        List<Edge> removedLinks = new ArrayList<Edge>(b.getIncoming());
+        int links = graph.getTemporaryEdges().size();
+
+        // a station missing from one update is only out of service
+        source.stations = Arrays.asList(station("a", 3));
+        updater.run();
+        assertSame(b, vertex("b"));
+        assertFalse(b.isInService());
+
+        // and is removed, with its links to the streets, once missing from enough of them
+        updater.run();
+        assertNull(vertex("b"));
+        assertFalse(b.isInService());
+        assertEquals(0, b.getBikesAvailable());
+        assertTrue(graph.getTemporaryEdges().size() < links);
+        for (StreetVertex v : Arrays.asList(v1, v2))
+            assertTrue(Collections.disjoint(v.getOutgoing(), removedLinks));
+        assertSame(a, vertex("a"));
+        assertEquals(3, a.getBikesAvailable());
+
+        // its index is reused by the next new station, without reviving the removed vertex
+        source.stations = Arrays.asList(station("a", 3), station("c", 7));
+        updater.run();
+        BikeRentalStationVertex c = vertex("c");
+        assertEquals(-1, b.getAvailabilityIndex());
+        assertEquals(1, c.getAvailabilityIndex());
+        assertEquals(7, c.getBikesAvailable());
+        assertFalse(b.isInService());
+
+        // a station which comes back is linked again
+        source.stations = Arrays.asList(station("a", 3), station("b", 1), station("c", 7));
+        updater.run();
+        assertNotSame(b, vertex("b"));
+        assertEquals(1, vertex("b").getBikesAvailable());
+        assertEquals(2, vertex("b").getAvailabilityIndex());
+    }
+
+    public void testReappearingStationIsKept() {
+        source.stations = Arrays.asList(station("a", 3));
+        updater.run();
+        BikeRentalStationVertex a = vertex("a");
+        // absences only count when they are in a row
+        for (int i = 0; i < 3; i++) {
+            source.stations = new ArrayList<BikeRentalStation>();
+            updater.run();
+            source.stations = Arrays.asList(station("a", i));
+            updater.run();
+            assertSame(a, vertex("a"));
+            assertEquals(i, a.getBikesAvailable());
+        }
+    }
+
+    public void testGraphSwap() throws Exception {
+        GraphServiceImpl graphService = new GraphServiceImpl();
+        Graph first = streets();
+        graphService.registerGraph("", first);
+        BikeRentalUpdater updater = new BikeRentalUpdater();
+        updater.setBikeRentalDataSource(source);
+        updater.setGraphService(graphService);
+        updater.setup();
+        source.stations = Arrays.asList(station("a", 3));
+        updater.run();
+        assertEquals(3, vertex(first, "a").getBikesAvailable());
+
+        // the stations are linked into the new graph by the time it is registered
+        Graph second = streets();
+        graphService.registerGraph("", second);
+        BikeRentalStationVertex a = vertex(second, "a");
+        assertTrue(a.isInService());
+        assertEquals(3, a.getBikesAvailable());
+        assertEquals(1, second.getService(BikeRentalStationService.class).getStations().size());
+        source.stations = Arrays.asList(station("a", 5));
+        updater.run();
+        assertEquals(5, a.getBikesAvailable());
+
+        // and nothing holds on to the old graph once it is replaced
+        first = null;
+        assertTrue(released(graphService));
+        graphService.evictGraph("");
+        second = null;
+        a = null;
+        assertTrue(released(graphService));
+        // nor is anything updated without a graph
+        updater.run();
+        updater.teardown();
+    }
+
+}
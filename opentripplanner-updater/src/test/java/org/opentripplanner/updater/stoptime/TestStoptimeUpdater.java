@@ -0,0 +1,107 @@
+package org.opentripplanner.updater.stoptime;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.impl.GraphServiceImpl;
+import org.opentripplanner.routing.services.GraphRegistrationListener;
+import org.opentripplanner.routing.trippattern.Update;
+
+public class TestStoptimeUpdater extends TestCase {
+
+    /** The updater thread stops when its streamer is interrupted, rather than polling again. */
+    public void testInterruptedStreamer() throws Exception {
+        final int[] calls = new int[1];
+        StoptimeUpdater updater = new StoptimeUpdater();
+        updater.setUpdateStreamer(new UpdateStreamer() {
+            @Override
+            public List<Update> getUpdates() {
+                calls[0] += 1;
+                // as a streamer does when interrupted while waiting
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        });
+        Thread thread = new Thread(updater);
+        thread.start();
+        thread.join(5000);
+        assertFalse(thread.isAlive());
+        assertEquals(1, calls[0]);
+    }
+
+    /** Null messages from a streamer which was not interrupted are skipped. */
+    public void testNullMessage() throws Exception {
+        final int[] calls = new int[1];
+        StoptimeUpdater updater = new StoptimeUpdater();
+        updater.setUpdateStreamer(new UpdateStreamer() {
+            @Override
+            public List<Update> getUpdates() {
+                calls[0] += 1;
+                if (calls[0] == 3)
+                    Thread.currentThread().interrupt();
+                return null;
+            }
+        });
+        Thread thread = new Thread(updater);
+        thread.start();
+        thread.join(5000);
+        assertFalse(thread.isAlive());
+        assertEquals(3, calls[0]);
+    }
+
+    /** @return whether all the graphs retired by the service have been garbage collected. */
+    private static boolean released(GraphServiceImpl graphService) throws InterruptedException {
+        for (int i = 0; i < 100 && graphService.getRetiredGraphCount() > 0; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        return graphService.getRetiredGraphCount() == 0;
+    }
+
+    /** The updater follows the default graph, and is bound to a new one before it is served. */
+    public void testGraphSwap() throws Exception {
+        final GraphServiceImpl graphService = new GraphServiceImpl();
+        Graph first = new Graph();
+        graphService.registerGraph("", first);
+        final StoptimeUpdater updater = new StoptimeUpdater();
+        updater.setGraphService(graphService);
+        updater.setThreadCount(1);
+        updater.setup();
+        assertSame(updater, first.timetableSnapshotSource);
+        final boolean[] bound = new boolean[1];
+        graphService.addGraphRegistrationListener(null, new GraphRegistrationListener() {
+            @Override
+            public void onGraphRegistered(String routerId, Graph graph) {
+                bound[0] = graph.timetableSnapshotSource == updater
+                        && graphService.getGraph() != graph;
+            }
+
+            @Override
+            public void onGraphEvicted(String routerId, Graph graph) {
+            }
+        });
+
+        Graph second = new Graph();
+        graphService.registerGraph("", second);
+        assertTrue(bound[0]);
+        assertSame(updater, second.timetableSnapshotSource);
+        // requests still running on the old graph no longer see the realtime timetables
+        assertNull(first.timetableSnapshotSource);
+        first = null;
+        assertTrue(released(graphService));
+
+        // a graph for another router is left alone
+        Graph other = new Graph();
+        graphService.registerGraph("other", other);
+        assertNull(other.timetableSnapshotSource);
+
+        graphService.evictGraph("");
+        assertNull(second.timetableSnapshotSource);
+        second = null;
+        assertTrue(released(graphService));
+        updater.shutdown();
+    }
+
+}
@@ -0,0 +1,111 @@
+package org.opentripplanner.updater.stoptime;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.google.transit.realtime.GtfsRealtime.FeedEntity;
+import com.google.transit.realtime.GtfsRealtime.FeedHeader;
+import com.google.transit.realtime.GtfsRealtime.FeedHeader.Incrementality;
+import com.google.transit.realtime.GtfsRealtime.FeedMessage;
+import com.google.transit.realtime.GtfsRealtime.TripDescriptor;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate.StopTimeEvent;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate.StopTimeUpdate;
+
+public class TestTripUpdateDiffer extends TestCase {
+
+    private TripUpdateDiffer differ = new TripUpdateDiffer();
+
+    /** @return an entity predicting the arrival of a trip at one stop at the given time. */
+    private static FeedEntity entity(String tripId, String startDate, long arrival) {
+        TripDescriptor.Builder trip = TripDescriptor.newBuilder().setTripId(tripId);
+        if (startDate != null)
+            trip.setStartDate(startDate);
+        StopTimeUpdate stopTime = StopTimeUpdate.newBuilder()
+                .setStopId("A")
+                .setStopSequence(1)
+                .setArrival(StopTimeEvent.newBuilder().setTime(arrival))
+                .build();
+        TripUpdate tripUpdate = TripUpdate.newBuilder()
+                .setTrip(trip)
+                .addStopTimeUpdate(stopTime)
+                .build();
+        return FeedEntity.newBuilder().setId(tripId).setTripUpdate(tripUpdate).build();
+    }
+
+    private static FeedEntity deleted(String tripId) {
+        return FeedEntity.newBuilder(entity(tripId, null, 0)).setIsDeleted(true).build();
+    }
+
+    private static FeedMessage feed(Incrementality incrementality, long timestamp,
+            FeedEntity... entities) {
+        FeedHeader.Builder header = FeedHeader.newBuilder()
+                .setGtfsRealtimeVersion("1.0")
+                .setIncrementality(incrementality);
+        if (timestamp >= 0)
+            header.setTimestamp(timestamp);
+        FeedMessage.Builder feed = FeedMessage.newBuilder().setHeader(header);
+        for (FeedEntity entity : entities)
+            feed.addEntity(entity);
+        return feed.build();
+    }
+
+    private static void assertTrips(List<TripUpdate> changed, String... tripIds) {
+        assertEquals(tripIds.length, changed.size());
+        for (int i = 0; i < tripIds.length; i++)
+            assertEquals(tripIds[i], changed.get(i).getTrip().getTripId());
+    }
+
+    public void testFullDataset() {
+        Incrementality full = Incrementality.FULL_DATASET;
+        assertTrips(differ.changed(feed(full, 1, entity("t1", null, 100), entity("t2", null, 200))),
+                "t1", "t2");
+        // only the changed trip is forwarded
+        assertTrips(differ.changed(feed(full, 2, entity("t1", null, 100), entity("t2", null, 260))),
+                "t2");
+        // t1 is absent, so it is forgotten and forwarded again when it comes back
+        assertTrips(differ.changed(feed(full, 3, entity("t2", null, 260))));
+        assertTrips(differ.changed(feed(full, 4, entity("t1", null, 100), entity("t2", null, 260))),
+                "t1");
+    }
+
+    public void testRepeatedTimestamp() {
+        Incrementality full = Incrementality.FULL_DATASET;
+        assertTrips(differ.changed(feed(full, 10, entity("t1", null, 100))), "t1");
+        // a message with the same header timestamp is skipped whatever its content
+        assertTrips(differ.changed(feed(full, 10, entity("t1", null, 160))));
+        assertTrips(differ.changed(feed(full, 11, entity("t1", null, 160))), "t1");
+        // without timestamps, the contents are compared
+        assertTrips(differ.changed(feed(full, -1, entity("t1", null, 160))));
+        assertTrips(differ.changed(feed(full, -1, entity("t1", null, 220))), "t1");
+    }
+
+    public void testDifferential() {
+        Incrementality differential = Incrementality.DIFFERENTIAL;
+        assertTrips(differ.changed(feed(differential, 1, entity("t1", null, 100),
+                entity("t2", null, 200))), "t1", "t2");
+        // absent trips are kept, so t1 is unchanged when it is repeated
+        assertTrips(differ.changed(feed(differential, 2, entity("t2", null, 260))), "t2");
+        assertTrips(differ.changed(feed(differential, 3, entity("t1", null, 100))));
+        // a deleted trip is forgotten
+        assertTrips(differ.changed(feed(differential, 4, deleted("t1"))));
+        assertTrips(differ.changed(feed(differential, 5, entity("t1", null, 100))), "t1");
+    }
+
+    public void testStartDates() {
+        Incrementality differential = Incrementality.DIFFERENTIAL;
+        // the same trip on two days is two different trips
+        assertTrips(differ.changed(feed(differential, 1, entity("t1", "20130101", 100),
+                entity("t1", "20130102", 100))), "t1", "t1");
+        assertTrips(differ.changed(feed(differential, 2, entity("t1", "20130102", 100))));
+    }
+
+    public void testClear() {
+        Incrementality full = Incrementality.FULL_DATASET;
+        differ.changed(feed(full, 1, entity("t1", null, 100)));
+        differ.clear();
+        assertTrips(differ.changed(feed(full, 1, entity("t1", null, 100))), "t1");
+    }
+
+}
@@ -0,0 +1,82 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.util;
+
+import org.opentripplanner.util.model.EncodedPolylineBean;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+/**
+ * Accumulates an encoded polyline from PolylineFragments and single points. Appending a 
+ * fragment only encodes the step from the current end of the line to the start of the fragment,
+ * then copies the fragment's encoded characters. As when concatenating coordinate sequences, 
+ * a fragment starting exactly where the line ends does not repeat that point; one starting at
+ * a point which only rounds to the same 1e-5 degrees does.
+ */
+public class PolylineBuilder {
+
+    private final StringBuilder points = new StringBuilder();
+
+    private int lastLat;
+
+    private int lastLon;
+
+    /* the exact end of the line, in degrees */
+    private double lastX, lastY;
+
+    private int length = 0;
+
+    public void append(PolylineFragment fragment) {
+        if (fragment == null)
+            return;
+        if (length == 0 || fragment.firstX != lastX || fragment.firstY != lastY) {
+            appendPoint(fragment.firstLat, fragment.firstLon);
+        }
+        points.append(fragment.deltas);
+        length += fragment.length - 1;
+        lastLat = fragment.lastLat;
+        lastLon = fragment.lastLon;
+        lastX = fragment.lastX;
+        lastY = fragment.lastY;
+    }
+
+    public void append(Coordinate coordinate) {
+        appendPoint(PolylineEncoder.floor1e5(coordinate.y), PolylineEncoder.floor1e5(coordinate.x));
+        lastX = coordinate.x;
+        lastY = coordinate.y;
+    }
+
+    private void appendPoint(int late5, int lnge5) {
+        // the first point is encoded as a delta from zero
+        PolylineEncoder.appendSignedNumber(points, late5 - (length == 0 ? 0 : lastLat));
+        PolylineEncoder.appendSignedNumber(points, lnge5 - (length == 0 ? 0 : lastLon));
+        lastLat = late5;
+        lastLon = lnge5;
+        length += 1;
+    }
+
+    public int size() {
+        return length;
+    }
+
+    public void clear() {
+        points.setLength(0);
+        length = 0;
+    }
+
+    public EncodedPolylineBean toEncodedPolyline() {
+        return new EncodedPolylineBean(points.toString(), null, length);
+    }
+
+}
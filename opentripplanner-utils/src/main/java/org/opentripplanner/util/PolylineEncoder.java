@@ -84,7 +84,8 @@ public class PolylineEncoder {
             plat = late5;
             plng = lnge5;
 
-            encodedPoints.append(encodeSignedNumber(dlat)).append(encodeSignedNumber(dlng));
+            appendSignedNumber(encodedPoints, dlat);
+            appendSignedNumber(encodedPoints, dlng);
             if (level >= 0)
                 encodedLevels.append(encodeNumber(level));
             count++;
@@ -125,7 +126,7 @@ public class PolylineEncoder {
      * Private Methods
      ****************************************************************************/
 
-    private static final int floor1e5(double coordinate) {
+    static final int floor1e5(double coordinate) {
         return (int) Math.floor(coordinate * 1e5);
     }
 
@@ -137,6 +138,19 @@ public class PolylineEncoder {
         return (encodeNumber(sgn_num));
     }
 
+    /** Append the encoding of num to sb, without making intermediate strings. */
+    public static void appendSignedNumber(StringBuilder sb, int num) {
+        int sgn_num = num << 1;
+        if (num < 0) {
+            sgn_num = ~(sgn_num);
+        }
+        while (sgn_num >= 0x20) {
+            sb.append((char) ((0x20 | (sgn_num & 0x1f)) + 63));
+            sgn_num >>= 5;
+        }
+        sb.append((char) (sgn_num + 63));
+    }
+
     public static int decodeSignedNumber(String value) {
         int[] r = decodeSignedNumberWithIndex(value, 0);
         return r[0];
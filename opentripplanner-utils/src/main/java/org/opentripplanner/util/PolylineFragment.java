@@ -0,0 +1,89 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.util;
+
+import java.io.Serializable;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+/**
+ * A piece of an encoded polyline which can be appended to another without decoding or 
+ * re-encoding its points, used to keep the encoding of each edge's geometry alongside the edge.
+ * The first point is kept as integer 1e5 degrees, since its encoding depends on the point before 
+ * it; the rest are kept as the encoded deltas from one point to the next. The exact coordinates 
+ * of both ends are kept too, to recognize a fragment starting where the previous one ends.
+ * 
+ * @see PolylineBuilder
+ */
+public class PolylineFragment implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    final int firstLat;
+
+    final int firstLon;
+
+    final int lastLat;
+
+    final int lastLon;
+
+    /* the exact ends, in degrees */
+    final double firstX, firstY, lastX, lastY;
+
+    /** the encoded deltas from the first point to the second, the second to the third... */
+    final String deltas;
+
+    /** the number of points, including the first */
+    final int length;
+
+    private PolylineFragment(int firstLat, int firstLon, int lastLat, int lastLon, 
+            Coordinate first, Coordinate last, String deltas, int length) {
+        this.firstLat = firstLat;
+        this.firstLon = firstLon;
+        this.lastLat = lastLat;
+        this.lastLon = lastLon;
+        this.firstX = first.x;
+        this.firstY = first.y;
+        this.lastX = last.x;
+        this.lastY = last.y;
+        this.deltas = deltas;
+        this.length = length;
+    }
+
+    /** @return the fragment for the given coordinates, or null if there are none. */
+    public static PolylineFragment fromCoordinates(Coordinate[] coordinates) {
+        if (coordinates == null || coordinates.length == 0)
+            return null;
+        int plat = PolylineEncoder.floor1e5(coordinates[0].y);
+        int plng = PolylineEncoder.floor1e5(coordinates[0].x);
+        int firstLat = plat;
+        int firstLon = plng;
+        StringBuilder sb = new StringBuilder(coordinates.length * 6);
+        for (int i = 1; i < coordinates.length; i++) {
+            int late5 = PolylineEncoder.floor1e5(coordinates[i].y);
+            int lnge5 = PolylineEncoder.floor1e5(coordinates[i].x);
+            PolylineEncoder.appendSignedNumber(sb, late5 - plat);
+            PolylineEncoder.appendSignedNumber(sb, lnge5 - plng);
+            plat = late5;
+            plng = lnge5;
+        }
+        return new PolylineFragment(firstLat, firstLon, plat, plng, coordinates[0], 
+                coordinates[coordinates.length - 1], sb.toString(), coordinates.length);
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+}
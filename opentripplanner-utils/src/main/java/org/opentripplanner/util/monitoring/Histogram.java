@@ -0,0 +1,90 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.util.monitoring;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread-safe histogram of durations with fixed bucket bounds, which can be written out in the
+ * Prometheus text exposition format. Observing a value costs a short scan of the bounds and two
+ * atomic additions.
+ */
+public class Histogram {
+
+    /** Bucket upper bounds in seconds, suited to request and search times. */
+    public static final double[] DEFAULT_BOUNDS = { 0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25,
+            0.5, 1, 2.5, 5, 10, 30 };
+
+    private final double[] bounds;
+
+    private final long[] boundNanos;
+
+    /* one count per bound plus one for values above the last */
+    private final AtomicLongArray counts;
+
+    private final AtomicLong sumNanos = new AtomicLong();
+
+    public Histogram() {
+        this(DEFAULT_BOUNDS);
+    }
+
+    /** @param bounds the upper bounds of the buckets in seconds, in increasing order */
+    public Histogram(double[] bounds) {
+        this.bounds = bounds.clone();
+        this.boundNanos = new long[bounds.length];
+        for (int i = 0; i < bounds.length; i++)
+            boundNanos[i] = (long) (bounds[i] * 1e9);
+        this.counts = new AtomicLongArray(bounds.length + 1);
+    }
+
+    public void observeNanos(long nanos) {
+        int i = 0;
+        while (i < boundNanos.length && nanos > boundNanos[i])
+            i++;
+        counts.incrementAndGet(i);
+        sumNanos.addAndGet(nanos);
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < counts.length(); i++)
+            count += counts.get(i);
+        return count;
+    }
+
+    /**
+     * Append the cumulative buckets, sum and count of this histogram.
+     * @param name the metric name, without the _bucket, _sum or _count suffix
+     * @param labels label pairs to put before the bucket bound, e.g. phase="search", or null
+     */
+    public void writePrometheus(StringBuilder sb, String name, String labels) {
+        String prefix = labels == null || labels.isEmpty() ? "" : labels + ",";
+        long cumulative = 0;
+        for (int i = 0; i < bounds.length; i++) {
+            cumulative += counts.get(i);
+            sb.append(name).append("_bucket{").append(prefix).append("le=\"").append(bounds[i])
+                    .append("\"} ").append(cumulative).append('\n');
+        }
+        cumulative += counts.get(bounds.length);
+        sb.append(name).append("_bucket{").append(prefix).append("le=\"+Inf\"} ")
+                .append(cumulative).append('\n');
+        String braces = labels == null || labels.isEmpty() ? "" : "{" + labels + "}";
+        sb.append(name).append("_sum").append(braces).append(' ')
+                .append(sumNanos.get() / 1e9).append('\n');
+        sb.append(name).append("_count").append(braces).append(' ').append(cumulative)
+                .append('\n');
+    }
+
+}
@@ -13,9 +13,13 @@
 
 package org.opentripplanner.util.monitoring;
 
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.opentripplanner.util.MapUtils;
 
@@ -26,6 +30,8 @@ import org.opentripplanner.util.MapUtils;
  * tracking max values as well as a list of notes.  The use pattern, when monitoring is expensive,
  * is to check isMonitoring before computing anything.
  * 
+ * The store is shared by all request threads, so its maps are concurrent.
+ * 
  * TODO: allow registering special case monitoring for complex cases like long queries.
  * 
  * @author novalis
@@ -33,19 +39,20 @@ import org.opentripplanner.util.MapUtils;
  */
 public class MonitoringStore {
 
-    private HashSet<String> monitoring = new HashSet<String>();
+    private Set<String> monitoring = Collections.newSetFromMap(
+            new ConcurrentHashMap<String, Boolean>());
 
-    private HashMap<String, Long> longs = new HashMap<String, Long>();
+    private Map<String, Long> longs = new ConcurrentHashMap<String, Long>();
 
-    private HashMap<String, List<String>> notes = new HashMap<String, List<String>>();
+    private Map<String, List<String>> notes = new HashMap<String, List<String>>();
 
-    public void addNote(String k, String v) {
+    public synchronized void addNote(String k, String v) {
         if (!monitoring.contains(k))
             return;
         MapUtils.addToMapList(notes, k, v);
     }
 
-    public void clearNotes(String k) {
+    public synchronized void clearNotes(String k) {
         notes.remove(k);
     }
 
@@ -53,7 +60,24 @@ public class MonitoringStore {
         return longs.get(k);
     }
 
-    public List<String> getNotes(String k) {
+    /** @return a copy of all the longs stored, ordered by key. */
+    public Map<String, Long> getLongs() {
+        return new TreeMap<String, Long>(longs);
+    }
+
+    /**
+     * Write all the longs stored as gauges in the Prometheus text exposition format, named by
+     * their keys after the prefix, with any characters Prometheus does not allow replaced by _.
+     */
+    public void writePrometheus(StringBuilder sb, String prefix) {
+        for (Map.Entry<String, Long> entry : getLongs().entrySet()) {
+            String name = (prefix + entry.getKey()).replaceAll("[^a-zA-Z0-9_:]", "_");
+            sb.append("# TYPE ").append(name).append(" gauge\n");
+            sb.append(name).append(' ').append(entry.getValue()).append('\n');
+        }
+    }
+
+    public synchronized List<String> getNotes(String k) {
         return notes.get(k);
     }
 
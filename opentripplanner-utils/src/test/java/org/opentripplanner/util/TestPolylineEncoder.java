@@ -35,4 +35,46 @@ public class TestPolylineEncoder extends TestCase {
         assertEquals(3, eplb.getLength());
         assertNull(eplb.getLevels());
     }
+
+    public void testFragmentsConcatenate() {
+        Coordinate[] a = new Coordinate[] { new Coordinate(-73.85062, 40.903125),
+                new Coordinate(-73.85136, 40.902261) };
+        Coordinate[] b = new Coordinate[] { new Coordinate(-73.85136, 40.902261),
+                new Coordinate(-73.85151, 40.902066), new Coordinate(-73.85201, 40.901566) };
+        Coordinate c = new Coordinate(-73.86, 40.9);
+        List<Coordinate> points = new ArrayList<Coordinate>();
+        points.add(a[0]);
+        points.add(a[1]);
+        points.add(b[1]);
+        points.add(b[2]);
+        points.add(c);
+        PolylineBuilder builder = new PolylineBuilder();
+        builder.append(PolylineFragment.fromCoordinates(a));
+        // shares its first point with the end of a
+        builder.append(PolylineFragment.fromCoordinates(b));
+        builder.append(c);
+        EncodedPolylineBean expected = PolylineEncoder.createEncodings(points);
+        EncodedPolylineBean eplb = builder.toEncodedPolyline();
+        assertEquals(expected.getPoints(), eplb.getPoints());
+        assertEquals(5, eplb.getLength());
+    }
+
+    public void testNearbyFragmentEndsAreKept() {
+        Coordinate[] a = new Coordinate[] { new Coordinate(-73.85062, 40.903125),
+                new Coordinate(-73.851361, 40.902261) };
+        // starts within the same 1e-5 degrees as the end of a, but not at the same point
+        Coordinate[] b = new Coordinate[] { new Coordinate(-73.851362, 40.902261),
+                new Coordinate(-73.85151, 40.902066) };
+        List<Coordinate> points = new ArrayList<Coordinate>();
+        points.add(a[0]);
+        points.add(a[1]);
+        points.add(b[0]);
+        points.add(b[1]);
+        PolylineBuilder builder = new PolylineBuilder();
+        builder.append(PolylineFragment.fromCoordinates(a));
+        builder.append(PolylineFragment.fromCoordinates(b));
+        EncodedPolylineBean eplb = builder.toEncodedPolyline();
+        assertEquals(PolylineEncoder.createEncodings(points).getPoints(), eplb.getPoints());
+        assertEquals(4, eplb.getLength());
+    }
 }
@@ -0,0 +1,37 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.util.monitoring;
+
+import junit.framework.TestCase;
+
+public class TestHistogram extends TestCase {
+
+    public void testPrometheus() {
+        Histogram histogram = new Histogram(new double[] { 0.1, 1 });
+        histogram.observeNanos(50000000L);
+        histogram.observeNanos(100000000L);
+        histogram.observeNanos(500000000L);
+        histogram.observeNanos(2000000000L);
+        assertEquals(4, histogram.getCount());
+        StringBuilder sb = new StringBuilder();
+        histogram.writePrometheus(sb, "t_seconds", "phase=\"search\"");
+        String expected = "t_seconds_bucket{phase=\"search\",le=\"0.1\"} 2\n"
+                + "t_seconds_bucket{phase=\"search\",le=\"1.0\"} 3\n"
+                + "t_seconds_bucket{phase=\"search\",le=\"+Inf\"} 4\n"
+                + "t_seconds_sum{phase=\"search\"} 2.65\n"
+                + "t_seconds_count{phase=\"search\"} 4\n";
+        assertEquals(expected, sb.toString());
+    }
+
+}
@@ -0,0 +1,46 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.util.monitoring;
+
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class TestMonitoringStore extends TestCase {
+
+    public void testPrometheus() {
+        MonitoringStore store = new MonitoringStore();
+        store.monitor("planCache.hits");
+        store.monitor("admission.my-router.queued");
+        store.setLong("planCache.hits", 12);
+        store.setLong("admission.my-router.queued", 3);
+        // keys nobody monitors are not kept, so not exported
+        store.setLong("planCache.misses", 5);
+        Map<String, Long> longs = store.getLongs();
+        assertEquals(2, longs.size());
+        assertEquals(Long.valueOf(12), longs.get("planCache.hits"));
+        // the map is a copy
+        longs.clear();
+        assertEquals(Long.valueOf(3), store.getLong("admission.my-router.queued"));
+
+        StringBuilder sb = new StringBuilder();
+        store.writePrometheus(sb, "otp_");
+        String expected = "# TYPE otp_admission_my_router_queued gauge\n"
+                + "otp_admission_my_router_queued 3\n"
+                + "# TYPE otp_planCache_hits gauge\n"
+                + "otp_planCache_hits 12\n";
+        assertEquals(expected, sb.toString());
+    }
+
+}
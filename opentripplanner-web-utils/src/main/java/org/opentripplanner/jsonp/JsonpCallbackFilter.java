@@ -37,13 +37,52 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.opentripplanner.jsonp.GenericResponseWrapper;
 
+/**
+ * Wraps JSON responses in the function named by the callback request parameter. By default the
+ * wrapping is done as the response is written (see StreamingJsonpResponseWrapper), so that large 
+ * responses are neither held in memory nor delayed; setting streaming to false restores the old 
+ * behavior of buffering the whole body and copying it out afterward.
+ * 
+ * Whether or not the response is wrapped, a failure to write it is reported to the 
+ * WriteFailureListener found in the request attributes, if any.
+ */
 public class JsonpCallbackFilter implements Filter {
 
     private static Log log = LogFactory.getLog(JsonpCallbackFilter.class);
 
+    private boolean streaming = true;
+
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
     public void init(FilterConfig fConfig) throws ServletException {}
 
     public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+        try {
+            wrap(request, response, chain);
+        } catch (IOException e) {
+            writeFailed(request, e);
+            throw e;
+        } catch (RuntimeException e) {
+            // the JAX-RS runtime wraps the exceptions of the entity writers
+            if (e.getCause() instanceof IOException)
+                writeFailed(request, (IOException) e.getCause());
+            throw e;
+        }
+    }
+
+    /** Tell the servlet the response could not be written, so it can stop working on it. */
+    private void writeFailed(ServletRequest request, IOException e) {
+        WriteFailureListener listener = 
+                (WriteFailureListener) request.getAttribute(WriteFailureListener.ATTRIBUTE);
+        if (listener != null) {
+            log.debug("Response could not be written: " + e.getMessage());
+            listener.writeFailed(e);
+        }
+    }
+
+    private void wrap(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
         HttpServletRequest httpRequest = (HttpServletRequest) request;
         HttpServletResponse httpResponse = (HttpServletResponse) response;
 
@@ -54,6 +93,14 @@ public class JsonpCallbackFilter implements Filter {
             if(log.isDebugEnabled())
                 log.debug("Wrapping response with JSONP callback '" + parms.get("callback")[0] + "'");
 
+            if (streaming) {
+                StreamingJsonpResponseWrapper wrapper = 
+                        new StreamingJsonpResponseWrapper(httpResponse, parms.get("callback")[0]);
+                chain.doFilter(request, wrapper);
+                wrapper.finish();
+                return;
+            }
+
             OutputStream out = httpResponse.getOutputStream();
 
             GenericResponseWrapper wrapper = new GenericResponseWrapper(httpResponse);
@@ -0,0 +1,152 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.jsonp;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Wraps a response in a JSONP callback as it is written, rather than buffering the whole body.
+ * The callback prefix is written to the real output stream just before the first byte of the 
+ * body, everything the servlet writes is passed straight through, and the suffix is appended 
+ * by finish(). The content length set by the servlet would not count the callback, so it is 
+ * dropped and the response is sent chunked.
+ */
+public class StreamingJsonpResponseWrapper extends HttpServletResponseWrapper {
+
+    private static final String CONTENT_TYPE = "text/javascript;charset=UTF-8";
+
+    private final byte[] prefix;
+
+    private final byte[] suffix;
+
+    private ServletOutputStream out;
+
+    private PrintWriter writer;
+
+    private boolean started = false;
+
+    public StreamingJsonpResponseWrapper(HttpServletResponse response, String callback) 
+            throws IOException {
+        super(response);
+        this.prefix = (callback + "(").getBytes("UTF-8");
+        this.suffix = ");".getBytes("UTF-8");
+        super.setContentType(CONTENT_TYPE);
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        if (writer != null)
+            throw new IllegalStateException("getWriter() has already been called");
+        return stream();
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        if (writer == null) {
+            if (out != null)
+                throw new IllegalStateException("getOutputStream() has already been called");
+            writer = new PrintWriter(new OutputStreamWriter(stream(), "UTF-8"));
+        }
+        return writer;
+    }
+
+    private ServletOutputStream stream() throws IOException {
+        if (out == null) {
+            final ServletOutputStream target = super.getOutputStream();
+            out = new ServletOutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    start();
+                    target.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    if (len == 0)
+                        return;
+                    start();
+                    target.write(b, off, len);
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    target.flush();
+                }
+            };
+        }
+        return out;
+    }
+
+    private void start() throws IOException {
+        if ( ! started) {
+            started = true;
+            super.getOutputStream().write(prefix);
+        }
+    }
+
+    /** The body is always JavaScript, whatever the servlet declares. */
+    @Override
+    public void setContentType(String type) {}
+
+    @Override
+    public void setContentLength(int length) {}
+
+    @Override
+    public void setHeader(String name, String value) {
+        if ( ! "Content-Length".equalsIgnoreCase(name))
+            super.setHeader(name, value);
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+        if ( ! "Content-Length".equalsIgnoreCase(name))
+            super.addHeader(name, value);
+    }
+
+    @Override
+    public void setIntHeader(String name, int value) {
+        if ( ! "Content-Length".equalsIgnoreCase(name))
+            super.setIntHeader(name, value);
+    }
+
+    @Override
+    public void addIntHeader(String name, int value) {
+        if ( ! "Content-Length".equalsIgnoreCase(name))
+            super.addIntHeader(name, value);
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+        if (writer != null)
+            writer.flush();
+        super.flushBuffer();
+    }
+
+    /** Write anything the servlet left in the writer, then close the callback. */
+    public void finish() throws IOException {
+        if (writer != null)
+            writer.flush();
+        ServletOutputStream target = super.getOutputStream();
+        start();
+        target.write(suffix);
+        target.flush();
+    }
+
+}
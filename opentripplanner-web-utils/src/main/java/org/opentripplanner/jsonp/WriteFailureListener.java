@@ -0,0 +1,29 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.jsonp;
+
+import java.io.IOException;
+
+/**
+ * Told by the JsonpCallbackFilter when writing a response fails, usually because the client has
+ * gone away, so that whatever is still being done for the response can be abandoned. A servlet
+ * registers one by storing it in the request attribute named ATTRIBUTE.
+ */
+public interface WriteFailureListener {
+
+    public static final String ATTRIBUTE = WriteFailureListener.class.getName();
+
+    public void writeFailed(IOException e);
+
+}